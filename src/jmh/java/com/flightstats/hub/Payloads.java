@@ -0,0 +1,64 @@
+package com.flightstats.hub;
+
+import java.util.Random;
+
+/**
+ * Deterministic payloads for the benchmarks, shaped like the items hub channels usually carry.
+ */
+public class Payloads {
+
+    private static final String[] AIRPORTS = {"PDX", "SEA", "SFO", "LAX", "ORD", "JFK", "ATL", "DEN"};
+    private static final String[] STATUSES = {"scheduled", "active", "landed", "diverted", "cancelled"};
+
+    /**
+     * @param shape json for JSON flight events, text for repetitive text, or random for incompressible bytes
+     */
+    public static byte[] create(String shape, int bytes) {
+        switch (shape) {
+            case "json":
+                return json(bytes);
+            case "text":
+                return text(bytes);
+            case "random":
+                return random(bytes);
+            default:
+                throw new IllegalArgumentException("unknown shape " + shape);
+        }
+    }
+
+    private static byte[] json(int bytes) {
+        Random random = new Random(bytes);
+        StringBuilder builder = new StringBuilder("[");
+        while (builder.length() < bytes) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append("{\"flightId\":").append(random.nextInt(1000000))
+                    .append(",\"carrier\":\"AS\",\"flightNumber\":\"").append(random.nextInt(9999))
+                    .append("\",\"departure\":\"").append(AIRPORTS[random.nextInt(AIRPORTS.length)])
+                    .append("\",\"arrival\":\"").append(AIRPORTS[random.nextInt(AIRPORTS.length)])
+                    .append("\",\"status\":\"").append(STATUSES[random.nextInt(STATUSES.length)])
+                    .append("\",\"updated\":\"2016-05-").append(10 + random.nextInt(20))
+                    .append("T").append(10 + random.nextInt(13)).append(":").append(10 + random.nextInt(49))
+                    .append(":00.000Z\",\"delayMinutes\":").append(random.nextInt(120)).append("}");
+        }
+        builder.append("]");
+        return builder.toString().getBytes();
+    }
+
+    private static byte[] text(int bytes) {
+        Random random = new Random(bytes);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < bytes) {
+            builder.append("flight ").append(AIRPORTS[random.nextInt(AIRPORTS.length)])
+                    .append(" is ").append(STATUSES[random.nextInt(STATUSES.length)]).append('\n');
+        }
+        return builder.toString().getBytes();
+    }
+
+    private static byte[] random(int bytes) {
+        byte[] data = new byte[bytes];
+        new Random(bytes).nextBytes(data);
+        return data;
+    }
+}
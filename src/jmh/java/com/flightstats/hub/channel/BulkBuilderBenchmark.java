@@ -0,0 +1,87 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.Payloads;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.net.URI;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures writing the zip and multipart bulk responses, with the items coming from a stubbed ChannelService.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkBuilderBenchmark {
+
+    @Param({"10", "100"})
+    private int items;
+
+    @Param({"1024", "16384"})
+    private int size;
+
+    private final SortedSet<ContentKey> keys = new TreeSet<>();
+    private ChannelService channelService;
+    private UriInfo uriInfo;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        byte[] data = Payloads.create("json", size);
+        ContentKey master = new ContentKey();
+        for (int i = 0; i < items; i++) {
+            keys.add(ContentKey.bulkKey(master, i));
+        }
+        channelService = mock(ChannelService.class);
+        doAnswer(invocation -> {
+            Consumer<Content> consumer = (Consumer<Content>) invocation.getArguments()[2];
+            for (ContentKey key : keys) {
+                consumer.accept(Content.builder()
+                        .withContentType("application/json")
+                        .withContentKey(key)
+                        .withData(data)
+                        .build());
+            }
+            return null;
+        }).when(channelService).get(anyString(), any(SortedSet.class), any(Consumer.class));
+        uriInfo = mock(UriInfo.class);
+        when(uriInfo.getBaseUri()).thenReturn(URI.create("http://hub/"));
+    }
+
+    @Benchmark
+    public long zip() throws IOException {
+        return write(ZipBulkBuilder.build(keys, "benchmark", channelService, builder -> {
+        }));
+    }
+
+    @Benchmark
+    public long multipart() throws IOException {
+        return write(MultiPartBulkBuilder.build(keys, "benchmark", channelService, uriInfo, builder -> {
+        }));
+    }
+
+    private long write(Response response) throws IOException {
+        CountingOutputStream output = new CountingOutputStream(new NullOutputStream());
+        ((StreamingOutput) response.getEntity()).write(output);
+        return output.getByteCount();
+    }
+}
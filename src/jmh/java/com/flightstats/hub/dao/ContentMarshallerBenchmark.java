@@ -0,0 +1,79 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.Payloads;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ContentCodecs on the payload shapes the hub stores.
+ * toBytes reports the bytes it reads and writes as the secondary results toBytes:inputBytes and
+ * toBytes:marshalledBytes, and the compression ratio is their quotient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentMarshallerBenchmark {
+
+    @Param({"ZIP", "NONE", "DEFLATE", "SNAPPY"})
+    private String codec;
+
+    @Param({"json", "text", "random"})
+    private String shape;
+
+    @Param({"1024", "65536"})
+    private int size;
+
+    private ContentCodec contentCodec;
+    private byte[] data;
+    private byte[] marshalled;
+    private ContentKey key;
+
+    @Setup
+    public void setUp() throws IOException {
+        contentCodec = ContentCodec.valueOf(codec);
+        data = Payloads.create(shape, size);
+        key = new ContentKey();
+        marshalled = ContentMarshaller.toBytes(content(), contentCodec);
+    }
+
+    private Content content() {
+        return Content.builder()
+                .withContentType("application/json")
+                .withContentKey(key)
+                .withData(data)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] toBytes(Sizes sizes) throws IOException {
+        byte[] bytes = ContentMarshaller.toBytes(content(), contentCodec);
+        sizes.inputBytes += data.length;
+        sizes.marshalledBytes += bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] toContent() throws IOException {
+        return ContentMarshaller.toContent(marshalled, key).getData();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Sizes {
+        public long inputBytes;
+        public long marshalledBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            inputBytes = 0;
+            marshalledBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.Payloads;
+import com.flightstats.hub.model.BulkContent;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiPartParserBenchmark {
+
+    @Param({"10", "100"})
+    private int items;
+
+    @Param({"1024", "16384"})
+    private int size;
+
+    private byte[] multipart;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] item = Payloads.create("json", size);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = 0; i < items; i++) {
+            baos.write("--frontier\r\nContent-Type: application/json\r\n\r\n".getBytes());
+            baos.write(item);
+            baos.write("\r\n".getBytes());
+        }
+        baos.write("--frontier--".getBytes());
+        multipart = baos.toByteArray();
+    }
+
+    private BulkContent bulkContent() {
+        return BulkContent.builder()
+                .stream(new ByteArrayInputStream(multipart))
+                .contentType("multipart/mixed; boundary=frontier")
+                .channel("benchmark")
+                .isNew(true)
+                .build();
+    }
+
+    @Benchmark
+    public BulkContent parse() throws IOException {
+        BulkContent bulkContent = bulkContent();
+        new MultiPartParser(bulkContent).parse();
+        return bulkContent;
+    }
+
+    @Benchmark
+    public BulkContent parseStreamed() throws IOException {
+        BulkContent bulkContent = bulkContent();
+        new MultiPartParser(bulkContent).parse(content -> {
+        });
+        return bulkContent;
+    }
+}
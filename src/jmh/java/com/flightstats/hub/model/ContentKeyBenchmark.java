@@ -0,0 +1,59 @@
+package com.flightstats.hub.model;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentKeyBenchmark {
+
+    private ContentKey key;
+    private ContentKey sameSecond;
+    private String url;
+    private String keyStrings;
+
+    @Setup
+    public void setUp() {
+        key = new ContentKey();
+        sameSecond = new ContentKey(key.getTime(), "zzzzzz");
+        url = key.toUrl();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) {
+                builder.append(",");
+            }
+            builder.append("channel/").append(ContentKey.bulkKey(key, i).toUrl());
+        }
+        keyStrings = builder.toString();
+    }
+
+    @Benchmark
+    public String toUrl() {
+        return key.toUrl();
+    }
+
+    @Benchmark
+    public void fromUrl(Blackhole blackhole) {
+        blackhole.consume(ContentKey.fromUrl(url));
+    }
+
+    @Benchmark
+    public int compareTo() {
+        return key.compareTo(sameSecond);
+    }
+
+    @Benchmark
+    public List<ContentKey> convertKeyStrings() {
+        List<ContentKey> keys = new ArrayList<>();
+        ContentKeyUtil.convertKeyStrings(keyStrings, keys);
+        return keys;
+    }
+}
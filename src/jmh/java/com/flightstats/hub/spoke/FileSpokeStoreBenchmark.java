@@ -0,0 +1,76 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.Payloads;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures FileSpokeStore on a temp directory, with and without the key index.
+ * Reads and keysInBucket run against a minute which is filled during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSpokeStoreBenchmark {
+
+    private static final String CHANNEL = "benchmark";
+
+    @Param({"false", "true"})
+    private boolean keyIndex;
+
+    @Param({"1024"})
+    private int size;
+
+    private File directory;
+    private FileSpokeStore spokeStore;
+    private byte[] payload;
+    private final List<String> paths = new ArrayList<>();
+    private String minutePath;
+
+    @Setup
+    public void setUp() {
+        directory = Files.createTempDir();
+        spokeStore = new FileSpokeStore(directory.getPath(), keyIndex);
+        payload = Payloads.create("json", size);
+        ContentKey master = new ContentKey();
+        for (int i = 0; i < 1000; i++) {
+            String path = CHANNEL + "/" + ContentKey.bulkKey(master, i).toUrl();
+            spokeStore.insert(path, payload);
+            paths.add(path);
+        }
+        minutePath = CHANNEL + "/" + TimeUtil.minutes(master.getTime());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public boolean insert() {
+        return spokeStore.insert(CHANNEL + "/" + new ContentKey().toUrl(), payload);
+    }
+
+    @Benchmark
+    public byte[] read() {
+        return spokeStore.read(paths.get(ThreadLocalRandom.current().nextInt(paths.size())));
+    }
+
+    @Benchmark
+    public Object keysInBucket() {
+        return spokeStore.keysInBucket(minutePath);
+    }
+}
@@ -28,7 +28,14 @@ public class AwsBindings extends AbstractModule {
     protected void configure() {
         logger.info("starting server {} ", HubHost.getLocalName());
         bind(SpokeTtlEnforcer.class).asEagerSingleton();
-        bind(FileSpokeStore.class).asEagerSingleton();
+        if (HubProperties.getProperty("spoke.store", "file").equals("segment")) {
+            bind(SpokeStore.class).to(SegmentSpokeStore.class).asEagerSingleton();
+        } else {
+            bind(SpokeStore.class).to(FileSpokeStore.class).asEagerSingleton();
+        }
+        if (SpokeProtocol.isEnabled()) {
+            bind(SpokeProtocolServer.class).asEagerSingleton();
+        }
         bind(SpokeClusterRegister.class).asEagerSingleton();
         bind(FinalCheck.class).to(SpokeFinalCheck.class).asEagerSingleton();
         bind(ChannelService.class).to(GlobalChannelService.class).asEagerSingleton();
@@ -48,6 +55,7 @@ public class AwsBindings extends AbstractModule {
         bind(DynamoUtils.class).asEagerSingleton();
         bind(S3BatchManager.class).asEagerSingleton();
         bind(S3Verifier.class).asEagerSingleton();
+        bind(S3RollupCompactor.class).asEagerSingleton();
     }
 
     static String packages() {
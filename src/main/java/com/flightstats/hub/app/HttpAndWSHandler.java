@@ -1,6 +1,7 @@
 package com.flightstats.hub.app;
 
 import com.flightstats.hub.filter.DataDogRequestFilter;
+import com.flightstats.hub.spoke.SpokePayloadHandler;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.HandlerCollection;
@@ -18,6 +19,7 @@ class HttpAndWSHandler extends HandlerCollection {
 
     private Handler httpHandler;
     private Handler wsHandler;
+    private Handler spokePayloadHandler;
 
     void addHttpHandler(Handler httpHandler) {
         this.httpHandler = httpHandler;
@@ -29,12 +31,19 @@ class HttpAndWSHandler extends HandlerCollection {
         addHandler(wsHandler);
     }
 
+    void addSpokePayloadHandler(Handler spokePayloadHandler) {
+        this.spokePayloadHandler = spokePayloadHandler;
+        addHandler(spokePayloadHandler);
+    }
+
     @Override
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
             throws IOException, ServletException {
         if (isStarted()) {
             if (baseRequest.getHttpFields().contains("Upgrade", "websocket")) {
                 wsHandler.handle(target, baseRequest, request, response);
+            } else if (spokePayloadHandler != null && SpokePayloadHandler.handles(request, target)) {
+                spokePayloadHandler.handle(target, baseRequest, request, response);
             } else {
                 httpHandler.handle(target, baseRequest, request, response);
                 DataDogRequestFilter.finalStats();
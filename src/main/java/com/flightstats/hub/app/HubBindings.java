@@ -21,6 +21,8 @@ import com.flightstats.hub.spoke.GCRunner;
 import com.flightstats.hub.time.NtpMonitor;
 import com.flightstats.hub.time.TimeService;
 import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.webhook.WebhookClient;
+import com.flightstats.hub.webhook.WebhookDispatcher;
 import com.flightstats.hub.webhook.WebhookManager;
 import com.flightstats.hub.webhook.WebhookValidator;
 import com.google.inject.AbstractModule;
@@ -145,6 +147,8 @@ public class HubBindings extends AbstractModule {
         bind(ChannelValidator.class).asEagerSingleton();
         bind(WebhookValidator.class).asEagerSingleton();
         bind(WebhookManager.class).asEagerSingleton();
+        bind(WebhookDispatcher.class).asEagerSingleton();
+        bind(WebhookClient.class).asEagerSingleton();
         bind(LastContentPath.class).asEagerSingleton();
         bind(WatchManager.class).asEagerSingleton();
 
@@ -1,5 +1,6 @@
 package com.flightstats.hub.app;
 
+import com.flightstats.hub.spoke.SpokePayloadHandler;
 import com.flightstats.hub.ws.ChannelWSEndpoint;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
@@ -58,6 +59,10 @@ public class HubJettyServer {
             ServerContainer wsContainer = WebSocketServerContainerInitializer.configureContext(wsContext);
             wsContainer.addEndpoint(ChannelWSEndpoint.class);
             handler.addWSHandler(wsContext);
+            if (SpokePayloadHandler.isEnabled()) {
+                logger.info("serving spoke payloads from jetty");
+                handler.addSpokePayloadHandler(HubProvider.getInstance(SpokePayloadHandler.class));
+            }
 
             server.setHandler(handler);
             server.start();
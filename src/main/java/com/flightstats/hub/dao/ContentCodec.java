@@ -0,0 +1,152 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.model.Content;
+import org.apache.commons.lang3.StringUtils;
+import org.iq80.snappy.CorruptionException;
+import org.iq80.snappy.Snappy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The ways ContentMarshaller can encode a payload.
+ * ZIP is the original format, which ContentMarshaller writes without its binary header, and with the content type
+ * in a meta entry.  ZIP's encode and decode use the same format, with an empty meta entry.
+ * All the others are written after ContentMarshaller's binary header, and are identified by their id.
+ */
+public enum ContentCodec {
+
+    ZIP(0) {
+        @Override
+        byte[] encode(byte[] payload) throws IOException {
+            return ContentMarshaller.toZipBytes(Content.builder().withData(payload).build());
+        }
+
+        @Override
+        byte[] decode(byte[] bytes, int offset, int length, int size) throws IOException {
+            byte[] payload = ContentMarshaller.fromZipBytes(bytes, offset, length, null).getData();
+            if (payload == null || payload.length != size) {
+                throw new IOException("expected " + size + " bytes, found " + (payload == null ? 0 : payload.length));
+            }
+            return payload;
+        }
+    },
+    NONE(1) {
+        @Override
+        byte[] encode(byte[] payload) {
+            return payload;
+        }
+
+        @Override
+        byte[] decode(byte[] bytes, int offset, int length, int size) throws IOException {
+            if (length != size) {
+                throw new IOException("expected " + size + " bytes, found " + length);
+            }
+            byte[] payload = new byte[size];
+            System.arraycopy(bytes, offset, payload, 0, size);
+            return payload;
+        }
+    },
+    DEFLATE(2) {
+        @Override
+        byte[] encode(byte[] payload) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(payload);
+                deflater.finish();
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(payload.length / 2 + 64);
+                byte[] buffer = new byte[8 * 1024];
+                while (!deflater.finished()) {
+                    int deflated = deflater.deflate(buffer);
+                    baos.write(buffer, 0, deflated);
+                }
+                return baos.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        byte[] decode(byte[] bytes, int offset, int length, int size) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(bytes, offset, length);
+                byte[] payload = new byte[size];
+                int total = 0;
+                while (total < size) {
+                    int inflated = inflater.inflate(payload, total, size - total);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("expected " + size + " bytes, inflated " + total);
+                    }
+                    total += inflated;
+                }
+                return payload;
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    },
+    SNAPPY(3) {
+        @Override
+        byte[] encode(byte[] payload) {
+            return Snappy.compress(payload);
+        }
+
+        @Override
+        byte[] decode(byte[] bytes, int offset, int length, int size) throws IOException {
+            try {
+                byte[] payload = Snappy.uncompress(bytes, offset, length);
+                if (payload.length != size) {
+                    throw new IOException("expected " + size + " bytes, found " + payload.length);
+                }
+                return payload;
+            } catch (CorruptionException e) {
+                throw new IOException(e);
+            }
+        }
+    };
+
+    private final static Logger logger = LoggerFactory.getLogger(ContentCodec.class);
+
+    private final byte id;
+
+    ContentCodec(int id) {
+        this.id = (byte) id;
+    }
+
+    byte getId() {
+        return id;
+    }
+
+    abstract byte[] encode(byte[] payload) throws IOException;
+
+    /**
+     * @param size the length of the original payload
+     */
+    abstract byte[] decode(byte[] bytes, int offset, int length, int size) throws IOException;
+
+    static ContentCodec fromId(byte id) throws IOException {
+        for (ContentCodec codec : values()) {
+            if (codec.id == id && codec != ZIP) {
+                return codec;
+            }
+        }
+        throw new IOException("unknown codec " + id);
+    }
+
+    public static ContentCodec fromName(String name) {
+        try {
+            return valueOf(StringUtils.upperCase(StringUtils.trim(name)));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            logger.warn("unknown codec {}, using zip", name);
+            return ZIP;
+        }
+    }
+}
@@ -2,8 +2,12 @@ package com.flightstats.hub.dao;
 
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import org.joda.time.DateTime;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.SortedSet;
 import java.util.function.Consumer;
@@ -16,10 +20,28 @@ public interface ContentDao {
 
     ContentKey insert(String channelName, Content content) throws Exception;
 
+    /**
+     * @param written is called with the key once it has been written, even if the insert later fails
+     */
+    default ContentKey insert(String channelName, Content content, Consumer<ContentKey> written) throws Exception {
+        ContentKey key = insert(channelName, content);
+        written.accept(key);
+        return key;
+    }
+
     default SortedSet<ContentKey> insert(BulkContent bulkContent) throws Exception {
         throw new UnsupportedOperationException("bulk writes are not supported");
     }
 
+    /**
+     * Parses the multipart stream of the BulkContent, and writes each item as it is parsed.
+     *
+     * @param written is called with each key once it has been written, even if the bulk later fails
+     */
+    default SortedSet<ContentKey> streamInsert(BulkContent bulkContent, Consumer<ContentKey> written) throws Exception {
+        throw new UnsupportedOperationException("streaming bulk writes are not supported");
+    }
+
     Content get(String channelName, ContentKey key);
 
     SortedSet<ContentKey> queryByTime(TimeQuery timQuery);
@@ -38,6 +60,20 @@ public interface ContentDao {
         throw new UnsupportedOperationException("writeBatch is not supported");
     }
 
+    /**
+     * Writes a batch as the zip is read from stream, without holding the whole zip.
+     */
+    default void writeBatch(String channel, ContentPath path, Collection<ContentKey> keys, InputStream stream) throws IOException {
+        throw new UnsupportedOperationException("writeBatch is not supported");
+    }
+
+    /**
+     * Writes one index for a completed hour or day, so queries over it do not need every minute's index.
+     */
+    default void writeRollup(String channel, DateTime start, TimeUtil.Unit unit) {
+        throw new UnsupportedOperationException("writeRollup is not supported");
+    }
+
     default boolean streamMinute(String channel, ContentPathKeys path, Consumer<Content> callback) {
         throw new UnsupportedOperationException("streamMinute is not supported");
     }
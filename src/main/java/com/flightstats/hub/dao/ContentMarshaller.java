@@ -8,37 +8,107 @@ import com.flightstats.hub.exception.ContentTooLargeException;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.google.common.io.ByteStreams;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.*;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+/**
+ * Payloads are written either in the original zip format, with a JSON meta entry, or in a versioned format:
+ * a binary header of the magic bytes 'H' 'B', the version, the ContentCodec id, the optional content type,
+ * and the payload size, followed by the payload as encoded by the codec.
+ * toContent reads either format, so the codec can be changed without rewriting existing items.
+ * <p>
+ * The codec is content.codec, which can be overridden per channel with content.codec.{channel}.
+ * It defaults to zip, as servers before the versioned format can only read zip.
+ */
 public class ContentMarshaller {
 
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024;
+    private static final byte[] MAGIC = {'H', 'B'};
+    private static final byte VERSION = 1;
+    private static final String defaultCodec = HubProperties.getProperty("content.codec", "zip");
 
     public static byte[] toBytes(Content content) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ZipOutputStream zipOut = new ZipOutputStream(baos);
-        zipOut.setLevel(Deflater.BEST_COMPRESSION);
-        zipOut.putNextEntry(new ZipEntry("meta"));
-        String meta = getMetaData(content);
-        zipOut.write(meta.getBytes());
-        zipOut.putNextEntry(new ZipEntry("payload"));
-        long bytesCopied = ByteStreams.copy(content.getStream(), zipOut);
-        if (bytesCopied > maxBytes) {
+        return toBytes(content, ContentCodec.fromName(defaultCodec));
+    }
+
+    public static byte[] toBytes(String channelName, Content content) throws IOException {
+        return toBytes(content, getCodec(channelName));
+    }
+
+    public static ContentCodec getCodec(String channelName) {
+        return ContentCodec.fromName(HubProperties.getProperty("content.codec." + channelName, defaultCodec));
+    }
+
+    public static byte[] toBytes(Content content, ContentCodec codec) throws IOException {
+        if (codec == ContentCodec.ZIP) {
+            return toZipBytes(content);
+        }
+        byte[] payload = ByteStreams.toByteArray(ByteStreams.limit(content.getStream(), maxBytes + 1L));
+        if (payload.length > maxBytes) {
             throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
         }
-        content.setSize(bytesCopied);
-        zipOut.close();
+        content.setSize((long) payload.length);
+        byte[] encoded = codec.encode(payload);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(encoded.length + 64);
+        DataOutputStream output = new DataOutputStream(baos);
+        output.write(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(codec.getId());
+        output.writeBoolean(content.getContentType().isPresent());
+        if (content.getContentType().isPresent()) {
+            output.writeUTF(content.getContentType().get());
+        }
+        output.writeInt(payload.length);
+        output.write(encoded);
+        output.flush();
         return baos.toByteArray();
     }
 
+    /**
+     * Writes the same bytes as toBytes to output, without closing it.
+     * The zip format is compressed as it is written, the other codecs are encoded first.
+     */
+    public static void write(String channelName, Content content, OutputStream output) throws IOException {
+        ContentCodec codec = getCodec(channelName);
+        if (codec == ContentCodec.ZIP) {
+            writeZip(content, output);
+        } else {
+            output.write(toBytes(content, codec));
+        }
+    }
+
+    static byte[] toZipBytes(Content content) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writeZip(content, baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * The zip is closed over a shield, so its Deflater's native memory is released without closing output.
+     */
+    private static void writeZip(Content content, OutputStream output) throws IOException {
+        try (ZipOutputStream zipOut = new ZipOutputStream(new CloseShieldOutputStream(output))) {
+            zipOut.setLevel(Deflater.BEST_COMPRESSION);
+            zipOut.putNextEntry(new ZipEntry("meta"));
+            String meta = getMetaData(content);
+            zipOut.write(meta.getBytes());
+            zipOut.putNextEntry(new ZipEntry("payload"));
+            long bytesCopied = ByteStreams.copy(content.getStream(), zipOut);
+            if (bytesCopied > maxBytes) {
+                throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
+            }
+            content.setSize(bytesCopied);
+            zipOut.finish();
+            zipOut.flush();
+        }
+    }
+
     public static String getMetaData(Content content) {
         ObjectNode objectNode = mapper.createObjectNode();
         if (content.getContentType().isPresent()) {
@@ -48,7 +118,56 @@ public class ContentMarshaller {
     }
 
     public static Content toContent(byte[] read, ContentKey key) throws IOException {
-        ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(read));
+        if (!isVersioned(read)) {
+            return fromZipBytes(read, key);
+        }
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(read, MAGIC.length, read.length - MAGIC.length));
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("unknown version " + version + " " + key);
+        }
+        ContentCodec codec = ContentCodec.fromId(input.readByte());
+        Content.Builder builder = Content.builder().withContentKey(key);
+        if (input.readBoolean()) {
+            builder.withContentType(input.readUTF());
+        }
+        int size = input.readInt();
+        int offset = read.length - input.available();
+        return builder.withData(codec.decode(read, offset, read.length - offset, size)).build();
+    }
+
+    /**
+     * Reads either format from a stream, decompressing zip as it is read.
+     * The versioned codecs decode whole payloads, so their encoded bytes are read first.
+     */
+    public static Content toContent(InputStream stream, ContentKey key) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(stream);
+        input.mark(MAGIC.length);
+        byte[] magic = new byte[MAGIC.length];
+        int read = ByteStreams.read(input, magic, 0, MAGIC.length);
+        input.reset();
+        if (read == MAGIC.length && isVersioned(magic)) {
+            return toContent(ByteStreams.toByteArray(input), key);
+        }
+        ZipInputStream zipStream = new ZipInputStream(input);
+        zipStream.getNextEntry();
+        byte[] meta = ByteStreams.toByteArray(zipStream);
+        Content.Builder builder = Content.builder().withContentKey(key);
+        setMetaData(new String(meta), builder);
+        zipStream.getNextEntry();
+        return builder.withData(ByteStreams.toByteArray(zipStream)).build();
+    }
+
+    private static boolean isVersioned(byte[] read) {
+        return read.length >= MAGIC.length && read[0] == MAGIC[0] && read[1] == MAGIC[1];
+    }
+
+    private static Content fromZipBytes(byte[] read, ContentKey key) throws IOException {
+        return fromZipBytes(read, 0, read.length, key);
+    }
+
+    static Content fromZipBytes(byte[] read, int offset, int length, ContentKey key) throws IOException {
+        ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(read, offset, length));
         zipStream.getNextEntry();
         byte[] bytes = ByteStreams.toByteArray(zipStream);
         Content.Builder builder = Content.builder().withContentKey(key);
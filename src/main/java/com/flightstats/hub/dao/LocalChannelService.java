@@ -165,10 +165,10 @@ public class LocalChannelService implements ChannelService {
         Collection<ContentKey> contentKeys = contentService.insert(bulkContent);
         long time = System.currentTimeMillis() - start;
         statsd.time("channel", time, "method:post", "type:bulk", "channel:" + channel);
-        statsd.count("channel.items", bulkContent.getItems().size(), "method:post", "type:bulk", "channel:" + channel);
+        statsd.count("channel.items", bulkContent.getItemCount(), "method:post", "type:bulk", "channel:" + channel);
         statsd.count("channel.bytes", bulkContent.getSize(), "method:post", "type:bulk", "channel:" + channel);
         sender.send("channel." + channel + ".batchPost", time);
-        sender.send("channel." + channel + ".items", bulkContent.getItems().size());
+        sender.send("channel." + channel + ".items", bulkContent.getItemCount());
         sender.send("channel." + channel + ".post", time);
         sender.send("channel." + channel + ".post.bytes", bulkContent.getSize());
         sender.send("channel.ALL.post", time);
@@ -16,6 +16,14 @@ public class TtlEnforcer {
 
     public static void enforce(String path, ChannelService channelService,
                                Consumer<ChannelConfig> channelConsumer) {
+        enforce(path, channelService, channelConsumer, dirPath -> FileUtil.runCommand(new String[]{"rm", "-rf", dirPath}, 1));
+    }
+
+    /**
+     * @param orphanConsumer is called with the full path of each directory which does not have a channel
+     */
+    public static void enforce(String path, ChannelService channelService,
+                               Consumer<ChannelConfig> channelConsumer, Consumer<String> orphanConsumer) {
         try {
             File spokeRoot = new File(path);
             Set<String> dirSet = new HashSet<>(Arrays.asList(spokeRoot.list()));
@@ -30,7 +38,7 @@ public class TtlEnforcer {
             for (String dir : dirSet) {
                 String dirPath = path + "/" + dir;
                 logger.info("removing dir without channel {}", dirPath);
-                FileUtil.runCommand(new String[]{"rm", "-rf", dirPath}, 1);
+                orphanConsumer.accept(dirPath);
             }
         } catch (Exception e) {
             logger.warn("unble to run " + path, e);
@@ -49,6 +49,7 @@ public class AwsContentService implements ContentService {
     private final Integer shutdown_wait_seconds = HubProperties.getProperty("app.shutdown_wait_seconds", 5);
     private final boolean dropSomeWrites = HubProperties.getProperty("s3.dropSomeWrites", false);
     private final int spokeTtlMinutes = HubProperties.getSpokeTtl();
+    private final boolean streamBulk = HubProperties.getProperty("spoke.bulk.stream", false);
     @Inject
     @Named(ContentDao.CACHE)
     private ContentDao spokeContentDao;
@@ -65,6 +66,8 @@ public class AwsContentService implements ContentService {
     @Inject
     private S3WriteQueue s3WriteQueue;
     @Inject
+    private S3Manifest s3Manifest;
+    @Inject
     private HubUtils hubUtils;
 
     public AwsContentService() {
@@ -89,23 +92,25 @@ public class AwsContentService implements ContentService {
     public ContentKey insert(String channelName, Content content) throws Exception {
         try {
             inFlight.incrementAndGet();
-            ContentKey key = spokeContentDao.insert(channelName, content);
             ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
-            if (channel.isSingle() || channel.isBoth()) {
-                Supplier<Void> local = () -> {
-                    s3SingleWrite(channelName, key);
-                    return null;
-                };
-                GlobalChannelService.handleGlobal(channel, local, () -> null, local);
-
-            }
-            return key;
+            boolean single = channel.isSingle() || channel.isBoth();
+            //the key is queued for S3 once Spoke has it, even if the insert then fails
+            return spokeContentDao.insert(channelName, content, key -> {
+                if (single) {
+                    Supplier<Void> local = () -> {
+                        s3SingleWrite(channelName, key);
+                        return null;
+                    };
+                    GlobalChannelService.handleGlobal(channel, local, () -> null, local);
+                }
+            });
         } finally {
             inFlight.decrementAndGet();
         }
     }
 
     private void s3SingleWrite(String channelName, ContentKey key) {
+        s3Manifest.written(channelName, key);
         if (dropSomeWrites && Math.random() > 0.5) {
             logger.debug("dropping {} {}", channelName, key);
         } else {
@@ -115,6 +120,10 @@ public class AwsContentService implements ContentService {
 
     @Override
     public Collection<ContentKey> insert(BulkContent bulkContent) throws Exception {
+        if (streamBulk) {
+            //the stream is consumed as it is written, so there is nothing to fall back with
+            return newBulkWrite(bulkContent);
+        }
         MultiPartParser multiPartParser = new MultiPartParser(bulkContent);
         multiPartParser.parse();
         try {
@@ -143,9 +152,18 @@ public class AwsContentService implements ContentService {
         String channelName = bulkContent.getChannel();
         try {
             inFlight.incrementAndGet();
-            SortedSet<ContentKey> keys = spokeContentDao.insert(bulkContent);
             ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
-            if (channel.isSingle() || channel.isBoth()) {
+            boolean single = channel.isSingle() || channel.isBoth();
+            if (streamBulk) {
+                //each key is queued for S3 as Spoke writes it, so a bulk which fails part way still reaches S3
+                return spokeContentDao.streamInsert(bulkContent, key -> {
+                    if (single) {
+                        s3SingleWrite(channelName, key);
+                    }
+                });
+            }
+            SortedSet<ContentKey> keys = spokeContentDao.insert(bulkContent);
+            if (single) {
                 for (ContentKey key : keys) {
                     s3SingleWrite(channelName, key);
                 }
@@ -336,6 +354,7 @@ public class AwsContentService implements ContentService {
         s3BatchContentDao.delete(channelName);
         lastContentPath.delete(channelName, CHANNEL_LATEST_UPDATED);
         lastContentPath.delete(channelName, S3Verifier.LAST_SINGLE_VERIFIED);
+        lastContentPath.delete(channelName, S3RollupCompactor.LAST_ROLLED_HOUR);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         if (!channel.isSingle()) {
             new S3Batch(channel, hubUtils).stop();
@@ -0,0 +1,256 @@
+package com.flightstats.hub.dao.aws;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.LongToIntFunction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Where each item's bytes are within a batch items zip, so a single item can be read from S3 with a ranged GET.
+ * It is built from the zip's central directory when the batch is written, and stored next to the items as JSON.
+ */
+class BatchDirectory {
+
+    private final static Logger logger = LoggerFactory.getLogger(BatchDirectory.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_LENGTH = 22;
+    private static final int CENTRAL_LENGTH = 46;
+    private static final int LOCAL_LENGTH = 30;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    static class Entry {
+        final long offset;
+        final long length;
+        final int size;
+        final int method;
+        final String meta;
+
+        Entry(long offset, long length, int size, int method, String meta) {
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+            this.method = method;
+            this.meta = meta;
+        }
+
+        /**
+         * @param bytes the bytes from offset to offset + length of the items zip
+         */
+        byte[] decode(byte[] bytes) throws IOException {
+            if (method == ZipEntry.STORED) {
+                return bytes;
+            }
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(bytes);
+                byte[] payload = new byte[size];
+                int total = 0;
+                while (total < size) {
+                    int inflated = inflater.inflate(payload, total, size - total);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("expected " + size + " bytes, inflated " + total);
+                    }
+                    total += inflated;
+                }
+                return payload;
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return null if the central directory can not be read, including zip64 archives
+     */
+    static BatchDirectory fromZip(byte[] zip) {
+        ByteBuffer buffer = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        return fromCentral(zip, 0, local -> {
+            if (local < 0 || local + LOCAL_LENGTH > zip.length || buffer.getInt((int) local) != LOCAL_SIGNATURE) {
+                return -1;
+            }
+            return (buffer.getShort((int) local + 26) & 0xFFFF) + (buffer.getShort((int) local + 28) & 0xFFFF);
+        });
+    }
+
+    /**
+     * @param tail           the end of a zip, which includes the whole central directory
+     * @param tailOffset     where the tail starts within the zip
+     * @param localVariable  the length of the name and extra fields of the local header at an offset, or -1 if unknown
+     */
+    private static BatchDirectory fromCentral(byte[] tail, long tailOffset, LongToIntFunction localVariable) {
+        ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd(buffer);
+        if (end < 0) {
+            logger.info("no end of central directory in {} bytes", tail.length);
+            return null;
+        }
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long centralOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || centralOffset == 0xFFFFFFFFL) {
+            logger.info("zip64 batches are not supported {}", count);
+            return null;
+        }
+        if (centralOffset < tailOffset) {
+            logger.info("central directory at {} is before the tail at {}", centralOffset, tailOffset);
+            return null;
+        }
+        BatchDirectory directory = new BatchDirectory();
+        int position = (int) (centralOffset - tailOffset);
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(position) != CENTRAL_SIGNATURE) {
+                logger.info("unexpected central directory entry at {}", position);
+                return null;
+            }
+            int method = buffer.getShort(position + 10) & 0xFFFF;
+            long compressed = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            long localOffset = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+            String name = new String(tail, position + CENTRAL_LENGTH, nameLength, StandardCharsets.UTF_8);
+            String meta = new String(tail, position + CENTRAL_LENGTH + nameLength, extraLength, StandardCharsets.UTF_8);
+            int variable = localVariable.applyAsInt(localOffset);
+            if (variable < 0) {
+                logger.info("unexpected local header for {} at {}", name, localOffset);
+                return null;
+            }
+            long dataOffset = localOffset + LOCAL_LENGTH + variable;
+            directory.entries.put(name, new Entry(dataOffset, compressed, (int) size, method, meta));
+            position += CENTRAL_LENGTH + nameLength + extraLength + commentLength;
+        }
+        return directory;
+    }
+
+    /**
+     * Builds a directory from a zip as it is written, keeping only the last tailBytes bytes,
+     * and the lengths of each local header's variable fields.
+     */
+    static class Capture extends OutputStream {
+        private final byte[] tail;
+        private final Map<Long, Integer> localVariables = new HashMap<>();
+        private final Map<Long, byte[]> pending = new HashMap<>();
+        private long position;
+        private int signature;
+
+        Capture(int tailBytes) {
+            tail = new byte[tailBytes];
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                byte b = bytes[i];
+                tail[(int) (position % tail.length)] = b;
+                if (!pending.isEmpty()) {
+                    capture(b);
+                }
+                signature = (signature >>> 8) | ((b & 0xFF) << 24);
+                if (signature == LOCAL_SIGNATURE) {
+                    pending.put(position - 3, new byte[4]);
+                }
+                position++;
+            }
+        }
+
+        private void capture(byte b) {
+            Iterator<Map.Entry<Long, byte[]>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, byte[]> entry = iterator.next();
+                long index = position - entry.getKey() - 26;
+                if (index >= 0 && index < 4) {
+                    entry.getValue()[(int) index] = b;
+                    if (index == 3) {
+                        ByteBuffer lengths = ByteBuffer.wrap(entry.getValue()).order(ByteOrder.LITTLE_ENDIAN);
+                        localVariables.put(entry.getKey(), (lengths.getShort(0) & 0xFFFF) + (lengths.getShort(2) & 0xFFFF));
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return null if the zip can not be read, or its central directory did not fit in the tail
+         */
+        BatchDirectory getDirectory() {
+            int length = (int) Math.min(position, tail.length);
+            byte[] linear = new byte[length];
+            int start = (int) ((position - length) % tail.length);
+            int first = Math.min(length, tail.length - start);
+            System.arraycopy(tail, start, linear, 0, first);
+            System.arraycopy(tail, 0, linear, first, length - first);
+            return fromCentral(linear, position - length, local -> localVariables.getOrDefault(local, -1));
+        }
+    }
+
+    private static int findEnd(ByteBuffer buffer) {
+        for (int i = buffer.limit() - END_LENGTH; i >= 0 && i >= buffer.limit() - END_LENGTH - 0xFFFF; i--) {
+            if (buffer.getInt(i) == END_SIGNATURE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    byte[] toBytes() {
+        ObjectNode root = mapper.createObjectNode();
+        ObjectNode items = root.putObject("items");
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            ObjectNode item = items.putObject(mapEntry.getKey());
+            item.put("offset", entry.offset);
+            item.put("length", entry.length);
+            item.put("size", entry.size);
+            item.put("method", entry.method);
+            item.put("meta", entry.meta);
+        }
+        return root.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static BatchDirectory fromBytes(byte[] bytes) throws IOException {
+        BatchDirectory directory = new BatchDirectory();
+        JsonNode items = mapper.readTree(bytes).get("items");
+        Iterator<Map.Entry<String, JsonNode>> fields = items.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode item = field.getValue();
+            directory.entries.put(field.getKey(), new Entry(item.get("offset").asLong(), item.get("length").asLong(),
+                    item.get("size").asInt(), item.get("method").asInt(), item.get("meta").asText()));
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,108 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.flightstats.hub.util.Sleeper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.timgroup.statsd.StatsDClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Fetches S3 batch indexes for many minutes in parallel, and hands the results back in the order of the minutes.
+ * Each query keeps up to the current concurrency limit of fetches in flight, and stops submitting as soon as
+ * its consumer returns false, so count limited queries only fetch what they need.
+ * When S3 throttles with a 503 or SlowDown, the fetch is retried with exponential backoff, and the limit is halved.
+ * Each successful fetch then raises the limit by one, back up to s3.batch.queryConcurrency.
+ */
+class BatchIndexFetcher {
+
+    private final static Logger logger = LoggerFactory.getLogger(BatchIndexFetcher.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final int maxConcurrency = HubProperties.getProperty("s3.batch.queryConcurrency", 16);
+    private final int maxAttempts = HubProperties.getProperty("s3.batch.throttleAttempts", 5);
+    private final long backoffMillis = HubProperties.getProperty("s3.batch.throttleBackoffMillis", 100);
+    private final AtomicInteger concurrency = new AtomicInteger(maxConcurrency);
+    private final ExecutorService executorService = Executors.newFixedThreadPool(HubProperties.getProperty("s3.batch.indexThreads", 32),
+            new ThreadFactoryBuilder().setNameFormat("BatchIndexFetcher-%d").setDaemon(true).build());
+
+    /**
+     * @param fetcher  reads one minute, and may throw AmazonS3Exception
+     * @throws AmazonS3Exception from the fetcher, once S3 has throttled it on every attempt
+     * @param consumer is called on the calling thread, in the order of paths, and returns false to stop fetching
+     */
+    <T> void fetch(Collection<MinutePath> paths, Function<MinutePath, T> fetcher, Predicate<T> consumer) {
+        Iterator<MinutePath> iterator = paths.iterator();
+        Deque<Future<T>> inFlight = new ArrayDeque<>();
+        try {
+            while (true) {
+                while (iterator.hasNext() && inFlight.size() < concurrency.get()) {
+                    MinutePath path = iterator.next();
+                    inFlight.add(executorService.submit(() -> fetchWithRetry(path, fetcher)));
+                }
+                Future<T> next = inFlight.poll();
+                if (next == null) {
+                    return;
+                }
+                if (!consumer.test(next.get())) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<T> future : inFlight) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private <T> T fetchWithRetry(MinutePath path, Function<MinutePath, T> fetcher) {
+        int attempt = 1;
+        while (true) {
+            try {
+                T result = fetcher.apply(path);
+                if (concurrency.get() < maxConcurrency) {
+                    concurrency.updateAndGet(current -> Math.min(maxConcurrency, current + 1));
+                }
+                return result;
+            } catch (AmazonS3Exception e) {
+                if (!isThrottled(e) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                int limit = concurrency.updateAndGet(current -> Math.max(1, current / 2));
+                statsd.incrementCounter("s3.throttled", "type:batchIndex");
+                long sleep = backoffMillis << (attempt - 1);
+                logger.info("throttled reading {}, attempt {} sleeping {} ms, concurrency {}", path, attempt, sleep, limit);
+                Sleeper.sleep(sleep + ThreadLocalRandom.current().nextLong(sleep));
+                attempt++;
+            }
+        }
+    }
+
+    static boolean isThrottled(AmazonS3Exception e) {
+        return e.getStatusCode() == 503 || "SlowDown".equals(e.getErrorCode());
+    }
+
+    int getConcurrency() {
+        return concurrency.get();
+    }
+}
@@ -0,0 +1,54 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The keys of every minute index within an hour or a day, in one object.
+ * A rollup is the gzip of the key urls, one per line, and a period without any items is written as an empty object.
+ */
+class BatchRollup {
+
+    static byte[] toBytes(Collection<ContentKey> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(keys.size() * 16);
+        try (OutputStream output = new GZIPOutputStream(baos)) {
+            for (ContentKey key : keys) {
+                output.write(key.toUrl().getBytes(StandardCharsets.UTF_8));
+                output.write('\n');
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    static List<ContentKey> fromBytes(byte[] bytes) throws IOException {
+        List<ContentKey> keys = new ArrayList<>();
+        if (bytes.length == 0) {
+            return keys;
+        }
+        byte[] text = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+        for (String line : StringUtils.split(new String(text, StandardCharsets.UTF_8), '\n')) {
+            Optional<ContentKey> key = ContentKey.fromUrl(line);
+            if (!key.isPresent()) {
+                throw new IOException("unable to parse rollup key " + line);
+            }
+            keys.add(key.get());
+        }
+        return keys;
+    }
+}
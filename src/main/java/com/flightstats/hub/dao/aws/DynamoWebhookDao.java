@@ -41,6 +41,10 @@ public class DynamoWebhookDao implements Dao<Webhook> {
         item.put("heartbeat", new AttributeValue().withBOOL(webhook.isHeartbeat()));
         item.put("ttlMinutes", new AttributeValue().withN(String.valueOf(webhook.getTtlMinutes())));
         item.put("maxWaitMinutes", new AttributeValue().withN(String.valueOf(webhook.getMaxWaitMinutes())));
+        item.put("maxItems", new AttributeValue().withN(String.valueOf(webhook.getMaxItems())));
+        item.put("maxBytes", new AttributeValue().withN(String.valueOf(webhook.getMaxBytes())));
+        item.put("lingerMillis", new AttributeValue().withN(String.valueOf(webhook.getLingerMillis())));
+        item.put("inline", new AttributeValue().withBOOL(webhook.isInline()));
         dbClient.putItem(getTableName(), item);
     }
 
@@ -83,6 +87,18 @@ public class DynamoWebhookDao implements Dao<Webhook> {
         if (item.containsKey("maxWaitMinutes")) {
             builder.maxWaitMinutes(Integer.valueOf(item.get("maxWaitMinutes").getN()));
         }
+        if (item.containsKey("maxItems")) {
+            builder.maxItems(Integer.valueOf(item.get("maxItems").getN()));
+        }
+        if (item.containsKey("maxBytes")) {
+            builder.maxBytes(Integer.valueOf(item.get("maxBytes").getN()));
+        }
+        if (item.containsKey("lingerMillis")) {
+            builder.lingerMillis(Integer.valueOf(item.get("lingerMillis").getN()));
+        }
+        if (item.containsKey("inline")) {
+            builder.inline(item.get("inline").getBOOL());
+        }
         return builder.build().withDefaults();
     }
 
@@ -0,0 +1,41 @@
+package com.flightstats.hub.dao.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.model.MinutePath;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Used by S3Verifier to find the minutes this server has not finished writing to S3.
+ */
+@SuppressWarnings("WeakerAccess")
+@Path("/internal/s3Manifest")
+public class InternalS3ManifestResource {
+
+    private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+    private static final S3Manifest s3Manifest = HubProvider.getInstance(S3Manifest.class);
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get() {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("started", s3Manifest.getStarted().getMillis());
+        ObjectNode channels = root.putObject("mismatched");
+        for (Map.Entry<String, SortedSet<MinutePath>> entry : s3Manifest.getMismatched().entrySet()) {
+            ArrayNode minutes = channels.putArray(entry.getKey());
+            for (MinutePath path : entry.getValue()) {
+                minutes.add(path.getTime().getMillis());
+            }
+        }
+        return Response.ok(root).build();
+    }
+}
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.function.Consumer;
 
 public class MultiPartParser {
     private final static Logger logger = LoggerFactory.getLogger(MultiPartParser.class);
@@ -24,6 +25,8 @@ public class MultiPartParser {
     private BufferedInputStream stream;
     private Content.Builder builder;
     private final ByteArrayOutputStream baos;
+    private Consumer<Content> itemConsumer;
+    private int itemCount;
     private static final byte[] CRLF = "\r\n".getBytes();
 
     public MultiPartParser(BulkContent bulkContent) {
@@ -34,6 +37,7 @@ public class MultiPartParser {
     }
 
     public void parse() throws IOException {
+        itemConsumer = item -> bulkContent.getItems().add(item);
         parseItems();
         if (bulkContent.getItems().isEmpty()) {
             throw new InvalidRequestException("multipart has no items");
@@ -46,6 +50,29 @@ public class MultiPartParser {
         }
     }
 
+    /**
+     * Hands each item to the consumer as soon as it is parsed, instead of keeping the items in the BulkContent,
+     * so the whole bulk is never held in memory.
+     * For new bulks, the master key is assigned before parsing, and each item has its key when it is consumed.
+     */
+    public void parse(Consumer<Content> consumer) throws IOException {
+        if (bulkContent.isNew()) {
+            bulkContent.setMasterKey(new ContentKey());
+        }
+        itemConsumer = item -> {
+            if (bulkContent.isNew()) {
+                item.setContentKey(ContentKey.bulkKey(bulkContent.getMasterKey(), itemCount));
+            }
+            itemCount++;
+            bulkContent.addStreamed(item);
+            consumer.accept(item);
+        };
+        parseItems();
+        if (itemCount == 0) {
+            throw new InvalidRequestException("multipart has no items");
+        }
+    }
+
     private void parseItems() throws IOException {
         String boundary = "--" + getBoundary();
         byte[] startBoundary = (boundary + "\r\n").getBytes();
@@ -110,7 +137,7 @@ public class MultiPartParser {
         if ((data.length == 0 && builder.contentKey.isPresent())
                 || data.length > 0) {
             builder.withData(data);
-            bulkContent.getItems().add(builder.build());
+            itemConsumer.accept(builder.build());
         }
         builder = Content.builder();
         baos.reset();
@@ -16,6 +16,8 @@ import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.timgroup.statsd.StatsDClient;
@@ -32,6 +34,8 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
@@ -42,18 +46,37 @@ public class S3BatchContentDao implements ContentDao {
     private final static Logger logger = LoggerFactory.getLogger(S3BatchContentDao.class);
     private static final String BATCH_INDEX = "Batch/index/";
     private static final String BATCH_ITEMS = "Batch/items/";
+    private static final String BATCH_DIRECTORY = "Batch/directory/";
+    private static final String BATCH_HOUR = "Batch/hour/";
+    private static final String BATCH_DAY = "Batch/day/";
     private static final ObjectMapper mapper = new ObjectMapper();
     private final AmazonS3 s3Client;
     private final MetricsSender sender;
+    private final S3IndexCache indexCache;
+    private final S3Deleter s3Deleter;
     private final boolean useEncrypted = HubProperties.getProperty("app.encrypted", false);
     private final int s3MaxQueryItems = HubProperties.getProperty("s3.maxQueryItems", 1000);
+    private final boolean useDirectory = HubProperties.getProperty("s3.batch.directory", true);
+    private final boolean useRollups = HubProperties.getProperty("s3.batch.rollups", true);
+    private final BatchIndexFetcher indexFetcher = new BatchIndexFetcher();
+    /**
+     * Minutes whose items were found without a directory, so reads go straight to the zip scan
+     * instead of paying for a directory GET which 404s.
+     */
+    private final Cache<String, Boolean> legacyMinutes = CacheBuilder.newBuilder()
+            .maximumSize(HubProperties.getProperty("s3.batch.legacyMinutes", 10 * 1000))
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
     private final String s3BucketName;
     private final static StatsDClient statsd = DataDog.statsd;
 
     @Inject
-    public S3BatchContentDao(AmazonS3 s3Client, S3BucketName s3BucketName, MetricsSender sender) {
+    public S3BatchContentDao(AmazonS3 s3Client, S3BucketName s3BucketName, MetricsSender sender, S3IndexCache indexCache,
+                             S3Deleter s3Deleter) {
         this.s3Client = s3Client;
         this.sender = sender;
+        this.indexCache = indexCache;
+        this.s3Deleter = s3Deleter;
         this.s3BucketName = s3BucketName.getS3BucketName();
     }
 
@@ -83,9 +106,20 @@ public class S3BatchContentDao implements ContentDao {
     private Content getS3Object(String channel, ContentKey key) throws IOException {
         logger.trace("S3BatchContentDao.getS3Object {} {}", channel, key);
         MinutePath minutePath = new MinutePath(key.getTime());
+        String legacyKey = channel + "/" + minutePath.toUrl();
+        boolean legacy = legacyMinutes.getIfPresent(legacyKey) != null;
+        if (useDirectory && !legacy) {
+            BatchDirectory directory = getDirectory(channel, minutePath);
+            if (directory != null) {
+                return getRanged(channel, key, minutePath, directory);
+            }
+        }
         Content content = null;
         long start = System.currentTimeMillis();
         try (ZipInputStream zipStream = getZipInputStream(channel, minutePath)) {
+            if (useDirectory && !legacy) {
+                legacyMinutes.put(legacyKey, true);
+            }
             ZipEntry nextEntry = zipStream.getNextEntry();
             while (nextEntry != null) {
                 logger.trace("found zip entry {} in {}", nextEntry.getName(), minutePath);
@@ -107,6 +141,51 @@ public class S3BatchContentDao implements ContentDao {
         return content;
     }
 
+    /**
+     * @return null if the minute has no directory, as it was written before directories were, or is missing
+     */
+    private BatchDirectory getDirectory(String channel, MinutePath minutePath) throws IOException {
+        try (S3Object object = s3Client.getObject(s3BucketName, getS3BatchDirectoryKey(channel, minutePath))) {
+            statsd.increment("s3.get", "type:batchDirectory", "channel:" + channel);
+            sender.send("channel." + channel + ".s3Batch.get", 1);
+            BatchDirectory directory = BatchDirectory.fromBytes(ByteStreams.toByteArray(object.getObjectContent()));
+            ActiveTraces.getLocal().add("S3BatchContentDao.getDirectory", minutePath, directory.size());
+            return directory;
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404) {
+                logger.warn("AmazonS3Exception : unable to read directory " + channel + " " + minutePath, e);
+            }
+            ActiveTraces.getLocal().add("S3BatchContentDao.getDirectory none", minutePath);
+            return null;
+        }
+    }
+
+    private Content getRanged(String channel, ContentKey key, MinutePath minutePath, BatchDirectory directory) throws IOException {
+        BatchDirectory.Entry entry = directory.get(key.toUrl());
+        if (entry == null) {
+            ActiveTraces.getLocal().add("S3BatchContentDao.getRanged missing", key);
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        byte[] bytes = new byte[0];
+        if (entry.length > 0) {
+            GetObjectRequest request = new GetObjectRequest(s3BucketName, getS3BatchItemsKey(channel, minutePath))
+                    .withRange(entry.offset, entry.offset + entry.length - 1);
+            try (S3Object object = s3Client.getObject(request)) {
+                bytes = ByteStreams.toByteArray(object.getObjectContent());
+            } finally {
+                statsd.increment("s3.get", "type:batchRange", "channel:" + channel);
+                statsd.recordExecutionTime("s3.get", System.currentTimeMillis() - start, "channel:" + channel, "type:batchRange");
+                sender.send("channel." + channel + ".s3Batch.get", 1);
+            }
+        }
+        Content.Builder builder = Content.builder().withContentKey(key);
+        ContentMarshaller.setMetaData(entry.meta, builder);
+        builder.withData(entry.decode(bytes));
+        ActiveTraces.getLocal().add("S3BatchContentDao.getRanged completed", key, entry.length);
+        return builder.build();
+    }
+
     private Content getContent(ContentKey key, ZipInputStream zipStream, ZipEntry nextEntry) throws IOException {
         Content.Builder builder = Content.builder()
                 .withContentKey(key);
@@ -166,27 +245,50 @@ public class S3BatchContentDao implements ContentDao {
         }
     }
 
+    /**
+     * Throttling which outlasts the BatchIndexFetcher's retries is logged, and the keys found so far are returned.
+     */
     private SortedSet<ContentKey> queryHourPlus(TimeQuery query) {
         Traces traces = ActiveTraces.getLocal();
-        SortedSet<ContentKey> keys = new TreeSet<>();
-        if (query.getCount() > 0) {
-            keys = new ContentKeySet(query.getCount(), query.getLimitKey());
+        SortedSet<ContentKey> keys = query.getCount() > 0 ? new ContentKeySet(query.getCount(), query.getLimitKey()) : new TreeSet<>();
+        try {
+            queryHourPlus(query, keys, traces);
+        } catch (AmazonS3Exception e) {
+            logger.warn("unable to query " + query, e);
+            traces.add("S3BatchContentDao.queryHourPlus issue with getting keys", e);
         }
+        return keys;
+    }
 
+    private void queryHourPlus(TimeQuery query, SortedSet<ContentKey> keys, Traces traces) {
         DateTime rounded = query.getUnit().round(query.getStartTime());
         String channel = query.getChannelName();
         traces.add("S3BatchContentDao.queryHourPlus starting ", channel, rounded, query.getUnit());
+        if (useRollups && isRollupUnit(query.getUnit())) {
+            List<ContentKey> rollup = readRollup(channel, rounded, query.getUnit(), traces);
+            if (rollup != null) {
+                keys.addAll(rollup);
+                traces.add("S3BatchContentDao.queryHourPlus found rollup keys", keys);
+                return;
+            }
+        }
         ListObjectsRequest request = new ListObjectsRequest()
                 .withBucketName(s3BucketName)
                 .withPrefix(channel + BATCH_INDEX + query.getUnit().format(rounded))
                 .withMaxKeys(s3MaxQueryItems);
-        SortedSet<MinutePath> minutePaths = listMinutePaths(channel, request, traces, true);
-        for (MinutePath minutePath : minutePaths) {
-            //todo - gfm - 11/5/15 - this could be in parallel, needs to handle throttling by S3
-            getKeysForMinute(channel, minutePath, keys, traces);
+        List<MinutePath> minutePaths = new ArrayList<>(listMinutePaths(channel, request, traces, true));
+        if (query.getCount() > 0) {
+            //ContentKeySet keeps the latest keys, so once it is full, earlier minutes can not change it
+            Collections.reverse(minutePaths);
+            if (query.getLimitKey() != null) {
+                minutePaths.removeIf(path -> path.getTime().isAfter(query.getLimitKey().getTime()));
+            }
         }
+        indexFetcher.fetch(minutePaths, path -> readIndex(channel, path, traces), minuteKeys -> {
+            keys.addAll(minuteKeys);
+            return query.getCount() <= 0 || keys.size() < query.getCount();
+        });
         traces.add("S3BatchContentDao.queryHourPlus found keys", keys);
-        return keys;
     }
 
     private SortedSet<ContentKey> queryMinute(String channel, DateTime startTime, TimeUtil.Unit unit) {
@@ -208,33 +310,51 @@ public class S3BatchContentDao implements ContentDao {
     }
 
     private void getKeysForMinute(String channel, MinutePath minutePath, SortedSet<ContentKey> keys, Traces traces) {
-        getKeysForMinute(channel, minutePath, traces, item -> {
-            keys.add(ContentKey.fromUrl(item.asText()).get());
-        });
+        try {
+            keys.addAll(readIndex(channel, minutePath, traces));
+        } catch (AmazonS3Exception e) {
+            logger.warn("unable to get index " + channel, minutePath, e);
+            traces.add("S3BatchContentDao.getKeysForMinute issue with getting keys", e);
+        }
     }
 
-    private void getKeysForMinute(String channel, MinutePath minutePath, Traces traces, Consumer<JsonNode> itemNodeConsumer) {
+    /**
+     * @throws AmazonS3Exception only when S3 is throttling, so the caller can retry
+     */
+    private List<ContentKey> readIndex(String channel, MinutePath minutePath, Traces traces) {
+        List<ContentKey> cached = indexCache.get(S3IndexCache.Type.BATCH_INDEX, channel, minutePath);
+        if (cached != null) {
+            traces.add("S3BatchContentDao.getKeysForMinute cached ", minutePath, cached.size());
+            return cached;
+        }
         try (S3Object object = s3Client.getObject(s3BucketName, getS3BatchIndexKey(channel, minutePath))) {
             statsd.increment("s3.get", "type:batchIndex", "channel:" + channel);
             sender.send("channel." + channel + ".s3Batch.get", 1);
             byte[] bytes = ByteStreams.toByteArray(object.getObjectContent());
             JsonNode root = mapper.readTree(bytes);
             JsonNode items = root.get("items");
+            List<ContentKey> keys = new ArrayList<>(items.size());
             for (JsonNode item : items) {
-                itemNodeConsumer.accept(item);
+                keys.add(ContentKey.fromUrl(item.asText()).get());
             }
             traces.add("S3BatchContentDao.getKeysForMinute ", minutePath, items.size());
+            indexCache.put(S3IndexCache.Type.BATCH_INDEX, channel, minutePath, keys);
+            return keys;
         } catch (AmazonS3Exception e) {
-            if (e.getStatusCode() != 404) {
+            if (e.getStatusCode() == 404) {
+                traces.add("S3BatchContentDao.getKeysForMinute no keys ", minutePath);
+                indexCache.put(S3IndexCache.Type.BATCH_INDEX, channel, minutePath, Collections.emptyList());
+            } else if (BatchIndexFetcher.isThrottled(e)) {
+                throw e;
+            } else {
                 logger.warn("unable to get index " + channel, minutePath, e);
                 traces.add("S3BatchContentDao.getKeysForMinute issue with getting keys", e);
-            } else {
-                traces.add("S3BatchContentDao.getKeysForMinute no keys ", minutePath);
             }
         } catch (IOException e) {
             logger.warn("unable to get index " + channel, minutePath, e);
             traces.add("issue with getting keys", e);
         }
+        return Collections.emptyList();
     }
 
     @Override
@@ -256,14 +376,41 @@ public class S3BatchContentDao implements ContentDao {
         return contentKeys;
     }
 
+    /**
+     * Throttling which outlasts the BatchIndexFetcher's retries is logged, and the keys found so far are returned.
+     */
     private SortedSet<ContentKey> handleNext(DirectionQuery query) {
         SortedSet<ContentKey> keys = new TreeSet<>();
         Traces traces = ActiveTraces.getLocal();
+        try {
+            handleNext(query, keys, traces);
+        } catch (AmazonS3Exception e) {
+            logger.warn("unable to query " + query, e);
+            traces.add("S3BatchContentDao.handleNext issue with getting keys", e);
+        }
+        return keys;
+    }
+
+    private void handleNext(DirectionQuery query, SortedSet<ContentKey> keys, Traces traces) {
         DateTime endTime = TimeUtil.time(query.isStable());
         DateTime markerTime = query.getContentKey().getTime().minusMinutes(1);
+        String channel = query.getChannelName();
+        if (useRollups) {
+            DateTime keyTime = query.getContentKey().getTime();
+            DateTime covered = nextFromRollups(query, TimeUtil.Unit.DAYS, keyTime, keys, traces);
+            if (keys.size() < query.getCount()) {
+                DateTime hourFrom = covered.isAfter(keyTime) ? covered : keyTime;
+                covered = nextFromRollups(query, TimeUtil.Unit.HOURS, hourFrom, keys, traces);
+            }
+            if (keys.size() >= query.getCount()) {
+                return;
+            }
+            if (covered.minusMinutes(1).isAfter(markerTime)) {
+                markerTime = covered.minusMinutes(1);
+            }
+        }
         int queryItems = Math.min(s3MaxQueryItems, query.getCount());
         do {
-            String channel = query.getChannelName();
             ListObjectsRequest request = new ListObjectsRequest()
                     .withBucketName(s3BucketName)
                     .withPrefix(channel + BATCH_INDEX)
@@ -272,25 +419,170 @@ public class S3BatchContentDao implements ContentDao {
             SortedSet<MinutePath> paths = listMinutePaths(channel, request, traces, false);
 
             if (paths.isEmpty()) {
-                return keys;
+                return;
             }
-            for (MinutePath path : paths) {
-                getKeysForMinute(channel, path, traces, item -> {
-                    ContentKey contentKey = ContentKey.fromUrl(item.asText()).get();
+            indexFetcher.fetch(paths, path -> readIndex(channel, path, traces), minuteKeys -> {
+                for (ContentKey contentKey : minuteKeys) {
                     if (contentKey.compareTo(query.getContentKey()) > 0
                             && keys.size() < query.getCount()) {
                         keys.add(contentKey);
                     }
-                });
-                if (keys.size() >= query.getCount()) {
-                    break;
                 }
-                markerTime = path.getTime();
+                return keys.size() < query.getCount();
+            });
+            if (keys.size() < query.getCount()) {
+                markerTime = paths.last().getTime();
             }
         } while (keys.size() < query.getCount() && markerTime.isBefore(endTime));
+    }
+
+    /**
+     * Reads the keys after the query's key from the rollups which start at the unit containing from,
+     * for as long as there is a rollup for each following unit.
+     *
+     * @return the time up to which the rollups covered, which is the start of from's unit if there are none
+     */
+    private DateTime nextFromRollups(DirectionQuery query, TimeUtil.Unit unit, DateTime from,
+                                     SortedSet<ContentKey> keys, Traces traces) {
+        String channel = query.getChannelName();
+        String prefix = channel + getRollupPrefix(unit);
+        DateTime expected = unit.round(from);
+        ListObjectsRequest request = new ListObjectsRequest()
+                .withBucketName(s3BucketName)
+                .withPrefix(prefix)
+                .withMarker(prefix + unit.format(expected.minus(unit.getDuration())))
+                .withMaxKeys(s3MaxQueryItems);
+        sender.send("channel." + channel + ".s3Batch.list", 1);
+        List<MinutePath> periods = new ArrayList<>();
+        for (S3ObjectSummary summary : s3Client.listObjects(request).getObjectSummaries()) {
+            if (!expected.equals(parseRollupTime(unit, StringUtils.substringAfter(summary.getKey(), prefix)))) {
+                break;
+            }
+            if (summary.getSize() > 0) {
+                periods.add(new MinutePath(expected));
+            }
+            expected = expected.plus(unit.getDuration());
+        }
+        traces.add("S3BatchContentDao.nextFromRollups", unit, periods.size(), expected);
+        AtomicReference<DateTime> covered = new AtomicReference<>(expected);
+        Iterator<MinutePath> pending = periods.iterator();
+        indexFetcher.fetch(periods, path -> readRollup(channel, path.getTime(), unit, traces), rollup -> {
+            MinutePath period = pending.next();
+            if (rollup == null) {
+                covered.set(period.getTime());
+                return false;
+            }
+            for (ContentKey contentKey : rollup) {
+                if (contentKey.compareTo(query.getContentKey()) > 0 && keys.size() < query.getCount()) {
+                    keys.add(contentKey);
+                }
+            }
+            return keys.size() < query.getCount();
+        });
+        return covered.get();
+    }
+
+    private static DateTime parseRollupTime(TimeUtil.Unit unit, String path) {
+        try {
+            return unit.parse(path);
+        } catch (IllegalArgumentException e) {
+            logger.info("unexpected rollup {}", path);
+            return null;
+        }
+    }
+
+    /**
+     * @return null if there is no rollup for the period, or it can not be read
+     * @throws AmazonS3Exception only when S3 is throttling, so the caller can retry
+     */
+    private List<ContentKey> readRollup(String channel, DateTime start, TimeUtil.Unit unit, Traces traces) {
+        String key = getS3RollupKey(channel, start, unit);
+        try (S3Object object = s3Client.getObject(s3BucketName, key)) {
+            statsd.increment("s3.get", "type:batchRollup", "channel:" + channel);
+            sender.send("channel." + channel + ".s3Batch.get", 1);
+            List<ContentKey> keys = BatchRollup.fromBytes(ByteStreams.toByteArray(object.getObjectContent()));
+            traces.add("S3BatchContentDao.readRollup ", key, keys.size());
+            return keys;
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                traces.add("S3BatchContentDao.readRollup none ", key);
+            } else if (BatchIndexFetcher.isThrottled(e)) {
+                throw e;
+            } else {
+                logger.warn("unable to get rollup " + key, e);
+                traces.add("S3BatchContentDao.readRollup issue with getting keys", e);
+            }
+        } catch (IOException e) {
+            logger.warn("unable to get rollup " + key, e);
+            traces.add("S3BatchContentDao.readRollup issue with getting keys", e);
+        }
+        return null;
+    }
+
+    /**
+     * An hour is rolled up from its minute indexes, and a day from its hour rollups,
+     * using the minute indexes for any hour which does not have one.
+     */
+    @Override
+    public void writeRollup(String channel, DateTime start, TimeUtil.Unit unit) {
+        Traces traces = ActiveTraces.getLocal();
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        if (unit.equals(TimeUtil.Unit.HOURS)) {
+            keys.addAll(readHour(channel, start, traces));
+        } else if (unit.equals(TimeUtil.Unit.DAYS)) {
+            List<MinutePath> hours = new ArrayList<>();
+            for (int hour = 0; hour < 24; hour++) {
+                hours.add(new MinutePath(start.plusHours(hour)));
+            }
+            List<MinutePath> missing = new ArrayList<>();
+            Iterator<MinutePath> pending = hours.iterator();
+            indexFetcher.fetch(hours, path -> readRollup(channel, path.getTime(), TimeUtil.Unit.HOURS, traces), rollup -> {
+                MinutePath hour = pending.next();
+                if (rollup == null) {
+                    missing.add(hour);
+                } else {
+                    keys.addAll(rollup);
+                }
+                return true;
+            });
+            for (MinutePath hour : missing) {
+                keys.addAll(readHour(channel, hour.getTime(), traces));
+            }
+        } else {
+            throw new UnsupportedOperationException("rollups are only written for hours and days " + unit);
+        }
+        try {
+            byte[] bytes = BatchRollup.toBytes(keys);
+            putObject(getS3RollupKey(channel, start, unit), bytes);
+            statsd.increment("s3.put", "type:batchRollup", "channel:" + channel);
+            logger.debug("wrote rollup {} {} {} keys {} bytes", channel, unit.format(start), keys.size(), bytes.length);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to write rollup " + channel + " " + unit.format(start), e);
+        }
+    }
+
+    private SortedSet<ContentKey> readHour(String channel, DateTime start, Traces traces) {
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        ListObjectsRequest request = new ListObjectsRequest()
+                .withBucketName(s3BucketName)
+                .withPrefix(channel + BATCH_INDEX + TimeUtil.Unit.HOURS.format(start))
+                .withMaxKeys(s3MaxQueryItems);
+        SortedSet<MinutePath> minutePaths = listMinutePaths(channel, request, traces, true);
+        indexFetcher.fetch(minutePaths, path -> readIndex(channel, path, traces), minuteKeys -> {
+            keys.addAll(minuteKeys);
+            return true;
+        });
         return keys;
     }
 
+    private static boolean isRollupUnit(TimeUtil.Unit unit) {
+        return unit.equals(TimeUtil.Unit.HOURS) || unit.equals(TimeUtil.Unit.DAYS);
+    }
+
+    private static String getRollupPrefix(TimeUtil.Unit unit) {
+        return unit.equals(TimeUtil.Unit.DAYS) ? BATCH_DAY : BATCH_HOUR;
+    }
+
     private SortedSet<MinutePath> listMinutePaths(String channel, ListObjectsRequest request, Traces traces, boolean iterate) {
         SortedSet<MinutePath> paths = new TreeSet<>();
         traces.add("S3BatchContentDao.listMinutePaths ", request.getPrefix(), request.getMarker(), iterate);
@@ -316,8 +608,12 @@ public class S3BatchContentDao implements ContentDao {
     @Override
     public void deleteBefore(String channel, ContentKey limitKey) {
         try {
-            S3Util.delete(channel + BATCH_ITEMS, limitKey, s3BucketName, s3Client);
-            S3Util.delete(channel + BATCH_INDEX, limitKey, s3BucketName, s3Client);
+            s3Deleter.delete(channel + BATCH_ITEMS, limitKey);
+            s3Deleter.delete(channel + BATCH_INDEX, limitKey);
+            s3Deleter.delete(channel + BATCH_DIRECTORY, limitKey);
+            s3Deleter.deleteRollups(channel + BATCH_HOUR, TimeUtil.Unit.HOURS, limitKey);
+            s3Deleter.deleteRollups(channel + BATCH_DAY, TimeUtil.Unit.DAYS, limitKey);
+            indexCache.invalidate(channel, limitKey);
             logger.info("completed deleteBefore of " + channel);
         } catch (Exception e) {
             logger.warn("unable to delete " + channel + " in " + s3BucketName, e);
@@ -326,13 +622,8 @@ public class S3BatchContentDao implements ContentDao {
 
     @Override
     public void delete(String channel) {
-        Traces traces = ActiveTraces.getLocal();
-        new Thread(() -> {
-            ContentKey limitKey = new ContentKey(TimeUtil.now().plusHours(1), "ZZZZZZ");
-            ActiveTraces.start("S3BatchContentDao.delete", traces, limitKey);
-            deleteBefore(channel, limitKey);
-            ActiveTraces.end();
-        }).start();
+        ContentKey limitKey = new ContentKey(TimeUtil.now().plusHours(1), "ZZZZZZ");
+        s3Deleter.submit(channel, () -> deleteBefore(channel, limitKey));
     }
 
     @Override
@@ -347,16 +638,46 @@ public class S3BatchContentDao implements ContentDao {
 
     @Override
     public void writeBatch(String channel, ContentPath path, Collection<ContentKey> keys, byte[] bytes) {
+        try {
+            writeBatch(channel, path, keys, new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            throw new RuntimeException("unable to write batch " + channel + " " + path, e);
+        }
+    }
+
+    /**
+     * Copies the zip into the items object as it is read, in multipart uploads of s3.multipartMB,
+     * while the directory is built from the local headers and the end of the zip.
+     */
+    @Override
+    public void writeBatch(String channel, ContentPath path, Collection<ContentKey> keys, InputStream stream) throws IOException {
         ActiveTraces.getLocal().add("S3BatchContentDao.writeBatch", channel, path);
+        S3MultipartOutputStream items = S3MultipartOutputStream.create(s3Client, s3BucketName,
+                getS3BatchItemsKey(channel, path), createMetadata());
         try {
-            logger.debug("writing {} batch {} keys {} bytes {}", channel, path, keys.size(), bytes.length);
-            writeBatchItems(channel, path, bytes);
+            BatchDirectory.Capture capture = useDirectory ? new BatchDirectory.Capture(64 * 1024 + keys.size() * 512) : null;
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                items.write(buffer, 0, read);
+                if (capture != null) {
+                    capture.write(buffer, 0, read);
+                }
+            }
+            items.close();
+            long bytes = items.getBytes();
+            logger.debug("writing {} batch {} keys {} bytes {} multipart {}", channel, path, keys.size(), bytes, items.isMultipart());
+            if (capture != null) {
+                writeBatchDirectory(channel, path, capture);
+            }
             long indexSize = writeBatchIndex(channel, path, keys);
+            indexCache.invalidate(S3IndexCache.Type.BATCH_INDEX, channel, new MinutePath(path.getTime()));
             statsd.increment("s3.put", "type:batch", "channel:" + channel);
-            statsd.count("s3.put.bytes", bytes.length + indexSize, "channel:" + channel, "type:batch");
+            statsd.count("s3.put.bytes", bytes + indexSize, "channel:" + channel, "type:batch");
             sender.send("channel." + channel + ".s3Batch.put", 1);
-            sender.send("channel." + channel + ".s3Batch.bytes", bytes.length + indexSize);
+            sender.send("channel." + channel + ".s3Batch.bytes", bytes + indexSize);
         } catch (Exception e) {
+            items.abort();
             logger.warn("unable to write batch to S3 " + channel + " " + path, e);
             throw e;
         } finally {
@@ -379,18 +700,32 @@ public class S3BatchContentDao implements ContentDao {
         return bytes.length;
     }
 
-    private void writeBatchItems(String channel, ContentPath path, byte[] bytes) {
-        String batchItemsKey = getS3BatchItemsKey(channel, path);
-        putObject(batchItemsKey, bytes);
+    /**
+     * A minute without a directory is still readable by scanning its items, so failures are only logged.
+     */
+    private void writeBatchDirectory(String channel, ContentPath path, BatchDirectory.Capture capture) {
+        try {
+            BatchDirectory directory = capture.getDirectory();
+            if (directory != null) {
+                putObject(getS3BatchDirectoryKey(channel, path), directory.toBytes());
+            }
+        } catch (Exception e) {
+            logger.warn("unable to write batch directory " + channel + " " + path, e);
+        }
     }
 
-    private void putObject(String batchIndexKey, byte[] bytes) {
+    private ObjectMetadata createMetadata() {
         ObjectMetadata metadata = new ObjectMetadata();
-        InputStream stream = new ByteArrayInputStream(bytes);
-        metadata.setContentLength(bytes.length);
         if (useEncrypted) {
             metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
         }
+        return metadata;
+    }
+
+    private void putObject(String batchIndexKey, byte[] bytes) {
+        ObjectMetadata metadata = createMetadata();
+        InputStream stream = new ByteArrayInputStream(bytes);
+        metadata.setContentLength(bytes.length);
         PutObjectRequest request = new PutObjectRequest(s3BucketName, batchIndexKey, stream, metadata);
         s3Client.putObject(request);
     }
@@ -399,7 +734,15 @@ public class S3BatchContentDao implements ContentDao {
         return channel + BATCH_ITEMS + path.toUrl();
     }
 
+    private String getS3BatchDirectoryKey(String channel, ContentPath path) {
+        return channel + BATCH_DIRECTORY + path.toUrl();
+    }
+
     private String getS3BatchIndexKey(String channel, ContentPath path) {
         return channel + BATCH_INDEX + path.toUrl();
     }
+
+    private String getS3RollupKey(String channel, DateTime start, TimeUtil.Unit unit) {
+        return channel + getRollupPrefix(unit) + unit.format(start);
+    }
 }
@@ -18,6 +18,8 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -32,7 +34,7 @@ public class S3BatchResource {
     private static final ContentDao s3BatchContentDao = HubProvider.getInstance(ContentDao.class, ContentDao.BATCH_LONG_TERM);
 
     public static boolean getAndWriteBatch(ContentDao contentDao, String channel, MinutePath path,
-                                           Collection<ContentKey> keys, String batchUrl) {
+                                           Collection<ContentKey> keys, String batchUrl) throws IOException {
         ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch", path);
         ClientResponse response = RestClient.defaultClient()
                 .resource(batchUrl + "&location=CACHE")
@@ -43,8 +45,11 @@ public class S3BatchResource {
             return false;
         }
         ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch got response");
-        byte[] bytes = response.getEntity(byte[].class);
-        contentDao.writeBatch(channel, path, keys, bytes);
+        try (InputStream stream = response.getEntityInputStream()) {
+            contentDao.writeBatch(channel, path, keys, stream);
+        } finally {
+            response.close();
+        }
         ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch completed");
         return true;
     }
@@ -0,0 +1,382 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.cluster.CuratorLeader;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.Leader;
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.Traces;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.flightstats.hub.util.Sleeper;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes the S3 objects under a channel path, splitting the key space into one shard per month.
+ * Each shard is listed and deleted a page at a time, with up to s3.delete.shards shards of a deletion in flight
+ * on s3.delete.threads threads shared by all deletions.
+ * A deletion is recorded in ZooKeeper with its limit, along with the month before which every shard is complete,
+ * so one interrupted by a restart is resumed from that month by the leader of /S3DeleterService.
+ */
+@Singleton
+public class S3Deleter {
+
+    static final String PENDING = "/S3DeletePending/";
+    static final String PROGRESS = "/S3DeleteProgress/";
+    private static final String LOCK = "/S3DeleteLock/";
+    private static final String KEYS = "KEYS";
+
+    private final static Logger logger = LoggerFactory.getLogger(S3Deleter.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final AmazonS3 s3Client;
+    private final String s3BucketName;
+    private final CuratorFramework curator;
+    private final LastContentPath lastContentPath;
+    private final int maxShards = HubProperties.getProperty("s3.delete.shards", 8);
+    private final int resumeMinutes = HubProperties.getProperty("s3.delete.resumeMinutes", 5);
+    private final ExecutorService shardService = Executors.newFixedThreadPool(HubProperties.getProperty("s3.delete.threads", 16),
+            new ThreadFactoryBuilder().setNameFormat("S3DeleteShard-%d").setDaemon(true).build());
+    private final ExecutorService channelService = Executors.newFixedThreadPool(HubProperties.getProperty("s3.delete.channelThreads", 2),
+            new ThreadFactoryBuilder().setNameFormat("S3DeleteChannel-%d").setDaemon(true).build());
+
+    @Inject
+    public S3Deleter(AmazonS3 s3Client, S3BucketName s3BucketName, CuratorFramework curator) {
+        this.s3Client = s3Client;
+        this.s3BucketName = s3BucketName.getS3BucketName();
+        this.curator = curator;
+        this.lastContentPath = new LastContentPath(curator);
+        if (HubProperties.getProperty("s3.delete.resume", true)) {
+            HubServices.register(new S3DeleterService(), HubServices.TYPE.AFTER_HEALTHY_START);
+        }
+    }
+
+    /**
+     * Deletes the items under channelPath which are before the limitKey.
+     */
+    void delete(String channelPath, ContentKey limitKey) {
+        run(new Deletion(KEYS, channelPath, limitKey));
+    }
+
+    /**
+     * Rollups which start before the limitKey may include deleted items, so they are deleted too.
+     */
+    void deleteRollups(String channelPath, TimeUtil.Unit unit, ContentKey limitKey) {
+        run(new Deletion(unit.name(), channelPath, limitKey));
+    }
+
+    /**
+     * Runs a whole channel's deletion in the background.
+     */
+    void submit(String channel, Runnable deletion) {
+        Traces traces = ActiveTraces.getLocal();
+        channelService.submit(() -> {
+            try {
+                ActiveTraces.start("S3Deleter.submit", traces, channel);
+                deletion.run();
+            } catch (Exception e) {
+                logger.warn("unable to delete " + channel, e);
+            } finally {
+                ActiveTraces.end();
+            }
+        });
+    }
+
+    private void run(Deletion deletion) {
+        InterProcessSemaphoreMutex mutex = new InterProcessSemaphoreMutex(curator, LOCK + deletion.name);
+        boolean acquired = false;
+        try {
+            ContentPath pending = lastContentPath.getOrNull(deletion.name, PENDING);
+            MinutePath progress = null;
+            if (deletion.limitKey.equals(pending)) {
+                progress = (MinutePath) lastContentPath.getOrNull(deletion.name, PROGRESS);
+            }
+            acquired = mutex.acquire(1, TimeUnit.SECONDS);
+            if (!acquired) {
+                logger.info("already deleting {}, leaving {} pending", deletion.channelPath, deletion.limitKey);
+                lastContentPath.updateIncrease(deletion.limitKey, deletion.name, PENDING);
+                return;
+            }
+            if (!deletion.limitKey.equals(pending)) {
+                lastContentPath.update(deletion.limitKey, deletion.name, PENDING);
+                lastContentPath.delete(deletion.name, PROGRESS);
+            }
+            if (deletion.run(progress)) {
+                ContentPath latest = lastContentPath.getOrNull(deletion.name, PENDING);
+                if (deletion.limitKey.equals(latest)) {
+                    lastContentPath.delete(deletion.name, PENDING);
+                }
+                lastContentPath.delete(deletion.name, PROGRESS);
+            }
+        } catch (RuntimeInterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.warn("unable to delete " + deletion.channelPath + " " + deletion.limitKey, e);
+        } finally {
+            if (acquired) {
+                try {
+                    mutex.release();
+                } catch (Exception e) {
+                    logger.info("unable to release {} {}", deletion.name, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void resume() {
+        for (String name : lastContentPath.getNames(PENDING)) {
+            ContentPath limitKey = lastContentPath.getOrNull(name, PENDING);
+            String decoded = decode(name);
+            if (limitKey instanceof ContentKey && decoded.contains(":")) {
+                logger.info("resuming deletion of {} before {}", decoded, limitKey);
+                ActiveTraces.start("S3Deleter.resume", decoded);
+                try {
+                    run(new Deletion(StringUtils.substringBefore(decoded, ":"), StringUtils.substringAfter(decoded, ":"),
+                            (ContentKey) limitKey));
+                } finally {
+                    ActiveTraces.end();
+                }
+            } else {
+                logger.warn("unable to resume {} {}", decoded, limitKey);
+                lastContentPath.delete(name, PENDING);
+            }
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private class Deletion {
+        private final String name;
+        private final String type;
+        private final String channelPath;
+        private final ContentKey limitKey;
+        private final String channelTag;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final AtomicLong deleted = new AtomicLong();
+
+        private Deletion(String type, String channelPath, ContentKey limitKey) {
+            this.name = encode(type + ":" + channelPath);
+            this.type = type;
+            this.channelPath = channelPath;
+            this.limitKey = limitKey;
+            this.channelTag = "channel:" + StringUtils.substringBefore(StringUtils.removeEnd(channelPath, "/"), "/");
+        }
+
+        private boolean shouldDelete(String path) {
+            if (type.equals(KEYS)) {
+                Optional<ContentPath> contentPath = ContentPath.fromUrl(path);
+                return contentPath.isPresent() && contentPath.get().compareTo(limitKey) < 0;
+            }
+            return TimeUtil.Unit.valueOf(type).parse(path).isBefore(limitKey.getTime());
+        }
+
+        /**
+         * @return true if every shard completed
+         */
+        private boolean run(MinutePath progress) throws Exception {
+            long start = System.currentTimeMillis();
+            List<DateTime> months = listMonths();
+            if (progress != null) {
+                months.removeIf(month -> month.isBefore(progress.getTime()));
+            }
+            logger.info("deleting {} before {} in {} months from {}", channelPath, limitKey, months.size(), progress);
+            ActiveTraces.getLocal().add("S3Deleter.run", channelPath, months.size());
+            Semaphore inFlight = new Semaphore(maxShards);
+            boolean[] completed = new boolean[months.size()];
+            AtomicLong remaining = new AtomicLong(months.size());
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < months.size(); i++) {
+                int shard = i;
+                inFlight.acquire();
+                futures.add(shardService.submit(() -> {
+                    try {
+                        deleteShard(months.get(shard));
+                        updateProgress(months, completed, shard);
+                        statsd.gauge("s3.delete.shards", remaining.decrementAndGet(), channelTag, "type:" + type);
+                    } catch (Exception e) {
+                        failed.set(true);
+                        logger.warn("unable to delete shard " + channelPath + " " + months.get(shard), e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long millis = System.currentTimeMillis() - start;
+            statsd.recordExecutionTime("s3.delete.time", millis, channelTag, "type:" + type);
+            logger.info("deleted {} from {} before {} in {} ms, failed {}", deleted.get(), channelPath, limitKey, millis, failed.get());
+            ActiveTraces.getLocal().add("S3Deleter.run completed", channelPath, deleted.get());
+            return !failed.get();
+        }
+
+        /**
+         * The progress is the first month which is not complete, so every earlier shard can be skipped on a resume.
+         */
+        private synchronized void updateProgress(List<DateTime> months, boolean[] completed, int shard) {
+            completed[shard] = true;
+            int first = 0;
+            while (first < completed.length && completed[first]) {
+                first++;
+            }
+            if (first > 0 && first < completed.length) {
+                lastContentPath.updateIncrease(new MinutePath(months.get(first)), name, PROGRESS);
+            }
+        }
+
+        private List<DateTime> listMonths() {
+            List<DateTime> months = new ArrayList<>();
+            for (String year : listPrefixes(channelPath)) {
+                int yearValue = parse(year, channelPath, 4);
+                if (yearValue < 0 || new DateTime(yearValue, 1, 1, 0, 0, DateTimeZone.UTC).isAfter(limitKey.getTime())) {
+                    continue;
+                }
+                for (String month : listPrefixes(year)) {
+                    int monthValue = parse(month, year, 2);
+                    if (monthValue < 1 || monthValue > 12) {
+                        continue;
+                    }
+                    DateTime monthStart = new DateTime(yearValue, monthValue, 1, 0, 0, DateTimeZone.UTC);
+                    if (!monthStart.isAfter(limitKey.getTime())) {
+                        months.add(monthStart);
+                    }
+                }
+            }
+            return months;
+        }
+
+        private List<String> listPrefixes(String prefix) {
+            List<String> prefixes = new ArrayList<>();
+            ListObjectsRequest request = new ListObjectsRequest()
+                    .withBucketName(s3BucketName)
+                    .withPrefix(prefix)
+                    .withDelimiter("/");
+            ObjectListing listing;
+            do {
+                listing = s3Client.listObjects(request);
+                prefixes.addAll(listing.getCommonPrefixes());
+                request.setMarker(listing.getNextMarker());
+            } while (listing.isTruncated());
+            return prefixes;
+        }
+
+        private int parse(String prefix, String parent, int length) {
+            String value = StringUtils.removeEnd(StringUtils.removeStart(prefix, parent), "/");
+            if (value.length() != length || !StringUtils.isNumeric(value)) {
+                return -1;
+            }
+            return Integer.parseInt(value);
+        }
+
+        private void deleteShard(DateTime month) {
+            String prefix = channelPath + TimeUtil.Unit.MONTHS.format(month) + "/";
+            ListObjectsRequest request = new ListObjectsRequest()
+                    .withBucketName(s3BucketName)
+                    .withPrefix(prefix);
+            ObjectListing listing;
+            do {
+                listing = s3Client.listObjects(request);
+                List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
+                for (S3ObjectSummary objectSummary : listing.getObjectSummaries()) {
+                    if (shouldDelete(StringUtils.substringAfter(objectSummary.getKey(), channelPath))) {
+                        keys.add(new DeleteObjectsRequest.KeyVersion(objectSummary.getKey()));
+                    }
+                }
+                if (!keys.isEmpty()) {
+                    deleteKeys(keys);
+                }
+                request.setMarker(listing.getNextMarker());
+            } while (listing.isTruncated());
+        }
+
+        private void deleteKeys(List<DeleteObjectsRequest.KeyVersion> keys) {
+            DeleteObjectsRequest multiObjectDeleteRequest = new DeleteObjectsRequest(s3BucketName);
+            multiObjectDeleteRequest.setKeys(keys);
+            int count = keys.size();
+            try {
+                s3Client.deleteObjects(multiObjectDeleteRequest);
+            } catch (MultiObjectDeleteException e) {
+                logger.info("unable to delete {} of {} from {} {}", e.getErrors().size(), count, channelPath, e.getMessage());
+                failed.set(true);
+                count -= e.getErrors().size();
+            }
+            deleted.addAndGet(count);
+            statsd.count("s3.delete.keys", count, channelTag, "type:" + type);
+            logger.debug("deleted {} from {}", count, channelPath);
+        }
+    }
+
+    private class S3DeleterService extends AbstractIdleService implements Leader {
+
+        @Override
+        protected void startUp() throws Exception {
+            CuratorLeader curatorLeader = new CuratorLeader("/S3DeleterService", this);
+            curatorLeader.start();
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            //do nothing
+        }
+
+        @Override
+        public void takeLeadership(Leadership leadership) {
+            logger.info("taking leadership");
+            while (leadership.hasLeadership()) {
+                try {
+                    resume();
+                } catch (RuntimeInterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    logger.warn("unable to resume deletions", e);
+                }
+                Sleeper.sleep(TimeUnit.MINUTES.toMillis(resumeMinutes));
+            }
+            logger.info("lost leadership");
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.MetricsSender;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the keys S3 holds for a channel's minute, shared by every query on this server.
+ * Only minutes which ended before the Spoke TTL are cached, as few writes reach S3 for them after that.
+ * Those that do, such as historical inserts, S3WriteQueue retries and S3Verifier repairs, remove their minute
+ * when this server writes them.  A write from another server can stay unseen here for up to s3.indexCache.ttlMinutes.
+ * Entries are also removed by size, or when the channel's items are deleted.
+ * Each hit is one S3 request which was not made.
+ */
+@Singleton
+public class S3IndexCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3IndexCache.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    enum Type {
+        BATCH_INDEX("batchIndex"),
+        SINGLE_LIST("singleList");
+
+        private final String tag;
+
+        Type(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final MetricsSender sender;
+    private final int spokeTtlMinutes = HubProperties.getSpokeTtl();
+    private final boolean enabled = HubProperties.getProperty("s3.indexCache.enabled", true);
+    private final Cache<IndexKey, List<ContentKey>> cache;
+    private final Map<Type, AtomicLong> saved = new EnumMap<>(Type.class);
+    private CacheStats lastStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    @Inject
+    public S3IndexCache(MetricsSender sender) {
+        this.sender = sender;
+        long maxKeys = HubProperties.getProperty("s3.indexCache.maxKeys", 500 * 1000);
+        int ttlMinutes = HubProperties.getProperty("s3.indexCache.ttlMinutes", 60);
+        logger.info("caching up to {} keys for {} minutes", maxKeys, ttlMinutes);
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxKeys)
+                .weigher((IndexKey key, List<ContentKey> keys) -> keys.size() + 1)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        for (Type type : Type.values()) {
+            saved.put(type, new AtomicLong());
+        }
+        HubServices.register(new S3IndexCacheMetricsService());
+    }
+
+    /**
+     * @return null if the minute is not cached, or is too recent to be
+     */
+    List<ContentKey> get(Type type, String channel, MinutePath path) {
+        if (!isCacheable(path)) {
+            return null;
+        }
+        List<ContentKey> keys = cache.getIfPresent(new IndexKey(type, channel, path));
+        if (keys != null) {
+            saved.get(type).incrementAndGet();
+        }
+        return keys;
+    }
+
+    /**
+     * @param keys every key S3 has for the minute, which may be none
+     */
+    void put(Type type, String channel, MinutePath path, Collection<ContentKey> keys) {
+        if (isCacheable(path)) {
+            cache.put(new IndexKey(type, channel, path), ImmutableList.copyOf(keys));
+        }
+    }
+
+    /**
+     * Removes the channel's minutes up to and including the minute of limitKey.
+     */
+    void invalidate(String channel, ContentKey limitKey) {
+        DateTime limit = limitKey.getTime();
+        cache.asMap().keySet().removeIf(key -> key.channel.equals(channel) && !key.path.getTime().isAfter(limit));
+    }
+
+    /**
+     * Removes the minute, after a write to it.
+     */
+    void invalidate(Type type, String channel, MinutePath path) {
+        if (enabled) {
+            cache.invalidate(new IndexKey(type, channel, path));
+        }
+    }
+
+    private boolean isCacheable(MinutePath path) {
+        return enabled && path.getTime().plusMinutes(1).isBefore(TimeUtil.now().minusMinutes(spokeTtlMinutes));
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    private void report() {
+        CacheStats stats = cache.stats();
+        CacheStats delta = stats.minus(lastStats);
+        lastStats = stats;
+        long totalSaved = 0;
+        for (Map.Entry<Type, AtomicLong> entry : saved.entrySet()) {
+            long count = entry.getValue().getAndSet(0);
+            totalSaved += count;
+            statsd.count("s3.indexCache.saved", count, "type:" + entry.getKey().tag);
+        }
+        statsd.count("s3.indexCache.hits", delta.hitCount());
+        statsd.count("s3.indexCache.misses", delta.missCount());
+        statsd.count("s3.indexCache.evictions", delta.evictionCount());
+        statsd.gauge("s3.indexCache.hitRatio", delta.hitRate());
+        statsd.gauge("s3.indexCache.minutes", cache.size());
+        sender.send("s3.indexCache.hitRatio", delta.hitRate());
+        sender.send("s3.indexCache.saved", totalSaved);
+        logger.debug("cache {} saved {}", delta, totalSaved);
+    }
+
+    @ToString
+    @EqualsAndHashCode
+    private static class IndexKey {
+        private final Type type;
+        private final String channel;
+        private final MinutePath path;
+
+        private IndexKey(Type type, String channel, MinutePath path) {
+            this.type = type;
+            this.channel = channel;
+            this.path = path;
+        }
+    }
+
+    private class S3IndexCacheMetricsService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                report();
+            } catch (Exception e) {
+                logger.warn("unable to report cache metrics", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            int seconds = HubProperties.getProperty("metrics.seconds", 30);
+            return Scheduler.newFixedDelaySchedule(seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+}
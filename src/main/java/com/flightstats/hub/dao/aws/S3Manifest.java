@@ -0,0 +1,150 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Singleton;
+import lombok.EqualsAndHashCode;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per channel minute digests of the keys this server has written to Spoke, and of the keys its S3WriteQueue has written to S3.
+ * A digest is a count and a sum of key hashes, so it can be updated in any order.
+ * A key is written once a Spoke server has it, even if the insert then failed.  A key which the S3WriteQueue gave up on
+ * is taken back out of written, and keeps its minute mismatched until it is written again, as the S3Verifier does.
+ * Every key this server writes to Spoke is added to its own S3WriteQueue, so when the digests for a minute agree on every
+ * server, nothing in that minute is missing from S3.
+ * Minutes before this server started are unknown, and minutes older than s3Verifier.manifestMinutes are dropped.
+ */
+@Singleton
+public class S3Manifest {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3Manifest.class);
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private final Map<ManifestKey, Digests> manifests = new ConcurrentHashMap<>();
+    private final DateTime started = TimeUtil.now();
+    private final int keepMinutes = HubProperties.getProperty("s3Verifier.manifestMinutes", HubProperties.getSpokeTtl() + 60);
+
+    public S3Manifest() {
+        HubServices.register(new S3ManifestPruneService());
+    }
+
+    void written(String channel, ContentKey key) {
+        getDigests(channel, key).written(hash(key));
+    }
+
+    void stored(String channel, ContentKey key) {
+        getDigests(channel, key).stored(hash(key));
+    }
+
+    void failed(String channel, ContentKey key) {
+        getDigests(channel, key).failed(hash(key));
+    }
+
+    private Digests getDigests(String channel, ContentKey key) {
+        return manifests.computeIfAbsent(new ManifestKey(channel, new MinutePath(key.getTime())), k -> new Digests());
+    }
+
+    private static long hash(ContentKey key) {
+        return hashFunction.hashString(key.toUrl(), StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * Minutes which started before this are not known.
+     */
+    DateTime getStarted() {
+        DateTime kept = TimeUtil.Unit.MINUTES.round(TimeUtil.now().minusMinutes(keepMinutes));
+        return kept.isAfter(started) ? kept : started;
+    }
+
+    /**
+     * @return the minutes, by channel, where the keys written to Spoke and to S3 disagree
+     */
+    Map<String, SortedSet<MinutePath>> getMismatched() {
+        Map<String, SortedSet<MinutePath>> mismatched = new TreeMap<>();
+        for (Map.Entry<ManifestKey, Digests> entry : manifests.entrySet()) {
+            if (!entry.getValue().matches()) {
+                mismatched.computeIfAbsent(entry.getKey().channel, k -> new TreeSet<>()).add(entry.getKey().path);
+            }
+        }
+        return mismatched;
+    }
+
+    void prune(DateTime before) {
+        manifests.keySet().removeIf(key -> key.path.getTime().isBefore(before));
+    }
+
+    int size() {
+        return manifests.size();
+    }
+
+    @EqualsAndHashCode
+    private static class ManifestKey {
+        private final String channel;
+        private final MinutePath path;
+
+        private ManifestKey(String channel, MinutePath path) {
+            this.channel = channel;
+            this.path = path;
+        }
+    }
+
+    private static class Digests {
+        private long writtenCount;
+        private long writtenHash;
+        private long storedCount;
+        private long storedHash;
+        private final Set<Long> failed = new HashSet<>();
+
+        synchronized void written(long hash) {
+            writtenCount++;
+            writtenHash += hash;
+            failed.remove(hash);
+        }
+
+        synchronized void failed(long hash) {
+            writtenCount--;
+            writtenHash -= hash;
+            failed.add(hash);
+        }
+
+        synchronized void stored(long hash) {
+            storedCount++;
+            storedHash += hash;
+        }
+
+        synchronized boolean matches() {
+            return writtenCount == storedCount && writtenHash == storedHash && failed.isEmpty();
+        }
+    }
+
+    private class S3ManifestPruneService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                prune(TimeUtil.now().minusMinutes(keepMinutes));
+                logger.debug("manifest minutes {}", size());
+            } catch (Exception e) {
+                logger.warn("unable to prune manifests", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            return Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes an S3 object as it is produced, in parts of up to partBytes.
+ * An object which fits in one part is written with a single PUT, otherwise each full part is uploaded
+ * as part of a multipart upload while the next part is filled, with up to maxParallel parts in flight.
+ * close completes the object, and abort discards it.
+ */
+class S3MultipartOutputStream extends OutputStream {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3MultipartOutputStream.class);
+    private static final int PART_BYTES = HubProperties.getProperty("s3.multipartMB", 16) * 1024 * 1024;
+    private static final int MAX_PARALLEL = HubProperties.getProperty("s3.multipartParallel", 4);
+    private static final ExecutorService sharedService = Executors.newFixedThreadPool(HubProperties.getProperty("s3.multipartThreads", 16),
+            new ThreadFactoryBuilder().setNameFormat("S3Multipart-%d").setDaemon(true).build());
+
+    private final AmazonS3 s3Client;
+    private final String bucketName;
+    private final String key;
+    private final ObjectMetadata metadata;
+    private final int partBytes;
+    private final ExecutorService executorService;
+    private final Semaphore parallel;
+    private final List<Future<PartETag>> parts = new ArrayList<>();
+    private byte[] buffer = new byte[8 * 1024];
+    private int count;
+    private long bytes;
+    private String uploadId;
+    private boolean closed;
+
+    S3MultipartOutputStream(AmazonS3 s3Client, String bucketName, String key, ObjectMetadata metadata,
+                            int partBytes, ExecutorService executorService, int maxParallel) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.metadata = metadata;
+        this.partBytes = partBytes;
+        this.executorService = executorService;
+        this.parallel = new Semaphore(maxParallel);
+    }
+
+    /**
+     * Uses s3.multipartMB parts, with s3.multipartParallel in flight on the threads shared by all uploads.
+     */
+    static S3MultipartOutputStream create(AmazonS3 s3Client, String bucketName, String key, ObjectMetadata metadata) {
+        return new S3MultipartOutputStream(s3Client, bucketName, key, metadata, PART_BYTES, sharedService, MAX_PARALLEL);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == partBytes) {
+                uploadPart();
+            }
+            int length = Math.min(len, partBytes - count);
+            if (count + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(partBytes, Math.max(buffer.length * 2, count + length)));
+            }
+            System.arraycopy(b, off, buffer, count, length);
+            count += length;
+            bytes += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        if (uploadId == null) {
+            InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucketName, key, metadata);
+            uploadId = s3Client.initiateMultipartUpload(request).getUploadId();
+            logger.debug("started multipart upload {} {}", key, uploadId);
+        }
+        try {
+            parallel.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        }
+        UploadPartRequest request = new UploadPartRequest()
+                .withBucketName(bucketName)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(parts.size() + 1)
+                .withInputStream(new ByteArrayInputStream(buffer, 0, count))
+                .withPartSize(count);
+        parts.add(executorService.submit(() -> {
+            try {
+                return s3Client.uploadPart(request).getPartETag();
+            } finally {
+                parallel.release();
+            }
+        }));
+        buffer = new byte[Math.min(partBytes, 8 * 1024)];
+        count = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (uploadId == null) {
+            metadata.setContentLength(count);
+            s3Client.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(buffer, 0, count), metadata));
+            return;
+        }
+        try {
+            if (count > 0) {
+                uploadPart();
+            }
+            List<PartETag> eTags = new ArrayList<>();
+            for (Future<PartETag> part : parts) {
+                eTags.add(part.get());
+            }
+            s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, eTags));
+            logger.debug("completed multipart upload {} {} parts {} bytes", key, eTags.size(), bytes);
+        } catch (InterruptedException e) {
+            abort();
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            abort();
+            throw new IOException("unable to upload " + key, e.getCause());
+        } catch (RuntimeException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards any parts which have been uploaded.
+     */
+    void abort() {
+        closed = true;
+        if (uploadId == null) {
+            return;
+        }
+        for (Future<PartETag> part : parts) {
+            part.cancel(false);
+        }
+        try {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        } catch (Exception e) {
+            logger.warn("unable to abort multipart upload " + key + " " + uploadId, e);
+        }
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    boolean isMultipart() {
+        return uploadId != null;
+    }
+}
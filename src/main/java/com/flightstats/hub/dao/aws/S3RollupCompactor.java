@@ -0,0 +1,126 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.cluster.CuratorLeader;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.Leader;
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.ContentDao;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.replication.S3Batch;
+import com.flightstats.hub.util.Sleeper;
+import com.flightstats.hub.util.TimeUtil;
+import com.flightstats.hub.webhook.WebhookService;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes hour and day rollups of the S3 batch indexes, so queries over them read one object instead of one per minute.
+ * An hour is only rolled up once the channel's S3Batch webhook has completed every minute in it,
+ * and a day is rolled up along with its last hour.
+ */
+@Singleton
+public class S3RollupCompactor {
+
+    static final String LAST_ROLLED_HOUR = "/S3RollupLastHour/";
+    private final static Logger logger = LoggerFactory.getLogger(S3RollupCompactor.class);
+
+    private final int minutes = HubProperties.getProperty("s3.rollup.minutes", 15);
+    private final int backfillHours = HubProperties.getProperty("s3.rollup.backfillHours", 24);
+    private final double keepLeadershipRate = HubProperties.getProperty("s3.rollup.keepLeadershipRate", 0.75);
+    @Inject
+    private LastContentPath lastContentPath;
+    @Inject
+    private ChannelService channelService;
+    @Inject
+    private WebhookService webhookService;
+    @Inject
+    @Named(ContentDao.BATCH_LONG_TERM)
+    private ContentDao s3BatchContentDao;
+
+    public S3RollupCompactor() {
+        if (HubProperties.getProperty("s3.rollup.run", true)) {
+            HubServices.register(new S3RollupService(), HubServices.TYPE.AFTER_HEALTHY_START);
+        }
+    }
+
+    private void run() {
+        DateTime now = TimeUtil.now();
+        logger.info("rolling up S3 batch indexes at: {}", now);
+        for (ChannelConfig channel : channelService.getChannels()) {
+            if ((channel.isBatch() || channel.isBoth()) && !channel.isHistorical()) {
+                try {
+                    ActiveTraces.start("S3RollupCompactor", channel.getName());
+                    rollup(channel.getName());
+                } catch (Exception e) {
+                    logger.warn("unable to roll up " + channel.getName(), e);
+                } finally {
+                    ActiveTraces.end();
+                }
+            }
+        }
+        logger.info("completed rolling up S3 batch indexes at: {}", now);
+    }
+
+    void rollup(String channel) {
+        ContentPath completed = webhookService.getLastCompleted(S3Batch.getGroupName(channel));
+        if (completed == null) {
+            logger.debug("no S3Batch progress for {}", channel);
+            return;
+        }
+        DateTime completeBefore = TimeUtil.Unit.HOURS.round(completed.getTime().plusMinutes(1));
+        MinutePath defaultLast = new MinutePath(completeBefore.minusHours(backfillHours + 1));
+        DateTime hour = lastContentPath.get(channel, defaultLast, LAST_ROLLED_HOUR).getTime().plusHours(1);
+        while (!hour.plusHours(1).isAfter(completeBefore)) {
+            s3BatchContentDao.writeRollup(channel, hour, TimeUtil.Unit.HOURS);
+            if (hour.getHourOfDay() == 23) {
+                s3BatchContentDao.writeRollup(channel, TimeUtil.Unit.DAYS.round(hour), TimeUtil.Unit.DAYS);
+            }
+            lastContentPath.updateIncrease(new MinutePath(hour), channel, LAST_ROLLED_HOUR);
+            hour = hour.plusHours(1);
+        }
+    }
+
+    private class S3RollupService extends AbstractIdleService implements Leader {
+
+        @Override
+        protected void startUp() throws Exception {
+            CuratorLeader curatorLeader = new CuratorLeader("/S3RollupCompactorService", this);
+            curatorLeader.start();
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            //do nothing
+        }
+
+        @Override
+        public double keepLeadershipRate() {
+            return keepLeadershipRate;
+        }
+
+        @Override
+        public void takeLeadership(Leadership leadership) {
+            logger.info("taking leadership");
+            while (leadership.hasLeadership()) {
+                long start = System.currentTimeMillis();
+                run();
+                long sleep = TimeUnit.MINUTES.toMillis(minutes) - (System.currentTimeMillis() - start);
+                Sleeper.sleep(Math.max(0, sleep));
+            }
+            logger.info("lost leadership");
+        }
+    }
+}
@@ -12,6 +12,7 @@ import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.model.MinutePath;
 import com.flightstats.hub.model.TimeQuery;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Function;
@@ -38,14 +39,19 @@ public class S3SingleContentDao implements ContentDao {
 
     private final AmazonS3 s3Client;
     private final MetricsSender sender;
+    private final S3IndexCache indexCache;
+    private final S3Deleter s3Deleter;
     private final boolean useEncrypted;
     private final int s3MaxQueryItems;
     private final String s3BucketName;
 
     @Inject
-    public S3SingleContentDao(AmazonS3 s3Client, S3BucketName s3BucketName, MetricsSender sender) {
+    public S3SingleContentDao(AmazonS3 s3Client, S3BucketName s3BucketName, MetricsSender sender, S3IndexCache indexCache,
+                              S3Deleter s3Deleter) {
         this.s3Client = s3Client;
         this.sender = sender;
+        this.indexCache = indexCache;
+        this.s3Deleter = s3Deleter;
         this.useEncrypted = HubProperties.getProperty("app.encrypted", false);
         this.s3MaxQueryItems = HubProperties.getProperty("s3.maxQueryItems", 1000);
         this.s3BucketName = s3BucketName.getS3BucketName();
@@ -60,20 +66,41 @@ public class S3SingleContentDao implements ContentDao {
         throw new UnsupportedOperationException("use query interface");
     }
 
+    /**
+     * Items are compressed straight into an S3MultipartOutputStream, so an item larger than s3.multipartMB
+     * is uploaded in parts as it is compressed, instead of as one byte[].
+     */
     public ContentKey insert(String channelName, Content content) {
-        return insert(channelName, content, (metadata) -> {
-            try {
-                metadata.addUserMetadata("compressed", "true");
-                return ContentMarshaller.toBytes(content);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        ContentKey key = content.getContentKey().get();
+        ActiveTraces.getLocal().add("S3SingleContentDao.write", key);
+        String s3Key = getS3ContentKey(channelName, key);
+        ObjectMetadata metadata = createMetadata(content);
+        metadata.addUserMetadata("compressed", "true");
+        S3MultipartOutputStream output = S3MultipartOutputStream.create(s3Client, s3BucketName, s3Key, metadata);
+        try {
+            statsd.increment("s3.put", "type:single", "channel:" + channelName);
+            sender.send("channel." + channelName + ".s3.put", 1);
+            ContentMarshaller.write(channelName, content, output);
+            output.close();
+            logger.trace("insert {} {} {} multipart {}", channelName, key, output.getBytes(), output.isMultipart());
+            statsd.count("s3.put.bytes", output.getBytes(), "channel:" + channelName, "type:single");
+            if (output.isMultipart()) {
+                statsd.increment("s3.put.multipart", "channel:" + channelName);
             }
-        });
+            sender.send("channel." + channelName + ".s3.bytes", output.getBytes());
+            return key;
+        } catch (Exception e) {
+            output.abort();
+            logger.warn("unable to write item to S3 " + channelName + " " + key, e);
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        } finally {
+            ActiveTraces.getLocal().add("S3SingleContentDao.write completed");
+        }
     }
 
     //this is only needed for testing the non-compressed retrieval from S3.
     ContentKey insertOld(String channelName, Content content) {
-        return insert(channelName, content, (metadata) -> content.getData());
+        return insert(channelName, content, (Function<ObjectMetadata, byte[]>) metadata -> content.getData());
     }
 
     private ContentKey insert(String channelName, Content content, Function<ObjectMetadata, byte[]> handler) {
@@ -81,21 +108,11 @@ public class S3SingleContentDao implements ContentDao {
         ActiveTraces.getLocal().add("S3SingleContentDao.write", key);
         try {
             String s3Key = getS3ContentKey(channelName, key);
-            ObjectMetadata metadata = new ObjectMetadata();
+            ObjectMetadata metadata = createMetadata(content);
             byte[] bytes = handler.apply(metadata);
             logger.trace("insert {} {} {} {}", channelName, key, content.getSize(), bytes.length);
             InputStream stream = new ByteArrayInputStream(bytes);
             metadata.setContentLength(bytes.length);
-            if (content.getContentType().isPresent()) {
-                //todo - gfm - 6/29/16 - do we still want to write this?
-                metadata.setContentType(content.getContentType().get());
-                metadata.addUserMetadata("type", content.getContentType().get());
-            } else {
-                metadata.addUserMetadata("type", "none");
-            }
-            if (useEncrypted) {
-                metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
-            }
             PutObjectRequest request = new PutObjectRequest(s3BucketName, s3Key, stream, metadata);
             statsd.increment("s3.put", "type:single", "channel:" + channelName);
             statsd.count("s3.put.bytes", bytes.length, "channel:" + channelName, "type:single");
@@ -103,6 +120,7 @@ public class S3SingleContentDao implements ContentDao {
             sender.send("channel." + channelName + ".s3.put", 1);
             sender.send("channel." + channelName + ".s3.bytes", bytes.length);
             s3Client.putObject(request);
+            indexCache.invalidate(S3IndexCache.Type.SINGLE_LIST, channelName, new MinutePath(key.getTime()));
             return key;
         } catch (Exception e) {
             logger.warn("unable to write item to S3 " + channelName + " " + key, e);
@@ -112,6 +130,21 @@ public class S3SingleContentDao implements ContentDao {
         }
     }
 
+    private ObjectMetadata createMetadata(Content content) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        if (content.getContentType().isPresent()) {
+            //todo - gfm - 6/29/16 - do we still want to write this?
+            metadata.setContentType(content.getContentType().get());
+            metadata.addUserMetadata("type", content.getContentType().get());
+        } else {
+            metadata.addUserMetadata("type", "none");
+        }
+        if (useEncrypted) {
+            metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        }
+        return metadata;
+    }
+
     public Content get(final String channelName, final ContentKey key) {
         ActiveTraces.getLocal().add("S3SingleContentDao.read", key);
         try {
@@ -136,12 +169,12 @@ public class S3SingleContentDao implements ContentDao {
         try (S3Object object = s3Client.getObject(s3BucketName, getS3ContentKey(channelName, key))) {
             statsd.increment("s3.get", "type:single", "channel:" + channelName);
             sender.send("channel." + channelName + ".s3.get", 1);
-            byte[] bytes = ByteStreams.toByteArray(object.getObjectContent());
             ObjectMetadata metadata = object.getObjectMetadata();
             Map<String, String> userData = metadata.getUserMetadata();
             if (userData.containsKey("compressed")) {
-                return ContentMarshaller.toContent(bytes, key);
+                return ContentMarshaller.toContent(object.getObjectContent(), key);
             }
+            byte[] bytes = ByteStreams.toByteArray(object.getObjectContent());
             Content.Builder builder = Content.builder();
             String type = userData.get("type");
             if (!type.equals("none")) {
@@ -168,7 +201,9 @@ public class S3SingleContentDao implements ContentDao {
                 .withBucketName(s3BucketName)
                 .withMaxKeys(s3MaxQueryItems);
         DateTime endTime = query.getEndTime();
-        if (endTime == null) {
+        if (endTime == null && query.getUnit().equals(TimeUtil.Unit.MINUTES)) {
+            return queryMinute(query, request.withPrefix(query.getChannelName() + "/" + timePath));
+        } else if (endTime == null) {
             request.withPrefix(query.getChannelName() + "/" + timePath);
             endTime = query.getStartTime().plus(query.getUnit().getDuration());
         } else {
@@ -179,6 +214,30 @@ public class S3SingleContentDao implements ContentDao {
         return keys;
     }
 
+    /**
+     * A minute's listing is cached whole, and then limited for the query.
+     */
+    private SortedSet<ContentKey> queryMinute(TimeQuery query, ListObjectsRequest request) {
+        Traces traces = ActiveTraces.getLocal();
+        String channelName = query.getChannelName();
+        MinutePath path = new MinutePath(query.getStartTime());
+        Collection<ContentKey> minuteKeys = indexCache.get(S3IndexCache.Type.SINGLE_LIST, channelName, path);
+        if (minuteKeys == null) {
+            DateTime endTime = path.getTime().plus(TimeUtil.Unit.MINUTES.getDuration());
+            minuteKeys = iterateListObjects(channelName, request, MAX_ITEMS, endTime, 0, null);
+            indexCache.put(S3IndexCache.Type.SINGLE_LIST, channelName, path, minuteKeys);
+        } else {
+            traces.add("S3SingleContentDao.queryMinute cached", path, minuteKeys.size());
+        }
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        if (query.getCount() > 0 && query.getLimitKey() != null) {
+            keys = new ContentKeySet(query.getCount(), query.getLimitKey());
+        }
+        keys.addAll(minuteKeys);
+        traces.add("S3SingleContentDao.queryByTime completed", keys);
+        return keys;
+    }
+
     private SortedSet<ContentKey> iterateListObjects(String channelName, ListObjectsRequest request,
                                                      int maxItems, DateTime endTime, int count, ContentKey limitKey) {
         Traces traces = ActiveTraces.getLocal();
@@ -263,7 +322,8 @@ public class S3SingleContentDao implements ContentDao {
     @Override
     public void deleteBefore(String channel, ContentKey limitKey) {
         try {
-            S3Util.delete(channel + "/", limitKey, s3BucketName, s3Client);
+            s3Deleter.delete(channel + "/", limitKey);
+            indexCache.invalidate(channel, limitKey);
             logger.info("completed deletion of " + channel);
         } catch (Exception e) {
             logger.warn("unable to delete " + channel + " in " + s3BucketName, e);
@@ -271,16 +331,8 @@ public class S3SingleContentDao implements ContentDao {
     }
 
     public void delete(String channel) {
-        Traces traces = ActiveTraces.getLocal();
-        new Thread(() -> {
-            try {
-                ContentKey limitKey = new ContentKey(TimeUtil.now(), "ZZZZZZ");
-                ActiveTraces.start("S3SingleContentDao.delete", traces, limitKey);
-                deleteBefore(channel, limitKey);
-            } finally {
-                ActiveTraces.end();
-            }
-        }).start();
+        ContentKey limitKey = new ContentKey(TimeUtil.now(), "ZZZZZZ");
+        s3Deleter.submit(channel, () -> deleteBefore(channel, limitKey));
     }
 
 }
@@ -1,7 +1,11 @@
 package com.flightstats.hub.dao.aws;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flightstats.hub.app.HubHost;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.cluster.CuratorCluster;
 import com.flightstats.hub.cluster.CuratorLeader;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.cluster.Leader;
@@ -13,6 +17,8 @@ import com.flightstats.hub.exception.FailedQueryException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.spoke.RemoteSpokeStore;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
@@ -21,15 +27,18 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
 import lombok.AllArgsConstructor;
 import lombok.ToString;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.SortedSet;
-import java.util.TreeSet;
+import javax.ws.rs.core.MediaType;
+import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -37,6 +46,13 @@ import java.util.concurrent.TimeUnit;
 
 import static com.flightstats.hub.dao.LocalChannelService.HISTORICAL_FIRST_UPDATED;
 
+/**
+ * Finds items which are in Spoke but missing from S3, and adds them to the S3WriteQueue.
+ * They are counted as written in this server's S3Manifest, as its S3WriteQueue counts them as stored.
+ * When s3Verifier.manifests is enabled, each server's S3Manifest is read first, and only the minutes where
+ * the keys written to Spoke and to S3 disagree are listed.  All minutes are listed when a server could not answer,
+ * when a server has left the cluster, or for minutes before a server started.
+ */
 @Singleton
 public class S3Verifier {
 
@@ -45,6 +61,9 @@ public class S3Verifier {
 
     private final int offsetMinutes = HubProperties.getProperty("s3Verifier.offsetMinutes", 15);
     private final double keepLeadershipRate = HubProperties.getProperty("s3Verifier.keepLeadershipRate", 0.75);
+    private final boolean useManifests = HubProperties.getProperty("s3Verifier.manifests", true);
+    private final Client client = RestClient.createClient(5, 30, true, true);
+    private final Set<String> lastServers = new HashSet<>();
     private final ExecutorService queryThreadPool = Executors.newFixedThreadPool(30, new ThreadFactoryBuilder().setNameFormat("S3QueryThread-%d").build());
     private final ExecutorService channelThreadPool = Executors.newFixedThreadPool(10, new ThreadFactoryBuilder().setNameFormat("S3ChannelThread-%d").build());
     @Inject
@@ -60,6 +79,13 @@ public class S3Verifier {
     private ContentDao s3SingleContentDao;
     @Inject
     private S3WriteQueue s3WriteQueue;
+    @Inject
+    private S3Manifest s3Manifest;
+    @Inject
+    @Named("HubCuratorCluster")
+    private CuratorCluster hubCluster;
+    @Inject
+    private ObjectMapper mapper;
 
     public S3Verifier() {
         if (HubProperties.getProperty("s3Verifier.run", true)) {
@@ -116,13 +142,26 @@ public class S3Verifier {
         });
     }
 
-    private void singleS3Verification(VerifierRange range) {
+    private void singleS3Verification(VerifierRange range, ClusterManifest manifest) {
         runInChannelPool(range, "single", () -> {
             String channelName = range.channel.getName();
-            SortedSet<ContentKey> keysToAdd = getMissing(range.startPath, range.endPath, channelName, s3SingleContentDao, new TreeSet<>());
-            logger.debug("singleS3Verification.starting {}", range);
+            SortedSet<MinutePath> mismatched = null;
+            if (manifest != null && !range.channel.isHistorical()) {
+                mismatched = manifest.getMismatched(range);
+            }
+            SortedSet<ContentKey> keysToAdd;
+            if (mismatched == null) {
+                keysToAdd = getMissing(range.startPath, range.endPath, channelName, s3SingleContentDao, new TreeSet<>());
+            } else {
+                keysToAdd = new TreeSet<>();
+                for (MinutePath minute : mismatched) {
+                    keysToAdd.addAll(getMissing(minute, null, channelName, s3SingleContentDao, new TreeSet<>()));
+                }
+            }
+            logger.debug("singleS3Verification.starting {} mismatched {}", range, mismatched);
             for (ContentKey key : keysToAdd) {
                 logger.trace("found missing {} {}", channelName, key);
+                s3Manifest.written(channelName, key);
                 s3WriteQueue.add(new ChannelContentKey(channelName, key));
             }
             logger.debug("singleS3Verification.completed {}", range);
@@ -151,6 +190,7 @@ public class S3Verifier {
         try {
             DateTime now = TimeUtil.now();
             logger.info("Verifying Single S3 data at: {}", now);
+            ClusterManifest manifest = getClusterManifest();
             Iterable<ChannelConfig> channels = channelService.getChannels();
             for (ChannelConfig channel : channels) {
                 if (channel.isSingle() || channel.isBoth()) {
@@ -161,7 +201,7 @@ public class S3Verifier {
                         range = getSingleVerifierRange(now, channel);
                     }
                     if (range != null) {
-                        singleS3Verification(range);
+                        singleS3Verification(range, manifest);
                     }
                 }
             }
@@ -171,6 +211,33 @@ public class S3Verifier {
         }
     }
 
+    /**
+     * @return null if every minute should be listed
+     */
+    private ClusterManifest getClusterManifest() {
+        if (!useManifests) {
+            return null;
+        }
+        Set<String> servers = hubCluster.getServers();
+        boolean changed = lastServers.isEmpty() || !servers.containsAll(lastServers);
+        if (changed) {
+            logger.info("servers changed from {} to {}, listing all minutes", lastServers, servers);
+        }
+        lastServers.clear();
+        lastServers.addAll(servers);
+        if (changed) {
+            return null;
+        }
+        ClusterManifest manifest = new ClusterManifest();
+        for (String server : servers) {
+            if (!manifest.add(server)) {
+                return null;
+            }
+        }
+        logger.info("manifests started {} mismatched {}", manifest.started, manifest.mismatched);
+        return manifest;
+    }
+
     VerifierRange getHistoricalVerifierRange(DateTime now, ChannelConfig channel) {
         ContentPath lastUpdated = channelService.getLastUpdated(channel.getName(), new MinutePath(now));
         logger.debug("last updated {} {}", channel.getName(), lastUpdated);
@@ -226,6 +293,60 @@ public class S3Verifier {
         }
     }
 
+    private class ClusterManifest {
+
+        private DateTime started = new DateTime(0, DateTimeZone.UTC);
+        private final Map<String, SortedSet<MinutePath>> mismatched = new HashMap<>();
+
+        private boolean add(String server) {
+            ClientResponse response = null;
+            try {
+                response = client.resource(HubHost.getScheme() + server + "/internal/s3Manifest")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .get(ClientResponse.class);
+                if (response.getStatus() != 200) {
+                    logger.warn("unable to get manifest from {} {}", server, response);
+                    return false;
+                }
+                JsonNode root = mapper.readTree(response.getEntity(String.class));
+                DateTime serverStarted = new DateTime(root.get("started").asLong(), DateTimeZone.UTC);
+                if (serverStarted.isAfter(started)) {
+                    started = serverStarted;
+                }
+                Iterator<Map.Entry<String, JsonNode>> channels = root.get("mismatched").fields();
+                while (channels.hasNext()) {
+                    Map.Entry<String, JsonNode> channel = channels.next();
+                    SortedSet<MinutePath> minutes = mismatched.computeIfAbsent(channel.getKey(), k -> new TreeSet<>());
+                    for (JsonNode minute : channel.getValue()) {
+                        minutes.add(new MinutePath(new DateTime(minute.asLong(), DateTimeZone.UTC)));
+                    }
+                }
+                return true;
+            } catch (Exception e) {
+                logger.warn("unable to get manifest from " + server, e);
+                return false;
+            } finally {
+                RemoteSpokeStore.close(response);
+            }
+        }
+
+        /**
+         * @return null if some minutes in the range are not known
+         */
+        private SortedSet<MinutePath> getMismatched(VerifierRange range) {
+            if (range.startPath.getTime().isBefore(started)) {
+                return null;
+            }
+            SortedSet<MinutePath> minutes = new TreeSet<>();
+            for (MinutePath minute : mismatched.getOrDefault(range.channel.getName(), Collections.emptySortedSet())) {
+                if (minute.compareTo(range.startPath) >= 0 && minute.compareTo(range.endPath) <= 0) {
+                    minutes.add(minute);
+                }
+            }
+            return minutes;
+        }
+    }
+
     @AllArgsConstructor
     private class S3VerifierService extends AbstractIdleService implements Leader {
 
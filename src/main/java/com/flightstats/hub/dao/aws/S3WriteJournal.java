@@ -0,0 +1,191 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ChannelContentKey;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * An append only record on local disk of the keys waiting to be written to S3, one key url per line.
+ * Keys which are in the S3WriteQueue's memory are appended to the queued segment, and keys which did not fit
+ * are appended to the spilled segment, which is read back as the queue has room.
+ * Segments are rolled every segmentEntries keys, and a segment is deleted once every key in it has been acked.
+ * Segments left over from a previous run are read back the same way as spilled ones.
+ */
+class S3WriteJournal {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3WriteJournal.class);
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int segmentEntries;
+    private final Deque<Segment> unread = new ArrayDeque<>();
+    private long sequence;
+    private Segment queued;
+    private Segment spilled;
+
+    static class Segment {
+        private final Path path;
+        private final AtomicInteger acked = new AtomicInteger();
+        private BufferedWriter writer;
+        private int entries;
+        private boolean closed;
+
+        private Segment(Path path) {
+            this.path = path;
+        }
+    }
+
+    S3WriteJournal(String directory, int segmentEntries) throws IOException {
+        this.directory = Paths.get(directory);
+        this.segmentEntries = segmentEntries;
+        Files.createDirectories(this.directory);
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+            stream.forEach(existing::add);
+        }
+        Collections.sort(existing);
+        for (Path path : existing) {
+            sequence = Math.max(sequence, parseSequence(path) + 1);
+            unread.add(new Segment(path));
+        }
+        logger.info("journal {} has {} segments to recover", directory, existing.size());
+    }
+
+    private static long parseSequence(Path path) {
+        try {
+            return Long.parseLong(StringUtils.removeEnd(path.getFileName().toString(), SUFFIX));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Records a key which is about to be added to memory.
+     */
+    synchronized Segment appendQueued(ChannelContentKey key) throws IOException {
+        queued = append(queued, key);
+        Segment segment = queued;
+        if (queued.entries >= segmentEntries) {
+            close(queued);
+            queued = null;
+        }
+        return segment;
+    }
+
+    /**
+     * Records a key which did not fit in memory, to be returned by readSpilled.
+     */
+    synchronized void appendSpilled(ChannelContentKey key) throws IOException {
+        spilled = append(spilled, key);
+        if (spilled.entries >= segmentEntries) {
+            rollSpilled();
+        }
+    }
+
+    private Segment append(Segment segment, ChannelContentKey key) throws IOException {
+        if (segment == null) {
+            segment = new Segment(directory.resolve(String.format("%019d", sequence++) + SUFFIX));
+            segment.writer = Files.newBufferedWriter(segment.path, StandardCharsets.UTF_8);
+        }
+        segment.writer.write(key.toUrl());
+        segment.writer.newLine();
+        segment.writer.flush();
+        segment.entries++;
+        return segment;
+    }
+
+    private void rollSpilled() throws IOException {
+        close(spilled);
+        unread.add(spilled);
+        spilled = null;
+    }
+
+    private void close(Segment segment) throws IOException {
+        segment.writer.close();
+        segment.closed = true;
+        deleteIfAcked(segment);
+    }
+
+    /**
+     * Reads the oldest spilled or recovered segment, and passes each key with its segment to the consumer,
+     * which acks the key once it has been written.
+     *
+     * @return false if there was nothing to read
+     */
+    boolean readSpilled(BiConsumer<ChannelContentKey, Segment> consumer) throws IOException {
+        Segment segment;
+        synchronized (this) {
+            if (unread.isEmpty() && spilled != null) {
+                rollSpilled();
+            }
+            segment = unread.poll();
+        }
+        if (segment == null) {
+            return false;
+        }
+        int entries = 0;
+        try (BufferedReader reader = Files.newBufferedReader(segment.path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ChannelContentKey key = parse(line);
+                if (key != null) {
+                    entries++;
+                    consumer.accept(key, segment);
+                }
+            }
+        }
+        synchronized (this) {
+            segment.entries = entries;
+            segment.closed = true;
+            deleteIfAcked(segment);
+        }
+        return true;
+    }
+
+    private static ChannelContentKey parse(String line) {
+        try {
+            return ChannelContentKey.fromUrl(line);
+        } catch (Exception e) {
+            logger.warn("unable to parse journal entry {}", line);
+            return null;
+        }
+    }
+
+    void ack(Segment segment) {
+        segment.acked.incrementAndGet();
+        synchronized (this) {
+            deleteIfAcked(segment);
+        }
+    }
+
+    private void deleteIfAcked(Segment segment) {
+        if (segment.closed && segment.acked.get() >= segment.entries) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                logger.warn("unable to delete " + segment.path, e);
+            }
+        }
+    }
+
+    synchronized int getUnread() {
+        return unread.size() + (spilled == null ? 0 : 1);
+    }
+}
@@ -2,102 +2,224 @@ package com.flightstats.hub.dao.aws;
 
 
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.exception.FailedReadException;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.DataDog;
 import com.flightstats.hub.model.ChannelContentKey;
 import com.flightstats.hub.model.Content;
+import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
-import com.github.rholder.retry.Retryer;
-import com.github.rholder.retry.RetryerBuilder;
-import com.github.rholder.retry.StopStrategies;
-import com.github.rholder.retry.WaitStrategies;
+import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import com.timgroup.statsd.StatsDClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Writes items from Spoke to S3 behind the write path.
+ * One dispatcher takes keys from the queue whenever there is room in the window of s3.writeQueueConcurrency writes,
+ * and the writes run on threads which are only created while there is work.
+ * A failed write waits for its retry on a scheduler, without holding a thread, after 2 and then 4 seconds.
+ * The queue holds at most s3.writeQueueSize keys.  When it is full, add waits up to s3.writeQueueOfferMillis for room,
+ * so bursts slow the caller, and then drops the key, which is counted and left for the S3Verifier.
+ * If s3.writeJournal.path is set, every key is also recorded in an S3WriteJournal until it is written,
+ * keys which do not fit in memory are spilled to it instead of waiting, and keys left from a previous run are replayed.
+ */
 @SuppressWarnings("WeakerAccess")
 @Singleton
 public class S3WriteQueue {
 
     private final static Logger logger = LoggerFactory.getLogger(S3WriteQueue.class);
+    private final static StatsDClient statsd = DataDog.statsd;
 
-    private static final int THREADS = HubProperties.getProperty("s3.writeQueueThreads", 20);
-    private Retryer<Void> retryer = buildRetryer();
-    private BlockingQueue<ChannelContentKey> keys = new LinkedBlockingQueue<>(HubProperties.getProperty("s3.writeQueueSize", 40000));
-    private ExecutorService executorService = Executors.newFixedThreadPool(THREADS,
-            new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-%d").build());
+    static final int CONCURRENCY = HubProperties.getProperty("s3.writeQueueConcurrency",
+            HubProperties.getProperty("s3.writeQueueThreads", 20));
+    private static final int ATTEMPTS = 3;
+
+    private final long offerMillis = HubProperties.getProperty("s3.writeQueueOfferMillis", 1000);
+    private final BlockingQueue<QueuedKey> keys = new LinkedBlockingQueue<>(HubProperties.getProperty("s3.writeQueueSize", 40000));
+    private final Semaphore window = new Semaphore(CONCURRENCY);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final ThreadPoolExecutor executorService = new ThreadPoolExecutor(CONCURRENCY, CONCURRENCY, 1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-%d").build());
+    private final S3WriteJournal journal = createJournal();
+    private final ScheduledExecutorService retryService = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("S3WriteQueueRetry-%d").setDaemon(true).build());
     @Inject
     @Named(ContentDao.CACHE)
     private ContentDao spokeContentDao;
     @Inject
     @Named(ContentDao.SINGLE_LONG_TERM)
     private ContentDao s3SingleContentDao;
-
+    @Inject
+    private S3Manifest s3Manifest;
 
     @Inject
-    private S3WriteQueue() throws InterruptedException {
-        for (int i = 0; i < THREADS; i++) {
-            executorService.submit(() -> {
-                try {
-                    while (true) {
-                        write();
+    private S3WriteQueue() {
+        executorService.allowCoreThreadTimeOut(true);
+        Thread dispatcher = new Thread(this::dispatch, "S3WriteQueueDispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        if (journal != null) {
+            Thread refill = new Thread(this::refill, "S3WriteQueueRefill");
+            refill.setDaemon(true);
+            refill.start();
+        }
+        HubServices.register(new S3WriteQueueMetricsService());
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                window.acquire();
+                QueuedKey key = keys.take();
+                inFlight.incrementAndGet();
+                executorService.execute(() -> write(key, 1));
+            }
+        } catch (InterruptedException e) {
+            logger.info("dispatcher interrupted");
+        } catch (Exception e) {
+            logger.warn("exited dispatcher", e);
+        }
+    }
+
+    private static S3WriteJournal createJournal() {
+        String path = HubProperties.getProperty("s3.writeJournal.path", "");
+        if (path.isEmpty()) {
+            return null;
+        }
+        try {
+            return new S3WriteJournal(path, HubProperties.getProperty("s3.writeJournal.segmentEntries", 10 * 1000));
+        } catch (IOException e) {
+            logger.warn("unable to use journal " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Moves spilled and recovered keys into memory, waiting for room.
+     */
+    private void refill() {
+        while (true) {
+            try {
+                boolean read = journal.readSpilled((key, segment) -> {
+                    try {
+                        keys.put(new QueuedKey(key, segment));
+                    } catch (InterruptedException e) {
+                        throw new RuntimeInterruptedException(e);
                     }
-                } catch (Exception e) {
-                    logger.warn("exited thread", e);
-                    return null;
+                });
+                if (!read) {
+                    Sleeper.sleep(1000);
                 }
-            });
+            } catch (RuntimeInterruptedException e) {
+                logger.info("refill interrupted");
+                return;
+            } catch (Exception e) {
+                logger.warn("unable to read journal", e);
+                Sleeper.sleepQuietly(1000);
+            }
         }
     }
 
-    private void write() throws InterruptedException {
+    private void write(QueuedKey key, int attempt) {
         try {
-            ChannelContentKey key = keys.poll(5, TimeUnit.SECONDS);
-            retryer.call(() -> {
-                writeContent(key);
-                return null;
-            });
+            writeContent(key.key);
+            s3Manifest.stored(key.key.getChannel(), key.key.getContentKey());
+            complete(key, "success");
         } catch (Exception e) {
-            logger.warn("unable to call s3", e);
+            logger.warn("unable to write to S3 {} attempt {} {}", key.key, attempt, e.getMessage());
+            if (attempt >= ATTEMPTS) {
+                logger.warn("unable to call s3 " + key.key, e);
+                s3Manifest.failed(key.key.getChannel(), key.key.getContentKey());
+                complete(key, "failure");
+            } else {
+                long delay = TimeUnit.SECONDS.toMillis(2) << (attempt - 1);
+                retryService.schedule(() -> executorService.execute(() -> write(key, attempt + 1)), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void complete(QueuedKey key, String result) {
+        if (key.segment != null) {
+            journal.ack(key.segment);
         }
+        inFlight.decrementAndGet();
+        window.release();
+        statsd.recordExecutionTime("s3.writeQueue.latency", System.currentTimeMillis() - key.added, "result:" + result);
     }
 
     private void writeContent(ChannelContentKey key) throws Exception {
-        if (key != null) {
-            ActiveTraces.start("S3WriteQueue.writeContent", key);
-            try {
-                logger.trace("writing {}", key.getContentKey());
-                Content content = spokeContentDao.get(key.getChannel(), key.getContentKey());
-                if (content.getData() == null) {
-                    throw new FailedReadException("unable to read " + key.toString());
-                }
-                s3SingleContentDao.insert(key.getChannel(), content);
-            } finally {
-                ActiveTraces.end();
+        ActiveTraces.start("S3WriteQueue.writeContent", key);
+        try {
+            logger.trace("writing {}", key.getContentKey());
+            Content content = spokeContentDao.get(key.getChannel(), key.getContentKey());
+            if (content == null || content.getData() == null) {
+                throw new FailedReadException("unable to read " + key.toString());
             }
+            s3SingleContentDao.insert(key.getChannel(), content);
+        } finally {
+            ActiveTraces.end();
         }
     }
 
     public void add(ChannelContentKey key) {
-        boolean value = keys.offer(key);
-        if (!value) {
-            logger.warn("Add to queue failed - out of queue space. key= {}", key);
+        if (journal != null && addJournaled(key)) {
+            return;
+        }
+        try {
+            QueuedKey queuedKey = new QueuedKey(key, null);
+            if (!keys.offer(queuedKey) && !keys.offer(queuedKey, offerMillis, TimeUnit.MILLISECONDS)) {
+                dropped.incrementAndGet();
+                s3Manifest.failed(key.getChannel(), key.getContentKey());
+                logger.warn("Add to queue failed - out of queue space. key= {}", key);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        }
+    }
+
+    /**
+     * @return false if the journal could not be written
+     */
+    private boolean addJournaled(ChannelContentKey key) {
+        try {
+            if (keys.remainingCapacity() > 0) {
+                S3WriteJournal.Segment segment = journal.appendQueued(key);
+                if (keys.offer(new QueuedKey(key, segment))) {
+                    return true;
+                }
+                journal.ack(segment);
+            }
+            journal.appendSpilled(key);
+            spilled.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            logger.warn("unable to journal " + key, e);
+            return false;
         }
     }
 
     public void close() {
         int count = 0;
-        while (keys.size() > 0) {
+        //spilled keys stay in the journal for the next start
+        while (keys.size() > 0 || inFlight.get() > 0) {
             count++;
-            logger.info("waiting for keys {}", keys.size());
+            logger.info("waiting for keys {} in flight {}", keys.size(), inFlight.get());
             if (count >= 60) {
-                logger.warn("waited too long for keys {}", keys.size());
+                logger.warn("waited too long for keys {} in flight {}", keys.size(), inFlight.get());
                 return;
             }
             Sleeper.sleepQuietly(1000);
@@ -105,16 +227,42 @@ public class S3WriteQueue {
         executorService.shutdown();
     }
 
-    private Retryer<Void> buildRetryer() {
-        return RetryerBuilder.<Void>newBuilder()
-                .retryIfException(throwable -> {
-                    if (throwable != null) {
-                        logger.warn("unable to write to S3 " + throwable.getMessage());
-                    }
-                    return throwable != null;
-                })
-                .withWaitStrategy(WaitStrategies.exponentialWait(1000, 1, TimeUnit.MINUTES))
-                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
-                .build();
+    private void report() {
+        statsd.gauge("s3.writeQueue.depth", keys.size());
+        statsd.gauge("s3.writeQueue.inFlight", inFlight.get());
+        statsd.gauge("s3.writeQueue.threads", executorService.getPoolSize());
+        statsd.count("s3.writeQueue.dropped", dropped.getAndSet(0));
+        statsd.count("s3.writeQueue.spilled", spilled.getAndSet(0));
+        if (journal != null) {
+            statsd.gauge("s3.writeQueue.journalSegments", journal.getUnread());
+        }
+    }
+
+    private static class QueuedKey {
+        private final ChannelContentKey key;
+        private final S3WriteJournal.Segment segment;
+        private final long added = System.currentTimeMillis();
+
+        private QueuedKey(ChannelContentKey key, S3WriteJournal.Segment segment) {
+            this.key = key;
+            this.segment = segment;
+        }
+    }
+
+    private class S3WriteQueueMetricsService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                report();
+            } catch (Exception e) {
+                logger.warn("unable to report write queue metrics", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            int seconds = HubProperties.getProperty("metrics.seconds", 30);
+            return Scheduler.newFixedDelaySchedule(seconds, seconds, TimeUnit.SECONDS);
+        }
     }
 }
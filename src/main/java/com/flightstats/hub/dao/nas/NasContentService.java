@@ -35,7 +35,7 @@ public class NasContentService implements ContentService {
         Traces traces = ActiveTraces.getLocal();
         traces.add("NasContentService.insert");
         try {
-            byte[] payload = ContentMarshaller.toBytes(content);
+            byte[] payload = ContentMarshaller.toBytes(channelName, content);
             traces.add("NasContentService.insert marshalled");
             ContentKey key = content.keyAndStart(TimeUtil.now());
             String path = getPath(channelName, key);
@@ -57,24 +57,11 @@ public class DataDogRequestFilter implements ContainerRequestFilter, ContainerRe
             }
             ContainerRequestContext request = dataDogState.getRequest();
             String endpoint = getRequestTemplate(request);
-            String channel = channelName(request);
-            String method = request.getMethod();
-            long time = System.currentTimeMillis() - dataDogState.getStart();
-            String callTag = "call:" + method + endpoint;
             if (StringUtils.isEmpty(endpoint)) {
                 logger.trace("DataDog no endpoint, path: {}", request.getUriInfo().getPath());
-            } else if (endpoint.equals("/shutdown")) {
-                logger.info("call to shutdown, ignoring datadog time {}", time);
-            } else {
-                String[] tags = {"channel:" + channel, "method:" + method, "endpoint:" + endpoint, callTag};
-                statsd.recordExecutionTime("request", time, tags);
-                statsd.incrementCounter("request", tags);
-            }
-            logger.trace("DataDog request {}, time: {}", endpoint, time);
-            int returnCode = dataDogState.getResponse().getStatus();
-            if (returnCode > 400 && returnCode != 404) {
-                statsd.incrementCounter("errors", "errorCode:" + returnCode, callTag);
             }
+            record(request.getMethod(), endpoint, channelName(request), dataDogState.getStart(),
+                    dataDogState.getResponse().getStatus());
         } catch (Exception e) {
             logger.error("DataDog request error", e);
         } finally {
@@ -82,6 +69,25 @@ public class DataDogRequestFilter implements ContainerRequestFilter, ContainerRe
         }
     }
 
+    /**
+     * Records the time and errors of a request.  Handlers outside of Jersey, such as SpokePayloadHandler, call this directly.
+     */
+    public static void record(String method, String endpoint, String channel, long start, int returnCode) {
+        long time = System.currentTimeMillis() - start;
+        String callTag = "call:" + method + endpoint;
+        if (endpoint.equals("/shutdown")) {
+            logger.info("call to shutdown, ignoring datadog time {}", time);
+        } else if (!StringUtils.isEmpty(endpoint)) {
+            String[] tags = {"channel:" + channel, "method:" + method, "endpoint:" + endpoint, callTag};
+            statsd.recordExecutionTime("request", time, tags);
+            statsd.incrementCounter("request", tags);
+        }
+        logger.trace("DataDog request {}, time: {}", endpoint, time);
+        if (returnCode > 400 && returnCode != 404) {
+            statsd.incrementCounter("errors", "errorCode:" + returnCode, callTag);
+        }
+    }
+
     @Override
     public void filter(ContainerRequestContext request) throws IOException {
         threadLocal.set(new DataDogState(request));
@@ -19,12 +19,16 @@ public class MetricsTimer implements MetricsSender {
         try {
             return callable.call();
         } finally {
-            long time = System.currentTimeMillis() - start;
-            statsd.time(type, time, type + ":" + name);
-            sender.send(name, time);
+            time(type, name, start);
         }
     }
 
+    public void time(String type, String name, long start) {
+        long time = System.currentTimeMillis() - start;
+        statsd.time(type, time, type + ":" + name);
+        sender.send(name, time);
+    }
+
     @Override
     public void send(String name, Object value) {
         // BC - is count correct, or do we want gauge?
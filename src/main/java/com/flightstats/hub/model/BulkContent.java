@@ -6,6 +6,7 @@ import lombok.Getter;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Getter
 @Builder
@@ -16,14 +17,28 @@ public class BulkContent {
     private final String contentType;
     private final String channel;
     private final List<Content> items = new ArrayList<>();
+    private final AtomicLong streamedItems = new AtomicLong();
+    private final AtomicLong streamedBytes = new AtomicLong();
     private ContentKey masterKey;
 
     public void setMasterKey(ContentKey masterKey) {
         this.masterKey = masterKey;
     }
 
+    /**
+     * Counts an item which was written as it was parsed, instead of being kept in items.
+     */
+    public void addStreamed(Content content) {
+        streamedItems.incrementAndGet();
+        streamedBytes.addAndGet(content.getData().length);
+    }
+
+    public long getItemCount() {
+        return items.size() + streamedItems.get();
+    }
+
     public long getSize() {
-        long bytes = 0;
+        long bytes = streamedBytes.get();
         for (Content item : items) {
             bytes += item.getSize();
         }
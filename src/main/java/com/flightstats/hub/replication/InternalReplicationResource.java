@@ -35,8 +35,8 @@ public class InternalReplicationResource {
         if (bulkContent == null) {
             logger.warn("unable to get a result {} {} {}", channel, path, expectedItems);
             bulkContent = getBulkContent(channel, path, batchUrl);
-        } else if (bulkContent.getItems().size() < expectedItems) {
-            logger.warn("incorrect number of items {} {} {} {}", channel, path, expectedItems, bulkContent.getItems().size());
+        } else if (bulkContent.getItemCount() < expectedItems) {
+            logger.warn("incorrect number of items {} {} {} {}", channel, path, expectedItems, bulkContent.getItemCount());
             getBulkContent(channel, path, batchUrl);
         }
         ActiveTraces.getLocal().add("getAndWriteBatch completed");
@@ -21,18 +21,27 @@ import java.util.Arrays;
 import java.util.Collection;
 
 /**
- * Direct interactions with the file system
+ * Direct interactions with the file system, using one file per item.
  */
-public class FileSpokeStore {
+public class FileSpokeStore implements SpokeStore {
 
     private final static Logger logger = LoggerFactory.getLogger(FileSpokeStore.class);
     private static final int ttlMinutes = HubProperties.getSpokeTtl();
     private final String storagePath;
+    private final SpokeKeyIndex keyIndex;
 
     @Inject
     public FileSpokeStore(@Named("spoke.path") String storagePath) {
+        this(storagePath, HubProperties.getProperty("spoke.keyIndex", false));
+    }
+
+    /**
+     * @param useKeyIndex answer time, latest and next queries from a SpokeKeyIndex, which is loaded from disk here
+     */
+    FileSpokeStore(String storagePath, boolean useKeyIndex) {
         this.storagePath = StringUtils.appendIfMissing(storagePath, "/");
         logger.info("starting with storage path " + this.storagePath);
+        keyIndex = useKeyIndex ? loadKeyIndex() : null;
         if (!insert("hub-startup/" + new ContentKey().toUrl(), ("" + System.currentTimeMillis()).getBytes())) {
             throw new RuntimeException("unable to create startup file");
         }
@@ -42,10 +51,7 @@ public class FileSpokeStore {
         }
     }
 
-    public boolean insert(String path, byte[] payload) {
-        return insert(path, new ByteArrayInputStream(payload));
-    }
-
+    @Override
     public boolean insert(String path, InputStream input) {
         File file = spokeFilePathPart(path);
         logger.trace("insert {} {} {}", file, file.getParentFile().mkdirs(), file.canExecute());
@@ -53,6 +59,9 @@ public class FileSpokeStore {
             long copy = ByteStreams.copy(input, output);
             boolean setExecutable = file.setExecutable(true);
             logger.trace("copied {} {} {}", file, copy, setExecutable);
+            if (keyIndex != null) {
+                keyIndex.add(path);
+            }
             return true;
         } catch (IOException e) {
             logger.info("unable to write to " + path, e);
@@ -60,15 +69,22 @@ public class FileSpokeStore {
         }
     }
 
-    public byte[] read(String path) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        read(path, baos);
-        return baos.toByteArray();
+    @Override
+    public void read(String path, OutputStream output) {
+        File file = getRegion(path).getFile();
+        logger.trace("reading {}", file);
+        try (FileInputStream input = new FileInputStream(file)) {
+            ByteStreams.copy(input, output);
+        } catch (FileNotFoundException e) {
+            logger.debug("file not found {}", path);
+        } catch (IOException e) {
+            logger.info("unable to read from " + path, e);
+        }
     }
 
-    public void read(String path, OutputStream output) {
+    @Override
+    public SpokeFileRegion getRegion(String path) {
         File file = spokeFilePathPart(path);
-        logger.trace("reading {}", file);
         if (!file.exists()) {
             throw new NotFoundException("not found " + path);
         }
@@ -76,30 +92,74 @@ public class FileSpokeStore {
             logger.warn("incomplete file {}", path);
             throw new NotFoundException("incomplete file " + path);
         }
-        try (FileInputStream input = new FileInputStream(file)) {
-            ByteStreams.copy(input, output);
-        } catch (FileNotFoundException e) {
-            logger.debug("file not found {}", path);
-        } catch (IOException e) {
-            logger.info("unable to read from " + path, e);
+        return new SpokeFileRegion(file, 0, file.length());
+    }
+
+    private SpokeKeyIndex loadKeyIndex() {
+        long start = System.currentTimeMillis();
+        SpokeKeyIndex index = new SpokeKeyIndex();
+        String[] channels = new File(storagePath).list();
+        if (channels != null) {
+            for (String channel : channels) {
+                loadKeys(index, channel, "", 0);
+            }
         }
+        logger.info("loaded key index in {} ms", System.currentTimeMillis() - start);
+        return index;
     }
 
-    public String readKeysInBucket(String path) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        keysInBucket(path, baos);
-        return baos.toString();
+    private void loadKeys(SpokeKeyIndex index, String channel, String timePath, int depth) {
+        File directory = new File(storagePath + channel + "/" + timePath);
+        if (depth == 5) {
+            File[] items = directory.listFiles();
+            if (items != null) {
+                for (File item : items) {
+                    if (item.canExecute()) {
+                        index.add(channel, timePath, item.getName());
+                    }
+                }
+            }
+            return;
+        }
+        String[] children = directory.list();
+        if (children != null) {
+            for (String child : children) {
+                loadKeys(index, channel, depth == 0 ? child : timePath + "/" + child, depth + 1);
+            }
+        }
     }
 
-    void readKeysInBucket(String path, OutputStream output) {
-        keysInBucket(path, output);
+    @Override
+    public void readKeysInBucket(String path, OutputStream output) {
+        if (keyIndex == null) {
+            keysInBucket(path, output);
+            return;
+        }
+        try {
+            for (String key : keyIndex.keysInBucket(path)) {
+                writeKey(output, key);
+            }
+        } catch (IOException e) {
+            logger.info("error with " + path, e);
+        }
     }
 
+    @Override
     public boolean delete(String path) throws Exception {
         FileUtils.deleteDirectory(new File(storagePath + path));
+        if (keyIndex != null) {
+            keyIndex.remove(path);
+        }
         return true;
     }
 
+    @Override
+    public void forget(String path) {
+        if (keyIndex != null) {
+            keyIndex.remove(path);
+        }
+    }
+
     // given a url containing a key, return the file format
     // example: "test_0_4274725520517677/2014/11/18/00/57/24/015/NV2cl5"
     @VisibleForTesting
@@ -172,13 +232,17 @@ public class FileSpokeStore {
     @VisibleForTesting
     Collection<String> keysInBucket(String key) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        keysInBucket(key, baos);
+        readKeysInBucket(key, baos);
         String[] split = baos.toString().split(",");
         return Arrays.asList(split);
     }
 
+    @Override
     public String getLatest(String channel, String limitPath) {
         logger.trace("latest {} {}", channel, limitPath);
+        if (keyIndex != null) {
+            return keyIndex.getLatest(channel, limitPath);
+        }
         ContentKey limitKey = ContentKey.fromUrl(limitPath).get();
         return getLatest(channel, limitPath, limitKey.getTime());
     }
@@ -214,13 +278,17 @@ public class FileSpokeStore {
         return getLatest(channel, limitPath, previous);
     }
 
-    /**
-     * This may return more than the request count, as this does not do any sorting.
-     */
+    @Override
     public void getNext(String channel, String startKey, int count, OutputStream output) throws IOException {
         DateTime now = TimeUtil.now();
         String channelPath = storagePath + channel + "/";
         logger.trace("next {} {} {}", channel, startKey, now);
+        if (keyIndex != null) {
+            for (String key : keyIndex.getNext(channel, startKey, count, TimeUtil.minutes(now))) {
+                writeKey(output, key);
+            }
+            return;
+        }
         ContentKey start = ContentKey.fromUrl(startKey).get();
         int found = 0;
         MinutePath minutePath = new MinutePath(start.getTime());
@@ -250,12 +318,16 @@ public class FileSpokeStore {
         } while (found < count && minutePath.getTime().isBefore(now));
     }
 
+    @Override
     public void enforceTtl(String channel, DateTime dateTime) {
         String limitPath = TimeUtil.minutes(dateTime);
         logger.debug("enforceTtl {} {}", channel, limitPath);
         String[] split = StringUtils.split(limitPath, "/");
         split = new String[]{split[0], split[1], split[2], split[3], split[4]};
         recurseDelete(channel, split, 0, channel);
+        if (keyIndex != null) {
+            keyIndex.removeThrough(channel, limitPath);
+        }
     }
 
     private void recurseDelete(String path, String[] limitPath, int count, String channel) {
@@ -1,16 +1,13 @@
 package com.flightstats.hub.spoke;
 
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.flightstats.hub.app.HubHost;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.cluster.CuratorCluster;
-import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.dao.QueryResult;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.DataDog;
 import com.flightstats.hub.metrics.MetricsSender;
 import com.flightstats.hub.metrics.Traces;
-import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.ContentKeyUtil;
 import com.flightstats.hub.rest.RestClient;
@@ -48,14 +45,18 @@ public class RemoteSpokeStore {
 
     private final CuratorCluster cluster;
     private final MetricsSender sender;
+    private final SpokeProtocolClient protocolClient;
+    private final boolean useProtocol = SpokeProtocol.isEnabled();
     private final ExecutorService executorService;
     private final int stableSeconds = HubProperties.getProperty("app.stable_seconds", 5);
     private final static StatsDClient statsd = DataDog.statsd;
 
     @Inject
-    public RemoteSpokeStore(@Named("SpokeCuratorCluster") CuratorCluster cluster, MetricsSender sender) {
+    public RemoteSpokeStore(@Named("SpokeCuratorCluster") CuratorCluster cluster, MetricsSender sender,
+                            SpokeProtocolClient protocolClient) {
         this.cluster = cluster;
         this.sender = sender;
+        this.protocolClient = protocolClient;
         executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("RemoteSpokeStore-%d").build());
     }
 
@@ -71,7 +72,7 @@ public class RemoteSpokeStore {
                 public void run() {
                     try {
                         ContentKey key = new ContentKey();
-                        if (insert(path + key.toUrl(), key.toUrl().getBytes(), server, traces, "payload")) {
+                        if (insert(path + key.toUrl(), key.toUrl().getBytes(), server, traces, "payload").await()) {
                             quorumLatch.countDown();
                         } else {
                             traces.log(logger);
@@ -121,14 +122,53 @@ public class RemoteSpokeStore {
     }
 
     public boolean insert(String path, byte[] payload, String spokeApi) throws InterruptedException {
-        return insert(path, payload, cluster.getServers(), ActiveTraces.getLocal(), spokeApi);
+        return startInsert(path, payload, spokeApi).await();
     }
 
-    private boolean insert(final String path, final byte[] payload, Collection<String> servers, final Traces traces, final String spokeApi) throws InterruptedException {
+    /**
+     * Starts writing to every Spoke server, without waiting for the quorum.
+     */
+    public QuorumWrite startInsert(String path, byte[] payload, String spokeApi) {
+        return startInsert(path, payload, spokeApi, () -> {
+        });
+    }
+
+    /**
+     * @param confirmed runs once, when the first server has written the item, even if that is after await gave up
+     */
+    public QuorumWrite startInsert(String path, byte[] payload, String spokeApi, Runnable confirmed) {
+        return insert(path, payload, cluster.getServers(), ActiveTraces.getLocal(), spokeApi, confirmed);
+    }
+
+    private QuorumWrite insert(final String path, final byte[] payload, Collection<String> servers, final Traces traces,
+                               final String spokeApi) {
+        return insert(path, payload, servers, traces, spokeApi, () -> {
+        });
+    }
+
+    private QuorumWrite insert(final String path, final byte[] payload, Collection<String> servers, final Traces traces,
+                               final String spokeApi, final Runnable confirmed) {
         int quorum = getQuorum(servers.size());
         CountDownLatch quorumLatch = new CountDownLatch(quorum);
+        QuorumWrite quorumWrite = new QuorumWrite(quorumLatch, quorum, traces);
         AtomicBoolean reported = new AtomicBoolean();
+        Runnable written = () -> {
+            if (reported.compareAndSet(false, true)) {
+                long time = System.currentTimeMillis() - traces.getStart();
+                statsd.time("heisenberg", time);
+                sender.send("heisenberg", time);
+                try {
+                    confirmed.run();
+                } catch (Exception e) {
+                    logger.warn("unable to confirm " + path, e);
+                }
+            }
+            quorumLatch.countDown();
+        };
         for (final String server : servers) {
+            if (useProtocol && writeProtocol(server, path, payload, traces, spokeApi, written)) {
+                continue;
+            }
             executorService.submit(new Runnable() {
                 @Override
                 public void run() {
@@ -138,15 +178,9 @@ public class RemoteSpokeStore {
                     ClientResponse response = null;
                     try {
                         response = write_client.resource(uri).put(ClientResponse.class, payload);
-                        long complete = System.currentTimeMillis();
                         traces.add(server, response.getEntity(String.class));
                         if (response.getStatus() == 201) {
-                            if (reported.compareAndSet(false, true)) {
-                                long time = complete - traces.getStart();
-                                statsd.time("heisenberg", time);
-                                sender.send("heisenberg", time);
-                            }
-                            quorumLatch.countDown();
+                            written.run();
                             logger.trace("server {} path {} response {}", server, path, response);
                         } else {
                             logger.info("write failed: server {} path {} response {}", server, path, response);
@@ -162,11 +196,50 @@ public class RemoteSpokeStore {
                 }
             });
         }
-        quorumLatch.await(stableSeconds, TimeUnit.SECONDS);
-        long time = System.currentTimeMillis() - traces.getStart();
-        statsd.time("consistent", time);
-        sender.send("consistent", time);
-        return quorumLatch.getCount() != quorum;
+        return quorumWrite;
+    }
+
+    public class QuorumWrite {
+        private final CountDownLatch quorumLatch;
+        private final int quorum;
+        private final Traces traces;
+        private final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(stableSeconds);
+
+        private QuorumWrite(CountDownLatch quorumLatch, int quorum, Traces traces) {
+            this.quorumLatch = quorumLatch;
+            this.quorum = quorum;
+            this.traces = traces;
+        }
+
+        /**
+         * Waits until stableSeconds after the write started for a quorum of servers.
+         *
+         * @return true if at least one server wrote the item
+         */
+        public boolean await() throws InterruptedException {
+            quorumLatch.await(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            long time = System.currentTimeMillis() - traces.getStart();
+            statsd.time("consistent", time);
+            sender.send("consistent", time);
+            return quorumLatch.getCount() != quorum;
+        }
+    }
+
+    private boolean writeProtocol(String server, String path, byte[] payload, Traces traces, String spokeApi, Runnable written) {
+        traces.add("spoke protocol", server, path);
+        boolean queued = protocolClient.write(server, spokeApi, path, payload, success -> {
+            traces.add(server, success);
+            if (success) {
+                written.run();
+                logger.trace("server {} path {} protocol ack", server, path);
+            } else {
+                logger.info("write failed: server {} path {} protocol", server, path);
+            }
+        });
+        if (!queued) {
+            statsd.increment("spoke.protocol.fallback");
+        }
+        return queued;
     }
 
     public static void close(ClientResponse response) {
@@ -193,7 +266,10 @@ public class RemoteSpokeStore {
         return (int) Math.max(1, Math.ceil(size / 2.0));
     }
 
-    public Content get(String path, ContentKey key) {
+    /**
+     * @return the marshalled payload from the first Spoke server which has it, or null
+     */
+    public byte[] read(String path) {
         Collection<String> servers = cluster.getRandomServers();
         for (String server : servers) {
             ClientResponse response = null;
@@ -205,11 +281,9 @@ public class RemoteSpokeStore {
                 if (response.getStatus() == 200) {
                     byte[] entity = response.getEntity(byte[].class);
                     if (entity.length > 0) {
-                        return ContentMarshaller.toContent(entity, key);
+                        return entity;
                     }
                 }
-            } catch (JsonMappingException e) {
-                logger.info("JsonMappingException for " + path);
             } catch (ClientHandlerException e) {
                 if (e.getCause() != null && e.getCause() instanceof ConnectException) {
                     logger.warn("connection exception " + server);
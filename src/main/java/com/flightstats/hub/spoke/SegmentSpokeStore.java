@@ -0,0 +1,319 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Striped;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.NotFoundException;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Stores items by appending them to one segment per channel minute, instead of one file per item.
+ * The layout is channel/yyyy/MM/dd/HH/mm/{data,index}, so minute and hour folders can be removed the same way
+ * as with FileSpokeStore.
+ */
+public class SegmentSpokeStore implements SpokeStore {
+
+    private final static Logger logger = LoggerFactory.getLogger(SegmentSpokeStore.class);
+    private static final int ttlMinutes = HubProperties.getSpokeTtl();
+    private final String storagePath;
+    private final Striped<Lock> locks = Striped.lock(HubProperties.getProperty("spoke.segment.locks", 1024));
+    private final Cache<String, SpokeSegment> segments = CacheBuilder.newBuilder()
+            .maximumSize(HubProperties.getProperty("spoke.segment.cacheSize", 10 * 1000))
+            .expireAfterAccess(ttlMinutes, TimeUnit.MINUTES)
+            .build();
+
+    @Inject
+    public SegmentSpokeStore(@Named("spoke.path") String storagePath) {
+        this.storagePath = StringUtils.appendIfMissing(storagePath, "/");
+        logger.info("starting with storage path " + this.storagePath);
+        if (!insert("hub-startup/" + new ContentKey().toUrl(), ("" + System.currentTimeMillis()).getBytes())) {
+            throw new RuntimeException("unable to create startup segment");
+        }
+    }
+
+    @Override
+    public boolean insert(String path, InputStream input) {
+        String[] split = StringUtils.split(path, "/");
+        String minutePath = minutePath(split);
+        try {
+            byte[] payload = ByteStreams.toByteArray(input);
+            Lock lock = locks.get(minutePath);
+            lock.lock();
+            try {
+                getSegment(minutePath).append(itemName(split), payload);
+            } finally {
+                lock.unlock();
+            }
+            logger.trace("appended {} {}", path, payload.length);
+            return true;
+        } catch (Exception e) {
+            logger.info("unable to write to " + path, e);
+            return false;
+        }
+    }
+
+    /**
+     * Items in the same channel minute are appended to their segment together.
+     */
+    @Override
+    public Set<String> insert(Map<String, byte[]> items) {
+        Map<String, Map<String, byte[]>> minutes = new HashMap<>();
+        Map<String, String> paths = new HashMap<>();
+        for (Map.Entry<String, byte[]> item : items.entrySet()) {
+            String[] split = StringUtils.split(item.getKey(), "/");
+            String minutePath = minutePath(split);
+            minutes.computeIfAbsent(minutePath, k -> new LinkedHashMap<>()).put(itemName(split), item.getValue());
+            paths.put(minutePath + "/" + itemName(split), item.getKey());
+        }
+        Set<String> written = new HashSet<>();
+        for (Map.Entry<String, Map<String, byte[]>> minute : minutes.entrySet()) {
+            String minutePath = minute.getKey();
+            Lock lock = locks.get(minutePath);
+            lock.lock();
+            try {
+                getSegment(minutePath).append(minute.getValue());
+                for (String item : minute.getValue().keySet()) {
+                    written.add(paths.get(minutePath + "/" + item));
+                }
+            } catch (Exception e) {
+                logger.info("unable to write to " + minutePath, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+        logger.trace("appended {} of {} items", written.size(), items.size());
+        return written;
+    }
+
+    @Override
+    public void read(String path, OutputStream output) {
+        String[] split = StringUtils.split(path, "/");
+        String minutePath = minutePath(split);
+        logger.trace("reading {}", path);
+        if (!new File(storagePath + minutePath).exists()) {
+            throw new NotFoundException("not found " + path);
+        }
+        try {
+            if (!getSegment(minutePath).read(itemName(split), output)) {
+                throw new NotFoundException("not found " + path);
+            }
+        } catch (FileNotFoundException e) {
+            logger.debug("file not found {}", path);
+        } catch (IOException | ExecutionException e) {
+            logger.info("unable to read from " + path, e);
+        }
+    }
+
+    @Override
+    public SpokeFileRegion getRegion(String path) {
+        String[] split = StringUtils.split(path, "/");
+        String minutePath = minutePath(split);
+        if (!new File(storagePath + minutePath).exists()) {
+            throw new NotFoundException("not found " + path);
+        }
+        try {
+            SpokeFileRegion region = getSegment(minutePath).getRegion(itemName(split));
+            if (region == null) {
+                throw new NotFoundException("not found " + path);
+            }
+            return region;
+        } catch (ExecutionException e) {
+            logger.info("unable to read from " + path, e);
+            throw new NotFoundException("unable to read " + path);
+        }
+    }
+
+    private SpokeSegment getSegment(String minutePath) throws ExecutionException {
+        Lock lock = locks.get(minutePath);
+        lock.lock();
+        try {
+            return segments.get(minutePath, () -> SpokeSegment.load(new File(storagePath + minutePath)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String minutePath(String[] split) {
+        return StringUtils.join(split, "/", 0, 6);
+    }
+
+    private String itemName(String[] split) {
+        return split[6] + split[7] + split[8];
+    }
+
+    private String itemKey(String minutePath, String item) {
+        return minutePath + "/" + item.substring(0, 2) + "/" + item.substring(2, 5) + "/" + item.substring(5);
+    }
+
+    @Override
+    public void readKeysInBucket(String path, OutputStream output) {
+        try {
+            for (String key : keysInBucket(path)) {
+                writeKey(output, key);
+            }
+        } catch (Exception e) {
+            logger.info("error with " + path, e);
+        }
+    }
+
+    @VisibleForTesting
+    Collection<String> keysInBucket(String path) throws ExecutionException {
+        String key = StringUtils.removeStart(path, "/");
+        String[] split = StringUtils.split(key, "/");
+        List<String> keys = new ArrayList<>();
+        if (split.length > 6) {
+            String minutePath = minutePath(split);
+            if (new File(storagePath + minutePath).exists()) {
+                for (String item : getSegment(minutePath).items()) {
+                    if (item.startsWith(split[6])) {
+                        keys.add(itemKey(minutePath, item));
+                    }
+                }
+            }
+            return keys;
+        }
+        for (String minutePath : minutePaths(key, split.length)) {
+            for (String item : getSegment(minutePath).items()) {
+                keys.add(itemKey(minutePath, item));
+            }
+        }
+        return keys;
+    }
+
+    private List<String> minutePaths(String path, int depth) {
+        List<String> minutePaths = new ArrayList<>();
+        if (depth == 6) {
+            if (SpokeSegment.isSegment(new File(storagePath + path))) {
+                minutePaths.add(path);
+            }
+            return minutePaths;
+        }
+        String[] children = new File(storagePath + path).list();
+        if (children == null) {
+            return minutePaths;
+        }
+        Arrays.sort(children);
+        for (String child : children) {
+            minutePaths.addAll(minutePaths(path + "/" + child, depth + 1));
+        }
+        return minutePaths;
+    }
+
+    private void writeKey(OutputStream output, String key) throws IOException {
+        output.write(key.getBytes());
+        output.write(",".getBytes());
+    }
+
+    @Override
+    public boolean delete(String path) throws Exception {
+        FileUtils.deleteDirectory(new File(storagePath + path));
+        invalidate(StringUtils.appendIfMissing(path, "/"));
+        return true;
+    }
+
+    @Override
+    public void forget(String path) {
+        segments.invalidate(path);
+        invalidate(StringUtils.appendIfMissing(path, "/"));
+    }
+
+    private void invalidate(String pathPrefix) {
+        segments.asMap().keySet().removeIf(minutePath -> minutePath.startsWith(pathPrefix));
+    }
+
+    @Override
+    public String getLatest(String channel, String limitPath) {
+        logger.trace("latest {} {}", channel, limitPath);
+        ContentKey limitKey = ContentKey.fromUrl(limitPath).get();
+        DateTime ttlTime = TimeUtil.now().minusMinutes(ttlMinutes);
+        DateTime hourToSearch = limitKey.getTime();
+        try {
+            while (true) {
+                String hoursPath = TimeUtil.hours(hourToSearch);
+                String[] minutes = new File(storagePath + channel + "/" + hoursPath).list();
+                if (minutes != null) {
+                    Arrays.sort(minutes);
+                    for (int i = minutes.length - 1; i >= 0; i--) {
+                        String minutePath = channel + "/" + hoursPath + "/" + minutes[i];
+                        Iterator<String> items = getSegment(minutePath).items().descendingIterator();
+                        while (items.hasNext()) {
+                            String key = itemKey(hoursPath + "/" + minutes[i], items.next());
+                            if (key.compareTo(limitPath) < 0) {
+                                return channel + "/" + key;
+                            }
+                        }
+                    }
+                }
+                hourToSearch = hourToSearch.minusHours(1).withMinuteOfHour(59).withSecondOfMinute(59).withMillisOfSecond(999);
+                if (hourToSearch.isBefore(ttlTime)) {
+                    logger.debug("no latest found for {} {} ", channel, limitPath);
+                    return null;
+                }
+            }
+        } catch (ExecutionException e) {
+            logger.warn("unable to get latest " + channel + " " + limitPath, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void getNext(String channel, String startKey, int count, OutputStream output) throws IOException {
+        DateTime now = TimeUtil.now();
+        logger.trace("next {} {} {}", channel, startKey, now);
+        ContentKey start = ContentKey.fromUrl(startKey).get();
+        int found = 0;
+        MinutePath minutePath = new MinutePath(start.getTime());
+        boolean firstMinute = true;
+        try {
+            do {
+                String minuteUrl = minutePath.toUrl();
+                String segmentPath = channel + "/" + minuteUrl;
+                if (SpokeSegment.isSegment(new File(storagePath + segmentPath))) {
+                    for (String item : getSegment(segmentPath).items()) {
+                        String key = itemKey(minuteUrl, item);
+                        if (!firstMinute || ContentKey.fromUrl(key).get().compareTo(start) > 0) {
+                            found++;
+                            writeKey(output, channel + "/" + key);
+                        }
+                    }
+                }
+                minutePath = new MinutePath(minutePath.getTime().plusMinutes(1));
+                firstMinute = false;
+            } while (found < count && minutePath.getTime().isBefore(now));
+        } catch (ExecutionException e) {
+            throw new IOException("unable to get next " + channel + " " + startKey, e);
+        }
+    }
+
+    @Override
+    public void enforceTtl(String channel, DateTime dateTime) {
+        String limitPath = channel + "/" + TimeUtil.minutes(dateTime);
+        logger.debug("enforceTtl {} {}", channel, limitPath);
+        for (String minutePath : minutePaths(channel, 1)) {
+            if (minutePath.compareTo(limitPath) <= 0) {
+                logger.info("deleting {}", storagePath + minutePath);
+                FileUtils.deleteQuietly(new File(storagePath + minutePath));
+                segments.invalidate(minutePath);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.MetricsSender;
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of recently written and read marshalled payloads, so popular items are not fetched from
+ * a remote Spoke server by every reader.
+ * Items are immutable, so entries are only removed by size or by spoke.cache.ttlSeconds.
+ */
+@Singleton
+public class SpokeContentCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeContentCache.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final MetricsSender sender;
+    private final int maxItemBytes = HubProperties.getProperty("spoke.cache.maxItemKB", 1024) * 1024;
+    private final AtomicLong bytes = new AtomicLong();
+    private final Cache<ChannelContentKey, byte[]> cache;
+    private CacheStats lastStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    @Inject
+    public SpokeContentCache(MetricsSender sender) {
+        this.sender = sender;
+        long maxBytes = HubProperties.getProperty("spoke.cache.maxMB", 64) * 1024L * 1024L;
+        int ttlSeconds = HubProperties.getProperty("spoke.cache.ttlSeconds", 5 * 60);
+        logger.info("caching up to {} bytes for {} seconds", maxBytes, ttlSeconds);
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((ChannelContentKey key, byte[] payload) -> payload.length)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .removalListener((RemovalListener<ChannelContentKey, byte[]>) removal -> bytes.addAndGet(-removal.getValue().length))
+                .recordStats()
+                .build();
+        HubServices.register(new SpokeContentCacheMetricsService());
+    }
+
+    public void put(String channel, ContentKey key, byte[] payload) {
+        if (payload.length <= maxItemBytes) {
+            cache.put(new ChannelContentKey(channel, key), payload);
+            bytes.addAndGet(payload.length);
+        }
+    }
+
+    public byte[] get(String channel, ContentKey key) {
+        return cache.getIfPresent(new ChannelContentKey(channel, key));
+    }
+
+    public void invalidate(String channel) {
+        cache.asMap().keySet().removeIf(key -> key.getChannel().equals(channel));
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    private void report() {
+        CacheStats stats = cache.stats();
+        CacheStats delta = stats.minus(lastStats);
+        lastStats = stats;
+        statsd.count("spoke.cache.hits", delta.hitCount());
+        statsd.count("spoke.cache.misses", delta.missCount());
+        statsd.count("spoke.cache.evictions", delta.evictionCount());
+        statsd.gauge("spoke.cache.hitRatio", delta.hitRate());
+        statsd.gauge("spoke.cache.bytes", bytes.get());
+        statsd.gauge("spoke.cache.items", cache.size());
+        sender.send("spoke.cache.hitRatio", delta.hitRate());
+        sender.send("spoke.cache.bytes", bytes.get());
+        logger.debug("cache {} bytes {}", delta, bytes.get());
+    }
+
+    private class SpokeContentCacheMetricsService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                report();
+            } catch (Exception e) {
+                logger.warn("unable to report cache metrics", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            int seconds = HubProperties.getProperty("metrics.seconds", 30);
+            return Scheduler.newFixedDelaySchedule(seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.dao.ContentKeyUtil;
 import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.dao.QueryResult;
+import com.flightstats.hub.dao.aws.MultiPartParser;
 import com.flightstats.hub.exception.ContentTooLargeException;
 import com.flightstats.hub.exception.FailedQueryException;
 import com.flightstats.hub.exception.FailedWriteException;
@@ -12,6 +13,7 @@ import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.time.TimeService;
+import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
@@ -20,8 +22,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * This is the entry point in the Hub's storage system, Spoke.
@@ -37,22 +41,33 @@ public class SpokeContentDao implements ContentDao {
     private RemoteSpokeStore spokeStore;
     @Inject
     private TimeService timeService;
+    @Inject
+    private SpokeContentCache contentCache;
 
     private final int ttlMinutes = HubProperties.getSpokeTtl();
+    private final int windowItems = HubProperties.getProperty("spoke.bulk.windowItems", 64);
+    private final long windowBytes = HubProperties.getProperty("spoke.bulk.windowMB", 8) * 1024L * 1024;
 
     @Override
     public ContentKey insert(String channelName, Content content) throws Exception {
+        return insert(channelName, content, key -> {
+        });
+    }
+
+    @Override
+    public ContentKey insert(String channelName, Content content, Consumer<ContentKey> written) throws Exception {
         Traces traces = ActiveTraces.getLocal();
         traces.add("SpokeContentDao.writeSingle");
         try {
-            byte[] payload = ContentMarshaller.toBytes(content);
+            byte[] payload = ContentMarshaller.toBytes(channelName, content);
             traces.add("SpokeContentDao.write marshalled");
             ContentKey key = content.keyAndStart(timeService.getNow());
             String path = getPath(channelName, key);
             logger.trace("writing key {} to channel {} bytes {}", key, channelName, content.getSize());
-            if (!spokeStore.insert(path, payload, "payload")) {
+            if (!spokeStore.startInsert(path, payload, "payload", () -> written.accept(key)).await()) {
                 throw new FailedWriteException("unable to write to spoke " + path);
             }
+            contentCache.put(channelName, key, payload);
             traces.add("SpokeContentDao.writeSingle completed", key);
             return key;
         } catch (ContentTooLargeException e) {
@@ -72,19 +87,21 @@ public class SpokeContentDao implements ContentDao {
         String channelName = bulkContent.getChannel();
         try {
             SortedSet<ContentKey> keys = new TreeSet<>();
+            Map<ContentKey, byte[]> payloads = new HashMap<>();
             List<Content> items = bulkContent.getItems();
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             ObjectOutputStream stream = new ObjectOutputStream(baos);
             stream.writeInt(items.size());
             logger.debug("writing {} items to master {}", items.size(), bulkContent.getMasterKey());
             for (Content content : items) {
-                byte[] payload = ContentMarshaller.toBytes(content);
+                byte[] payload = ContentMarshaller.toBytes(channelName, content);
                 String itemKey = content.getContentKey().get().toUrl();
                 stream.writeInt(itemKey.length());
                 stream.write(itemKey.getBytes());
                 stream.writeInt(payload.length);
                 stream.write(payload);
                 keys.add(content.getContentKey().get());
+                payloads.put(content.getContentKey().get(), payload);
             }
             stream.flush();
             traces.add("SpokeContentDao.writeBulk marshalled");
@@ -93,6 +110,7 @@ public class SpokeContentDao implements ContentDao {
             if (!spokeStore.insert(channelName, baos.toByteArray(), "bulkKey")) {
                 throw new FailedWriteException("unable to write bulk to spoke " + channelName);
             }
+            payloads.forEach((key, payload) -> contentCache.put(channelName, key, payload));
             traces.add("SpokeContentDao.writeBulk completed", keys);
             return keys;
         } catch (ContentTooLargeException e) {
@@ -105,6 +123,111 @@ public class SpokeContentDao implements ContentDao {
         }
     }
 
+    /**
+     * Each item is written to Spoke as its own payload as soon as it is parsed, so only the items which are
+     * waiting for a quorum are held in memory, up to spoke.bulk.windowItems or spoke.bulk.windowMB.
+     * Each item is passed to written when the first Spoke server has it, so an item which reaches Spoke is passed
+     * to written even if the bulk fails, or its quorum times out.  If the bulk fails part way, the items already
+     * started are still awaited before the exception is thrown.
+     */
+    @Override
+    public SortedSet<ContentKey> streamInsert(BulkContent bulkContent, Consumer<ContentKey> written) throws Exception {
+        Traces traces = ActiveTraces.getLocal();
+        traces.add("SpokeContentDao.streamBulk");
+        String channelName = bulkContent.getChannel();
+        StreamedBulk streamedBulk = new StreamedBulk(channelName, written);
+        try {
+            new MultiPartParser(bulkContent).parse(streamedBulk::write);
+            SortedSet<ContentKey> keys = streamedBulk.complete();
+            traces.add("SpokeContentDao.streamBulk completed", keys.size());
+            return keys;
+        } catch (ContentTooLargeException e) {
+            streamedBulk.drain();
+            logger.info("content too large for channel " + channelName);
+            throw e;
+        } catch (Exception e) {
+            streamedBulk.drain();
+            traces.add("SpokeContentDao", "error", e.getMessage());
+            logger.error("unable to stream " + channelName, e);
+            throw e;
+        }
+    }
+
+    private class StreamedBulk {
+        private final String channelName;
+        private final Consumer<ContentKey> written;
+        private final Deque<StreamedItem> window = new ArrayDeque<>();
+        private final SortedSet<ContentKey> keys = new TreeSet<>();
+        private long windowed;
+
+        private StreamedBulk(String channelName, Consumer<ContentKey> written) {
+            this.channelName = channelName;
+            this.written = written;
+        }
+
+        private void write(Content content) {
+            byte[] payload;
+            try {
+                payload = ContentMarshaller.toBytes(channelName, content);
+            } catch (IOException e) {
+                throw new FailedWriteException("unable to marshal bulk item " + e.getMessage());
+            }
+            while (!window.isEmpty() && (window.size() >= windowItems || windowed + payload.length > windowBytes)) {
+                completeOldest();
+            }
+            ContentKey key = content.getContentKey().get();
+            window.add(new StreamedItem(key, payload, spokeStore.startInsert(getPath(channelName, key), payload, "payload",
+                    () -> written.accept(key))));
+            windowed += payload.length;
+        }
+
+        private SortedSet<ContentKey> complete() {
+            while (!window.isEmpty()) {
+                completeOldest();
+            }
+            return keys;
+        }
+
+        /**
+         * Waits for the items still in the window after a failure, without throwing.
+         */
+        private void drain() {
+            while (!window.isEmpty()) {
+                try {
+                    completeOldest();
+                } catch (Exception e) {
+                    logger.info("unable to complete bulk item for {} {}", channelName, e.getMessage());
+                }
+            }
+        }
+
+        private void completeOldest() {
+            StreamedItem item = window.poll();
+            windowed -= item.payload.length;
+            try {
+                if (!item.write.await()) {
+                    throw new FailedWriteException("unable to write bulk item to spoke " + getPath(channelName, item.key));
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeInterruptedException(e);
+            }
+            contentCache.put(channelName, item.key, item.payload);
+            keys.add(item.key);
+        }
+    }
+
+    private static class StreamedItem {
+        private final ContentKey key;
+        private final byte[] payload;
+        private final RemoteSpokeStore.QuorumWrite write;
+
+        private StreamedItem(ContentKey key, byte[] payload, RemoteSpokeStore.QuorumWrite write) {
+            this.key = key;
+            this.payload = payload;
+            this.write = write;
+        }
+    }
+
     private String getPath(String channelName, ContentKey key) {
         return channelName + "/" + key.toUrl();
     }
@@ -115,7 +238,17 @@ public class SpokeContentDao implements ContentDao {
         Traces traces = ActiveTraces.getLocal();
         traces.add("SpokeContentDao.read");
         try {
-            return spokeStore.get(path, key);
+            byte[] payload = contentCache.get(channelName, key);
+            if (payload == null) {
+                payload = spokeStore.read(path);
+                if (payload == null) {
+                    return null;
+                }
+                contentCache.put(channelName, key, payload);
+            } else {
+                traces.add("SpokeContentDao.read cached");
+            }
+            return ContentMarshaller.toContent(payload, key);
         } catch (Exception e) {
             logger.warn("unable to get data: " + path, e);
             return null;
@@ -230,6 +363,7 @@ public class SpokeContentDao implements ContentDao {
     public void delete(String channelName) {
         try {
             spokeStore.delete(channelName);
+            contentCache.invalidate(channelName);
         } catch (Exception e) {
             logger.warn("unable to delete " + channelName, e);
         }
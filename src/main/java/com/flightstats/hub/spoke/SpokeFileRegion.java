@@ -0,0 +1,19 @@
+package com.flightstats.hub.spoke;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.File;
+
+/**
+ * The location of one item's bytes within a local Spoke file.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class SpokeFileRegion {
+    private final File file;
+    private final long offset;
+    private final long length;
+}
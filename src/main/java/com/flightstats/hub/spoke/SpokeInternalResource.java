@@ -2,8 +2,10 @@ package com.flightstats.hub.spoke;
 
 
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.metrics.DataDog;
 import com.flightstats.hub.model.SingleTrace;
-import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.timgroup.statsd.StatsDClient;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,8 +23,9 @@ import java.util.Arrays;
 public class SpokeInternalResource {
 
     private final static Logger logger = LoggerFactory.getLogger(SpokeInternalResource.class);
-    private static final FileSpokeStore spokeStore = HubProvider.getInstance(FileSpokeStore.class);
+    private static final SpokeStore spokeStore = HubProvider.getInstance(SpokeStore.class);
     private static final RemoteSpokeStore remoteSpokeStore = HubProvider.getInstance(RemoteSpokeStore.class);
+    private final static StatsDClient statsd = DataDog.statsd;
     @Context
     private UriInfo uriInfo;
 
@@ -31,8 +34,9 @@ public class SpokeInternalResource {
     public Response getPayload(@PathParam("path") String path) {
         try {
             Response.ResponseBuilder builder = Response.ok((StreamingOutput) os -> {
-                try (OutputStream output = new BufferedOutputStream(os)) {
+                try (CountingOutputStream output = new CountingOutputStream(new BufferedOutputStream(os))) {
                     spokeStore.read(path, output);
+                    statsd.count("spoke.read.bytes", output.getCount(), "mode:copied");
                 } catch (NotFoundException e) {
                     logger.debug("not found {}", e.getMessage());
                 }
@@ -74,19 +78,12 @@ public class SpokeInternalResource {
     public Response putBulk(@PathParam("channel") String channel, InputStream input) {
         try {
             long start = System.currentTimeMillis();
-            ObjectInputStream stream = new ObjectInputStream(input);
-            int items = stream.readInt();
-            for (int i = 0; i < items; i++) {
-                String keyPath = new String(readByesFully(stream));
-                byte[] data = readByesFully(stream);
-                String itemPath = channel + "/" + keyPath;
-                if (!spokeStore.insert(itemPath, new ByteArrayInputStream(data))) {
-                    logger.warn("what happened?!?! {}", channel);
-                    return Response
-                            .status(Response.Status.INTERNAL_SERVER_ERROR)
-                            .entity(new SingleTrace("failed", start).toString())
-                            .build();
-                }
+            if (!spokeStore.insertBulk(channel, input)) {
+                logger.warn("what happened?!?! {}", channel);
+                return Response
+                        .status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity(new SingleTrace("failed", start).toString())
+                        .build();
             }
             long end = System.currentTimeMillis();
             if ((end - start) > 4000) {
@@ -102,13 +99,6 @@ public class SpokeInternalResource {
         }
     }
 
-    private byte[] readByesFully(ObjectInputStream stream) throws IOException {
-        int size = stream.readInt();
-        byte[] data = new byte[size];
-        ByteStreams.readFully(stream, data);
-        return data;
-    }
-
     private Response getResponse(String path) {
         logger.trace("time {}", path);
         try {
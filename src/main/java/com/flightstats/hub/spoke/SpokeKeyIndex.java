@@ -0,0 +1,169 @@
+package com.flightstats.hub.spoke;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * An in memory index of the keys stored on this Spoke node, sorted by channel minute and then by item,
+ * so time, latest and next queries do not need to list directories.
+ * Minutes are in the form yyyy/MM/dd/HH/mm and items are in the form ssSSShash, the same as FileSpokeStore's file names.
+ * Keys are returned in the form channel/yyyy/MM/dd/HH/mm/ss/SSS/hash.
+ */
+class SpokeKeyIndex {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeKeyIndex.class);
+
+    private final Map<String, ConcurrentSkipListMap<String, NavigableSet<String>>> channels = new ConcurrentHashMap<>();
+
+    void add(String path) {
+        String[] split = StringUtils.split(path, "/");
+        if (split.length < 9) {
+            logger.debug("not a full key {}", path);
+            return;
+        }
+        add(split[0], minute(split), split[6] + split[7] + split[8]);
+    }
+
+    void add(String channel, String minute, String item) {
+        channels.computeIfAbsent(channel, k -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(minute, k -> new ConcurrentSkipListSet<>())
+                .add(item);
+    }
+
+    /**
+     * @param path a channel and time path, with a resolution anywhere from year to second
+     */
+    List<String> keysInBucket(String path) {
+        String[] split = StringUtils.split(path, "/");
+        List<String> keys = new ArrayList<>();
+        ConcurrentSkipListMap<String, NavigableSet<String>> minutes = channels.get(split[0]);
+        if (minutes == null || split.length < 2) {
+            return keys;
+        }
+        if (split.length >= 7) {
+            String minute = minute(split);
+            NavigableSet<String> items = minutes.get(minute);
+            if (items != null) {
+                addKeys(keys, split[0], minute, items.subSet(split[6], true, split[6] + Character.MAX_VALUE, false));
+            }
+            return keys;
+        }
+        String prefix = StringUtils.join(split, "/", 1, split.length);
+        for (Map.Entry<String, NavigableSet<String>> entry : minutes.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet()) {
+            addKeys(keys, split[0], entry.getKey(), entry.getValue());
+        }
+        return keys;
+    }
+
+    /**
+     * @param limitPath a key without the channel, yyyy/MM/dd/HH/mm/ss/SSS/hash
+     * @return the last key before limitPath, or null
+     */
+    String getLatest(String channel, String limitPath) {
+        ConcurrentSkipListMap<String, NavigableSet<String>> minutes = channels.get(channel);
+        if (minutes == null) {
+            return null;
+        }
+        String[] split = StringUtils.split(limitPath, "/");
+        String limitMinute = timeMinute(split);
+        for (Map.Entry<String, NavigableSet<String>> entry : minutes.headMap(limitMinute, true).descendingMap().entrySet()) {
+            NavigableSet<String> items = entry.getValue();
+            String item = entry.getKey().equals(limitMinute) ? items.lower(split[5] + split[6] + split[7]) : lastOrNull(items);
+            if (item != null) {
+                return key(channel, entry.getKey(), item);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This may return more than count, as it returns whole minutes, the same as SpokeStore.getNext.
+     *
+     * @param startKey  a key without the channel, yyyy/MM/dd/HH/mm/ss/SSS/hash
+     * @param endMinute the last minute to look in, yyyy/MM/dd/HH/mm
+     */
+    List<String> getNext(String channel, String startKey, int count, String endMinute) {
+        List<String> keys = new ArrayList<>();
+        ConcurrentSkipListMap<String, NavigableSet<String>> minutes = channels.get(channel);
+        if (minutes == null) {
+            return keys;
+        }
+        String[] split = StringUtils.split(startKey, "/");
+        String startMinute = timeMinute(split);
+        if (endMinute.compareTo(startMinute) < 0) {
+            endMinute = startMinute;
+        }
+        for (Map.Entry<String, NavigableSet<String>> entry : minutes.subMap(startMinute, true, endMinute, true).entrySet()) {
+            NavigableSet<String> items = entry.getValue();
+            if (entry.getKey().equals(startMinute)) {
+                items = items.tailSet(split[5] + split[6] + split[7], false);
+            }
+            addKeys(keys, channel, entry.getKey(), items);
+            if (keys.size() >= count) {
+                break;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Removes every minute up to and including limitMinute.
+     */
+    void removeThrough(String channel, String limitMinute) {
+        ConcurrentSkipListMap<String, NavigableSet<String>> minutes = channels.get(channel);
+        if (minutes != null) {
+            logger.trace("removing through {} from {}", limitMinute, channel);
+            minutes.headMap(limitMinute, true).clear();
+        }
+    }
+
+    /**
+     * @param path a channel, a channel and time path, or the path of a single item's file,
+     *             channel/yyyy/MM/dd/HH/mm/ssSSShash
+     */
+    void remove(String path) {
+        String[] split = StringUtils.split(path, "/");
+        if (split.length == 1) {
+            channels.remove(split[0]);
+            return;
+        }
+        ConcurrentSkipListMap<String, NavigableSet<String>> minutes = channels.get(split[0]);
+        if (minutes != null && split.length == 7 && split[6].length() > 2) {
+            NavigableSet<String> items = minutes.get(minute(split));
+            if (items != null) {
+                items.remove(split[6]);
+            }
+        } else if (minutes != null) {
+            String prefix = StringUtils.join(split, "/", 1, Math.min(split.length, 6));
+            minutes.subMap(prefix, true, prefix + Character.MAX_VALUE, false).clear();
+        }
+    }
+
+    private static String minute(String[] split) {
+        return StringUtils.join(split, "/", 1, 6);
+    }
+
+    private static String timeMinute(String[] timeSplit) {
+        return StringUtils.join(timeSplit, "/", 0, 5);
+    }
+
+    private static String lastOrNull(NavigableSet<String> items) {
+        return items.isEmpty() ? null : items.last();
+    }
+
+    private static void addKeys(List<String> keys, String channel, String minute, Collection<String> items) {
+        for (String item : items) {
+            keys.add(key(channel, minute, item));
+        }
+    }
+
+    private static String key(String channel, String minute, String item) {
+        return channel + "/" + minute + "/" + item.substring(0, 2) + "/" + item.substring(2, 5) + "/" + item.substring(5);
+    }
+}
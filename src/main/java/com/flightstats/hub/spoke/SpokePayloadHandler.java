@@ -0,0 +1,131 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.filter.DataDogRequestFilter;
+import com.flightstats.hub.metrics.DataDog;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.NotFoundException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Serves GET /internal/spoke/payload/ directly from Jetty, bypassing Jersey and the heap.
+ * Items of at least spoke.mappedReadBytes are memory mapped and written straight to the connection,
+ * smaller items are read into pooled direct buffers.
+ * This is enabled with spoke.zeroCopyReads, otherwise SpokeInternalResource.getPayload handles these requests.
+ */
+@Singleton
+public class SpokePayloadHandler extends AbstractHandler {
+
+    public static final String PAYLOAD_PATH = "/internal/spoke/payload/";
+    private static final String ENDPOINT = "/internal/spoke/payload/_path__";
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokePayloadHandler.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final SpokeStore spokeStore;
+    private final int mappedReadBytes = HubProperties.getProperty("spoke.mappedReadBytes", 1024 * 1024);
+    private final ByteBufferPool bufferPool = new ArrayByteBufferPool(4 * 1024, 16 * 1024, mappedReadBytes);
+
+    @Inject
+    public SpokePayloadHandler(SpokeStore spokeStore) {
+        this.spokeStore = spokeStore;
+    }
+
+    public static boolean isEnabled() {
+        return HubProperties.getProperty("spoke.zeroCopyReads", false)
+                && HubProperties.getProperty("hub.type", "aws").equals("aws");
+    }
+
+    public static boolean handles(HttpServletRequest request, String target) {
+        return target.startsWith(PAYLOAD_PATH) && request.getMethod().equals("GET");
+    }
+
+    /**
+     * Records the request with the endpoint and tags Jersey gives SpokeInternalResource.getPayload,
+     * as these requests do not pass through DataDogRequestFilter.
+     */
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long start = System.currentTimeMillis();
+        baseRequest.setHandled(true);
+        try {
+            send(StringUtils.removeStart(target, PAYLOAD_PATH), baseRequest, response);
+        } finally {
+            DataDogRequestFilter.record(request.getMethod(), ENDPOINT, "", start, response.getStatus());
+        }
+    }
+
+    private void send(String path, Request baseRequest, HttpServletResponse response) {
+        SpokeFileRegion region;
+        try {
+            region = spokeStore.getRegion(path);
+        } catch (NotFoundException e) {
+            logger.debug("not found {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(region.getFile().toPath(), READ)) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/octet-stream");
+            response.setContentLengthLong(region.getLength());
+            HttpOutput output = baseRequest.getResponse().getHttpOutput();
+            if (region.getLength() >= mappedReadBytes) {
+                output.sendContent(channel.map(FileChannel.MapMode.READ_ONLY, region.getOffset(), region.getLength()));
+                statsd.count("spoke.read.bytes", region.getLength(), "mode:mapped");
+            } else {
+                sendDirect(channel, region, output);
+                statsd.count("spoke.read.bytes", region.getLength(), "mode:direct");
+            }
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            logger.debug("deleted before it was read {}", path);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
+        } catch (IOException e) {
+            logger.info("unable to read " + path, e);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    private void sendDirect(FileChannel channel, SpokeFileRegion region, HttpOutput output) throws IOException {
+        int length = (int) region.getLength();
+        ByteBuffer buffer = bufferPool.acquire(length, true);
+        try {
+            buffer.clear().limit(length);
+            long position = region.getOffset();
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("unexpected end of " + region);
+                }
+                position += read;
+            }
+            buffer.flip();
+            output.sendContent(buffer);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The binary replication protocol between Spoke servers, used instead of PUT /internal/spoke when spoke.protocol.enable is set.
+ * A request frame is [int length][long id][byte type][utf path][payload], where length counts the bytes after itself.
+ * Each request is acknowledged with [int length][long id][byte status].
+ * Requests are pipelined on one long lived connection per server, and acks can arrive in any order.
+ * A BATCH request carries [int count] followed by [long id][byte type][utf path][int length][payload] for each item,
+ * and each item in it is acked individually.
+ * The protocol listens on the http port plus spoke.protocol.portOffset.
+ */
+public class SpokeProtocol {
+
+    static final byte PAYLOAD = 1;
+    static final byte BULK_KEY = 2;
+    static final byte BATCH = 3;
+
+    static final byte FAILED = 0;
+    static final byte SUCCESS = 1;
+
+    static final int ACK_LENGTH = 9;
+    static final int MAX_FRAME_BYTES = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024 * 3;
+
+    private static final int portOffset = HubProperties.getProperty("spoke.protocol.portOffset", 1000);
+
+    public static boolean isEnabled() {
+        return HubProperties.getProperty("spoke.protocol.enable", false)
+                && HubProperties.getProperty("hub.type", "aws").equals("aws");
+    }
+
+    static int getLocalPort() {
+        return HubHost.getLocalPort() + portOffset;
+    }
+
+    /**
+     * @param server a Spoke cluster member, in the form host:httpPort
+     */
+    static InetSocketAddress getAddress(String server) {
+        String host = StringUtils.substringBefore(server, ":");
+        int port = Integer.parseInt(StringUtils.substringAfter(server, ":"));
+        return new InetSocketAddress(host, port + portOffset);
+    }
+
+    static byte getType(String spokeApi) {
+        if (spokeApi.equals("payload")) {
+            return PAYLOAD;
+        } else if (spokeApi.equals("bulkKey")) {
+            return BULK_KEY;
+        }
+        throw new IllegalArgumentException("unknown spoke api " + spokeApi);
+    }
+
+    static ByteBuffer header(long id, byte type, String path, int payloadLength) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(path.length() + 20);
+        DataOutputStream output = new DataOutputStream(baos);
+        output.writeInt(0);
+        output.writeLong(id);
+        output.writeByte(type);
+        output.writeUTF(path);
+        ByteBuffer header = ByteBuffer.wrap(baos.toByteArray());
+        header.putInt(0, header.remaining() - 4 + payloadLength);
+        return header;
+    }
+
+    static ByteBuffer batchEntry(long id, byte type, String path, int payloadLength) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(path.length() + 20);
+        DataOutputStream output = new DataOutputStream(baos);
+        output.writeLong(id);
+        output.writeByte(type);
+        output.writeUTF(path);
+        output.writeInt(payloadLength);
+        return ByteBuffer.wrap(baos.toByteArray());
+    }
+
+    static ByteBuffer ack(long id, boolean success) {
+        ByteBuffer ack = ByteBuffer.allocate(4 + ACK_LENGTH);
+        ack.putInt(ACK_LENGTH).putLong(id).put(success ? SUCCESS : FAILED);
+        ack.flip();
+        return ack;
+    }
+
+    static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("connection closed " + channel);
+            }
+        }
+        buffer.flip();
+    }
+
+    static void writeFully(SocketChannel channel, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    /**
+     * @return the length of the next frame, after checking it against MAX_FRAME_BYTES
+     */
+    static int readLength(SocketChannel channel, ByteBuffer lengthBuffer) throws IOException {
+        lengthBuffer.clear();
+        readFully(channel, lengthBuffer);
+        int length = lengthBuffer.getInt();
+        if (length < ACK_LENGTH || length > MAX_FRAME_BYTES) {
+            throw new IOException("invalid frame length " + length + " from " + channel);
+        }
+        return length;
+    }
+}
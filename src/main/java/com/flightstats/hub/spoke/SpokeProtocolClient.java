@@ -0,0 +1,279 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps one SpokeProtocol connection open to each Spoke server, and pipelines writes to it.
+ * Callers are told the result of each write when its ack arrives, or when the connection fails.
+ * If a server can not be connected to, write returns false, and the caller falls back to HTTP.
+ * Connection attempts to that server are then skipped for spoke.protocol.retrySeconds.
+ * Connections are made under a lock per server, so a slow server does not hold up writes to the others.
+ */
+@Singleton
+public class SpokeProtocolClient {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeProtocolClient.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final int connectTimeoutMillis = HubProperties.getProperty("spoke.protocol.connectTimeoutMillis", 1000);
+    private final long ackTimeoutMillis = TimeUnit.SECONDS.toMillis(HubProperties.getProperty("spoke.protocol.ackTimeoutSeconds", 5));
+    private final long retryMillis = TimeUnit.SECONDS.toMillis(HubProperties.getProperty("spoke.protocol.retrySeconds", 10));
+    private final boolean batchEnabled = HubProperties.getProperty("spoke.protocol.batch.enable", false);
+    private final long batchNanos = TimeUnit.MILLISECONDS.toNanos(HubProperties.getProperty("spoke.protocol.batch.millis", 2));
+    private final int batchBytes = HubProperties.getProperty("spoke.protocol.batch.bytes", 256 * 1024);
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private final Map<String, Long> failures = new ConcurrentHashMap<>();
+    private final Map<String, Object> connectLocks = new ConcurrentHashMap<>();
+    private final ExecutorService executorService = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("SpokeProtocolClient-%d").setDaemon(true).build());
+
+    public SpokeProtocolClient() {
+        ScheduledExecutorService expirer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("SpokeProtocolExpirer").setDaemon(true).build());
+        expirer.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param onAck is called with the result of the write, only if this returns true
+     * @return false if the write could not be queued to the server
+     */
+    public boolean write(String server, String spokeApi, String path, byte[] payload, Consumer<Boolean> onAck) {
+        Connection connection = getConnection(server);
+        return connection != null && connection.send(new Frame(SpokeProtocol.getType(spokeApi), path, payload, onAck));
+    }
+
+    private Connection getConnection(String server) {
+        Connection connection = connections.get(server);
+        if (connection != null) {
+            return connection;
+        }
+        Long failed = failures.get(server);
+        if (failed != null && System.currentTimeMillis() - failed < retryMillis) {
+            return null;
+        }
+        synchronized (connectLocks.computeIfAbsent(server, key -> new Object())) {
+            connection = connections.get(server);
+            failed = failures.get(server);
+            if (connection == null && (failed == null || System.currentTimeMillis() - failed >= retryMillis)) {
+                connection = connect(server);
+            }
+            return connection;
+        }
+    }
+
+    private Connection connect(String server) {
+        InetSocketAddress address = SpokeProtocol.getAddress(server);
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.socket().connect(address, connectTimeoutMillis);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(server, channel);
+            connections.put(server, connection);
+            failures.remove(server);
+            executorService.submit(connection::writeFrames);
+            executorService.submit(connection::readAcks);
+            logger.info("connected to {}", address);
+            return connection;
+        } catch (IOException e) {
+            logger.info("unable to connect to {} {}", address, e.getMessage());
+            IOUtils.closeQuietly(channel);
+            failures.put(server, System.currentTimeMillis());
+            statsd.incrementCounter("spoke.protocol.connect.failed");
+            return null;
+        }
+    }
+
+    private void expire() {
+        long oldest = System.currentTimeMillis() - ackTimeoutMillis;
+        for (Connection connection : connections.values()) {
+            try {
+                connection.expire(oldest);
+            } catch (Exception e) {
+                logger.warn("unable to expire " + connection.server, e);
+            }
+        }
+    }
+
+    int getPending(String server) {
+        Connection connection = connections.get(server);
+        return connection == null ? 0 : connection.pending.size();
+    }
+
+    private static class Frame {
+        private final byte type;
+        private final String path;
+        private final byte[] payload;
+        private final Consumer<Boolean> onAck;
+        private final long created = System.currentTimeMillis();
+        private long id;
+
+        private Frame(byte type, String path, byte[] payload, Consumer<Boolean> onAck) {
+            this.type = type;
+            this.path = path;
+            this.payload = payload;
+            this.onAck = onAck;
+        }
+    }
+
+    private class Connection {
+        private final String server;
+        private final SocketChannel channel;
+        private final AtomicLong ids = new AtomicLong();
+        private final AtomicBoolean open = new AtomicBoolean(true);
+        private final Map<Long, Frame> pending = new ConcurrentHashMap<>();
+        private final BlockingQueue<Frame> queue = new LinkedBlockingQueue<>();
+
+        private Connection(String server, SocketChannel channel) {
+            this.server = server;
+            this.channel = channel;
+        }
+
+        private boolean send(Frame frame) {
+            if (!open.get()) {
+                return false;
+            }
+            frame.id = ids.incrementAndGet();
+            pending.put(frame.id, frame);
+            queue.add(frame);
+            if (!open.get()) {
+                fail();
+            }
+            return true;
+        }
+
+        /**
+         * Frames which are queued together are sent with a single gathering write.
+         * With spoke.protocol.batch.enable, frames are instead collected for up to spoke.protocol.batch.millis
+         * or spoke.protocol.batch.bytes, and sent as one BATCH frame.
+         */
+        private void writeFrames() {
+            List<Frame> frames = new ArrayList<>();
+            try {
+                while (open.get()) {
+                    Frame first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    frames.clear();
+                    frames.add(first);
+                    if (batchEnabled) {
+                        collectBatch(frames, first.payload.length);
+                    } else {
+                        queue.drainTo(frames, 63);
+                    }
+                    if (frames.size() > 1 && batchEnabled) {
+                        writeBatch(frames);
+                    } else {
+                        writeEach(frames);
+                    }
+                }
+            } catch (Exception e) {
+                close("write failed " + e.getMessage());
+            }
+        }
+
+        private void collectBatch(List<Frame> frames, long bytes) throws InterruptedException {
+            long deadline = System.nanoTime() + batchNanos;
+            while (bytes < batchBytes) {
+                Frame next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+                frames.add(next);
+                bytes += next.payload.length;
+            }
+        }
+
+        private void writeEach(List<Frame> frames) throws IOException {
+            List<ByteBuffer> buffers = new ArrayList<>();
+            for (Frame frame : frames) {
+                buffers.add(SpokeProtocol.header(frame.id, frame.type, frame.path, frame.payload.length));
+                buffers.add(ByteBuffer.wrap(frame.payload));
+            }
+            SpokeProtocol.writeFully(channel, buffers.toArray(new ByteBuffer[buffers.size()]));
+        }
+
+        private void writeBatch(List<Frame> frames) throws IOException {
+            List<ByteBuffer> buffers = new ArrayList<>();
+            ByteBuffer count = ByteBuffer.allocate(4);
+            count.putInt(0, frames.size());
+            buffers.add(count);
+            int length = 4;
+            for (Frame frame : frames) {
+                ByteBuffer entry = SpokeProtocol.batchEntry(frame.id, frame.type, frame.path, frame.payload.length);
+                buffers.add(entry);
+                buffers.add(ByteBuffer.wrap(frame.payload));
+                length += entry.remaining() + frame.payload.length;
+            }
+            buffers.add(0, SpokeProtocol.header(0, SpokeProtocol.BATCH, "", length));
+            SpokeProtocol.writeFully(channel, buffers.toArray(new ByteBuffer[buffers.size()]));
+            statsd.count("spoke.protocol.batch.items", frames.size());
+        }
+
+        private void readAcks() {
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+            ByteBuffer ack = ByteBuffer.allocate(SpokeProtocol.ACK_LENGTH);
+            try {
+                while (open.get()) {
+                    SpokeProtocol.readLength(channel, lengthBuffer);
+                    ack.clear();
+                    SpokeProtocol.readFully(channel, ack);
+                    Frame frame = pending.remove(ack.getLong());
+                    if (frame != null) {
+                        frame.onAck.accept(ack.get() == SpokeProtocol.SUCCESS);
+                    }
+                }
+            } catch (Exception e) {
+                close("read failed " + e.getMessage());
+            }
+        }
+
+        private void expire(long oldest) {
+            for (Frame frame : pending.values()) {
+                if (frame.created < oldest) {
+                    close("ack timeout " + frame.path);
+                    return;
+                }
+            }
+        }
+
+        private void close(String reason) {
+            if (open.compareAndSet(true, false)) {
+                logger.info("closing connection to {} {}", server, reason);
+                connections.remove(server, this);
+                IOUtils.closeQuietly(channel);
+                fail();
+            }
+        }
+
+        private void fail() {
+            for (Long id : pending.keySet()) {
+                Frame frame = pending.remove(id);
+                if (frame != null) {
+                    frame.onAck.accept(false);
+                }
+            }
+            queue.clear();
+        }
+    }
+}
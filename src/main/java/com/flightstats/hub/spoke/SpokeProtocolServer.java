@@ -0,0 +1,222 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.metrics.DataDog;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Accepts SpokeProtocol connections from the other Spoke servers, and writes each frame to the local SpokeStore.
+ * Each connection has one reader thread, the writes happen on a shared pool, and each frame is acked when its write completes.
+ * The payloads in a BATCH frame are written together with SpokeStore.insert(Map), and acked individually.
+ * A connection stops reading once spoke.protocol.maxInFlight of its frames are waiting to be written.
+ */
+@Singleton
+public class SpokeProtocolServer {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeProtocolServer.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final SpokeStore spokeStore;
+    private final int maxInFlight = HubProperties.getProperty("spoke.protocol.maxInFlight", 256);
+    private final ExecutorService writers = Executors.newFixedThreadPool(HubProperties.getProperty("spoke.protocol.writeThreads", 32),
+            new ThreadFactoryBuilder().setNameFormat("SpokeProtocolWriter-%d").build());
+    private final ExecutorService readers = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("SpokeProtocolReader-%d").build());
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocketChannel serverChannel;
+    private Future<?> acceptor;
+
+    @Inject
+    public SpokeProtocolServer(SpokeStore spokeStore) {
+        this.spokeStore = spokeStore;
+        HubServices.register(new SpokeProtocolServerService());
+    }
+
+    void start(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        logger.info("listening on {}", serverChannel.getLocalAddress());
+        acceptor = readers.submit(this::accept);
+    }
+
+    int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Waits for the accept loop to exit before closing the connections, so a connection accepted during shutdown
+     * is closed too.
+     */
+    void stop() throws InterruptedException {
+        IOUtils.closeQuietly(serverChannel);
+        try {
+            acceptor.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("unable to stop accepting connections", e);
+        }
+        connections.forEach(IOUtils::closeQuietly);
+        readers.shutdown();
+        readers.awaitTermination(10, TimeUnit.SECONDS);
+        writers.shutdown();
+        writers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                logger.info("accepted connection from {}", channel.getRemoteAddress());
+                connections.add(channel);
+                readers.submit(() -> read(channel));
+            }
+        } catch (ClosedChannelException e) {
+            logger.info("stopped listening");
+        } catch (IOException e) {
+            logger.warn("unable to accept connections", e);
+        }
+    }
+
+    private void read(SocketChannel channel) {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        try {
+            while (true) {
+                int length = SpokeProtocol.readLength(channel, lengthBuffer);
+                ByteBuffer frame = ByteBuffer.allocate(length);
+                SpokeProtocol.readFully(channel, frame);
+                inFlight.acquire();
+                writers.submit(() -> {
+                    try {
+                        write(channel, frame);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (ClosedChannelException e) {
+            logger.debug("closed {}", channel);
+        } catch (Exception e) {
+            logger.info("closing connection {} {}", channel, e.getMessage());
+        } finally {
+            connections.remove(channel);
+            IOUtils.closeQuietly(channel);
+        }
+    }
+
+    private void write(SocketChannel channel, ByteBuffer frame) {
+        long start = System.currentTimeMillis();
+        long id = frame.getLong();
+        byte type = frame.get();
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(frame.array(), frame.position(), frame.remaining()));
+        String path = "";
+        boolean success = false;
+        try {
+            path = input.readUTF();
+            if (type == SpokeProtocol.BATCH) {
+                writeBatch(channel, input, start);
+                return;
+            } else if (type == SpokeProtocol.PAYLOAD) {
+                success = spokeStore.insert(path, input);
+            } else if (type == SpokeProtocol.BULK_KEY) {
+                success = spokeStore.insertBulk(path, input);
+            } else {
+                logger.warn("unknown frame type {} {}", type, path);
+            }
+        } catch (Exception e) {
+            logger.warn("unable to write " + path, e);
+        }
+        logTime(path, start);
+        ack(channel, SpokeProtocol.ack(id, success));
+    }
+
+    /**
+     * Payload items in a batch are written to the SpokeStore together, and every item is acked in one write.
+     */
+    private void writeBatch(SocketChannel channel, DataInputStream input, long start) {
+        Map<String, List<Long>> ids = new LinkedHashMap<>();
+        Map<String, byte[]> payloads = new LinkedHashMap<>();
+        List<ByteBuffer> acks = new ArrayList<>();
+        try {
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = input.readLong();
+                byte type = input.readByte();
+                String path = input.readUTF();
+                byte[] payload = new byte[input.readInt()];
+                input.readFully(payload);
+                if (type == SpokeProtocol.PAYLOAD) {
+                    ids.computeIfAbsent(path, k -> new ArrayList<>()).add(id);
+                    payloads.put(path, payload);
+                } else {
+                    boolean success = type == SpokeProtocol.BULK_KEY && spokeStore.insertBulk(path, new ByteArrayInputStream(payload));
+                    acks.add(SpokeProtocol.ack(id, success));
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("unable to read batch", e);
+            IOUtils.closeQuietly(channel);
+            return;
+        }
+        Set<String> written = spokeStore.insert(payloads);
+        for (Map.Entry<String, List<Long>> entry : ids.entrySet()) {
+            for (Long id : entry.getValue()) {
+                acks.add(SpokeProtocol.ack(id, written.contains(entry.getKey())));
+            }
+        }
+        logTime("batch of " + acks.size(), start);
+        ack(channel, acks.toArray(new ByteBuffer[acks.size()]));
+    }
+
+    private void logTime(String path, long start) {
+        long time = System.currentTimeMillis() - start;
+        if (time > 4000) {
+            logger.info("slow protocol write {} {}", path, new DateTime(start));
+        }
+        statsd.time("spoke.protocol.write", time);
+    }
+
+    private void ack(SocketChannel channel, ByteBuffer... acks) {
+        try {
+            synchronized (channel) {
+                SpokeProtocol.writeFully(channel, acks);
+            }
+        } catch (IOException e) {
+            logger.info("unable to ack {} {}", channel, e.getMessage());
+            IOUtils.closeQuietly(channel);
+        }
+    }
+
+    private class SpokeProtocolServerService extends AbstractIdleService {
+
+        @Override
+        protected void startUp() throws Exception {
+            start(SpokeProtocol.getLocalPort());
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            stop();
+        }
+    }
+}
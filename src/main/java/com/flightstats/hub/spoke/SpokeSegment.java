@@ -0,0 +1,155 @@
+package com.flightstats.hub.spoke;
+
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * One channel minute of items, stored as an append-only data file and an index file.
+ * Each index entry holds the item name (ssSSShash), offset and length within the data file.
+ * An item is only visible once its index entry has been written.
+ * <p>
+ * Callers are expected to serialize appends to a segment.
+ */
+class SpokeSegment {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeSegment.class);
+
+    static final String DATA = "data";
+    static final String INDEX = "index";
+
+    private final File directory;
+    private final File data;
+    private final File index;
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    private SpokeSegment(File directory) {
+        this.directory = directory;
+        this.data = new File(directory, DATA);
+        this.index = new File(directory, INDEX);
+    }
+
+    static SpokeSegment load(File directory) throws IOException {
+        SpokeSegment segment = new SpokeSegment(directory);
+        segment.readIndex();
+        return segment;
+    }
+
+    static boolean isSegment(File directory) {
+        return new File(directory, INDEX).exists();
+    }
+
+    private void readIndex() throws IOException {
+        if (!index.exists()) {
+            return;
+        }
+        long dataLength = data.length();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+            while (true) {
+                String item = input.readUTF();
+                long offset = input.readLong();
+                int length = input.readInt();
+                if (offset + length > dataLength) {
+                    logger.warn("incomplete item {} in {}", item, directory);
+                    continue;
+                }
+                entries.put(item, new Entry(offset, length));
+            }
+        } catch (EOFException e) {
+            logger.trace("end of index {}", index);
+        }
+    }
+
+    void append(String item, byte[] payload) throws IOException {
+        append(Collections.singletonMap(item, payload));
+    }
+
+    /**
+     * Appends all of the items with one write to the data file and one write to the index file.
+     */
+    void append(Map<String, byte[]> items) throws IOException {
+        directory.mkdirs();
+        Map<String, Entry> appended = new LinkedHashMap<>();
+        ByteBuffer[] payloads = new ByteBuffer[items.size()];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(items.size() * 30);
+        DataOutputStream indexEntries = new DataOutputStream(baos);
+        try (FileChannel channel = FileChannel.open(data.toPath(), CREATE, WRITE, APPEND)) {
+            long offset = channel.size();
+            int i = 0;
+            for (Map.Entry<String, byte[]> item : items.entrySet()) {
+                byte[] payload = item.getValue();
+                payloads[i++] = ByteBuffer.wrap(payload);
+                indexEntries.writeUTF(item.getKey());
+                indexEntries.writeLong(offset);
+                indexEntries.writeInt(payload.length);
+                appended.put(item.getKey(), new Entry(offset, payload.length));
+                offset += payload.length;
+            }
+            writeFully(channel, payloads);
+        }
+        try (FileChannel channel = FileChannel.open(index.toPath(), CREATE, WRITE, APPEND)) {
+            writeFully(channel, ByteBuffer.wrap(baos.toByteArray()));
+        }
+        entries.putAll(appended);
+    }
+
+    private void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    boolean read(String item, OutputStream output) throws IOException {
+        Entry entry = entries.get(item);
+        if (entry == null) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(data.toPath(), READ)) {
+            channel.position(entry.offset);
+            ByteStreams.copy(ByteStreams.limit(Channels.newInputStream(channel), entry.length), output);
+        }
+        return true;
+    }
+
+    SpokeFileRegion getRegion(String item) {
+        Entry entry = entries.get(item);
+        if (entry == null) {
+            return null;
+        }
+        return new SpokeFileRegion(data, entry.offset, entry.length);
+    }
+
+    NavigableSet<String> items() {
+        return entries.navigableKeySet();
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    private static class Entry {
+        private final long offset;
+        private final int length;
+
+        private Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.flightstats.hub.spoke;
+
+import com.google.common.io.ByteStreams;
+import org.joda.time.DateTime;
+
+import java.io.*;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The local storage engine for Spoke.
+ * Paths are in the form channel/yyyy/MM/dd/HH/mm/ss/SSS/hash
+ * The engine is selected with the property spoke.store, either 'file' (the default) or 'segment'.
+ */
+public interface SpokeStore {
+
+    boolean insert(String path, InputStream input);
+
+    default boolean insert(String path, byte[] payload) {
+        return insert(path, new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * Inserts a group of items, such as a batch of replicated writes.
+     *
+     * @return the paths which were written
+     */
+    default Set<String> insert(Map<String, byte[]> items) {
+        Set<String> written = new HashSet<>();
+        for (Map.Entry<String, byte[]> item : items.entrySet()) {
+            if (insert(item.getKey(), item.getValue())) {
+                written.add(item.getKey());
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Inserts the items written by SpokeContentDao's bulk insert, an item count followed by each item's key path and payload.
+     */
+    default boolean insertBulk(String channel, InputStream input) throws IOException {
+        ObjectInputStream stream = new ObjectInputStream(input);
+        int items = stream.readInt();
+        for (int i = 0; i < items; i++) {
+            byte[] keyPath = new byte[stream.readInt()];
+            ByteStreams.readFully(stream, keyPath);
+            byte[] data = new byte[stream.readInt()];
+            ByteStreams.readFully(stream, data);
+            if (!insert(channel + "/" + new String(keyPath), data)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void read(String path, OutputStream output);
+
+    default byte[] read(String path) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        read(path, baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * @throws javax.ws.rs.NotFoundException if the item does not exist or is incomplete
+     */
+    SpokeFileRegion getRegion(String path);
+
+    void readKeysInBucket(String path, OutputStream output);
+
+    default String readKeysInBucket(String path) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        readKeysInBucket(path, baos);
+        return baos.toString();
+    }
+
+    boolean delete(String path) throws Exception;
+
+    String getLatest(String channel, String limitPath);
+
+    /**
+     * This may return more than the request count, as this does not do any sorting.
+     */
+    void getNext(String channel, String startKey, int count, OutputStream output) throws IOException;
+
+    void enforceTtl(String channel, DateTime dateTime);
+
+    /**
+     * Drops any in memory state for a channel, or a channel and time path, which was removed from disk by SpokeTtlReaper.
+     */
+    default void forget(String path) {
+    }
+}
@@ -5,16 +5,20 @@ import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.TtlEnforcer;
 import com.flightstats.hub.model.ChannelConfig;
-import com.flightstats.hub.util.FileUtil;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -25,6 +29,8 @@ public class SpokeTtlEnforcer {
     private final int ttlMinutes = HubProperties.getSpokeTtl() + 1;
     @Inject
     private ChannelService channelService;
+    @Inject
+    private SpokeTtlReaper reaper;
 
     @Inject
     public SpokeTtlEnforcer() {
@@ -34,17 +40,14 @@ public class SpokeTtlEnforcer {
         }
     }
 
-    private Consumer<ChannelConfig> handleCleanup() {
+    private Consumer<ChannelConfig> handleCleanup(List<ForkJoinTask<?>> tasks) {
         return channel -> {
-            String channelPath = storagePath + "/" + channel.getName();
             if (channel.isLive()) {
                 DateTime ttlDateTime = TimeUtil.stable().minusMinutes(ttlMinutes + 1);
-                for (int i = 0; i < 3; i++) {
-                    FileUtil.runCommand(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.minutes(ttlDateTime.minusMinutes(i))}, 1);
-                    FileUtil.runCommand(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.hours(ttlDateTime.minusHours(i + 1))}, 5);
-                }
+                tasks.add(reaper.reapThrough(channel.getName(), ttlDateTime));
             } else {
-                FileUtil.runCommand(new String[]{"find", channelPath, "-mmin", "+" + ttlMinutes, "-delete"}, 1);
+                long modifiedBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ttlMinutes);
+                tasks.add(reaper.reapModifiedBefore(channel.getName(), modifiedBefore));
             }
         };
     }
@@ -55,7 +58,13 @@ public class SpokeTtlEnforcer {
             try {
                 long start = System.currentTimeMillis();
                 logger.info("running ttl cleanup");
-                TtlEnforcer.enforce(storagePath, channelService, handleCleanup());
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                TtlEnforcer.enforce(storagePath, channelService, handleCleanup(tasks),
+                        dirPath -> tasks.add(reaper.reapAll(StringUtils.removeStart(dirPath, storagePath + "/"))));
+                for (ForkJoinTask<?> task : tasks) {
+                    task.join();
+                }
+                reaper.report();
                 logger.info("completed ttl cleanup {}", (System.currentTimeMillis() - start));
             } catch (Exception e) {
                 logger.info("issue cleaning up spoke", e);
@@ -73,7 +82,18 @@ public class SpokeTtlEnforcer {
         @Override
         protected void startUp() throws Exception {
             logger.info("performing Spoke cleanup");
-            FileUtil.runCommand(new String[]{"find", storagePath, "-mmin", "+" + ttlMinutes, "-delete"}, 10 * 60);
+            long modifiedBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ttlMinutes);
+            String[] channels = new File(storagePath).list();
+            if (channels != null) {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (String channel : channels) {
+                    tasks.add(reaper.reapModifiedBefore(channel, modifiedBefore));
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.join();
+                }
+            }
+            reaper.report();
             logger.info("completed Spoke cleanup");
         }
 
@@ -0,0 +1,268 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes expired Spoke directories in process with NIO, instead of forking rm and find.
+ * Channels are reaped in parallel on a work stealing pool of spoke.ttl.threads, and large directories are split
+ * into subtasks, so one busy channel does not hold up the rest.
+ * Deletes across all threads are limited to spoke.ttl.deletesPerSecond.
+ */
+@Singleton
+public class SpokeTtlReaper {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeTtlReaper.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+    private static final String[] PAD = {"/01/01/00/00", "/01/00/00", "/00/00", "/00", ""};
+
+    private final SpokeStore spokeStore;
+    private final Path storagePath;
+    private final ForkJoinPool pool = new ForkJoinPool(HubProperties.getProperty("spoke.ttl.threads", 4));
+    private final RateLimiter rateLimiter = RateLimiter.create(HubProperties.getProperty("spoke.ttl.deletesPerSecond", 5000));
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+
+    @Inject
+    public SpokeTtlReaper(SpokeStore spokeStore, @Named("spoke.path") String storagePath) {
+        this.spokeStore = spokeStore;
+        this.storagePath = Paths.get(storagePath);
+    }
+
+    /**
+     * Deletes every time directory of the channel up to and including the minute of lastExpired.
+     */
+    public ForkJoinTask<?> reapThrough(String channel, DateTime lastExpired) {
+        String[] limit = StringUtils.split(TimeUtil.minutes(lastExpired), "/");
+        DateTime boundary = TimeUtil.minutes(TimeUtil.minutes(lastExpired)).plusMinutes(1);
+        return pool.submit(() -> reapThrough(channel, "", limit, 0, boundary));
+    }
+
+    private void reapThrough(String channel, String timePath, String[] limit, int depth, DateTime boundary) {
+        for (String child : list(storagePath.resolve(channel).resolve(timePath))) {
+            int compare = child.compareTo(limit[depth]);
+            String childPath = depth == 0 ? child : timePath + "/" + child;
+            if (compare < 0 || (compare == 0 && depth == 4)) {
+                reap(channel + "/" + childPath);
+                recordLag(boundary, childPath, depth);
+            } else if (compare == 0) {
+                reapThrough(channel, childPath, limit, depth + 1, boundary);
+            }
+        }
+    }
+
+    /**
+     * Deletes the files of the channel which were last modified before modifiedBefore, and then the directories
+     * which were also last modified before then, and are now empty.
+     * This is used for channels whose item times do not follow the clock.
+     */
+    public ForkJoinTask<?> reapModifiedBefore(String channel, long modifiedBefore) {
+        return pool.submit(() -> {
+            Path channelPath = storagePath.resolve(channel);
+            try {
+                Files.walkFileTree(channelPath, new SimpleFileVisitor<Path>() {
+                    private final Deque<Long> modified = new ArrayDeque<>();
+
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        modified.push(attrs.lastModifiedTime().toMillis());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (attrs.lastModifiedTime().toMillis() < modifiedBefore) {
+                            delete(file, attrs.size());
+                            spokeStore.forget(storagePath.relativize(file).toString());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        logger.debug("unable to visit {} {}", file, e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                        long lastModified = modified.pop();
+                        if (!dir.equals(channelPath) && lastModified < modifiedBefore && isEmpty(dir)) {
+                            Files.deleteIfExists(dir);
+                            spokeStore.forget(storagePath.relativize(dir).toString());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (NoSuchFileException e) {
+                logger.trace("no directory {}", channelPath);
+            } catch (IOException e) {
+                logger.warn("unable to reap " + channelPath, e);
+            }
+        });
+    }
+
+    /**
+     * Deletes a channel, or a channel and time path, and everything below it.
+     */
+    public ForkJoinTask<?> reapAll(String path) {
+        return pool.submit(() -> reap(path));
+    }
+
+    private void reap(String path) {
+        logger.debug("reaping {}", path);
+        new DeleteAction(storagePath.resolve(path)).invoke();
+        spokeStore.forget(path);
+    }
+
+    /**
+     * Sends and resets the totals since the last call.
+     */
+    public void report() {
+        long reapedFiles = files.getAndSet(0);
+        long reapedBytes = bytes.getAndSet(0);
+        long lag = lagMillis.getAndSet(0);
+        statsd.count("spoke.ttl.files", reapedFiles);
+        statsd.count("spoke.ttl.bytes", reapedBytes);
+        statsd.gauge("spoke.ttl.lagSeconds", lag / 1000);
+        logger.info("reaped {} files {} bytes, lag {} ms", reapedFiles, reapedBytes, lag);
+    }
+
+    long getFiles() {
+        return files.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * The lag is how long a directory's contents were past the boundary before they were reaped.
+     */
+    private void recordLag(DateTime boundary, String timePath, int depth) {
+        DateTime start;
+        try {
+            start = TimeUtil.minutes(timePath + PAD[depth]);
+        } catch (IllegalArgumentException e) {
+            logger.debug("not a time path {}", timePath);
+            return;
+        }
+        DateTime end;
+        switch (depth) {
+            case 0:
+                end = start.plusYears(1);
+                break;
+            case 1:
+                end = start.plusMonths(1);
+                break;
+            case 2:
+                end = start.plusDays(1);
+                break;
+            case 3:
+                end = start.plusHours(1);
+                break;
+            default:
+                end = start.plusMinutes(1);
+        }
+        long lag = boundary.getMillis() - end.getMillis();
+        lagMillis.accumulateAndGet(lag, Math::max);
+    }
+
+    private void delete(Path file, long size) throws IOException {
+        rateLimiter.acquire();
+        if (Files.deleteIfExists(file)) {
+            files.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+    }
+
+    private static List<String> list(Path directory) {
+        List<String> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path child : stream) {
+                children.add(child.getFileName().toString());
+            }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            logger.trace("nothing to list {}", directory);
+        } catch (IOException e) {
+            logger.warn("unable to list " + directory, e);
+        }
+        Collections.sort(children);
+        return children;
+    }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            return !stream.iterator().hasNext();
+        }
+    }
+
+    /**
+     * Deletes the files in a directory, forks a subtask for each child directory, and then deletes the directory.
+     */
+    private class DeleteAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path directory;
+
+        private DeleteAction(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DeleteAction> children = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        children.add(new DeleteAction(child));
+                    } else {
+                        delete(child, attrs.size());
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                logger.trace("already deleted {}", directory);
+                return;
+            } catch (NotDirectoryException e) {
+                deleteQuietly(directory);
+                return;
+            } catch (IOException e) {
+                logger.warn("unable to delete from " + directory, e);
+            }
+            invokeAll(children);
+            deleteQuietly(directory);
+        }
+
+        private void deleteQuietly(Path path) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.info("unable to delete {} {}", path, e.getMessage());
+            }
+        }
+    }
+}
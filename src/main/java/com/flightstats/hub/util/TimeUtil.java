@@ -111,6 +111,10 @@ public class TimeUtil {
             return dateTime.toString(formatter);
         }
 
+        public DateTime parse(String string) {
+            return formatter.parseDateTime(string);
+        }
+
         public Duration getDuration() {
             return duration;
         }
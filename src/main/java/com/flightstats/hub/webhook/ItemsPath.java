@@ -0,0 +1,37 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPathKeys;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of items sent in one ITEMS call.  The batch sorts as its last key, and is stored in the in flight set
+ * as each of its keys.
+ */
+class ItemsPath extends ContentKey implements ContentPathKeys {
+
+    private final List<ContentKey> keys;
+    private final Map<ContentKey, Content> contents;
+
+    ItemsPath(List<ContentKey> keys, Map<ContentKey, Content> contents) {
+        super(keys.get(keys.size() - 1).getTime(), keys.get(keys.size() - 1).getHash());
+        this.keys = keys;
+        this.contents = contents;
+    }
+
+    @Override
+    public Collection<ContentKey> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the payload for the key, or null when the webhook does not inline payloads
+     */
+    Content getContent(ContentKey key) {
+        return contents.get(key);
+    }
+}
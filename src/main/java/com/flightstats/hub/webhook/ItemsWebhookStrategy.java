@@ -0,0 +1,248 @@
+package com.flightstats.hub.webhook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubBindings;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.Request;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends up to maxItems items, or maxBytes of uris or payloads, in each call.
+ * A batch is sent when it is full, or lingerMillis after its first item.
+ * Payloads are read in bulk once a batch's keys are collected, and a missing payload is flagged as missing.
+ * Batches can complete out of order, so lastCompleted only moves to the last key of the batches
+ * which have completed or failed without a gap.
+ */
+class ItemsWebhookStrategy implements WebhookStrategy {
+
+    private final static Logger logger = LoggerFactory.getLogger(ItemsWebhookStrategy.class);
+    private static final ObjectMapper mapper = HubBindings.objectMapper();
+
+    private final Webhook webhook;
+    private final ChannelService channelService;
+    private final SingleWebhookStrategy keys;
+    private final TreeMap<ContentKey, Boolean> sent = new TreeMap<>();
+    private ContentPath contiguous;
+    private final Map<ContentKey, Content> carry = new LinkedHashMap<>();
+
+    ItemsWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                         ScheduledExecutorService scheduler) {
+        this.webhook = webhook;
+        this.channelService = channelService;
+        this.keys = new SingleWebhookStrategy(webhook, lastContentPath, channelService, scheduler, webhook.getMaxItems() * 2);
+    }
+
+    @Override
+    public ContentPath getStartingPath() {
+        return keys.getStartingPath();
+    }
+
+    @Override
+    public ContentPath getLastCompleted() {
+        return keys.getLastCompleted();
+    }
+
+    @Override
+    public void start(Webhook webhook, ContentPath startingPath) {
+        synchronized (sent) {
+            contiguous = startingPath;
+        }
+        keys.start(webhook, startingPath);
+    }
+
+    @Override
+    public Optional<ContentPath> next() {
+        Map<ContentKey, Content> contents = new HashMap<>(carry);
+        List<ContentKey> batch = new ArrayList<>(carry.keySet());
+        carry.clear();
+        int carried = batch.size();
+        long deadline = System.currentTimeMillis() + webhook.getLingerMillis();
+        while (batch.size() < webhook.getMaxItems()) {
+            long wait = TimeUnit.SECONDS.toMillis(10);
+            if (!batch.isEmpty()) {
+                wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+            }
+            Optional<ContentPath> next = keys.next(wait, TimeUnit.MILLISECONDS);
+            if (!next.isPresent()) {
+                if (batch.isEmpty()) {
+                    return Optional.absent();
+                }
+                break;
+            }
+            if (!(next.get() instanceof ContentKey)) {
+                continue;
+            }
+            if (batch.isEmpty()) {
+                deadline = System.currentTimeMillis() + webhook.getLingerMillis();
+            }
+            batch.add((ContentKey) next.get());
+        }
+        getContents(batch.subList(carried, batch.size()), contents);
+        long bytes = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            ContentKey key = batch.get(i);
+            long keyBytes = getBytes(key, contents.get(key));
+            if (i > 0 && bytes + keyBytes > webhook.getMaxBytes()) {
+                for (ContentKey carryKey : batch.subList(i, batch.size())) {
+                    carry.put(carryKey, contents.remove(carryKey));
+                }
+                batch = new ArrayList<>(batch.subList(0, i));
+                break;
+            }
+            bytes += keyBytes;
+        }
+        ItemsPath itemsPath = new ItemsPath(batch, contents);
+        sent(itemsPath);
+        logger.trace("{} batch of {} items {} bytes", webhook.getName(), batch.size(), bytes);
+        return Optional.of(itemsPath);
+    }
+
+    void sent(ItemsPath itemsPath) {
+        synchronized (sent) {
+            sent.put(toKey(itemsPath), false);
+        }
+    }
+
+    private static ContentKey toKey(ContentPath contentPath) {
+        return new ContentKey(contentPath.getTime(), ((ContentKey) contentPath).getHash());
+    }
+
+    /**
+     * Reads the payloads for the keys in one bulk call, instead of a call per key.
+     */
+    private void getContents(List<ContentKey> batch, Map<ContentKey, Content> contents) {
+        if (!webhook.isInline() || batch.isEmpty()) {
+            return;
+        }
+        channelService.get(webhook.getChannelName(), new TreeSet<>(batch), content -> {
+            content.getData();
+            contents.put(content.getContentKey().get(), content);
+        });
+        for (ContentKey key : batch) {
+            if (!contents.containsKey(key)) {
+                logger.info("no content for {} {}", webhook.getName(), key);
+            }
+        }
+    }
+
+    private Content getContent(ContentKey key) {
+        if (!webhook.isInline()) {
+            return null;
+        }
+        Request request = Request.builder()
+                .channel(webhook.getChannelName())
+                .key(key)
+                .build();
+        Optional<Content> content = channelService.get(request);
+        if (!content.isPresent()) {
+            logger.info("no content for {} {}", webhook.getName(), key);
+            return null;
+        }
+        content.get().getData();
+        return content.get();
+    }
+
+    private long getBytes(ContentKey key, Content content) {
+        long bytes = getUri(key).length();
+        if (content != null && content.getData() != null) {
+            bytes += content.getData().length;
+        }
+        return bytes;
+    }
+
+    private String getUri(ContentKey key) {
+        return webhook.getChannelUrl() + "/" + key.toUrl();
+    }
+
+    @Override
+    public ObjectNode createResponse(ContentPath contentPath) {
+        ItemsPath itemsPath = (ItemsPath) inProcess(contentPath);
+        ObjectNode response = mapper.createObjectNode();
+        response.put("name", webhook.getName());
+        response.put("type", "items");
+        response.put("id", itemsPath.toUrl());
+        ArrayNode uris = response.putArray("uris");
+        for (ContentKey key : itemsPath.getKeys()) {
+            uris.add(getUri(key));
+        }
+        if (webhook.isInline()) {
+            ArrayNode items = response.putArray("items");
+            for (ContentKey key : itemsPath.getKeys()) {
+                ObjectNode item = items.addObject();
+                item.put("uri", getUri(key));
+                Content content = itemsPath.getContent(key);
+                if (content == null) {
+                    item.put("missing", true);
+                } else {
+                    item.put("contentType", content.getContentType().orNull());
+                    item.put("data", content.getData());
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Items from the in flight set are resent on their own.
+     */
+    @Override
+    public ContentPath inProcess(ContentPath contentPath) {
+        if (contentPath instanceof ItemsPath) {
+            return contentPath;
+        }
+        ContentKey key = (ContentKey) contentPath;
+        Map<ContentKey, Content> contents = new HashMap<>();
+        Content content = getContent(key);
+        if (content != null) {
+            contents.put(key, content);
+        }
+        return new ItemsPath(Collections.singletonList(key), contents);
+    }
+
+    @Override
+    public ContentPath completed(ContentPath contentPath) {
+        return release(contentPath);
+    }
+
+    /**
+     * Every key of a failed batch stays in the in flight set for the next leader, so the batch is released here,
+     * and the batches after it can move lastCompleted.
+     */
+    @Override
+    public ContentPath failed(ContentPath contentPath) {
+        return release(contentPath);
+    }
+
+    private ContentPath release(ContentPath contentPath) {
+        synchronized (sent) {
+            ContentKey key = toKey(contentPath);
+            if (sent.containsKey(key)) {
+                sent.put(key, true);
+            }
+            while (!sent.isEmpty() && sent.firstEntry().getValue()) {
+                contiguous = sent.pollFirstEntry().getKey();
+            }
+            return contiguous == null ? contentPath : contiguous;
+        }
+    }
+
+    @Override
+    public void close() {
+        keys.close();
+    }
+}
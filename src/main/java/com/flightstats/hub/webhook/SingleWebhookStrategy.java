@@ -3,45 +3,55 @@ package com.flightstats.hub.webhook;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.app.HubBindings;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.exception.NoSuchChannelException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.util.RuntimeInterruptedException;
-import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 class SingleWebhookStrategy implements WebhookStrategy {
 
     private final static Logger logger = LoggerFactory.getLogger(SingleWebhookStrategy.class);
-    private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+    private static final ObjectMapper mapper = HubBindings.objectMapper();
     private final Webhook webhook;
     private final LastContentPath lastContentPath;
     private final ChannelService channelService;
     private AtomicBoolean shouldExit = new AtomicBoolean(false);
     private AtomicBoolean error = new AtomicBoolean(false);
+    private AtomicBoolean blocked = new AtomicBoolean(false);
     private BlockingQueue<ContentPath> queue;
     private String channel;
     private QueryGenerator queryGenerator;
-    private ExecutorService executorService;
+    private final ScheduledExecutorService scheduler;
+    private Runnable work;
+    private ScheduledFuture<?> future;
 
 
-    SingleWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    SingleWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                          ScheduledExecutorService scheduler) {
+        this(webhook, lastContentPath, channelService, scheduler, webhook.getParallelCalls() * 2);
+    }
+
+    SingleWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                          ScheduledExecutorService scheduler, int capacity) {
         this.webhook = webhook;
         this.lastContentPath = lastContentPath;
         this.channelService = channelService;
-        this.queue = new ArrayBlockingQueue<>(webhook.getParallelCalls() * 2);
+        this.scheduler = scheduler;
+        this.queue = new ArrayBlockingQueue<>(capacity);
     }
 
     @Override
@@ -81,35 +91,35 @@ class SingleWebhookStrategy implements WebhookStrategy {
     }
 
     public Optional<ContentPath> next() {
+        return next(10, TimeUnit.SECONDS);
+    }
+
+    Optional<ContentPath> next(long timeout, TimeUnit unit) {
         if (error.get()) {
             logger.error("unable to determine next");
         }
-        try {
-            return Optional.fromNullable(queue.poll(10, TimeUnit.SECONDS));
-        } catch (InterruptedException e) {
-            throw new RuntimeInterruptedException(e);
-        }
+        return WebhookStrategy.poll(queue, timeout, unit, blocked, scheduler, work);
     }
 
     public void start(Webhook webhook, ContentPath startingPath) {
         channel = webhook.getChannelName();
         queryGenerator = new QueryGenerator(startingPath.getTime(), channel);
-        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("single-webhook-" + webhook.getName() + "-%s").build();
-        executorService = Executors.newSingleThreadExecutor(factory);
-        executorService.submit(new Runnable() {
+        work = new Runnable() {
 
             ContentPath lastAdded = startingPath;
             ChannelConfig channelConfig = channelService.getChannelConfig(channel, true);
+            Deque<ContentPath> pending = new ArrayDeque<>();
 
             @Override
-            public void run() {
+            public synchronized void run() {
+                String name = Thread.currentThread().getName();
+                Thread.currentThread().setName(name + "|single-webhook-" + webhook.getName());
                 try {
-                    while (!shouldExit.get()) {
-                        if (!doWork()) {
-                            Sleeper.sleep(1000);
-                        }
+                    boolean more = true;
+                    while (more && !shouldExit.get() && !error.get()) {
+                        more = doWork();
                     }
-                } catch (InterruptedException | RuntimeInterruptedException e) {
+                } catch (RuntimeInterruptedException e) {
                     error.set(true);
                     logger.info("InterruptedException with " + channel);
                 } catch (NoSuchChannelException e) {
@@ -118,10 +128,18 @@ class SingleWebhookStrategy implements WebhookStrategy {
                 } catch (Exception e) {
                     error.set(true);
                     logger.warn("unexpected issue with " + channel, e);
+                } finally {
+                    Thread.currentThread().setName(name);
                 }
             }
 
-            private boolean doWork() throws InterruptedException {
+            /**
+             * @return true if there may be more work right away
+             */
+            private boolean doWork() {
+                if (!offerPending()) {
+                    return false;
+                }
                 ActiveTraces.start("SingleWebhookStrategy", webhook);
                 try {
                     DateTime latestStableInChannel = TimeUtil.stable();
@@ -136,7 +154,7 @@ class SingleWebhookStrategy implements WebhookStrategy {
                             logger.debug("sending heartbeat {}", minutePath);
                             addKey(minutePath);
                         }
-                        return true;
+                        return offerPending();
                     }
                     return false;
                 } finally {
@@ -144,7 +162,17 @@ class SingleWebhookStrategy implements WebhookStrategy {
                 }
             }
 
-            private void addKeys(Collection<ContentKey> keys) throws InterruptedException {
+            private boolean offerPending() {
+                while (!pending.isEmpty()) {
+                    if (!WebhookStrategy.offer(queue, pending.peek(), blocked)) {
+                        return false;
+                    }
+                    pending.poll();
+                }
+                return true;
+            }
+
+            private void addKeys(Collection<ContentKey> keys) {
                 logger.debug("channel {} keys {}", channel, keys);
                 if (logger.isTraceEnabled()) {
                     ActiveTraces.getLocal().log(logger);
@@ -154,20 +182,20 @@ class SingleWebhookStrategy implements WebhookStrategy {
                 }
             }
 
-            private void addKey(ContentPath key) throws InterruptedException {
+            private void addKey(ContentPath key) {
                 if (key.compareTo(lastAdded) > 0) {
-                    queue.put(key);
+                    pending.add(key);
                     lastAdded = key;
                 }
             }
 
-        });
-
+        };
+        future = scheduler.scheduleWithFixedDelay(work, 0, 1, TimeUnit.SECONDS);
     }
 
 
     @Override
     public void close() {
-        WebhookStrategy.close(shouldExit, executorService, queue);
+        WebhookStrategy.close(shouldExit, future, queue);
     }
 }
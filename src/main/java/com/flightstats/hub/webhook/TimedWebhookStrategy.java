@@ -11,7 +11,6 @@ import com.flightstats.hub.model.*;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
@@ -34,16 +33,21 @@ class TimedWebhookStrategy implements WebhookStrategy {
     private final ChannelService channelService;
     private AtomicBoolean shouldExit = new AtomicBoolean(false);
     private AtomicBoolean error = new AtomicBoolean(false);
-    private BlockingQueue<ContentPathKeys> queue;
+    private AtomicBoolean blocked = new AtomicBoolean(false);
+    private BlockingQueue<ContentPath> queue;
     private String channel;
-    private ScheduledExecutorService executorService;
+    private final ScheduledExecutorService scheduler;
+    private Runnable work;
+    private ScheduledFuture<?> future;
 
-    TimedWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    TimedWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                         ScheduledExecutorService scheduler) {
         this.webhook = webhook;
         this.timedWebhook = TimedWebhook.getTimedWebhook(webhook);
         this.channel = webhook.getChannelName();
         this.lastContentPath = lastContentPath;
         this.channelService = channelService;
+        this.scheduler = scheduler;
         this.queue = new ArrayBlockingQueue<>(webhook.getParallelCalls() * 2);
     }
 
@@ -67,30 +71,33 @@ class TimedWebhookStrategy implements WebhookStrategy {
 
     @Override
     public void start(Webhook webhook, ContentPath startingPath) {
-        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(webhook.getBatch() + "-webhook-" + webhook.getName() + "-%s").build();
-        executorService = Executors.newSingleThreadScheduledExecutor(factory);
         logger.info("starting {} with starting path {}", webhook, startingPath);
-        executorService.scheduleAtFixedRate(new Runnable() {
+        work = new Runnable() {
 
             ContentPath lastAdded = startingPath;
             ChannelConfig channelConfig = channelService.getChannelConfig(channel, true);
+            ContentPathKeys pending;
 
             @Override
-            public void run() {
+            public synchronized void run() {
+                String name = Thread.currentThread().getName();
+                Thread.currentThread().setName(name + "|" + webhook.getBatch() + "-webhook-" + webhook.getName());
                 try {
-                    if (!shouldExit.get()) {
+                    if (!shouldExit.get() && !error.get()) {
                         doWork();
                     }
-                } catch (InterruptedException | RuntimeInterruptedException e) {
+                } catch (RuntimeInterruptedException e) {
                     error.set(true);
                     logger.info("InterruptedException with " + channel);
                 } catch (Exception e) {
                     error.set(true);
                     logger.warn("unexpected issue with " + channel, e);
+                } finally {
+                    Thread.currentThread().setName(name);
                 }
             }
 
-            private void doWork() throws InterruptedException {
+            private void doWork() {
                 Duration duration = timedWebhook.getUnit().getDuration();
                 DateTime nextTime = lastAdded.getTime().plus(duration);
                 if (lastAdded instanceof ContentKey) {
@@ -109,14 +116,19 @@ class TimedWebhookStrategy implements WebhookStrategy {
                 while (nextTime.isBefore(stable) || nextTime.isEqual(stable)) {
                     try {
                         ActiveTraces.start("TimedWebhookStrategy.doWork", webhook);
-                        Collection<ContentKey> keys = queryKeys(nextTime)
-                                .stream()
-                                .filter(key -> key.compareTo(lastAdded) > 0)
-                                .collect(Collectors.toCollection(ArrayList::new));
-
-                        ContentPathKeys nextPath = timedWebhook.newTime(nextTime, keys);
-                        logger.trace("results {} {} {}", channel, nextPath, nextPath.getKeys());
-                        queue.put(nextPath);
+                        if (pending == null) {
+                            Collection<ContentKey> keys = queryKeys(nextTime)
+                                    .stream()
+                                    .filter(key -> key.compareTo(lastAdded) > 0)
+                                    .collect(Collectors.toCollection(ArrayList::new));
+                            pending = timedWebhook.newTime(nextTime, keys);
+                            logger.trace("results {} {} {}", channel, pending, pending.getKeys());
+                        }
+                        if (!WebhookStrategy.offer(queue, pending, blocked)) {
+                            return;
+                        }
+                        ContentPathKeys nextPath = pending;
+                        pending = null;
                         lastAdded = nextPath;
                         nextTime = lastAdded.getTime().plus(duration);
                     } finally {
@@ -125,7 +137,8 @@ class TimedWebhookStrategy implements WebhookStrategy {
                 }
             }
 
-        }, timedWebhook.getOffsetSeconds(), timedWebhook.getPeriodSeconds(), TimeUnit.SECONDS);
+        };
+        future = scheduler.scheduleAtFixedRate(work, timedWebhook.getOffsetSeconds(), timedWebhook.getPeriodSeconds(), TimeUnit.SECONDS);
     }
 
     private Collection<ContentKey> queryKeys(DateTime time) {
@@ -143,11 +156,7 @@ class TimedWebhookStrategy implements WebhookStrategy {
         if (error.get()) {
             throw new RuntimeException("unable to determine next");
         }
-        try {
-            return Optional.fromNullable(queue.poll(10, TimeUnit.MINUTES));
-        } catch (InterruptedException e) {
-            throw new RuntimeInterruptedException(e);
-        }
+        return WebhookStrategy.poll(queue, 10, TimeUnit.MINUTES, blocked, scheduler, work);
     }
 
     @Override
@@ -180,6 +189,6 @@ class TimedWebhookStrategy implements WebhookStrategy {
 
     @Override
     public void close() throws Exception {
-        WebhookStrategy.close(shouldExit, executorService, queue);
+        WebhookStrategy.close(shouldExit, future, queue);
     }
 }
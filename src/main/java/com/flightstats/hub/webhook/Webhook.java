@@ -31,6 +31,7 @@ public class Webhook implements Comparable<Webhook>, NamedType {
     public static final String SINGLE = "SINGLE";
     public static final String MINUTE = "MINUTE";
     public static final String SECOND = "SECOND";
+    public static final String ITEMS = "ITEMS";
     private final static Logger logger = LoggerFactory.getLogger(Webhook.class);
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final Gson gson = new GsonBuilder().create();
@@ -52,6 +53,14 @@ public class Webhook implements Comparable<Webhook>, NamedType {
     private final Integer ttlMinutes;
     @Wither
     private final Integer maxWaitMinutes;
+    @Wither
+    private final Integer maxItems;
+    @Wither
+    private final Integer maxBytes;
+    @Wither
+    private final Integer lingerMillis;
+    @Wither
+    private final boolean inline;
 
     public static Webhook fromJson(String json, Optional<Webhook> webhookOptional) {
         WebhookBuilder builder = Webhook.builder();
@@ -66,6 +75,10 @@ public class Webhook implements Comparable<Webhook>, NamedType {
                     .batch(existing.batch)
                     .ttlMinutes(existing.ttlMinutes)
                     .maxWaitMinutes(existing.maxWaitMinutes)
+                    .maxItems(existing.maxItems)
+                    .maxBytes(existing.maxBytes)
+                    .lingerMillis(existing.lingerMillis)
+                    .inline(existing.inline)
                     .heartbeat(existing.heartbeat);
         }
         try {
@@ -114,6 +127,18 @@ public class Webhook implements Comparable<Webhook>, NamedType {
             if (root.has("maxWaitMinutes")) {
                 builder.maxWaitMinutes(root.get("maxWaitMinutes").intValue());
             }
+            if (root.has("maxItems")) {
+                builder.maxItems(root.get("maxItems").intValue());
+            }
+            if (root.has("maxBytes")) {
+                builder.maxBytes(root.get("maxBytes").intValue());
+            }
+            if (root.has("lingerMillis")) {
+                builder.lingerMillis(root.get("lingerMillis").intValue());
+            }
+            if (root.has("inline")) {
+                builder.inline(root.get("inline").asBoolean());
+            }
         } catch (IOException e) {
             logger.warn("unable to parse " + json, e);
             throw new RuntimeException(e);
@@ -163,7 +188,11 @@ public class Webhook implements Comparable<Webhook>, NamedType {
                 || !batch.equals(other.batch)
                 || !heartbeat == other.heartbeat
                 || !ttlMinutes.equals(other.ttlMinutes)
-                || !maxWaitMinutes.equals(other.maxWaitMinutes);
+                || !maxWaitMinutes.equals(other.maxWaitMinutes)
+                || !Objects.equals(maxItems, other.maxItems)
+                || !Objects.equals(maxBytes, other.maxBytes)
+                || !Objects.equals(lingerMillis, other.lingerMillis)
+                || inline != other.inline;
     }
 
     public String toJson() {
@@ -190,6 +219,15 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         if (maxWaitMinutes == null) {
             webhook = webhook.withMaxWaitMinutes(1);
         }
+        if (maxItems == null) {
+            webhook = webhook.withMaxItems(100);
+        }
+        if (maxBytes == null) {
+            webhook = webhook.withMaxBytes(1024 * 1024);
+        }
+        if (lingerMillis == null) {
+            webhook = webhook.withLingerMillis(1000);
+        }
         return webhook;
     }
 
@@ -201,6 +239,10 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         return SECOND.equalsIgnoreCase(getBatch());
     }
 
+    public boolean isItems() {
+        return ITEMS.equalsIgnoreCase(getBatch());
+    }
+
     public Integer getTtlMinutes() {
         if (ttlMinutes == null) {
             return 0;
@@ -0,0 +1,99 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts webhook calls without blocking a thread per call.
+ * Connections are pooled and kept alive per callback host, and the retries wait on a timer.
+ */
+@Singleton
+public class WebhookClient {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookClient.class);
+
+    private final HttpClient httpClient = new HttpClient(new SslContextFactory());
+    private final ScheduledExecutorScheduler timer = new ScheduledExecutorScheduler("webhook-retry", true);
+    private final int callTimeoutSeconds = HubProperties.getProperty("webhook.client.callTimeoutSeconds", 120);
+
+    @Inject
+    public WebhookClient() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(HubProperties.getProperty("webhook.client.threads", 16), 2);
+        threadPool.setName("webhook-client");
+        httpClient.setExecutor(threadPool);
+        httpClient.setMaxConnectionsPerDestination(HubProperties.getProperty("webhook.client.connectionsPerHost", 64));
+        httpClient.setMaxRequestsQueuedPerDestination(HubProperties.getProperty("webhook.client.queuedPerHost", 16 * 1024));
+        httpClient.setConnectTimeout(TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.client.connectTimeoutSeconds", 60)));
+        httpClient.setIdleTimeout(TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.client.idleTimeoutSeconds", 120)));
+        httpClient.setFollowRedirects(true);
+        HubServices.register(new WebhookClientService());
+    }
+
+    /**
+     * @return the response status, or the exception which prevented a response
+     */
+    CompletableFuture<Integer> post(String url, String entity) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        try {
+            Request request = httpClient.newRequest(url)
+                    .method(HttpMethod.POST)
+                    .content(new StringContentProvider("application/json", entity, StandardCharsets.UTF_8))
+                    .timeout(callTimeoutSeconds, TimeUnit.SECONDS);
+            request.send(result -> {
+                if (result.isFailed()) {
+                    future.completeExceptionally(result.getFailure());
+                } else {
+                    future.complete(result.getResponse().getStatus());
+                }
+            });
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    Scheduler.Task schedule(Runnable runnable, long delayMillis) {
+        return timer.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void start() throws Exception {
+        timer.start();
+        httpClient.start();
+        logger.info("started webhook client");
+    }
+
+    void stop() throws Exception {
+        httpClient.stop();
+        timer.stop();
+    }
+
+    private class WebhookClientService extends AbstractIdleService {
+
+        @Override
+        protected void startUp() throws Exception {
+            start();
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            stop();
+        }
+    }
+}
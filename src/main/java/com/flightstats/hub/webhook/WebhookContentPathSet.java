@@ -1,71 +1,110 @@
 package com.flightstats.hub.webhook;
 
 import com.flightstats.hub.model.ContentPath;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.inject.Inject;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The paths a webhook has in flight are kept in memory while this server leads it, and written by checkpoint
+ * to a single node per webhook, so a new leader can resend them.
+ * Versions before the checkpoint created a child node per path, those are still read, and deleted by the next checkpoint.
+ */
 class WebhookContentPathSet {
     private final static Logger logger = LoggerFactory.getLogger(WebhookContentPathSet.class);
 
     private final CuratorFramework curator;
+    private final Map<String, InFlight> webhooks = new ConcurrentHashMap<>();
 
     @Inject
     public WebhookContentPathSet(CuratorFramework curator) {
         this.curator = curator;
     }
 
+    /**
+     * An ITEMS batch is added as each of its keys, so a new leader can resend all of them.
+     */
     public void add(String webhookName, ContentPath key) {
-        String path = getPath(webhookName, key);
-        try {
-            curator.create().creatingParentsIfNeeded().forPath(path);
-        } catch (KeeperException.NodeExistsException ignore) {
-            logger.info("node exists " + path);
-        } catch (Exception e) {
-            logger.warn("unable to create " + path, e);
+        InFlight inFlight = getInFlight(webhookName);
+        for (ContentPath path : toPaths(key)) {
+            inFlight.add(path);
         }
     }
 
     public void remove(String webhookName, ContentPath key) {
-        String path = getPath(webhookName, key);
-        try {
-            curator.delete().forPath(path);
-        } catch (Exception e) {
-            logger.warn("unable to delete " + path, e);
+        InFlight inFlight = webhooks.get(webhookName);
+        if (inFlight != null) {
+            for (ContentPath path : toPaths(key)) {
+                inFlight.remove(path);
+            }
+        }
+    }
+
+    private static Collection<? extends ContentPath> toPaths(ContentPath key) {
+        if (key instanceof ItemsPath) {
+            return ((ItemsPath) key).getKeys();
         }
+        return Collections.singletonList(key);
+    }
+
+    /**
+     * Reads the set from ZooKeeper when taking leadership of the webhook, replacing any set kept from an earlier
+     * leadership, as other leaders may have changed it since.
+     */
+    Set<ContentPath> load(String webhookName, ContentPath type) {
+        InFlight inFlight = new InFlight(webhookName);
+        inFlight.load(type);
+        webhooks.put(webhookName, inFlight);
+        return inFlight.getPaths();
     }
 
+    /**
+     * The set in memory while this server leads the webhook, otherwise the set in ZooKeeper, which is not kept.
+     */
     Set<ContentPath> getSet(String webhookName, ContentPath type) {
-        String path = getPath(webhookName);
-        Set<ContentPath> keys = new HashSet<>();
-        try {
-            List<String> strings = curator.getChildren().forPath(path);
-            for (String string : strings) {
-                keys.add(type.fromZk(string));
-            }
-        } catch (KeeperException.NoNodeException e) {
-            logger.info("no node for {}", path);
-        } catch (Exception e) {
-            logger.warn("unable to get set " + path, e);
+        InFlight inFlight = webhooks.get(webhookName);
+        if (inFlight == null) {
+            inFlight = new InFlight(webhookName);
+            inFlight.load(type);
         }
-        return keys;
+        return inFlight.getPaths();
     }
 
-    private String getPath(String webhookName) {
-        return "/GroupInFlight/" + webhookName;
+    /**
+     * Writes the set for the webhook, if it has been loaded and has changed since the last checkpoint.
+     */
+    void checkpoint(String webhookName) {
+        InFlight inFlight = webhooks.get(webhookName);
+        if (inFlight != null) {
+            inFlight.checkpoint();
+        }
     }
 
-    private String getPath(String webhookName, ContentPath key) {
-        return getPath(webhookName) + "/" + key.toZk();
+    /**
+     * Forgets the set once this server has stopped leading the webhook, and made its last checkpoint.
+     */
+    void release(String webhookName) {
+        webhooks.remove(webhookName);
+    }
+
+    private InFlight getInFlight(String webhookName) {
+        return webhooks.computeIfAbsent(webhookName, InFlight::new);
+    }
+
+    private String getPath(String webhookName) {
+        return "/GroupInFlight/" + webhookName;
     }
 
     public void delete(String webhookName) {
+        webhooks.remove(webhookName);
         String path = getPath(webhookName);
         try {
             curator.delete().deletingChildrenIfNeeded().forPath(path);
@@ -73,4 +112,97 @@ class WebhookContentPathSet {
             logger.warn("unable to delete {} {}", path, e.getMessage());
         }
     }
+
+    private class InFlight {
+        private final String path;
+        private final Map<String, ContentPath> paths = new HashMap<>();
+        private final List<String> legacyChildren = new ArrayList<>();
+        private boolean loaded;
+        private long changes;
+        private long checkpointed;
+
+        private InFlight(String webhookName) {
+            this.path = getPath(webhookName);
+        }
+
+        synchronized void add(ContentPath key) {
+            if (paths.put(key.toZk(), key) == null) {
+                changes++;
+            }
+        }
+
+        synchronized void remove(ContentPath key) {
+            if (paths.remove(key.toZk()) != null) {
+                changes++;
+            }
+        }
+
+        synchronized Set<ContentPath> getPaths() {
+            return new HashSet<>(paths.values());
+        }
+
+        synchronized void load(ContentPath type) {
+            loaded = true;
+            try {
+                byte[] bytes = curator.getData().forPath(path);
+                if (bytes != null) {
+                    for (String value : Splitter.on('\n').omitEmptyStrings().split(new String(bytes, StandardCharsets.UTF_8))) {
+                        addFromZk(type, value);
+                    }
+                }
+                for (String child : curator.getChildren().forPath(path)) {
+                    legacyChildren.add(child);
+                    addFromZk(type, child);
+                }
+                checkpointed = changes;
+            } catch (KeeperException.NoNodeException e) {
+                logger.info("no node for {}", path);
+            } catch (Exception e) {
+                logger.warn("unable to get set " + path, e);
+            }
+        }
+
+        private void addFromZk(ContentPath type, String value) {
+            try {
+                paths.putIfAbsent(value, type.fromZk(value));
+            } catch (Exception e) {
+                logger.warn("unable to parse {} {}", path, value);
+            }
+        }
+
+        void checkpoint() {
+            long version;
+            String data;
+            List<String> legacy;
+            synchronized (this) {
+                if (!loaded || (changes == checkpointed && legacyChildren.isEmpty())) {
+                    return;
+                }
+                version = changes;
+                data = Joiner.on('\n').join(new TreeSet<>(paths.keySet()));
+                legacy = new ArrayList<>(legacyChildren);
+            }
+            try {
+                byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+                try {
+                    curator.setData().forPath(path, bytes);
+                } catch (KeeperException.NoNodeException e) {
+                    curator.create().creatingParentsIfNeeded().forPath(path, bytes);
+                }
+                for (String child : legacy) {
+                    try {
+                        curator.delete().forPath(path + "/" + child);
+                    } catch (KeeperException.NoNodeException ignore) {
+                        //already deleted
+                    }
+                }
+                synchronized (this) {
+                    checkpointed = version;
+                    legacyChildren.removeAll(legacy);
+                }
+            } catch (Exception e) {
+                logger.warn("unable to checkpoint " + path, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,247 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.metrics.DataDog;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Starts the calls for every webhook on this node with a fixed number of threads.
+ * Each webhook has its own queue, limited to parallelCalls calls queued or in flight, and webhooks with calls waiting
+ * take turns for the next free thread.  The calls in flight are also limited by the webhook's WebhookLimiter.
+ * The calls themselves are asynchronous, see WebhookClient.
+ * Internal webhooks (S3Batch_, Repl_, Global_ and Events_) have their own threads, so slow customer endpoints can not
+ * hold up replication or S3 batching.
+ * The strategies share a scheduler for finding the next items to send.
+ */
+@Singleton
+public class WebhookDispatcher {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookDispatcher.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+    private static final String[] INTERNAL_PREFIXES = {"S3Batch_", "Repl_", "Global_", "Events_"};
+
+    private final Lane internal = new Lane("internal", HubProperties.getProperty("webhook.internalThreads", 4));
+    private final Lane external = new Lane("external", HubProperties.getProperty("webhook.threads", 8));
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            HubProperties.getProperty("webhook.strategyThreads", 32),
+            new ThreadFactoryBuilder().setNameFormat("webhook-strategy-%d").build());
+    private final Map<String, WebhookQueue> queues = new ConcurrentHashMap<>();
+
+    @Inject
+    public WebhookDispatcher() {
+        HubServices.register(new WebhookDispatcherMetricsService());
+    }
+
+    static boolean isInternal(String name) {
+        for (String prefix : INTERNAL_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    WebhookQueue register(Webhook webhook) {
+        String name = webhook.getName();
+        WebhookQueue queue = new WebhookQueue(name, isInternal(name) ? internal : external,
+                new WebhookLimiter(name, webhook.getParallelCalls()));
+        queues.put(name, queue);
+        return queue;
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    private void report() {
+        for (WebhookQueue queue : queues.values()) {
+            queue.report();
+        }
+        internal.report();
+        external.report();
+    }
+
+    private static class Lane {
+        private final String priority;
+        private final ThreadPoolExecutor executor;
+        private final BlockingQueue<WebhookQueue> ready = new LinkedBlockingQueue<>();
+
+        private Lane(String priority, int threads) {
+            this.priority = priority;
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder().setNameFormat("webhook-" + priority + "-%d").build());
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * Each call to schedule runs the webhook at the head of the ready queue once.
+         */
+        private void schedule(WebhookQueue queue) {
+            ready.add(queue);
+            executor.execute(this::runNext);
+        }
+
+        private void runNext() {
+            WebhookQueue queue = ready.poll();
+            if (queue != null) {
+                queue.runNext();
+            }
+        }
+
+        private void report() {
+            String tag = "priority:" + priority;
+            statsd.gauge("webhook.dispatcher.active", executor.getActiveCount(), tag);
+            statsd.gauge("webhook.dispatcher.ready", ready.size(), tag);
+        }
+    }
+
+    class WebhookQueue {
+        private final String name;
+        private final Lane lane;
+        private final int limit;
+        private final WebhookLimiter limiter;
+        private final Deque<Delivery> pending = new ArrayDeque<>();
+        private int active;
+        private boolean ready;
+        private boolean closed;
+
+        private WebhookQueue(String name, Lane lane, WebhookLimiter limiter) {
+            this.name = name;
+            this.lane = lane;
+            this.limiter = limiter;
+            this.limit = limiter.getMaxLimit();
+        }
+
+        /**
+         * Blocks while the webhook has parallelCalls calls queued or in flight.
+         * A call is in flight until the future it starts completes.
+         */
+        void submit(Supplier<CompletableFuture<?>> call) throws InterruptedException {
+            synchronized (this) {
+                while (!closed && pending.size() + active >= limit) {
+                    wait();
+                }
+                if (closed) {
+                    throw new RejectedExecutionException("webhook queue is closed " + name);
+                }
+                pending.add(new Delivery(call));
+                scheduleIfReady();
+            }
+        }
+
+        /**
+         * Stops accepting calls, and waits for the queued and in flight calls to finish.
+         */
+        void close(long timeout, TimeUnit unit) throws InterruptedException {
+            long end = System.currentTimeMillis() + unit.toMillis(timeout);
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+                long remaining = end - System.currentTimeMillis();
+                while (pending.size() + active > 0 && remaining > 0) {
+                    wait(remaining);
+                    remaining = end - System.currentTimeMillis();
+                }
+                if (pending.size() + active > 0) {
+                    logger.warn("closed {} with {} pending {} active", name, pending.size(), active);
+                }
+            }
+            queues.remove(name, this);
+        }
+
+        synchronized int getPending() {
+            return pending.size();
+        }
+
+        synchronized int getActive() {
+            return active;
+        }
+
+        WebhookLimiter getLimiter() {
+            return limiter;
+        }
+
+        private void scheduleIfReady() {
+            if (!ready && !pending.isEmpty() && active < limiter.getLimit()) {
+                ready = true;
+                lane.schedule(this);
+            }
+        }
+
+        private void runNext() {
+            Delivery delivery;
+            synchronized (this) {
+                ready = false;
+                delivery = pending.poll();
+                if (delivery == null) {
+                    return;
+                }
+                active++;
+                scheduleIfReady();
+            }
+            CompletableFuture<?> future = null;
+            try {
+                statsd.time("webhook.queue.time", System.currentTimeMillis() - delivery.queued, "name:" + name);
+                future = delivery.call.get();
+            } catch (Exception e) {
+                logger.warn("unexpected exception delivering to " + name, e);
+            }
+            if (future == null) {
+                completed();
+            } else {
+                future.whenComplete((result, throwable) -> completed());
+            }
+        }
+
+        private synchronized void completed() {
+            active--;
+            scheduleIfReady();
+            notifyAll();
+        }
+
+        private void report() {
+            String[] tags = {"name:" + name, "priority:" + lane.priority};
+            statsd.gauge("webhook.queue.depth", getPending(), tags);
+            statsd.gauge("webhook.queue.active", getActive(), tags);
+            statsd.gauge("webhook.queue.limit", limiter.getLimit(), tags);
+        }
+    }
+
+    private static class Delivery {
+        private final Supplier<CompletableFuture<?>> call;
+        private final long queued = System.currentTimeMillis();
+
+        private Delivery(Supplier<CompletableFuture<?>> call) {
+            this.call = call;
+        }
+    }
+
+    private class WebhookDispatcherMetricsService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                report();
+            } catch (Exception e) {
+                logger.warn("unable to report webhook dispatcher metrics", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            return Scheduler.newFixedDelaySchedule(10, 10, TimeUnit.SECONDS);
+        }
+    }
+}
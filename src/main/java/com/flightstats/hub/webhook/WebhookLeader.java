@@ -1,6 +1,5 @@
 package com.flightstats.hub.webhook;
 
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.cluster.CuratorLeader;
 import com.flightstats.hub.cluster.LastContentPath;
@@ -12,25 +11,17 @@ import com.flightstats.hub.metrics.MetricsTimer;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.ContentPath;
 import com.flightstats.hub.model.RecurringTrace;
-import com.flightstats.hub.rest.RestClient;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
-import com.flightstats.hub.util.TimeUtil;
-import com.github.rholder.retry.RetryException;
-import com.github.rholder.retry.Retryer;
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
 import com.newrelic.api.agent.Trace;
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientResponse;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.zookeeper.KeeperException;
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.ws.rs.core.MediaType;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -43,10 +34,10 @@ class WebhookLeader implements Leader {
     private final static Logger logger = LoggerFactory.getLogger(WebhookLeader.class);
     static final String WEBHOOK_LAST_COMPLETED = "/GroupLastCompleted/";
 
-    private static final Client client = RestClient.createClient(60, 120, true, false);
     private final AtomicBoolean deleteOnExit = new AtomicBoolean();
     private final double keepLeadershipRate = HubProperties.getProperty("webhook.keepLeadershipRate",
             HubProperties.getProperty("group.keepLeadershipRate", 0.75));
+    private final long checkpointMillis = HubProperties.getProperty("webhook.checkpointMillis", 1000);
 
     @Inject
     private CuratorFramework curator;
@@ -62,16 +53,21 @@ class WebhookLeader implements Leader {
     private WebhookContentPathSet webhookInProcess;
     @Inject
     private WebhookError webhookError;
+    @Inject
+    private WebhookDispatcher dispatcher;
+    @Inject
+    private WebhookClient webhookClient;
 
     private Webhook webhook;
     private CuratorLeader curatorLeader;
-    private ExecutorService executorService;
-    private Semaphore semaphore;
+    private WebhookDispatcher.WebhookQueue deliveryQueue;
     private Leadership leadership;
-    private Retryer<ClientResponse> retryer;
+    private WebhookRetryer retryer;
 
     private WebhookStrategy webhookStrategy;
     private AtomicReference<ContentPath> lastUpdated = new AtomicReference<>();
+    private ContentPath lastCheckpointed;
+    private ScheduledFuture<?> checkpoints;
     private String id = RandomStringUtils.randomAlphanumeric(4);
 
     @Inject
@@ -106,15 +102,17 @@ class WebhookLeader implements Leader {
         }
         this.webhook = foundWebhook.get();
         logger.info("taking leadership {} {}", webhook, leadership.hasLeadership());
-        executorService = Executors.newCachedThreadPool();
-        semaphore = new Semaphore(webhook.getParallelCalls());
-        retryer = WebhookRetryer.buildRetryer(webhook, webhookError, leadership);
-        webhookStrategy = WebhookStrategy.getStrategy(webhook, lastContentPath, channelService);
+        deliveryQueue = dispatcher.register(webhook);
+        retryer = new WebhookRetryer(webhook, webhookError, leadership, webhookClient, deliveryQueue.getLimiter());
+        webhookStrategy = WebhookStrategy.getStrategy(webhook, lastContentPath, channelService, dispatcher.getScheduler());
         try {
             ContentPath lastCompletedPath = webhookStrategy.getStartingPath();
             lastUpdated.set(lastCompletedPath);
+            lastCheckpointed = lastCompletedPath;
             logger.info("last completed at {} {}", lastCompletedPath, webhook.getName());
             if (leadership.hasLeadership()) {
+                checkpoints = dispatcher.getScheduler().scheduleWithFixedDelay(this::checkpoint,
+                        checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
                 sendInProcess(lastCompletedPath);
                 webhookStrategy.start(webhook, lastCompletedPath);
                 while (leadership.hasLeadership()) {
@@ -134,9 +132,11 @@ class WebhookLeader implements Leader {
                 delete();
             }
             stopExecutor();
+            stopCheckpoints();
+            webhookInProcess.release(webhook.getName());
             logger.info("stopped last completed at {} {}", webhookStrategy.getLastCompleted(), webhook.getName());
             webhookStrategy = null;
-            executorService = null;
+            deliveryQueue = null;
         }
     }
 
@@ -151,7 +151,7 @@ class WebhookLeader implements Leader {
     }
 
     private void sendInProcess(ContentPath lastCompletedPath) throws InterruptedException {
-        Set<ContentPath> inProcessSet = webhookInProcess.getSet(webhook.getName(), lastCompletedPath);
+        Set<ContentPath> inProcessSet = webhookInProcess.load(webhook.getName(), lastCompletedPath);
         logger.debug("sending in process {} to {}", inProcessSet, webhook.getName());
         for (ContentPath toSend : inProcessSet) {
             if (toSend.compareTo(lastCompletedPath) < 0) {
@@ -170,98 +170,99 @@ class WebhookLeader implements Leader {
     }
 
     private void send(ContentPath contentPath) throws InterruptedException {
-        semaphore.acquire();
         logger.trace("sending {} to {}", contentPath, webhook.getName());
-        String parentName = Thread.currentThread().getName();
-        executorService.submit(new Callable<Object>() {
-            @Trace(metricName = "WebhookCaller", dispatcher = true)
-            @Override
-            public Object call() throws Exception {
-                String workerName = Thread.currentThread().getName();
-                Thread.currentThread().setName(workerName + "|" + parentName);
-                ActiveTraces.start("WebhookLeader.send", webhook, contentPath);
-                webhookInProcess.add(webhook.getName(), contentPath);
+        WebhookStrategy strategy = webhookStrategy;
+        deliveryQueue.submit(() -> deliver(contentPath, strategy));
+    }
+
+    @Trace(metricName = "WebhookCaller", dispatcher = true)
+    private CompletableFuture<?> deliver(ContentPath contentPath, WebhookStrategy strategy) {
+        ActiveTraces.start("WebhookLeader.send", webhook, contentPath);
+        Traces traces = ActiveTraces.getLocal();
+        try {
+            webhookInProcess.add(webhook.getName(), contentPath);
+            long delta = System.currentTimeMillis() - contentPath.getTime().getMillis();
+            metricsTimer.send("webhook." + webhook.getName() + ".delta", delta);
+            long start = System.currentTimeMillis();
+            String entity = strategy.createResponse(contentPath).toString();
+            traces.add("WebhookLeader.makeCall start");
+            RecurringTrace recurringTrace = new RecurringTrace("WebhookLeader.makeCall start");
+            traces.add(recurringTrace);
+            return retryer.call(contentPath, entity, recurringTrace).handle((delivered, throwable) -> {
+                ActiveTraces.setLocal(traces);
                 try {
-                    long delta = System.currentTimeMillis() - contentPath.getTime().getMillis();
-                    metricsTimer.send("webhook." + webhook.getName() + ".delta", delta);
-                    makeTimedCall(contentPath, webhookStrategy.createResponse(contentPath));
-                    completeCall(contentPath);
-                    logger.trace("completed {} call to {} ", contentPath, webhook.getName());
-                } catch (RetryException e) {
-                    logger.info("exception sending {} to {} {} ", contentPath, webhook.getName(), e.getMessage());
-                } catch (ExecutionException e) {
-                    Throwable cause = e.getCause();
+                    metricsTimer.time("webhook", webhook.getName(), start);
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
                     if (cause instanceof ItemExpiredException) {
                         logger.info("stopped trying {} to {} {} ", contentPath, webhook.getName(), cause.getMessage());
-                        completeCall(contentPath);
+                        completeCall(contentPath, strategy);
+                    } else if (cause != null) {
+                        logger.warn("exception sending " + contentPath + " to " + webhook.getName(), cause);
+                        failCall(contentPath, strategy);
+                    } else if (delivered) {
+                        completeCall(contentPath, strategy);
+                        logger.trace("completed {} call to {} ", contentPath, webhook.getName());
+                    } else {
+                        logger.info("stopped sending {} to {}, no longer the leader", contentPath, webhook.getName());
                     }
                 } catch (Exception e) {
-                    logger.warn("exception sending " + contentPath + " to " + webhook.getName(), e);
+                    logger.warn("exception completing " + contentPath + " to " + webhook.getName(), e);
                 } finally {
-                    semaphore.release();
                     ActiveTraces.end();
-                    Thread.currentThread().setName(workerName);
                 }
                 return null;
-            }
-        });
+            });
+        } catch (Exception e) {
+            logger.warn("exception sending " + contentPath + " to " + webhook.getName(), e);
+            failCall(contentPath, strategy);
+            ActiveTraces.end();
+            return CompletableFuture.completedFuture(null);
+        } finally {
+            ActiveTraces.setLocal(null);
+        }
     }
 
-    private boolean increaseLastUpdated(ContentPath newPath) {
-        AtomicBoolean changed = new AtomicBoolean(false);
-        lastUpdated.getAndUpdate(existingPath -> {
-            if (newPath.compareTo(existingPath) > 0) {
-                changed.set(true);
-                return newPath;
-            }
-            changed.set(false);
-            return existingPath;
-        });
-        return changed.get();
+    private void completeCall(ContentPath contentPath, WebhookStrategy strategy) {
+        updateLastCompleted(strategy.completed(contentPath));
+        webhookInProcess.remove(webhook.getName(), contentPath);
     }
 
-    private void completeCall(ContentPath contentPath) {
-        if (increaseLastUpdated(contentPath)) {
-            if (!deleteOnExit.get()) {
-                lastContentPath.updateIncrease(contentPath, webhook.getName(), WEBHOOK_LAST_COMPLETED);
-            }
+    private void failCall(ContentPath contentPath, WebhookStrategy strategy) {
+        ContentPath released = strategy.failed(contentPath);
+        if (released != null) {
+            updateLastCompleted(released);
         }
-        webhookInProcess.remove(webhook.getName(), contentPath);
     }
 
-    private void makeTimedCall(ContentPath contentPath, ObjectNode body) throws Exception {
-        metricsTimer.time("webhook", webhook.getName(),
-                () -> {
-                    makeCall(contentPath, body);
-                    return null;
-                });
+    private void updateLastCompleted(ContentPath contentPath) {
+        lastUpdated.accumulateAndGet(contentPath, (existing, path) -> path.compareTo(existing) > 0 ? path : existing);
     }
 
-    private void makeCall(ContentPath contentPath, ObjectNode body) throws ExecutionException, RetryException {
-        Traces traces = ActiveTraces.getLocal();
-        traces.add("WebhookLeader.makeCall start");
-        RecurringTrace recurringTrace = new RecurringTrace("WebhookLeader.makeCall start");
-        traces.add(recurringTrace);
-        retryer.call(() -> {
-            ActiveTraces.setLocal(traces);
-            if (webhook.getTtlMinutes() > 0) {
-                DateTime ttlTime = TimeUtil.now().minusMinutes(webhook.getTtlMinutes());
-                if (contentPath.getTime().isBefore(ttlTime)) {
-                    throw new ItemExpiredException(contentPath.toUrl() + " is before " + ttlTime);
-                }
+    /**
+     * Writes the in flight set before lastCompleted, so anything before lastCompleted which has not completed
+     * is resent by the next leader.
+     */
+    private synchronized void checkpoint() {
+        try {
+            ContentPath completed = lastUpdated.get();
+            webhookInProcess.checkpoint(webhook.getName());
+            if (!deleteOnExit.get() && !completed.equals(lastCheckpointed)) {
+                lastContentPath.updateIncrease(completed, webhook.getName(), WEBHOOK_LAST_COMPLETED);
+                lastCheckpointed = completed;
             }
-            if (!leadership.hasLeadership()) {
-                logger.debug("not leader {} {} {}", webhook.getCallbackUrl(), webhook.getName(), contentPath);
-                return null;
+        } catch (Exception e) {
+            logger.warn("unable to checkpoint " + webhook.getName(), e);
+        }
+    }
+
+    private void stopCheckpoints() {
+        if (checkpoints != null) {
+            checkpoints.cancel(false);
+            checkpoints = null;
+            if (!deleteOnExit.get()) {
+                checkpoint();
             }
-            String entity = body.toString();
-            logger.debug("calling {} {} {}", webhook.getCallbackUrl(), contentPath, entity);
-            ClientResponse clientResponse = client.resource(webhook.getCallbackUrl())
-                    .type(MediaType.APPLICATION_JSON_TYPE)
-                    .post(ClientResponse.class, entity);
-            recurringTrace.update("WebhookLeader.makeCall completed", clientResponse);
-            return clientResponse;
-        });
+        }
     }
 
     void exit(boolean delete) {
@@ -274,14 +275,15 @@ class WebhookLeader implements Leader {
     }
 
     private void stopExecutor() {
-        if (executorService == null) {
+        WebhookDispatcher.WebhookQueue queue = deliveryQueue;
+        if (queue == null) {
             return;
         }
         String name = webhook.getName();
         try {
-            executorService.shutdown();
+            retryer.stop();
             logger.debug("awating termination " + name);
-            executorService.awaitTermination(130, TimeUnit.SECONDS);
+            queue.close(130, TimeUnit.SECONDS);
             logger.debug("stopped Executor " + name);
         } catch (InterruptedException e) {
             logger.warn("unable to stop?" + name, e);
@@ -365,6 +367,11 @@ class WebhookLeader implements Leader {
         return new ArrayList<>(new TreeSet<>(webhookInProcess.getSet(this.webhook.getName(), WebhookStrategy.createContentPath(webhook))));
     }
 
+    WebhookStatus.LimiterStatus getLimiterStatus() {
+        WebhookDispatcher.WebhookQueue queue = deliveryQueue;
+        return queue == null ? null : queue.getLimiter().getStatus();
+    }
+
     public Webhook getWebhook() {
         return webhook;
     }
@@ -0,0 +1,158 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.timgroup.statsd.StatsDClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adapts how many calls a webhook has in flight, between one and parallelCalls.
+ * Successes add about one call per round of calls, and slow responses or failures cut the limit.
+ * When too many of the recent calls fail, the circuit opens, and calls wait until a single probe call succeeds.
+ * Calls which were already in flight when the circuit opened are counted, but can not close it.
+ */
+class WebhookLimiter {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookLimiter.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    enum Circuit {CLOSED, OPEN, HALF_OPEN}
+
+    private static final int window = HubProperties.getProperty("webhook.circuit.window", 20);
+    private static final int minimumCalls = HubProperties.getProperty("webhook.circuit.minimumCalls", 10);
+    private static final double errorRate = HubProperties.getProperty("webhook.circuit.errorRate", 0.5);
+    private static final long probeMillis = HubProperties.getProperty("webhook.circuit.probeMillis", 1000);
+    private static final double latencyTolerance = HubProperties.getProperty("webhook.limiter.latencyTolerance", 2.0);
+
+    private final String name;
+    private final int maxLimit;
+    private final long openMillis;
+    private final boolean[] failures = new boolean[window];
+    private int next;
+    private int calls;
+    private int failed;
+    private double limit;
+    private double latency;
+    private Circuit circuit = Circuit.CLOSED;
+    private long openUntil;
+    private boolean probing;
+
+    WebhookLimiter(String name, int maxLimit) {
+        this(name, maxLimit, HubProperties.getProperty("webhook.circuit.openSeconds", 30) * 1000L);
+    }
+
+    WebhookLimiter(String name, int maxLimit, long openMillis) {
+        this.name = name;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.openMillis = openMillis;
+        this.limit = this.maxLimit;
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    int getMaxLimit() {
+        return maxLimit;
+    }
+
+    synchronized Circuit getCircuit() {
+        return circuit;
+    }
+
+    /**
+     * @return zero when a call may be made now, otherwise the millis to wait before asking again
+     */
+    synchronized long tryCall() {
+        if (circuit == Circuit.CLOSED) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        if (circuit == Circuit.OPEN) {
+            if (now < openUntil) {
+                return openUntil - now;
+            }
+            circuit = Circuit.HALF_OPEN;
+            probing = false;
+        }
+        if (probing) {
+            return probeMillis;
+        }
+        probing = true;
+        logger.info("probing {}", name);
+        return 0;
+    }
+
+    synchronized void success(long latencyMillis) {
+        record(false);
+        if (circuit == Circuit.OPEN) {
+            return;
+        }
+        if (circuit == Circuit.HALF_OPEN) {
+            logger.info("closing circuit for {}", name);
+            circuit = Circuit.CLOSED;
+            probing = false;
+            resetWindow();
+        }
+        if (latency == 0) {
+            latency = latencyMillis;
+        }
+        if (latencyMillis > latency * latencyTolerance) {
+            limit = Math.max(1, limit * 0.9);
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        latency = latency * 0.95 + latencyMillis * 0.05;
+    }
+
+    synchronized void failure() {
+        record(true);
+        limit = Math.max(1, limit / 2);
+        if (circuit == Circuit.HALF_OPEN) {
+            open();
+        } else if (circuit == Circuit.CLOSED && calls >= minimumCalls && failed >= errorRate * calls) {
+            open();
+        }
+    }
+
+    private void open() {
+        logger.warn("opening circuit for {} for {} ms, {} of {} calls failed", name, openMillis, failed, calls);
+        statsd.incrementCounter("webhook.circuit.open", "name:" + name);
+        circuit = Circuit.OPEN;
+        openUntil = System.currentTimeMillis() + openMillis;
+        probing = false;
+        limit = 1;
+    }
+
+    private void record(boolean failure) {
+        if (calls == window) {
+            if (failures[next]) {
+                failed--;
+            }
+        } else {
+            calls++;
+        }
+        failures[next] = failure;
+        if (failure) {
+            failed++;
+        }
+        next = (next + 1) % window;
+    }
+
+    private void resetWindow() {
+        next = 0;
+        calls = 0;
+        failed = 0;
+    }
+
+    synchronized WebhookStatus.LimiterStatus getStatus() {
+        return WebhookStatus.LimiterStatus.builder()
+                .limit(getLimit())
+                .maxLimit(maxLimit)
+                .circuit(circuit.name())
+                .errorRate(calls == 0 ? 0 : (double) failed / calls)
+                .latencyMillis((long) latency)
+                .build();
+    }
+}
@@ -141,6 +141,7 @@ public class WebhookManager {
         if (webhookLeader != null) {
             statusBuilder.errors(webhookLeader.getErrors());
             statusBuilder.inFlight(webhookLeader.getInFlight(webhook));
+            statusBuilder.limiter(webhookLeader.getLimiterStatus());
         } else {
             statusBuilder.errors(Collections.emptyList());
             statusBuilder.inFlight(Collections.emptyList());
@@ -94,6 +94,12 @@ public class WebhookResource {
         root.put("heartbeat", webhook.isHeartbeat());
         root.put("ttlMinutes", webhook.getTtlMinutes());
         root.put("maxWaitMinutes", webhook.getMaxWaitMinutes());
+        if (webhook.isItems()) {
+            root.put("maxItems", webhook.getMaxItems());
+            root.put("maxBytes", webhook.getMaxBytes());
+            root.put("lingerMillis", webhook.getLingerMillis());
+            root.put("inline", webhook.isInline());
+        }
         String lastCompleted = "";
         if (status.getLastCompleted() != null) {
             lastCompleted = webhook.getChannelUrl() + "/" + status.getLastCompleted().toUrl();
@@ -110,6 +116,15 @@ public class WebhookResource {
         for (ContentPath contentPath : status.getInFlight()) {
             inFlight.add(webhook.getChannelUrl() + "/" + contentPath.toUrl());
         }
+        WebhookStatus.LimiterStatus limiterStatus = status.getLimiter();
+        if (limiterStatus != null) {
+            ObjectNode limiter = root.putObject("limiter");
+            limiter.put("limit", limiterStatus.getLimit());
+            limiter.put("maxLimit", limiterStatus.getMaxLimit());
+            limiter.put("circuit", limiterStatus.getCircuit());
+            limiter.put("errorRate", limiterStatus.getErrorRate());
+            limiter.put("latencyMillis", limiterStatus.getLatencyMillis());
+        }
         ArrayNode errors = root.putArray("errors");
         for (String error : status.getErrors()) {
             errors.add(error);
@@ -2,75 +2,165 @@ package com.flightstats.hub.webhook;
 
 import com.flightstats.hub.cluster.Leadership;
 import com.flightstats.hub.metrics.DataDog;
-import com.github.rholder.retry.Retryer;
-import com.github.rholder.retry.RetryerBuilder;
-import com.github.rholder.retry.WaitStrategies;
-import com.google.common.base.Predicate;
-import com.sun.jersey.api.client.ClientHandlerException;
-import com.sun.jersey.api.client.ClientResponse;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.RecurringTrace;
+import com.flightstats.hub.util.TimeUtil;
 import com.timgroup.statsd.StatsDClient;
+import org.eclipse.jetty.util.thread.Scheduler;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Calls a webhook until the call succeeds, the item is older than ttlMinutes, or leadership is lost.
+ * Failures are retried with an exponential wait, up to maxWaitMinutes, on the WebhookClient's timer.
+ * Every response is reported to the webhook's WebhookLimiter, and calls wait while its circuit is open.
+ */
 class WebhookRetryer {
 
     private final static Logger logger = LoggerFactory.getLogger(WebhookRetryer.class);
     private final static StatsDClient statsd = DataDog.statsd;
 
-    static Retryer<ClientResponse> buildRetryer(Webhook webhook, WebhookError webhookError, final Leadership leadership) {
-
-        return RetryerBuilder.<ClientResponse>newBuilder()
-                .retryIfException(throwable -> {
-                    if (throwable != null) {
-                        webhookError.add(webhook.getName(), new DateTime() + " " + throwable.getMessage());
-                        if (throwable.getClass().isAssignableFrom(ClientHandlerException.class)) {
-                            logger.info("got ClientHandlerException trying to call client back " + throwable.getMessage());
-                        } else {
-                            logger.info("got throwable trying to call client back ", throwable);
-                        }
-                        if (throwable instanceof ItemExpiredException) {
-                            return false;
-                        }
-                    }
-                    emitErrorToDataDog(webhook.getName(), 500);
-                    return throwable != null;
-                })
-                .retryIfResult(new Predicate<ClientResponse>() {
-                    @Override
-                    public boolean apply(@Nullable ClientResponse response) {
-                        if (response == null) return true;
-                        try {
-                            boolean failure = response.getStatus() >= 400;
-                            if (failure) {
-                                webhookError.add(webhook.getName(), new DateTime() + " " + response.toString());
-                                emitErrorToDataDog(webhook.getName(), response.getStatus());
-                                logger.info("unable to send to " + response);
-                            }
-                            return failure;
-                        } finally {
-                            close(response);
-                        }
-                    }
-
-                    private void close(ClientResponse response) {
-                        try {
-                            response.close();
-                        } catch (ClientHandlerException e) {
-                            logger.info("exception closing response", e);
-                        }
-                    }
-                })
-                .withWaitStrategy(WaitStrategies.exponentialWait(1000, webhook.getMaxWaitMinutes(), TimeUnit.MINUTES))
-                .withStopStrategy(failedAttempt -> !leadership.hasLeadership())
-                .build();
+    private final Webhook webhook;
+    private final WebhookError webhookError;
+    private final Leadership leadership;
+    private final WebhookClient client;
+    private final WebhookLimiter limiter;
+    private final long maxWaitMillis;
+    private final Set<Call> waiting = ConcurrentHashMap.newKeySet();
+
+    WebhookRetryer(Webhook webhook, WebhookError webhookError, Leadership leadership, WebhookClient client,
+                   WebhookLimiter limiter) {
+        this.webhook = webhook;
+        this.webhookError = webhookError;
+        this.leadership = leadership;
+        this.client = client;
+        this.limiter = limiter;
+        this.maxWaitMillis = TimeUnit.MINUTES.toMillis(webhook.getMaxWaitMinutes());
+    }
+
+    /**
+     * @return true when the call succeeds, false when leadership is lost,
+     * or an ItemExpiredException when the item is older than ttlMinutes
+     */
+    CompletableFuture<Boolean> call(ContentPath contentPath, String entity, RecurringTrace trace) {
+        Call call = new Call(contentPath, entity, trace);
+        call.attempt();
+        return call.future;
+    }
+
+    /**
+     * Stops the calls waiting to retry.
+     */
+    void stop() {
+        for (Call call : waiting) {
+            call.cancel();
+        }
+    }
+
+    static long getWait(int attempt, long maxWaitMillis) {
+        double wait = 1000 * Math.pow(2, attempt);
+        return wait > maxWaitMillis ? maxWaitMillis : (long) wait;
+    }
+
+    private boolean shouldRetry(Integer status, Throwable throwable) {
+        String name = webhook.getName();
+        if (throwable != null) {
+            webhookError.add(name, new DateTime() + " " + throwable.getMessage());
+            if (throwable instanceof IOException || throwable instanceof TimeoutException) {
+                logger.info("got {} trying to call client back {}", throwable.getClass().getSimpleName(), throwable.getMessage());
+            } else {
+                logger.info("got throwable trying to call client back ", throwable);
+            }
+            emitErrorToDataDog(name, 500);
+            return true;
+        }
+        if (status >= 400) {
+            String message = "POST " + webhook.getCallbackUrl() + " returned a response status of " + status;
+            webhookError.add(name, new DateTime() + " " + message);
+            emitErrorToDataDog(name, status);
+            logger.info("unable to send to " + message);
+            return true;
+        }
+        return false;
     }
 
     private static void emitErrorToDataDog(String name, int status) {
         String[] tags = {"name:" + name, "status:" + status,};
         statsd.incrementCounter("webhook.errors", tags);
     }
+
+    private class Call {
+        private final ContentPath contentPath;
+        private final String entity;
+        private final RecurringTrace trace;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        private int attempts;
+        private volatile Scheduler.Task retry;
+
+        private Call(ContentPath contentPath, String entity, RecurringTrace trace) {
+            this.contentPath = contentPath;
+            this.entity = entity;
+            this.trace = trace;
+        }
+
+        private void attempt() {
+            waiting.remove(this);
+            if (webhook.getTtlMinutes() > 0) {
+                DateTime ttlTime = TimeUtil.now().minusMinutes(webhook.getTtlMinutes());
+                if (contentPath.getTime().isBefore(ttlTime)) {
+                    future.completeExceptionally(new ItemExpiredException(contentPath.toUrl() + " is before " + ttlTime));
+                    return;
+                }
+            }
+            if (!leadership.hasLeadership()) {
+                logger.debug("not leader {} {} {}", webhook.getCallbackUrl(), webhook.getName(), contentPath);
+                future.complete(false);
+                return;
+            }
+            long circuitWait = limiter.tryCall();
+            if (circuitWait > 0) {
+                logger.trace("circuit open {} {}", webhook.getName(), contentPath);
+                schedule(circuitWait);
+                return;
+            }
+            attempts++;
+            logger.debug("calling {} {} {}", webhook.getCallbackUrl(), contentPath, entity);
+            long start = System.currentTimeMillis();
+            client.post(webhook.getCallbackUrl(), entity).whenComplete((status, throwable) -> {
+                trace.update("WebhookLeader.makeCall completed", status == null ? throwable : status, attempts);
+                if (!shouldRetry(status, throwable)) {
+                    limiter.success(System.currentTimeMillis() - start);
+                    future.complete(true);
+                    return;
+                }
+                limiter.failure();
+                if (!leadership.hasLeadership()) {
+                    future.complete(false);
+                } else {
+                    schedule(getWait(attempts, maxWaitMillis));
+                }
+            });
+        }
+
+        private void schedule(long delayMillis) {
+            waiting.add(this);
+            retry = client.schedule(this::attempt, delayMillis);
+        }
+
+        private void cancel() {
+            Scheduler.Task task = retry;
+            if (task != null && task.cancel()) {
+                waiting.remove(this);
+                future.complete(false);
+            }
+        }
+    }
 }
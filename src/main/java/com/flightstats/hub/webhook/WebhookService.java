@@ -119,6 +119,13 @@ public class WebhookService {
         return Optional.fromNullable(webhookDao.getCached(name));
     }
 
+    /**
+     * @return the latest path the webhook has completed, or null if it has not started
+     */
+    public ContentPath getLastCompleted(String name) {
+        return lastContentPath.getOrNull(name, WEBHOOK_LAST_COMPLETED);
+    }
+
     public Collection<Webhook> getAll() {
         return webhookDao.getAll(false);
     }
@@ -16,6 +16,7 @@ public class WebhookStatus {
     private Webhook webhook;
     private List<String> errors;
     private List<ContentPath> inFlight;
+    private LimiterStatus limiter;
 
     @JsonIgnore
     public Webhook getWebhook() {
@@ -26,4 +27,13 @@ public class WebhookStatus {
         return webhook.getName();
     }
 
+    @Getter
+    @Builder
+    public static class LimiterStatus {
+        private int limit;
+        private int maxLimit;
+        private String circuit;
+        private double errorRate;
+        private long latencyMillis;
+    }
 }
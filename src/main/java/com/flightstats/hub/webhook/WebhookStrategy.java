@@ -7,11 +7,14 @@ import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.ContentPath;
 import com.flightstats.hub.model.MinutePath;
 import com.flightstats.hub.model.SecondPath;
+import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 interface WebhookStrategy extends AutoCloseable {
@@ -28,6 +31,22 @@ interface WebhookStrategy extends AutoCloseable {
 
     ContentPath inProcess(ContentPath contentPath);
 
+    /**
+     * @return the path lastCompleted can move to, now that contentPath has been delivered
+     */
+    default ContentPath completed(ContentPath contentPath) {
+        return contentPath;
+    }
+
+    /**
+     * Called when this leader gives up on contentPath, which stays in the in flight set for the next leader.
+     *
+     * @return the path lastCompleted can move to, or null to leave it where it is
+     */
+    default ContentPath failed(ContentPath contentPath) {
+        return null;
+    }
+
     static ContentPath createContentPath(Webhook webhook) {
         if (webhook.isSecond()) {
             return new SecondPath();
@@ -38,19 +57,49 @@ interface WebhookStrategy extends AutoCloseable {
         return new ContentKey(TimeUtil.now(), "initial");
     }
 
-    static WebhookStrategy getStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    static WebhookStrategy getStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                                       ScheduledExecutorService scheduler) {
+        if (webhook.isItems()) {
+            return new ItemsWebhookStrategy(webhook, lastContentPath, channelService, scheduler);
+        }
         if (webhook.isMinute() || webhook.isSecond()) {
-            return new TimedWebhookStrategy(webhook, lastContentPath, channelService);
+            return new TimedWebhookStrategy(webhook, lastContentPath, channelService, scheduler);
+        }
+        return new SingleWebhookStrategy(webhook, lastContentPath, channelService, scheduler);
+    }
+
+    /**
+     * Strategies run on a shared scheduler, so they offer to the queue instead of blocking.
+     * When the queue is full, blocked is set, and the next poll of the queue restarts the work.
+     */
+    static boolean offer(BlockingQueue<ContentPath> queue, ContentPath path, AtomicBoolean blocked) {
+        blocked.set(true);
+        if (queue.offer(path)) {
+            blocked.set(false);
+            return true;
+        }
+        return false;
+    }
+
+    static Optional<ContentPath> poll(BlockingQueue<ContentPath> queue, long timeout, TimeUnit unit,
+                                      AtomicBoolean blocked, ScheduledExecutorService scheduler, Runnable work) {
+        try {
+            ContentPath path = queue.poll(timeout, unit);
+            if (blocked.compareAndSet(true, false)) {
+                scheduler.execute(work);
+            }
+            return Optional.fromNullable(path);
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
         }
-        return new SingleWebhookStrategy(webhook, lastContentPath, channelService);
     }
 
-    static void close(AtomicBoolean shouldExit, ExecutorService executorService, BlockingQueue queue) {
+    static void close(AtomicBoolean shouldExit, Future<?> future, BlockingQueue queue) {
         if (!shouldExit.get()) {
             shouldExit.set(true);
         }
-        if (executorService != null) {
-            executorService.shutdownNow();
+        if (future != null) {
+            future.cancel(false);
         }
         if (queue != null) {
             queue.clear();
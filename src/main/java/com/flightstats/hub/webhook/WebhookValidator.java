@@ -37,8 +37,18 @@ public class WebhookValidator {
                 || Webhook.SECOND.equals(webhook.getBatch())
                 || Webhook.SINGLE.equals(webhook.getBatch())) {
             return;
+        } else if (Webhook.ITEMS.equals(webhook.getBatch())) {
+            if (webhook.getMaxItems() <= 0) {
+                throw new InvalidRequestException("{\"error\": \"Webhook maxItems must be greater than zero\"}");
+            }
+            if (webhook.getMaxBytes() <= 0) {
+                throw new InvalidRequestException("{\"error\": \"Webhook maxBytes must be greater than zero\"}");
+            }
+            if (webhook.getLingerMillis() < 0) {
+                throw new InvalidRequestException("{\"error\": \"Webhook lingerMillis can not be negative\"}");
+            }
         } else {
-            throw new InvalidRequestException("{\"error\": \"Allowed values for batch are 'SINGLE', 'SECOND' and 'MINUTE'\"}");
+            throw new InvalidRequestException("{\"error\": \"Allowed values for batch are 'SINGLE', 'SECOND', 'MINUTE' and 'ITEMS'\"}");
         }
     }
 }
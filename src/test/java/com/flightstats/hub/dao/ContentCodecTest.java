@@ -0,0 +1,27 @@
+package com.flightstats.hub.dao;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ContentCodecTest {
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        byte[] payload = "some payload some payload some payload".getBytes();
+        for (ContentCodec codec : ContentCodec.values()) {
+            byte[] encoded = codec.encode(payload);
+            byte[] padded = new byte[encoded.length + 10];
+            System.arraycopy(encoded, 0, padded, 4, encoded.length);
+            assertArrayEquals(codec.name(), payload, codec.decode(padded, 4, encoded.length, payload.length));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testZipWrongSize() throws IOException {
+        byte[] encoded = ContentCodec.ZIP.encode("payload".getBytes());
+        ContentCodec.ZIP.decode(encoded, 0, encoded.length, 3);
+    }
+}
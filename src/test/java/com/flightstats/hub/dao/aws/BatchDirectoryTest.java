@@ -0,0 +1,113 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.channel.ZipBulkBuilder;
+import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BatchDirectoryTest {
+
+    @Test
+    public void testRangedItems() throws IOException {
+        List<Content> items = new ArrayList<>();
+        ContentKey master = new ContentKey();
+        for (int i = 0; i < 20; i++) {
+            items.add(Content.builder()
+                    .withContentKey(ContentKey.bulkKey(master, i))
+                    .withContentType(i % 2 == 0 ? "application/json" : "text/plain")
+                    .withData(RandomStringUtils.randomAlphanumeric(i * 100).getBytes())
+                    .build());
+        }
+        byte[] zip = zip(items);
+        BatchDirectory directory = BatchDirectory.fromBytes(BatchDirectory.fromZip(zip).toBytes());
+        assertEquals(items.size(), directory.size());
+        for (int i = 0; i < items.size(); i++) {
+            Content item = items.get(i);
+            BatchDirectory.Entry entry = directory.get(item.getContentKey().get().toUrl());
+            byte[] ranged = Arrays.copyOfRange(zip, (int) entry.offset, (int) (entry.offset + entry.length));
+            Content.Builder builder = Content.builder().withContentKey(item.getContentKey().get());
+            ContentMarshaller.setMetaData(entry.meta, builder);
+            Content read = builder.withData(entry.decode(ranged)).build();
+            assertEquals(item.getContentType(), read.getContentType());
+            assertEquals(i * 100, read.getData().length);
+            assertArrayEquals(item.getData(), read.getData());
+        }
+        assertNull(directory.get(new ContentKey().toUrl()));
+    }
+
+    @Test
+    public void testCapture() throws IOException {
+        List<Content> items = new ArrayList<>();
+        ContentKey master = new ContentKey();
+        for (int i = 0; i < 50; i++) {
+            items.add(Content.builder()
+                    .withContentKey(ContentKey.bulkKey(master, i))
+                    .withContentType("text/plain")
+                    .withData(RandomStringUtils.randomAlphanumeric(i * 1000).getBytes())
+                    .build());
+        }
+        byte[] zip = zip(items);
+        BatchDirectory expected = BatchDirectory.fromZip(zip);
+        BatchDirectory.Capture capture = new BatchDirectory.Capture(items.size() * 512);
+        for (int i = 0; i < zip.length; i += 333) {
+            capture.write(zip, i, Math.min(333, zip.length - i));
+        }
+        BatchDirectory directory = capture.getDirectory();
+        assertEquals(expected.size(), directory.size());
+        for (Content item : items) {
+            String name = item.getContentKey().get().toUrl();
+            assertEquals(expected.get(name).offset, directory.get(name).offset);
+            assertEquals(expected.get(name).length, directory.get(name).length);
+            assertEquals(expected.get(name).meta, directory.get(name).meta);
+        }
+    }
+
+    @Test
+    public void testCaptureTooSmall() throws IOException {
+        List<Content> items = new ArrayList<>();
+        ContentKey master = new ContentKey();
+        for (int i = 0; i < 50; i++) {
+            items.add(Content.builder()
+                    .withContentKey(ContentKey.bulkKey(master, i))
+                    .withContentType("text/plain")
+                    .withData(RandomStringUtils.randomAlphanumeric(100).getBytes())
+                    .build());
+        }
+        byte[] zip = zip(items);
+        BatchDirectory.Capture capture = new BatchDirectory.Capture(1024);
+        capture.write(zip, 0, zip.length);
+        assertNull(capture.getDirectory());
+    }
+
+    @Test
+    public void testNotZip() {
+        assertNull(BatchDirectory.fromZip("not a zip".getBytes()));
+    }
+
+    private byte[] zip(List<Content> items) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ZipOutputStream output = new ZipOutputStream(baos);
+        output.setLevel(Deflater.DEFAULT_COMPRESSION);
+        for (Content item : items) {
+            ZipBulkBuilder.createZipEntry(output, Content.builder()
+                    .withContentKey(item.getContentKey().get())
+                    .withContentType(item.getContentType().get())
+                    .withData(item.getData())
+                    .build());
+        }
+        output.close();
+        return baos.toByteArray();
+    }
+}
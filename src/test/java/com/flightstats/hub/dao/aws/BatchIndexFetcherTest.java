@@ -0,0 +1,88 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.flightstats.hub.model.MinutePath;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchIndexFetcherTest {
+
+    private final BatchIndexFetcher fetcher = new BatchIndexFetcher();
+
+    @Test
+    public void testOrdered() {
+        List<MinutePath> paths = getPaths(100);
+        List<MinutePath> results = new ArrayList<>();
+        Random random = new Random();
+        fetcher.fetch(paths, path -> {
+            sleep(random.nextInt(5));
+            return path;
+        }, results::add);
+        assertEquals(paths, results);
+    }
+
+    @Test
+    public void testStop() {
+        List<MinutePath> paths = getPaths(1000);
+        AtomicInteger fetched = new AtomicInteger();
+        List<MinutePath> results = new ArrayList<>();
+        fetcher.fetch(paths, path -> {
+            fetched.incrementAndGet();
+            return path;
+        }, path -> {
+            results.add(path);
+            return results.size() < 10;
+        });
+        assertEquals(paths.subList(0, 10), results);
+        assertTrue(fetched.get() < 100);
+    }
+
+    @Test
+    public void testThrottled() {
+        List<MinutePath> paths = getPaths(20);
+        ConcurrentHashMap<MinutePath, Boolean> throttled = new ConcurrentHashMap<>();
+        List<MinutePath> results = new ArrayList<>();
+        fetcher.fetch(paths, path -> {
+            if (throttled.putIfAbsent(path, true) == null) {
+                AmazonS3Exception exception = new AmazonS3Exception("Please reduce your request rate.");
+                exception.setStatusCode(503);
+                exception.setErrorCode("SlowDown");
+                throw exception;
+            }
+            return path;
+        }, results::add);
+        assertEquals(paths, results);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testFailure() {
+        fetcher.fetch(getPaths(5), path -> {
+            throw new IllegalStateException("failed");
+        }, path -> true);
+    }
+
+    private List<MinutePath> getPaths(int count) {
+        List<MinutePath> paths = new ArrayList<>();
+        DateTime start = new DateTime().minusDays(1);
+        for (int i = 0; i < count; i++) {
+            paths.add(new MinutePath(start.plusMinutes(i)));
+        }
+        return paths;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchRollupTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DateTime start = TimeUtil.now();
+        List<ContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(new ContentKey(start.plusSeconds(i), "key" + i));
+        }
+        byte[] bytes = BatchRollup.toBytes(keys);
+        assertEquals(keys, BatchRollup.fromBytes(bytes));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        byte[] bytes = BatchRollup.toBytes(Collections.emptyList());
+        assertEquals(0, bytes.length);
+        assertEquals(0, BatchRollup.fromBytes(bytes).size());
+    }
+
+    @Test
+    public void testUnitParse() {
+        DateTime hour = new DateTime(2016, 3, 4, 5, 0, 0, 0, org.joda.time.DateTimeZone.UTC);
+        assertEquals(hour, TimeUtil.Unit.HOURS.parse(TimeUtil.Unit.HOURS.format(hour)));
+        assertEquals(hour.withHourOfDay(0), TimeUtil.Unit.DAYS.parse("2016/03/04"));
+    }
+}
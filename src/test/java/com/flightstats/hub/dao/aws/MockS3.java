@@ -0,0 +1,121 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A mocked AmazonS3 which keeps its objects in memory, records each GET, and throttles GETs of the throttled keys.
+ */
+class MockS3 {
+
+    final SortedMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    final List<String> gets = new CopyOnWriteArrayList<>();
+    final Set<String> throttled = ConcurrentHashMap.newKeySet();
+    final AmazonS3 s3Client = mock(AmazonS3.class);
+
+    MockS3() {
+        when(s3Client.getObject(anyString(), anyString())).thenAnswer(invocation ->
+                get((String) invocation.getArguments()[1], null));
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = (GetObjectRequest) invocation.getArguments()[0];
+            return get(request.getKey(), request.getRange());
+        });
+        when(s3Client.putObject(any(PutObjectRequest.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = (PutObjectRequest) invocation.getArguments()[0];
+            objects.put(request.getKey(), ByteStreams.toByteArray(request.getInputStream()));
+            return new PutObjectResult();
+        });
+        when(s3Client.listObjects(any(ListObjectsRequest.class))).thenAnswer(invocation ->
+                list((ListObjectsRequest) invocation.getArguments()[0]));
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest request = (DeleteObjectsRequest) invocation.getArguments()[0];
+            for (DeleteObjectsRequest.KeyVersion keyVersion : request.getKeys()) {
+                objects.remove(keyVersion.getKey());
+            }
+            return null;
+        });
+    }
+
+    private S3Object get(String key, long[] range) {
+        gets.add(key);
+        if (throttled.contains(key)) {
+            AmazonS3Exception exception = new AmazonS3Exception("throttled " + key);
+            exception.setStatusCode(503);
+            throw exception;
+        }
+        byte[] bytes = objects.get(key);
+        if (bytes == null) {
+            AmazonS3Exception exception = new AmazonS3Exception("missing " + key);
+            exception.setStatusCode(404);
+            throw exception;
+        }
+        if (range != null) {
+            bytes = Arrays.copyOfRange(bytes, (int) range[0], (int) range[1] + 1);
+        }
+        S3Object object = new S3Object();
+        object.setKey(key);
+        object.setObjectContent(new ByteArrayInputStream(bytes));
+        return object;
+    }
+
+    private ObjectListing list(ListObjectsRequest request) {
+        ObjectListing listing = new ObjectListing();
+        Set<String> prefixes = new TreeSet<>();
+        int maxKeys = request.getMaxKeys() == null ? 1000 : request.getMaxKeys();
+        int count = 0;
+        for (Map.Entry<String, byte[]> entry : objects.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(request.getPrefix()) || (request.getMarker() != null && key.compareTo(request.getMarker()) <= 0)) {
+                continue;
+            }
+            if (count == maxKeys) {
+                listing.setTruncated(true);
+                break;
+            }
+            String remainder = StringUtils.removeStart(key, request.getPrefix());
+            if (request.getDelimiter() != null && remainder.contains(request.getDelimiter())) {
+                String prefix = request.getPrefix() + StringUtils.substringBefore(remainder, request.getDelimiter()) + request.getDelimiter();
+                if (prefixes.add(prefix)) {
+                    count++;
+                }
+                listing.setNextMarker(prefix + Character.MAX_VALUE);
+            } else {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setKey(key);
+                summary.setSize(entry.getValue().length);
+                listing.getObjectSummaries().add(summary);
+                listing.setNextMarker(key);
+                count++;
+            }
+        }
+        listing.setCommonPrefixes(new ArrayList<>(prefixes));
+        return listing;
+    }
+
+    long getCount(String prefix) {
+        return gets.stream().filter(key -> key.startsWith(prefix)).count();
+    }
+
+    Set<String> keys(String prefix) {
+        Set<String> keys = new TreeSet<>();
+        for (String key : objects.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(StringUtils.removeStart(key, prefix));
+            }
+        }
+        return keys;
+    }
+}
@@ -3,12 +3,15 @@ package com.flightstats.hub.dao.aws;
 import com.flightstats.hub.exception.InvalidRequestException;
 import com.flightstats.hub.model.BulkContent;
 import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -186,4 +189,44 @@ public class MultiPartParserTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testStreamed() throws IOException {
+        String data = "--frontier\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "\r\n" +
+                "first\r\n" +
+                "--frontier\r\n" +
+                "Content-Type: application/json\r\n" +
+                "\r\n" +
+                "{\"second\":2}\r\n" +
+                "--frontier--";
+        BulkContent bulkContent = BulkContent.builder()
+                .stream(new ByteArrayInputStream(data.getBytes()))
+                .contentType("multipart/mixed; boundary=frontier")
+                .isNew(true)
+                .build();
+        List<Content> items = new ArrayList<>();
+        new MultiPartParser(bulkContent).parse(item -> {
+            assertTrue(item.getContentKey().isPresent());
+            items.add(item);
+        });
+        assertTrue(bulkContent.getItems().isEmpty());
+        assertEquals(2, bulkContent.getItemCount());
+        assertEquals(17, bulkContent.getSize());
+        assertEquals("first", new String(items.get(0).getData()));
+        assertEquals(ContentKey.bulkKey(bulkContent.getMasterKey(), 0), items.get(0).getContentKey().get());
+        assertEquals("{\"second\":2}", new String(items.get(1).getData()));
+        assertEquals(ContentKey.bulkKey(bulkContent.getMasterKey(), 1), items.get(1).getContentKey().get());
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testStreamedEmpty() throws IOException {
+        BulkContent bulkContent = BulkContent.builder()
+                .stream(new ByteArrayInputStream("--frontier--".getBytes()))
+                .contentType("multipart/mixed; boundary=frontier")
+                .isNew(true)
+                .build();
+        new MultiPartParser(bulkContent).parse(item -> fail());
+    }
+
+}
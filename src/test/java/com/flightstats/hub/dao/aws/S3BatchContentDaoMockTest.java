@@ -0,0 +1,299 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.channel.ZipBulkBuilder;
+import com.flightstats.hub.dao.ContentDaoUtil;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.NoOpMetricsSender;
+import com.flightstats.hub.model.*;
+import com.flightstats.hub.test.Integration;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * S3BatchContentDao against a mocked S3, so the requests each read makes can be counted.
+ */
+public class S3BatchContentDaoMockTest {
+
+    private MockS3 s3;
+    private S3BatchContentDao contentDao;
+
+    @Before
+    public void setUp() throws Exception {
+        HubProperties.loadProperties("useDefault");
+        HubProperties.setProperty("s3.indexCache.enabled", "false");
+        s3 = new MockS3();
+        createDao();
+    }
+
+    private void createDao() throws Exception {
+        S3BucketName bucketName = new S3BucketName("local", "hub-v2");
+        contentDao = new S3BatchContentDao(s3.s3Client, bucketName, new NoOpMetricsSender(), new S3IndexCache(new NoOpMetricsSender()),
+                new S3Deleter(s3.s3Client, bucketName, Integration.startZooKeeper()));
+    }
+
+    @Test
+    public void testDirectoryRead() throws Exception {
+        String channel = "testDirectoryRead";
+        MinutePath minutePath = new MinutePath(new DateTime(2016, 5, 6, 7, 8, DateTimeZone.UTC));
+        List<ContentKey> keys = createKeys(minutePath, 5);
+        contentDao.writeBatch(channel, minutePath, keys, toZip(keys));
+        assertTrue(s3.objects.containsKey(channel + "Batch/directory/" + minutePath.toUrl()));
+
+        for (ContentKey key : keys) {
+            assertContent(key, contentDao.get(channel, key));
+        }
+        assertEquals(5, s3.getCount(channel + "Batch/directory/"));
+        assertEquals(5, s3.getCount(channel + "Batch/items/"));
+    }
+
+    @Test
+    public void testLegacyMinuteSkipsDirectory() throws Exception {
+        String channel = "testLegacyMinuteSkipsDirectory";
+        MinutePath minutePath = new MinutePath(new DateTime(2016, 5, 6, 7, 8, DateTimeZone.UTC));
+        List<ContentKey> keys = createKeys(minutePath, 5);
+        s3.objects.put(channel + "Batch/items/" + minutePath.toUrl(), toZip(keys));
+
+        for (ContentKey key : keys) {
+            assertContent(key, contentDao.get(channel, key));
+        }
+        assertEquals(1, s3.getCount(channel + "Batch/directory/"));
+        assertEquals(5, s3.getCount(channel + "Batch/items/"));
+    }
+
+    @Test
+    public void testMissingMinuteIsNotLegacy() throws Exception {
+        String channel = "testMissingMinuteIsNotLegacy";
+        MinutePath minutePath = new MinutePath(new DateTime(2016, 5, 6, 7, 8, DateTimeZone.UTC));
+        List<ContentKey> keys = createKeys(minutePath, 2);
+        assertNull(contentDao.get(channel, keys.get(0)));
+
+        contentDao.writeBatch(channel, minutePath, keys, toZip(keys));
+        s3.gets.clear();
+        assertContent(keys.get(1), contentDao.get(channel, keys.get(1)));
+        assertEquals(1, s3.getCount(channel + "Batch/directory/"));
+        assertEquals(1, s3.getCount(channel + "Batch/items/"));
+    }
+
+    @Test
+    public void testWriteInvalidatesCachedMinute() throws Exception {
+        HubProperties.setProperty("s3.indexCache.enabled", "true");
+        createDao();
+        String channel = "testWriteInvalidatesCachedMinute";
+        DateTime hour = new DateTime(2016, 5, 6, 7, 0, DateTimeZone.UTC);
+        MinutePath minutePath = new MinutePath(hour.plusMinutes(2));
+        writeMinute(channel, minutePath, 2);
+        assertEquals(2, queryHour(channel, hour).size());
+
+        List<ContentKey> keys = writeMinute(channel, minutePath, 3);
+        assertEquals("a cached minute is read again after a late write", keys, new ArrayList<>(queryHour(channel, hour)));
+    }
+
+    @Test
+    public void testThrottledQueriesReturnPartialKeys() throws Exception {
+        HubProperties.setProperty("s3.batch.throttleAttempts", "1");
+        createDao();
+        String channel = "testThrottledQueriesReturnPartialKeys";
+        DateTime hour = new DateTime(2016, 5, 6, 7, 0, DateTimeZone.UTC);
+        List<ContentKey> keys = writeMinute(channel, new MinutePath(hour.plusMinutes(2)), 2);
+        MinutePath throttled = new MinutePath(hour.plusMinutes(30));
+        writeMinute(channel, throttled, 2);
+        s3.throttled.add(channel + "Batch/index/" + throttled.toUrl());
+
+        assertEquals(keys, new ArrayList<>(queryHour(channel, hour)));
+        assertEquals(keys, new ArrayList<>(queryNext(channel, new ContentKey(hour, "-"), 10)));
+    }
+
+    @Test
+    public void testWriteRollups() throws Exception {
+        String channel = "testWriteRollups";
+        DateTime day = new DateTime(2016, 5, 6, 0, 0, DateTimeZone.UTC);
+        List<ContentKey> first = writeMinute(channel, new MinutePath(day.plusMinutes(5)), 3);
+        List<ContentKey> second = writeMinute(channel, new MinutePath(day.plusMinutes(50)), 2);
+        List<ContentKey> later = writeMinute(channel, new MinutePath(day.plusHours(7).plusMinutes(1)), 4);
+
+        contentDao.writeRollup(channel, day, TimeUtil.Unit.HOURS);
+        List<ContentKey> hour = new ArrayList<>(first);
+        hour.addAll(second);
+        assertEquals(hour, readRollup(channel + "Batch/hour/2016/05/06/00"));
+
+        s3.gets.clear();
+        contentDao.writeRollup(channel, day, TimeUtil.Unit.DAYS);
+        List<ContentKey> all = new ArrayList<>(hour);
+        all.addAll(later);
+        assertEquals(all, readRollup(channel + "Batch/day/2016/05/06"));
+        assertEquals("hours without a rollup are read from their minute indexes", 1, s3.getCount(channel + "Batch/index/"));
+    }
+
+    @Test
+    public void testQueryHourFromRollup() throws Exception {
+        String channel = "testQueryHourFromRollup";
+        DateTime hour = new DateTime(2016, 5, 6, 7, 0, DateTimeZone.UTC);
+        List<ContentKey> keys = writeMinute(channel, new MinutePath(hour.plusMinutes(2)), 3);
+        keys.addAll(writeMinute(channel, new MinutePath(hour.plusMinutes(30)), 3));
+        contentDao.writeRollup(channel, hour, TimeUtil.Unit.HOURS);
+
+        s3.gets.clear();
+        assertEquals(keys, new ArrayList<>(queryHour(channel, hour)));
+        assertEquals(0, s3.getCount(channel + "Batch/index/"));
+        assertEquals(1, s3.getCount(channel + "Batch/hour/"));
+
+        String unrolled = "testQueryHourWithoutRollup";
+        List<ContentKey> unrolledKeys = writeMinute(unrolled, new MinutePath(hour.plusMinutes(2)), 3);
+        s3.gets.clear();
+        assertEquals(unrolledKeys, new ArrayList<>(queryHour(unrolled, hour)));
+        assertEquals(1, s3.getCount(unrolled + "Batch/index/"));
+    }
+
+    @Test
+    public void testNextFromRollups() throws Exception {
+        String channel = "testNextFromRollups";
+        DateTime day = new DateTime(2016, 5, 6, 0, 0, DateTimeZone.UTC);
+        List<ContentKey> keys = writeMinute(channel, new MinutePath(day.plusHours(3)), 2);
+        keys.addAll(writeMinute(channel, new MinutePath(day.plusHours(20)), 2));
+        keys.addAll(writeMinute(channel, new MinutePath(day.plusDays(1).plusMinutes(10)), 2));
+        keys.addAll(writeMinute(channel, new MinutePath(day.plusDays(1).plusHours(1).plusMinutes(10)), 2));
+        keys.addAll(writeMinute(channel, new MinutePath(day.plusDays(1).plusHours(2).plusMinutes(10)), 2));
+        contentDao.writeRollup(channel, day, TimeUtil.Unit.DAYS);
+        contentDao.writeRollup(channel, day.plusDays(1), TimeUtil.Unit.HOURS);
+        contentDao.writeRollup(channel, day.plusDays(1).plusHours(1), TimeUtil.Unit.HOURS);
+
+        s3.gets.clear();
+        SortedSet<ContentKey> found = queryNext(channel, new ContentKey(day.plusHours(3), "-"), 20);
+        assertEquals(keys, new ArrayList<>(found));
+        assertEquals(1, s3.getCount(channel + "Batch/day/"));
+        assertEquals(2, s3.getCount(channel + "Batch/hour/"));
+        assertEquals("only the minutes after the rollups are read", 1, s3.getCount(channel + "Batch/index/"));
+
+        s3.gets.clear();
+        found = queryNext(channel, keys.get(0), 3);
+        assertEquals(keys.subList(1, 4), new ArrayList<>(found));
+        assertEquals(1, s3.getCount(channel + "Batch/day/"));
+        assertEquals(0, s3.getCount(channel + "Batch/hour/"));
+        assertEquals(0, s3.getCount(channel + "Batch/index/"));
+    }
+
+    @Test
+    public void testNextWithMissingRollup() throws Exception {
+        String channel = "testNextWithMissingRollup";
+        DateTime hour = new DateTime(2016, 5, 6, 0, 0, DateTimeZone.UTC);
+        List<ContentKey> keys = writeMinute(channel, new MinutePath(hour.plusMinutes(10)), 2);
+        keys.addAll(writeMinute(channel, new MinutePath(hour.plusHours(1).plusMinutes(10)), 2));
+        keys.addAll(writeMinute(channel, new MinutePath(hour.plusHours(2).plusMinutes(10)), 2));
+        contentDao.writeRollup(channel, hour, TimeUtil.Unit.HOURS);
+        contentDao.writeRollup(channel, hour.plusHours(2), TimeUtil.Unit.HOURS);
+
+        s3.gets.clear();
+        SortedSet<ContentKey> found = queryNext(channel, new ContentKey(hour, "-"), 20);
+        assertEquals(keys, new ArrayList<>(found));
+        assertEquals(1, s3.getCount(channel + "Batch/hour/"));
+        assertEquals("the minutes from the missing hour on are read", 2, s3.getCount(channel + "Batch/index/"));
+    }
+
+    @Test
+    public void testNextStartsAtQueryHour() throws Exception {
+        String channel = "testNextStartsAtQueryHour";
+        DateTime day = new DateTime(2016, 5, 6, 0, 0, DateTimeZone.UTC);
+        List<ContentKey> keys = new ArrayList<>();
+        for (int hour = 0; hour < 6; hour++) {
+            keys.addAll(writeMinute(channel, new MinutePath(day.plusHours(hour).plusMinutes(10)), 2));
+            contentDao.writeRollup(channel, day.plusHours(hour), TimeUtil.Unit.HOURS);
+        }
+
+        s3.gets.clear();
+        SortedSet<ContentKey> found = queryNext(channel, new ContentKey(day.plusHours(4), "-"), 20);
+        assertEquals(keys.subList(8, 12), new ArrayList<>(found));
+        assertEquals("only the hours from the query key are read", 2, s3.getCount(channel + "Batch/hour/"));
+    }
+
+    @Test
+    public void testDeleteBeforeRemovesRollups() throws Exception {
+        String channel = "testDeleteBeforeRemovesRollups";
+        DateTime day = new DateTime(2016, 5, 6, 0, 0, DateTimeZone.UTC);
+        for (int i = 0; i < 48; i += 12) {
+            writeMinute(channel, new MinutePath(day.plusHours(i)), 1);
+            contentDao.writeRollup(channel, day.plusHours(i), TimeUtil.Unit.HOURS);
+        }
+        contentDao.writeRollup(channel, day, TimeUtil.Unit.DAYS);
+        contentDao.writeRollup(channel, day.plusDays(1), TimeUtil.Unit.DAYS);
+
+        contentDao.deleteBefore(channel, new ContentKey(day.plusHours(24).plusMinutes(1), "A"));
+        assertEquals(new TreeSet<>(Collections.singletonList("2016/05/07/12")), s3.keys(channel + "Batch/hour/"));
+        assertEquals(Collections.emptySet(), s3.keys(channel + "Batch/day/"));
+    }
+
+    private List<ContentKey> writeMinute(String channel, MinutePath minutePath, int count) throws IOException {
+        List<ContentKey> keys = createKeys(minutePath, count);
+        contentDao.writeBatch(channel, minutePath, keys, toZip(keys));
+        return keys;
+    }
+
+    private List<ContentKey> readRollup(String key) throws Exception {
+        return BatchRollup.fromBytes(s3.objects.get(key));
+    }
+
+    private SortedSet<ContentKey> queryHour(String channel, DateTime hour) {
+        TimeQuery query = TimeQuery.builder()
+                .channelName(channel)
+                .startTime(hour)
+                .unit(TimeUtil.Unit.HOURS)
+                .build();
+        ActiveTraces.start(query);
+        try {
+            return contentDao.queryByTime(query);
+        } finally {
+            ActiveTraces.end();
+        }
+    }
+
+    private SortedSet<ContentKey> queryNext(String channel, ContentKey contentKey, int count) {
+        DirectionQuery query = DirectionQuery.builder()
+                .channelName(channel)
+                .contentKey(contentKey)
+                .next(true)
+                .count(count)
+                .build();
+        ActiveTraces.start(query);
+        try {
+            return contentDao.query(query);
+        } finally {
+            ActiveTraces.end();
+        }
+    }
+
+    private void assertContent(ContentKey key, Content read) {
+        Content content = ContentDaoUtil.createContent(key);
+        assertNotNull(read);
+        assertEquals(key, read.getContentKey().get());
+        assertArrayEquals(content.getData(), read.getData());
+        assertEquals(content.getContentType().get(), read.getContentType().get());
+    }
+
+    static List<ContentKey> createKeys(MinutePath minutePath, int count) {
+        List<ContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(new ContentKey(minutePath.getTime().plusSeconds(i), "" + i));
+        }
+        return keys;
+    }
+
+    static byte[] toZip(List<ContentKey> keys) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ZipOutputStream output = new ZipOutputStream(baos);
+        for (ContentKey key : keys) {
+            ZipBulkBuilder.createZipEntry(output, ContentDaoUtil.createContent(key));
+        }
+        output.close();
+        return baos.toByteArray();
+    }
+}
@@ -7,6 +7,7 @@ import com.flightstats.hub.dao.ContentDaoUtil;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.NoOpMetricsSender;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.test.Integration;
 import com.flightstats.hub.util.TimeUtil;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.joda.time.DateTime;
@@ -37,7 +38,8 @@ public class S3BatchContentDaoTest {
         AmazonS3 s3Client = factory.getS3Client();
         S3BucketName bucketName = new S3BucketName("local", "hub-v2");
         HubProperties.setProperty("s3.maxQueryItems", "5");
-        contentDao = new S3BatchContentDao(s3Client, bucketName, new NoOpMetricsSender());
+        contentDao = new S3BatchContentDao(s3Client, bucketName, new NoOpMetricsSender(), new S3IndexCache(new NoOpMetricsSender()),
+                new S3Deleter(s3Client, bucketName, Integration.startZooKeeper()));
     }
 
     @Test
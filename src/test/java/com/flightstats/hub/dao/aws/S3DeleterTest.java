@@ -0,0 +1,104 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.test.Integration;
+import com.flightstats.hub.util.TimeUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class S3DeleterTest {
+
+    private final SortedSet<String> objects = Collections.synchronizedSortedSet(new TreeSet<>());
+    private S3Deleter deleter;
+
+    @Before
+    public void setUp() throws Exception {
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        when(s3Client.listObjects(any(ListObjectsRequest.class))).thenAnswer(invocation -> list((ListObjectsRequest) invocation.getArguments()[0]));
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest request = (DeleteObjectsRequest) invocation.getArguments()[0];
+            for (DeleteObjectsRequest.KeyVersion keyVersion : request.getKeys()) {
+                objects.remove(keyVersion.getKey());
+            }
+            return null;
+        });
+        deleter = new S3Deleter(s3Client, new S3BucketName("local", "hub-v2"), Integration.startZooKeeper());
+    }
+
+    /**
+     * Lists up to 3 objects at a time, to exercise the paging.
+     */
+    private ObjectListing list(ListObjectsRequest request) {
+        ObjectListing listing = new ObjectListing();
+        Set<String> prefixes = new TreeSet<>();
+        int count = 0;
+        for (String key : objects) {
+            if (!key.startsWith(request.getPrefix()) || (request.getMarker() != null && key.compareTo(request.getMarker()) <= 0)) {
+                continue;
+            }
+            if (count == 3) {
+                listing.setTruncated(true);
+                break;
+            }
+            String remainder = StringUtils.removeStart(key, request.getPrefix());
+            if (request.getDelimiter() != null && remainder.contains(request.getDelimiter())) {
+                String prefix = request.getPrefix() + StringUtils.substringBefore(remainder, request.getDelimiter()) + request.getDelimiter();
+                if (prefixes.add(prefix)) {
+                    count++;
+                }
+                listing.setNextMarker(prefix + Character.MAX_VALUE);
+            } else {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setKey(key);
+                listing.getObjectSummaries().add(summary);
+                listing.setNextMarker(key);
+                count++;
+            }
+        }
+        listing.setCommonPrefixes(new ArrayList<>(prefixes));
+        return listing;
+    }
+
+    @Test
+    public void testDeleteKeys() {
+        String channel = "testDeleteKeys";
+        List<ContentKey> keys = new ArrayList<>();
+        DateTime start = new DateTime(2015, 10, 20, 0, 0, DateTimeZone.UTC);
+        for (int i = 0; i < 20; i++) {
+            ContentKey key = new ContentKey(start.plusWeeks(i), "A" + i);
+            keys.add(key);
+            objects.add(channel + "/" + key.toUrl());
+        }
+        objects.add(channel + "Batch/index/" + TimeUtil.minutes(start));
+        ContentKey limitKey = keys.get(12);
+        deleter.delete(channel + "/", limitKey);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(keys.get(i).toString(), i >= 12, objects.contains(channel + "/" + keys.get(i).toUrl()));
+        }
+        assertTrue(objects.contains(channel + "Batch/index/" + TimeUtil.minutes(start)));
+    }
+
+    @Test
+    public void testDeleteRollups() {
+        String channel = "testDeleteRollups";
+        DateTime start = new DateTime(2016, 1, 30, 0, 0, DateTimeZone.UTC);
+        for (int i = 0; i < 72; i++) {
+            objects.add(channel + "Batch/hour/" + TimeUtil.Unit.HOURS.format(start.plusHours(i)));
+        }
+        deleter.deleteRollups(channel + "Batch/hour/", TimeUtil.Unit.HOURS, new ContentKey(start.plusHours(50).plusMinutes(1), "A"));
+        assertEquals(21, objects.size());
+        assertEquals(channel + "Batch/hour/" + TimeUtil.Unit.HOURS.format(start.plusHours(51)), objects.first());
+    }
+}
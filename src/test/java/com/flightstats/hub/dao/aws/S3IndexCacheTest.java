@@ -0,0 +1,65 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.metrics.NoOpMetricsSender;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.flightstats.hub.dao.aws.S3IndexCache.Type.BATCH_INDEX;
+import static com.flightstats.hub.dao.aws.S3IndexCache.Type.SINGLE_LIST;
+import static org.junit.Assert.*;
+
+public class S3IndexCacheTest {
+
+    private S3IndexCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new S3IndexCache(new NoOpMetricsSender());
+    }
+
+    @Test
+    public void testPutGet() {
+        MinutePath path = new MinutePath(TimeUtil.now().minusDays(1));
+        List<ContentKey> keys = Arrays.asList(new ContentKey(path.getTime(), "A"), new ContentKey(path.getTime(), "B"));
+        cache.put(BATCH_INDEX, "testPutGet", path, keys);
+        assertEquals(keys, cache.get(BATCH_INDEX, "testPutGet", path));
+        assertNull(cache.get(SINGLE_LIST, "testPutGet", path));
+        assertNull(cache.get(BATCH_INDEX, "other", path));
+        assertNull(cache.get(BATCH_INDEX, "testPutGet", new MinutePath(path.getTime().plusMinutes(1))));
+    }
+
+    @Test
+    public void testEmpty() {
+        MinutePath path = new MinutePath(TimeUtil.now().minusDays(1));
+        cache.put(SINGLE_LIST, "testEmpty", path, Collections.emptyList());
+        assertEquals(0, cache.get(SINGLE_LIST, "testEmpty", path).size());
+    }
+
+    @Test
+    public void testRecentNotCached() {
+        MinutePath path = new MinutePath(TimeUtil.now().minusMinutes(1));
+        cache.put(BATCH_INDEX, "testRecentNotCached", path, Collections.singletonList(new ContentKey(path.getTime(), "A")));
+        assertNull(cache.get(BATCH_INDEX, "testRecentNotCached", path));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() {
+        MinutePath first = new MinutePath(TimeUtil.now().minusDays(2));
+        MinutePath second = new MinutePath(TimeUtil.now().minusDays(1));
+        cache.put(BATCH_INDEX, "testInvalidate", first, Collections.emptyList());
+        cache.put(BATCH_INDEX, "testInvalidate", second, Collections.emptyList());
+        cache.put(BATCH_INDEX, "testInvalidateOther", first, Collections.emptyList());
+        cache.invalidate("testInvalidate", new ContentKey(first.getTime(), "A"));
+        assertNull(cache.get(BATCH_INDEX, "testInvalidate", first));
+        assertNotNull(cache.get(BATCH_INDEX, "testInvalidate", second));
+        assertNotNull(cache.get(BATCH_INDEX, "testInvalidateOther", first));
+    }
+}
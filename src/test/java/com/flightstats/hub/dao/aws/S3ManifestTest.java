@@ -0,0 +1,87 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.SortedSet;
+
+import static org.junit.Assert.*;
+
+public class S3ManifestTest {
+
+    private S3Manifest manifest;
+    private DateTime minute;
+
+    @Before
+    public void setUp() throws Exception {
+        manifest = new S3Manifest();
+        minute = TimeUtil.Unit.MINUTES.round(TimeUtil.now().minusMinutes(5));
+    }
+
+    @Test
+    public void testMatchedInAnyOrder() {
+        ContentKey first = new ContentKey(minute.plusSeconds(1), "A");
+        ContentKey second = new ContentKey(minute.plusSeconds(2), "B");
+        manifest.written("testMatched", first);
+        manifest.written("testMatched", second);
+        manifest.stored("testMatched", second);
+        assertEquals(1, manifest.getMismatched().get("testMatched").size());
+        manifest.stored("testMatched", first);
+        assertTrue(manifest.getMismatched().isEmpty());
+    }
+
+    @Test
+    public void testDifferentKey() {
+        manifest.written("testDifferentKey", new ContentKey(minute.plusSeconds(1), "A"));
+        manifest.stored("testDifferentKey", new ContentKey(minute.plusSeconds(1), "B"));
+        Map<String, SortedSet<MinutePath>> mismatched = manifest.getMismatched();
+        assertEquals(1, mismatched.size());
+        assertEquals(new MinutePath(minute), mismatched.get("testDifferentKey").first());
+    }
+
+    @Test
+    public void testMinutesAndChannels() {
+        manifest.written("one", new ContentKey(minute.plusSeconds(1), "A"));
+        manifest.written("one", new ContentKey(minute.plusMinutes(2), "A"));
+        manifest.written("two", new ContentKey(minute.plusSeconds(1), "A"));
+        manifest.stored("two", new ContentKey(minute.plusSeconds(1), "A"));
+        Map<String, SortedSet<MinutePath>> mismatched = manifest.getMismatched();
+        assertEquals(1, mismatched.size());
+        assertEquals(2, mismatched.get("one").size());
+        assertEquals(3, manifest.size());
+    }
+
+    @Test
+    public void testFailedUntilWrittenAgain() {
+        ContentKey key = new ContentKey(minute.plusSeconds(1), "A");
+        ContentKey other = new ContentKey(minute.plusSeconds(2), "B");
+        manifest.written("testFailed", key);
+        manifest.written("testFailed", other);
+        manifest.failed("testFailed", key);
+        manifest.stored("testFailed", other);
+        assertEquals(1, manifest.getMismatched().get("testFailed").size());
+        manifest.written("testFailed", key);
+        manifest.stored("testFailed", key);
+        assertTrue(manifest.getMismatched().isEmpty());
+    }
+
+    @Test
+    public void testPrune() {
+        manifest.written("testPrune", new ContentKey(minute.minusMinutes(10), "A"));
+        manifest.written("testPrune", new ContentKey(minute, "A"));
+        manifest.prune(minute);
+        assertEquals(1, manifest.size());
+        assertEquals(new MinutePath(minute), manifest.getMismatched().get("testPrune").first());
+    }
+
+    @Test
+    public void testStarted() {
+        assertFalse(manifest.getStarted().isAfter(TimeUtil.now()));
+        assertTrue(manifest.getStarted().isAfter(minute));
+    }
+}
@@ -0,0 +1,93 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3MultipartOutputStreamTest {
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+    private AmazonS3 s3Client;
+    private ByteArrayOutputStream uploaded;
+
+    @Before
+    public void setUp() throws Exception {
+        s3Client = mock(AmazonS3.class);
+        uploaded = new ByteArrayOutputStream();
+        InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+        initiated.setUploadId("upload");
+        when(s3Client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+        when(s3Client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+            byte[] part = ByteStreams.toByteArray(request.getInputStream());
+            assertEquals(request.getPartSize(), part.length);
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag" + request.getPartNumber());
+            synchronized (this) {
+                uploaded.write(part);
+            }
+            return result;
+        });
+    }
+
+    @Test
+    public void testSinglePut() throws Exception {
+        S3MultipartOutputStream output = create(100);
+        output.write(new byte[60]);
+        output.close();
+        assertFalse(output.isMultipart());
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Client).putObject(captor.capture());
+        assertEquals(60, captor.getValue().getMetadata().getContentLength());
+        verify(s3Client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void testMultipart() throws Exception {
+        S3MultipartOutputStream output = create(100);
+        byte[] bytes = new byte[350];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        output.write(bytes, 0, 150);
+        output.write(bytes[150]);
+        output.write(bytes, 151, 199);
+        output.close();
+        assertTrue(output.isMultipart());
+        assertEquals(350, output.getBytes());
+        ArgumentCaptor<CompleteMultipartUploadRequest> captor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(captor.capture());
+        List<PartETag> eTags = captor.getValue().getPartETags();
+        assertEquals(4, eTags.size());
+        assertEquals(1, eTags.get(0).getPartNumber());
+        assertEquals(4, eTags.get(3).getPartNumber());
+        assertEquals(350, uploaded.size());
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        S3MultipartOutputStream output = create(100);
+        output.write(new byte[250]);
+        output.abort();
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    private S3MultipartOutputStream create(int partBytes) {
+        return new S3MultipartOutputStream(s3Client, "bucket", "key", new ObjectMetadata(), partBytes, executorService, 2);
+    }
+}
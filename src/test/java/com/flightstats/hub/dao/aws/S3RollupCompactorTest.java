@@ -0,0 +1,116 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.ContentDao;
+import com.flightstats.hub.metrics.NoOpMetricsSender;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.replication.S3Batch;
+import com.flightstats.hub.test.Integration;
+import com.flightstats.hub.webhook.WebhookService;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+import org.apache.curator.framework.CuratorFramework;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class S3RollupCompactorTest {
+
+    private MockS3 s3;
+    private S3BatchContentDao contentDao;
+    private WebhookService webhookService;
+    private LastContentPath lastContentPath;
+    private S3RollupCompactor compactor;
+
+    @Before
+    public void setUp() throws Exception {
+        HubProperties.loadProperties("useDefault");
+        HubProperties.setProperty("s3.rollup.run", "false");
+        HubProperties.setProperty("s3.indexCache.enabled", "false");
+        CuratorFramework curator = Integration.startZooKeeper();
+        s3 = new MockS3();
+        S3BucketName bucketName = new S3BucketName("local", "hub-v2");
+        contentDao = new S3BatchContentDao(s3.s3Client, bucketName, new NoOpMetricsSender(), new S3IndexCache(new NoOpMetricsSender()),
+                new S3Deleter(s3.s3Client, bucketName, curator));
+        webhookService = mock(WebhookService.class);
+        lastContentPath = new LastContentPath(curator);
+        compactor = Guice.createInjector(binder -> {
+            binder.bind(LastContentPath.class).toInstance(lastContentPath);
+            binder.bind(ChannelService.class).toInstance(mock(ChannelService.class));
+            binder.bind(WebhookService.class).toInstance(webhookService);
+            binder.bind(ContentDao.class).annotatedWith(Names.named(ContentDao.BATCH_LONG_TERM)).toInstance(contentDao);
+        }).getInstance(S3RollupCompactor.class);
+    }
+
+    @Test
+    public void testRollupCompletedHours() throws Exception {
+        String channel = "testRollupCompletedHours" + System.currentTimeMillis();
+        DateTime day = new DateTime(2016, 5, 6, 0, 0, DateTimeZone.UTC);
+        List<ContentKey> keys = new ArrayList<>();
+        for (int hour = 0; hour < 3; hour++) {
+            keys.addAll(writeMinute(channel, new MinutePath(day.plusHours(hour).plusMinutes(10))));
+        }
+
+        compactor.rollup(channel);
+        assertTrue("nothing is rolled up without S3Batch progress", s3.keys(channel + "Batch/hour/").isEmpty());
+
+        completed(channel, day.plusHours(2).plusMinutes(30));
+        compactor.rollup(channel);
+        Set<String> hours = s3.keys(channel + "Batch/hour/");
+        assertEquals("the backfill and the completed hours", 24, hours.size());
+        assertEquals("2016/05/05/02", hours.iterator().next());
+        assertTrue(hours.contains("2016/05/06/01"));
+        assertFalse("the hour in progress is not rolled up", hours.contains("2016/05/06/02"));
+        assertEquals(keys.subList(2, 4), BatchRollup.fromBytes(s3.objects.get(channel + "Batch/hour/2016/05/06/01")));
+        assertEquals(0, s3.objects.get(channel + "Batch/hour/2016/05/05/12").length);
+        assertTrue(s3.keys(channel + "Batch/day/").contains("2016/05/05"));
+        assertEquals(new MinutePath(day.plusHours(1)), lastContentPath.get(channel, new MinutePath(), S3RollupCompactor.LAST_ROLLED_HOUR));
+
+        s3.objects.remove(channel + "Batch/hour/2016/05/06/01");
+        completed(channel, day.plusHours(3).plusMinutes(30));
+        compactor.rollup(channel);
+        hours = s3.keys(channel + "Batch/hour/");
+        assertFalse("rolled hours are not rewritten", hours.contains("2016/05/06/01"));
+        assertEquals(keys.subList(4, 6), BatchRollup.fromBytes(s3.objects.get(channel + "Batch/hour/2016/05/06/02")));
+        assertEquals(new MinutePath(day.plusHours(2)), lastContentPath.get(channel, new MinutePath(), S3RollupCompactor.LAST_ROLLED_HOUR));
+    }
+
+    @Test
+    public void testRollupDay() throws Exception {
+        String channel = "testRollupDay" + System.currentTimeMillis();
+        DateTime day = new DateTime(2016, 5, 6, 0, 0, DateTimeZone.UTC);
+        List<ContentKey> keys = writeMinute(channel, new MinutePath(day.plusHours(4)));
+        keys.addAll(writeMinute(channel, new MinutePath(day.plusHours(23).plusMinutes(59))));
+        lastContentPath.initialize(channel, new MinutePath(day.minusHours(1)), S3RollupCompactor.LAST_ROLLED_HOUR);
+
+        completed(channel, day.plusHours(23).plusMinutes(58));
+        compactor.rollup(channel);
+        assertTrue("the day is not rolled up until its last hour is", s3.keys(channel + "Batch/day/").isEmpty());
+
+        completed(channel, day.plusHours(23).plusMinutes(59));
+        compactor.rollup(channel);
+        assertEquals(keys, BatchRollup.fromBytes(s3.objects.get(channel + "Batch/day/2016/05/06")));
+    }
+
+    private void completed(String channel, DateTime time) {
+        when(webhookService.getLastCompleted(S3Batch.getGroupName(channel))).thenReturn(new MinutePath(time));
+    }
+
+    private List<ContentKey> writeMinute(String channel, MinutePath minutePath) throws Exception {
+        List<ContentKey> keys = S3BatchContentDaoMockTest.createKeys(minutePath, 2);
+        contentDao.writeBatch(channel, minutePath, keys, S3BatchContentDaoMockTest.toZip(keys));
+        return keys;
+    }
+}
@@ -6,6 +6,7 @@ import com.flightstats.hub.dao.ContentDaoUtil;
 import com.flightstats.hub.metrics.NoOpMetricsSender;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.test.Integration;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -26,7 +27,8 @@ public class S3SingleContentDaoTest {
         AwsConnectorFactory factory = new AwsConnectorFactory();
         AmazonS3 s3Client = factory.getS3Client();
         S3BucketName bucketName = new S3BucketName("local", "hub-v2");
-        s3SingleContentDao = new S3SingleContentDao(s3Client, bucketName, new NoOpMetricsSender());
+        s3SingleContentDao = new S3SingleContentDao(s3Client, bucketName, new NoOpMetricsSender(), new S3IndexCache(new NoOpMetricsSender()),
+                new S3Deleter(s3Client, bucketName, Integration.startZooKeeper()));
         util = new ContentDaoUtil(s3SingleContentDao);
     }
 
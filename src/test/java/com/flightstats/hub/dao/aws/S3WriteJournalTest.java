@@ -0,0 +1,91 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class S3WriteJournalTest {
+
+    private String tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDir().getPath();
+    }
+
+    @Test
+    public void testQueuedAcked() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(tempDir, 2);
+        List<S3WriteJournal.Segment> segments = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            segments.add(journal.appendQueued(new ChannelContentKey("testQueuedAcked", new ContentKey())));
+        }
+        assertEquals(2, countFiles());
+        journal.ack(segments.get(0));
+        assertEquals(2, countFiles());
+        journal.ack(segments.get(1));
+        assertEquals(1, countFiles());
+        assertFalse(journal.readSpilled((key, segment) -> fail("queued keys are not read back")));
+    }
+
+    @Test
+    public void testSpilled() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(tempDir, 10);
+        List<ChannelContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ChannelContentKey key = new ChannelContentKey("testSpilled", new ContentKey());
+            keys.add(key);
+            journal.appendSpilled(key);
+        }
+        List<ChannelContentKey> read = new ArrayList<>();
+        List<S3WriteJournal.Segment> segments = new ArrayList<>();
+        assertTrue(journal.readSpilled((key, segment) -> {
+            read.add(key);
+            segments.add(segment);
+        }));
+        assertEquals(keys, read);
+        assertEquals(1, countFiles());
+        segments.forEach(journal::ack);
+        assertEquals(0, countFiles());
+        assertFalse(journal.readSpilled((key, segment) -> fail("nothing left")));
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(tempDir, 10);
+        ChannelContentKey queued = new ChannelContentKey("testRecovery", new ContentKey());
+        ChannelContentKey spilled = new ChannelContentKey("testRecovery", new ContentKey());
+        journal.appendQueued(queued);
+        journal.appendSpilled(spilled);
+
+        S3WriteJournal recovered = new S3WriteJournal(tempDir, 10);
+        List<ChannelContentKey> read = new ArrayList<>();
+        List<S3WriteJournal.Segment> segments = new ArrayList<>();
+        while (recovered.readSpilled((key, segment) -> {
+            read.add(key);
+            segments.add(segment);
+        })) {
+        }
+        assertEquals(2, read.size());
+        assertTrue(read.contains(queued));
+        assertTrue(read.contains(spilled));
+        segments.forEach(recovered::ack);
+        assertEquals(0, countFiles());
+        ChannelContentKey next = new ChannelContentKey("testRecovery", new ContentKey());
+        recovered.appendQueued(next);
+        assertEquals(1, countFiles());
+    }
+
+    private int countFiles() {
+        String[] files = new File(tempDir).list();
+        return files == null ? 0 : files.length;
+    }
+}
@@ -0,0 +1,164 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.ContentDao;
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.io.Files;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class S3WriteQueueTest {
+
+    private ContentDao spokeContentDao;
+    private ContentDao s3SingleContentDao;
+    private final Set<ContentKey> written = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws Exception {
+        HubProperties.loadProperties("useDefault");
+        spokeContentDao = mock(ContentDao.class);
+        when(spokeContentDao.get(anyString(), any(ContentKey.class))).thenAnswer(invocation ->
+                Content.builder()
+                        .withContentKey((ContentKey) invocation.getArguments()[1])
+                        .withData(new byte[]{1, 2, 3})
+                        .build());
+        s3SingleContentDao = mock(ContentDao.class);
+    }
+
+    private S3WriteQueue createQueue() {
+        return Guice.createInjector(binder -> {
+            binder.bind(ContentDao.class).annotatedWith(Names.named(ContentDao.CACHE)).toInstance(spokeContentDao);
+            binder.bind(ContentDao.class).annotatedWith(Names.named(ContentDao.SINGLE_LONG_TERM)).toInstance(s3SingleContentDao);
+        }).getInstance(S3WriteQueue.class);
+    }
+
+    private void onInsert(InsertAnswer answer) throws Exception {
+        when(s3SingleContentDao.insert(anyString(), any(Content.class))).thenAnswer(invocation -> {
+            ContentKey key = ((Content) invocation.getArguments()[1]).getContentKey().get();
+            answer.insert(key);
+            written.add(key);
+            return key;
+        });
+    }
+
+    private interface InsertAnswer {
+        void insert(ContentKey key) throws Exception;
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        onInsert(key -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        S3WriteQueue queue = createQueue();
+        int count = S3WriteQueue.CONCURRENCY * 3;
+        for (int i = 0; i < count; i++) {
+            queue.add(new ChannelContentKey("testWindow", new ContentKey()));
+        }
+        waitFor(() -> inFlight.get() == S3WriteQueue.CONCURRENCY);
+        Thread.sleep(200);
+        assertEquals(S3WriteQueue.CONCURRENCY, inFlight.get());
+        release.countDown();
+        waitFor(() -> written.size() == count);
+        assertEquals(S3WriteQueue.CONCURRENCY, maxInFlight.get());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        ContentKey flaky = new ContentKey();
+        ContentKey broken = new ContentKey();
+        Map<ContentKey, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        onInsert(key -> {
+            int attempt = attempts.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            if (key.equals(broken) || (key.equals(flaky) && attempt == 1)) {
+                throw new RuntimeException("failed attempt " + attempt);
+            }
+        });
+        S3WriteQueue queue = createQueue();
+        long start = System.currentTimeMillis();
+        queue.add(new ChannelContentKey("testRetry", flaky));
+        queue.add(new ChannelContentKey("testRetry", broken));
+        waitFor(() -> written.contains(flaky));
+        assertEquals(2, attempts.get(flaky).get());
+        assertTrue(System.currentTimeMillis() - start >= 2000);
+        waitFor(() -> attempts.get(broken).get() == 3);
+        assertTrue("the last retry waits 4 seconds", System.currentTimeMillis() - start >= 6000);
+        Thread.sleep(500);
+        assertEquals(3, attempts.get(broken).get());
+        assertFalse(written.contains(broken));
+    }
+
+    @Test
+    public void testFullQueueWaitsThenDrops() throws Exception {
+        HubProperties.setProperty("s3.writeQueueSize", "5");
+        HubProperties.setProperty("s3.writeQueueOfferMillis", "200");
+        CountDownLatch release = new CountDownLatch(1);
+        onInsert(key -> release.await(10, TimeUnit.SECONDS));
+        S3WriteQueue queue = createQueue();
+        int accepted = S3WriteQueue.CONCURRENCY + 5;
+        for (int i = 0; i < accepted; i++) {
+            queue.add(new ChannelContentKey("testFullQueueWaitsThenDrops", new ContentKey()));
+        }
+        ContentKey dropped = new ContentKey();
+        long start = System.currentTimeMillis();
+        queue.add(new ChannelContentKey("testFullQueueWaitsThenDrops", dropped));
+        assertTrue("add waits for room", System.currentTimeMillis() - start >= 200);
+        release.countDown();
+        waitFor(() -> written.size() == accepted);
+        Thread.sleep(200);
+        assertEquals(accepted, written.size());
+        assertFalse(written.contains(dropped));
+    }
+
+    @Test
+    public void testFullQueueSpillsToJournal() throws Exception {
+        HubProperties.setProperty("s3.writeQueueSize", "5");
+        HubProperties.setProperty("s3.writeJournal.path", Files.createTempDir().getPath());
+        CountDownLatch release = new CountDownLatch(1);
+        onInsert(key -> release.await(10, TimeUnit.SECONDS));
+        S3WriteQueue queue = createQueue();
+        int count = S3WriteQueue.CONCURRENCY + 100;
+        for (int i = 0; i < count; i++) {
+            queue.add(new ChannelContentKey("testFullQueueSpillsToJournal", new ContentKey()));
+        }
+        release.countDown();
+        waitFor(() -> written.size() == count);
+    }
+
+    private void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(20);
+        while (!condition.met()) {
+            assertTrue("timed out", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+}
@@ -1,15 +1,19 @@
 package com.flightstats.hub.spoke;
 
+import com.flightstats.hub.dao.ContentCodec;
 import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class ContentMarshallerTest {
 
@@ -33,6 +37,85 @@ public class ContentMarshallerTest {
         verify(content, 1024);
     }
 
+    @Test
+    public void testCodecs() throws IOException {
+        for (ContentCodec codec : ContentCodec.values()) {
+            for (int size : new int[]{0, 10, 100 * 1024}) {
+                Content content = getContent(size);
+                byte[] bytes = ContentMarshaller.toBytes(content, codec);
+                Content cycled = ContentMarshaller.toContent(bytes, content.getContentKey().get());
+                assertEquals(codec.name(), content, cycled);
+                assertEquals(codec.name(), size, cycled.getData().length);
+            }
+        }
+    }
+
+    @Test
+    public void testCodecNoContentType() throws IOException {
+        byte[] data = RandomStringUtils.randomAlphanumeric(1024).getBytes();
+        Content content = Content.builder().withData(data).withContentKey(new ContentKey()).build();
+        Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content, ContentCodec.SNAPPY), content.getContentKey().get());
+        assertFalse(cycled.getContentType().isPresent());
+        assertArrayEquals(data, cycled.getData());
+    }
+
+    @Test
+    public void testZipIsDefault() throws IOException {
+        byte[] bytes = ContentMarshaller.toBytes(getContent(10));
+        assertEquals('P', bytes[0]);
+        assertEquals('K', bytes[1]);
+        assertEquals(ContentCodec.ZIP, ContentMarshaller.getCodec("someChannel"));
+    }
+
+    @Test
+    public void testStreamed() throws IOException {
+        for (ContentCodec codec : ContentCodec.values()) {
+            for (int size : new int[]{0, 10, 100 * 1024}) {
+                Content content = getContent(size);
+                byte[] bytes = ContentMarshaller.toBytes(content, codec);
+                Content cycled = ContentMarshaller.toContent(new ByteArrayInputStream(bytes), content.getContentKey().get());
+                assertEquals(codec.name(), content, cycled);
+                assertEquals(codec.name(), size, cycled.getData().length);
+            }
+        }
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        Content content = getContent(1024);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ContentMarshaller.write("testWrite", content, output);
+        Content cycled = ContentMarshaller.toContent(output.toByteArray(), content.getContentKey().get());
+        assertEquals(content, cycled);
+        assertEquals(1024, cycled.getData().length);
+    }
+
+    @Test
+    public void testWriteLeavesOutputOpen() throws IOException {
+        Content content = getContent(1024);
+        AtomicBoolean closed = new AtomicBoolean();
+        ByteArrayOutputStream output = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        ContentMarshaller.write("testWriteLeavesOutputOpen", content, output);
+        assertFalse(closed.get());
+        int length = output.size();
+        output.write(7);
+        Content cycled = ContentMarshaller.toContent(Arrays.copyOf(output.toByteArray(), length), content.getContentKey().get());
+        assertEquals(content, cycled);
+    }
+
+    @Test
+    public void testFromName() {
+        assertEquals(ContentCodec.SNAPPY, ContentCodec.fromName("snappy"));
+        assertEquals(ContentCodec.DEFLATE, ContentCodec.fromName(" Deflate "));
+        assertEquals(ContentCodec.ZIP, ContentCodec.fromName("lzma"));
+        assertEquals(ContentCodec.ZIP, ContentCodec.fromName(null));
+    }
+
     private void verify(Content content, int size) throws IOException {
         Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content), content.getContentKey().get());
         assertTrue(content.equals(cycled));
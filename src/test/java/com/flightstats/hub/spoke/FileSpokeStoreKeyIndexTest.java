@@ -0,0 +1,47 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all of the FileSpokeStoreTest queries against the SpokeKeyIndex.
+ */
+public class FileSpokeStoreKeyIndexTest extends FileSpokeStoreTest {
+
+    @Override
+    FileSpokeStore createStore(String tempDir) {
+        return new FileSpokeStore(tempDir, true);
+    }
+
+    @Test
+    public void testLoadFromDisk() throws Exception {
+        String tempDir = Files.createTempDir().getPath();
+        FileSpokeStore store = new FileSpokeStore(tempDir, false);
+        String first = "testLoadFromDisk/2014/11/18/00/57/24/015/1";
+        String second = "testLoadFromDisk/2014/11/18/00/58/01/001/2";
+        store.insert(first, BYTES);
+        store.insert(second, BYTES);
+
+        FileSpokeStore indexed = new FileSpokeStore(tempDir, true);
+        Collection<String> keys = indexed.keysInBucket("/testLoadFromDisk/2014/11/18/00");
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains(first));
+        assertTrue(keys.contains(second));
+        assertEquals(first, indexed.getLatest("testLoadFromDisk", "2014/11/18/00/58/01/001/2"));
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        String tempDir = Files.createTempDir().getPath();
+        FileSpokeStore store = new FileSpokeStore(tempDir, true);
+        String path = "testIndexDelete/" + new ContentKey().toUrl();
+        store.insert(path, BYTES);
+        store.delete("testIndexDelete");
+        assertNull(store.getLatest("testIndexDelete", ContentKey.lastKey(new ContentKey().getTime().plusMinutes(1)).toUrl()));
+    }
+}
@@ -32,7 +32,11 @@ public class FileSpokeStoreTest {
     @Before
     public void setUp() throws Exception {
         tempDir = Files.createTempDir().getPath();
-        spokeStore = new FileSpokeStore(tempDir);
+        spokeStore = createStore(tempDir);
+    }
+
+    FileSpokeStore createStore(String tempDir) {
+        return new FileSpokeStore(tempDir);
     }
 
     @Test
@@ -43,6 +47,16 @@ public class FileSpokeStoreTest {
         assertArrayEquals(BYTES, read);
     }
 
+    @Test
+    public void testRegion() throws Exception {
+        String path = "channelRegion/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        SpokeFileRegion region = spokeStore.getRegion(path);
+        assertEquals(0, region.getOffset());
+        assertEquals(BYTES.length, region.getLength());
+        assertEquals(spokeStore.spokeFilePathPart(path), region.getFile());
+    }
+
     @Test
     public void testPathTranslation() throws Exception {
         String incoming = "/test_0_4274725520517677/2014/11/18/00/57/24/015/NV2cl5";
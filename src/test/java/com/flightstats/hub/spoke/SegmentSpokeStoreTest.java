@@ -0,0 +1,221 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentKeyUtil;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.Files;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.NotFoundException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SegmentSpokeStoreTest {
+    private static final byte[] BYTES = new byte[]{0, 2, 3, 4, 5, 6};
+    private String tempDir;
+    private SegmentSpokeStore spokeStore;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDir().getPath();
+        spokeStore = new SegmentSpokeStore(tempDir);
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        String path = "channelWR/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        byte[] other = new byte[]{9, 8, 7};
+        String otherPath = "channelWR/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(otherPath, other));
+        assertArrayEquals(BYTES, spokeStore.read(path));
+        assertArrayEquals(other, spokeStore.read(otherPath));
+    }
+
+    @Test
+    public void testInsertGroup() throws Exception {
+        Map<String, byte[]> items = new LinkedHashMap<>();
+        items.put("testInsertGroup/2014/11/18/00/57/24/015/1", BYTES);
+        items.put("testInsertGroup/2014/11/18/00/57/25/015/2", new byte[]{9, 8, 7});
+        items.put("testInsertGroup/2014/11/18/00/58/01/001/3", new byte[]{1});
+        assertEquals(items.keySet(), spokeStore.insert(items));
+        for (Map.Entry<String, byte[]> item : items.entrySet()) {
+            assertArrayEquals(item.getValue(), spokeStore.read(item.getKey()));
+        }
+        SpokeFileRegion region = spokeStore.getRegion("testInsertGroup/2014/11/18/00/57/25/015/2");
+        assertEquals(BYTES.length, region.getOffset());
+        SegmentSpokeStore restarted = new SegmentSpokeStore(tempDir);
+        assertArrayEquals(new byte[]{1}, restarted.read("testInsertGroup/2014/11/18/00/58/01/001/3"));
+    }
+
+    @Test
+    public void testRegion() throws Exception {
+        String first = "testRegion/2014/11/18/00/57/24/015/1";
+        String second = "testRegion/2014/11/18/00/57/24/015/2";
+        spokeStore.insert(first, BYTES);
+        spokeStore.insert(second, new byte[]{9, 8, 7});
+        SpokeFileRegion region = spokeStore.getRegion(second);
+        assertEquals(BYTES.length, region.getOffset());
+        assertEquals(3, region.getLength());
+        assertEquals(SpokeSegment.DATA, region.getFile().getName());
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testRegionMissing() throws Exception {
+        spokeStore.insert("testRegionMissing/2014/11/18/00/57/24/015/1", BYTES);
+        spokeStore.getRegion("testRegionMissing/2014/11/18/00/57/24/015/2");
+    }
+
+    @Test
+    public void testReadAfterRestart() throws Exception {
+        String path = "testReadAfterRestart/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        SegmentSpokeStore restarted = new SegmentSpokeStore(tempDir);
+        assertArrayEquals(BYTES, restarted.read(path));
+    }
+
+    @Test
+    public void testSegmentLayout() throws Exception {
+        String minutePath = "testSegmentLayout/2014/11/18/00/57";
+        spokeStore.insert(minutePath + "/24/015/1", BYTES);
+        spokeStore.insert(minutePath + "/24/015/2", BYTES);
+        File[] files = new File(tempDir + "/" + minutePath).listFiles();
+        assertEquals(2, files.length);
+        assertEquals(BYTES.length * 2, new File(tempDir + "/" + minutePath, SpokeSegment.DATA).length());
+    }
+
+    @Test
+    public void testAdjacentPaths() throws Exception {
+        String path1 = "testAdjacentPaths/2014/11/18/00/57/24/015/1";
+        String path2 = "testAdjacentPaths/2014/11/18/00/57/24/015/2";
+        String path3 = "testAdjacentPaths/2014/11/18/00/57/24/015/3";
+        spokeStore.insert(path1, BYTES);
+        spokeStore.insert(path2, BYTES);
+        spokeStore.insert(path3, BYTES);
+        spokeStore.insert("testAdjacentPaths/2014/11/18/00/57/23/015/1", BYTES);
+        spokeStore.insert("testAdjacentPaths/2014/11/18/00/57/25/015/1", BYTES);
+        spokeStore.insert("testAdjacentPaths/2014/11/18/00/57/24/014/1", BYTES);
+        spokeStore.insert("testAdjacentPaths/2014/11/18/00/57/24/016/1", BYTES);
+        spokeStore.insert("testAdjacentPaths/2014/11/18/00/58/24/016/1", BYTES);
+
+        Collection<String> keys = spokeStore.keysInBucket("/testAdjacentPaths/2014/11/18/00/57");
+        assertEquals(7, keys.size());
+        assertTrue(keys.contains(path1));
+        assertTrue(keys.contains(path2));
+        assertTrue(keys.contains(path3));
+
+        keys = spokeStore.keysInBucket("/testAdjacentPaths/2014/11/18/00/57/24");
+        assertEquals(5, keys.size());
+
+        keys = spokeStore.keysInBucket("testAdjacentPaths/2014/11/18/00");
+        assertEquals(8, keys.size());
+    }
+
+    @Test
+    public void testLastFile() {
+        DateTime time = new DateTime(2014, 12, 31, 23, 30, 1, 2, DateTimeZone.UTC);
+        for (int i = 0; i < 30; i++) {
+            time = time.plusMinutes(2);
+            spokeStore.insert("testLastFile/" + new ContentKey(time, "A").toUrl(), BYTES);
+            time = time.plusSeconds(1);
+            spokeStore.insert("testLastFile/" + new ContentKey(time, "B").toUrl(), BYTES);
+            time = time.plusMillis(1);
+            spokeStore.insert("testLastFile/" + new ContentKey(time, "C").toUrl(), BYTES);
+        }
+        ContentKey limitKey = new ContentKey(time.minusMinutes(1), "A");
+        assertEquals("testLastFile/2015/01/01/00/28/30/031/C", spokeStore.getLatest("testLastFile", limitKey.toUrl()));
+
+        limitKey = new ContentKey(time, "B");
+        assertEquals("testLastFile/2015/01/01/00/30/31/031/B", spokeStore.getLatest("testLastFile", limitKey.toUrl()));
+
+        limitKey = new ContentKey(time.plusMinutes(1), "D");
+        assertEquals("testLastFile/2015/01/01/00/30/31/032/C", spokeStore.getLatest("testLastFile", limitKey.toUrl()));
+    }
+
+    @Test
+    public void testLatestBug() {
+        DateTime now = TimeUtil.now();
+        DateTime afterTheHour = now.withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(1);
+        DateTime beforeTheHour = now.minusHours(1).withMinuteOfHour(59).withSecondOfMinute(59).withMillisOfSecond(999);
+        assertTrue(spokeStore.insert("testLatestBug/" + new ContentKey(afterTheHour, "0").toUrl(), BYTES));
+        String beforeKey = new ContentKey(beforeTheHour, "0").toUrl();
+        assertTrue(spokeStore.insert("testLatestBug/" + beforeKey, BYTES));
+        String read = spokeStore.getLatest("testLatestBug", ContentKey.lastKey(afterTheHour.withMillisOfSecond(0)).toUrl());
+        assertEquals("testLatestBug/" + beforeKey, read);
+        assertNull(spokeStore.getLatest("testLatestBugMissing", ContentKey.lastKey(now).toUrl()));
+    }
+
+    @Test
+    public void testNextN() throws IOException {
+        String name = "testNextN";
+        DateTime startTime = TimeUtil.now().minusMinutes(59);
+        DateTime time = startTime;
+        for (int i = 0; i < 30; i++) {
+            time = time.plusMinutes(2);
+            spokeStore.insert(name + "/" + new ContentKey(time, "A").toUrl(), BYTES);
+            time = time.plusSeconds(1);
+            spokeStore.insert(name + "/" + new ContentKey(time, "B").toUrl(), BYTES);
+            time = time.plusMillis(1);
+            spokeStore.insert(name + "/" + new ContentKey(time, "C").toUrl(), BYTES);
+        }
+        List<String> found = getNext(name, new ContentKey(startTime, "A").toUrl(), 90);
+        assertEquals(87, found.size());
+
+        found = getNext(name, new ContentKey(startTime.plusMinutes(30), "A").toUrl(), 45);
+        assertEquals(45, found.size());
+    }
+
+    private List<String> getNext(String channel, String startKey, int count) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        spokeStore.getNext(channel, startKey, count, baos);
+        return Arrays.asList(baos.toString().split(","));
+    }
+
+    @Test
+    public void testEnforceTtl() {
+        String channel = "testEnforceTtl";
+        DateTime startTime = new DateTime(2014, 12, 31, 23, 45, 1, 2, DateTimeZone.UTC);
+        DateTime time = startTime;
+        String startQuery = TimeUtil.hours(time);
+        for (int i = 0; i < 30; i++) {
+            time = time.plusMinutes(1);
+            spokeStore.insert(channel + "/" + new ContentKey(time, "" + i).toUrl(), BYTES);
+        }
+        String endQuery = TimeUtil.hours(time);
+        verify(channel + "/" + startQuery, 14);
+        verify(channel + "/" + endQuery, 16);
+
+        spokeStore.enforceTtl(channel, startTime.plusMinutes(17));
+        verify(channel + "/" + startQuery, 0);
+        verify(channel + "/" + endQuery, 13);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        ContentKey key = new ContentKey();
+        assertTrue(spokeStore.insert("testDelete/" + key.toUrl(), BYTES));
+        String hourPath = "testDelete/" + TimeUtil.hours(key.getTime());
+        assertFalse(spokeStore.readKeysInBucket(hourPath).isEmpty());
+        spokeStore.delete("testDelete");
+        assertTrue(spokeStore.readKeysInBucket(hourPath).isEmpty());
+    }
+
+    private void verify(String path, int expected) {
+        ArrayList<ContentKey> keys = new ArrayList<>();
+        ContentKeyUtil.convertKeyStrings(spokeStore.readKeysInBucket(path), keys);
+        assertEquals(expected, keys.size());
+    }
+
+}
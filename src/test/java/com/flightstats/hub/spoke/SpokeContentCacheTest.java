@@ -0,0 +1,48 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.metrics.NoOpMetricsSender;
+import com.flightstats.hub.model.ContentKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpokeContentCacheTest {
+
+    private SpokeContentCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new SpokeContentCache(new NoOpMetricsSender());
+    }
+
+    @Test
+    public void testPutGet() {
+        ContentKey key = new ContentKey();
+        byte[] payload = {1, 2, 3};
+        cache.put("testPutGet", key, payload);
+        assertArrayEquals(payload, cache.get("testPutGet", key));
+        assertNull(cache.get("other", key));
+        assertNull(cache.get("testPutGet", new ContentKey()));
+        assertEquals(3, cache.getBytes());
+    }
+
+    @Test
+    public void testLargeItem() {
+        ContentKey key = new ContentKey();
+        cache.put("testLargeItem", key, new byte[2 * 1024 * 1024]);
+        assertNull(cache.get("testLargeItem", key));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testInvalidate() {
+        ContentKey key = new ContentKey();
+        cache.put("testInvalidate", key, new byte[10]);
+        cache.put("testInvalidateOther", key, new byte[5]);
+        cache.invalidate("testInvalidate");
+        assertNull(cache.get("testInvalidate", key));
+        assertNotNull(cache.get("testInvalidateOther", key));
+        assertEquals(5, cache.getBytes());
+    }
+}
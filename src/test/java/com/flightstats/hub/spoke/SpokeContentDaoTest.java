@@ -3,6 +3,8 @@ package com.flightstats.hub.spoke;
 import com.flightstats.hub.app.AwsBindings;
 import com.flightstats.hub.cluster.CuratorCluster;
 import com.flightstats.hub.dao.ContentDaoUtil;
+import com.flightstats.hub.model.BulkContent;
+import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.test.Integration;
 import com.flightstats.hub.util.Sleeper;
 import com.google.inject.Injector;
@@ -12,15 +14,27 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
 public class SpokeContentDaoTest {
 
     private final static Logger logger = LoggerFactory.getLogger(SpokeContentDaoTest.class);
     private static ContentDaoUtil util;
+    private static SpokeContentDao spokeContentDao;
 
     @BeforeClass
     public static void setUpClass() throws Exception {
         Injector injector = Integration.startAwsHub();
-        util = new ContentDaoUtil(injector.getInstance(SpokeContentDao.class));
+        spokeContentDao = injector.getInstance(SpokeContentDao.class);
+        util = new ContentDaoUtil(spokeContentDao);
         CuratorFramework curator = injector.getInstance(CuratorFramework.class);
         CuratorCluster cluster = AwsBindings.buildSpokeCuratorCluster(curator);
         for (int i = 0; i < 10; i++) {
@@ -80,6 +94,44 @@ public class SpokeContentDaoTest {
         util.testBulkWrite();
     }
 
+    @Test
+    public void testStreamBulkFailure() throws Exception {
+        String data = "--frontier\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "\r\n" +
+                "first\r\n" +
+                "--frontier\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "\r\n" +
+                "second\r\n" +
+                "--frontier\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "\r\n" +
+                "thi";
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        BulkContent bulkContent = BulkContent.builder()
+                .channel("testStreamBulkFailure")
+                .stream(new SequenceInputStream(new ByteArrayInputStream(data.getBytes()), failing))
+                .contentType("multipart/mixed; boundary=frontier")
+                .isNew(true)
+                .build();
+        List<ContentKey> written = new ArrayList<>();
+        try {
+            spokeContentDao.streamInsert(bulkContent, written::add);
+            fail("expected the stream to fail");
+        } catch (Exception e) {
+            logger.info("stream failed {}", e.getMessage());
+        }
+        assertEquals(2, written.size());
+        assertEquals("first", new String(spokeContentDao.get("testStreamBulkFailure", written.get(0)).getData()));
+        assertEquals("second", new String(spokeContentDao.get("testStreamBulkFailure", written.get(1)).getData()));
+    }
+
     @Test
     public void testEmptyQuery() throws Exception {
         util.testEmptyQuery();
@@ -0,0 +1,160 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class SpokeProtocolTest {
+
+    private FileSpokeStore spokeStore;
+    private SpokeProtocolServer server;
+    private SpokeProtocolClient client;
+    private String serverName;
+
+    @Before
+    public void setUp() throws Exception {
+        spokeStore = new FileSpokeStore(Files.createTempDir().getPath());
+        server = new SpokeProtocolServer(spokeStore);
+        server.start(0);
+        client = new SpokeProtocolClient();
+        int httpPort = server.getPort() - SpokeProtocol.getAddress("localhost:0").getPort();
+        serverName = "localhost:" + httpPort;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void testPipelinedWrites() throws Exception {
+        writeItems(client, 100);
+    }
+
+    @Test
+    public void testBatchedWrites() throws Exception {
+        HubProperties.setProperty("spoke.protocol.batch.enable", "true");
+        try {
+            writeItems(new SpokeProtocolClient(), 100);
+        } finally {
+            HubProperties.setProperty("spoke.protocol.batch.enable", "false");
+        }
+    }
+
+    @Test
+    public void testSlowServerDoesNotBlockOthers() throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        try (ServerSocket full = new ServerSocket(0, 1)) {
+            for (int i = 0; i < 10; i++) {
+                Socket socket = new Socket();
+                sockets.add(socket);
+                try {
+                    socket.connect(full.getLocalSocketAddress(), 200);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+            }
+            String slowServer = "localhost:" + (full.getLocalPort() - SpokeProtocol.getAddress("localhost:0").getPort());
+            Thread slow = new Thread(() -> client.write(slowServer, "payload", "protocol/slow", new byte[1], success -> {
+            }));
+            slow.start();
+            Thread.sleep(100);
+            long start = System.currentTimeMillis();
+            writeItems(client, 1);
+            assertTrue(System.currentTimeMillis() - start < 500);
+            slow.join();
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void writeItems(SpokeProtocolClient client, int items) throws Exception {
+        CountDownLatch latch = new CountDownLatch(items);
+        AtomicInteger successes = new AtomicInteger();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            String path = "protocol/" + new ContentKey().toUrl();
+            paths.add(path);
+            assertTrue(client.write(serverName, "payload", path, path.getBytes(), success -> {
+                if (success) {
+                    successes.incrementAndGet();
+                }
+                latch.countDown();
+            }));
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(items, successes.get());
+        assertEquals(0, client.getPending(serverName));
+        for (String path : paths) {
+            assertArrayEquals(path.getBytes(), spokeStore.read(path));
+        }
+    }
+
+    @Test
+    public void testBulkWrite() throws Exception {
+        ContentKey first = new ContentKey();
+        ContentKey second = new ContentKey();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream stream = new ObjectOutputStream(baos);
+        stream.writeInt(2);
+        for (ContentKey key : new ContentKey[]{first, second}) {
+            byte[] keyBytes = key.toUrl().getBytes();
+            stream.writeInt(keyBytes.length);
+            stream.write(keyBytes);
+            stream.writeInt(keyBytes.length);
+            stream.write(keyBytes);
+        }
+        stream.flush();
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger successes = new AtomicInteger();
+        assertTrue(client.write(serverName, "bulkKey", "protocolBulk", baos.toByteArray(), success -> {
+            if (success) {
+                successes.incrementAndGet();
+            }
+            latch.countDown();
+        }));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, successes.get());
+        assertArrayEquals(first.toUrl().getBytes(), spokeStore.read("protocolBulk/" + first.toUrl()));
+        assertArrayEquals(second.toUrl().getBytes(), spokeStore.read("protocolBulk/" + second.toUrl()));
+    }
+
+    @Test
+    public void testUnavailable() throws Exception {
+        writeItems(client, 1);
+        server.stop();
+        AtomicBoolean acked = new AtomicBoolean();
+        Consumer<Boolean> onAck = success -> {
+            if (success) {
+                acked.set(true);
+            }
+        };
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (client.write(serverName, "payload", "protocol/" + new ContentKey().toUrl(), new byte[]{1}, onAck)) {
+            assertTrue("the client did not see the server stop", System.currentTimeMillis() < end);
+            Thread.sleep(50);
+        }
+        assertFalse(client.write(serverName, "payload", "protocol/" + new ContentKey().toUrl(), new byte[]{1}, onAck));
+        assertFalse("no write is acked after the server stops", acked.get());
+    }
+}
@@ -0,0 +1,106 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.Files;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SpokeTtlReaperTest {
+
+    private static final byte[] BYTES = new byte[]{0, 2, 3, 4, 5, 6};
+    private String tempDir;
+    private FileSpokeStore spokeStore;
+    private SpokeTtlReaper reaper;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDir().getPath();
+        spokeStore = new FileSpokeStore(tempDir, true);
+        reaper = new SpokeTtlReaper(spokeStore, tempDir);
+    }
+
+    @Test
+    public void testReapThrough() throws Exception {
+        String channel = "testReapThrough";
+        DateTime start = new DateTime(2015, 12, 31, 23, 50, 1, 2, DateTimeZone.UTC);
+        for (int i = 0; i < 20; i++) {
+            spokeStore.insert(channel + "/" + new ContentKey(start.plusMinutes(i), "A").toUrl(), BYTES);
+        }
+        DateTime lastExpired = start.plusMinutes(12);
+        reaper.reapThrough(channel, lastExpired).join();
+
+        assertEquals(13, reaper.getFiles());
+        assertEquals(13 * BYTES.length, reaper.getBytes());
+        assertFalse(new File(tempDir + "/" + channel + "/2015").exists());
+        assertFalse(new File(tempDir + "/" + channel + "/" + TimeUtil.minutes(lastExpired)).exists());
+        assertTrue(new File(tempDir + "/" + channel + "/" + TimeUtil.minutes(lastExpired.plusMinutes(1))).exists());
+        assertEquals(7, spokeStore.keysInBucket(channel + "/2016").size());
+        assertEquals(channel + "/" + new ContentKey(start.plusMinutes(13), "A").toUrl(),
+                spokeStore.getLatest(channel, new ContentKey(start.plusMinutes(14), "A").toUrl()));
+        assertNull(spokeStore.getLatest(channel, new ContentKey(start.plusMinutes(13), "A").toUrl()));
+        reaper.report();
+        assertEquals(0, reaper.getFiles());
+    }
+
+    @Test
+    public void testReapModifiedBefore() throws Exception {
+        String channel = "testReapModifiedBefore";
+        String oldPath = channel + "/2014/11/18/00/57/24/015/1";
+        String newPath = channel + "/2014/11/18/00/58/24/015/1";
+        spokeStore.insert(oldPath, BYTES);
+        spokeStore.insert(newPath, BYTES);
+        long cutoff = System.currentTimeMillis() - 60 * 1000;
+        File oldMinute = new File(tempDir + "/" + channel + "/2014/11/18/00/57");
+        for (File file : oldMinute.listFiles()) {
+            assertTrue(file.setLastModified(cutoff - 1000));
+        }
+        assertTrue(oldMinute.setLastModified(cutoff - 1000));
+
+        reaper.reapModifiedBefore(channel, cutoff).join();
+
+        assertEquals(1, reaper.getFiles());
+        assertFalse(oldMinute.exists());
+        assertArrayEquals(BYTES, spokeStore.read(newPath));
+        assertEquals(1, spokeStore.keysInBucket(channel + "/2014/11/18/00").size());
+    }
+
+    @Test
+    public void testReapModifiedBeforeForgetsFiles() throws Exception {
+        String channel = "testReapModifiedBeforeForgetsFiles";
+        String oldPath = channel + "/2014/11/18/00/57/24/015/1";
+        String newPath = channel + "/2014/11/18/00/57/25/015/1";
+        spokeStore.insert(oldPath, BYTES);
+        spokeStore.insert(newPath, BYTES);
+        long cutoff = System.currentTimeMillis() - 60 * 1000;
+        assertTrue(new File(tempDir + "/" + channel + "/2014/11/18/00/57/240151").setLastModified(cutoff - 1000));
+
+        reaper.reapModifiedBefore(channel, cutoff).join();
+
+        assertEquals(1, reaper.getFiles());
+        Collection<String> keys = spokeStore.keysInBucket(channel + "/2014/11/18/00/57");
+        assertEquals(Collections.singletonList(newPath), new ArrayList<>(keys));
+        assertEquals(newPath, spokeStore.getLatest(channel, "2014/11/18/00/58/00/000/0"));
+    }
+
+    @Test
+    public void testReapAll() throws Exception {
+        String channel = "testReapAll";
+        for (int i = 0; i < 5; i++) {
+            spokeStore.insert(channel + "/" + new ContentKey().toUrl(), BYTES);
+        }
+        reaper.reapAll(channel).join();
+        assertEquals(5, reaper.getFiles());
+        assertFalse(new File(tempDir + "/" + channel).exists());
+        assertNull(spokeStore.getLatest(channel, ContentKey.lastKey(TimeUtil.now().plusMinutes(1)).toUrl()));
+    }
+}
@@ -0,0 +1,180 @@
+package com.flightstats.hub.webhook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.ContentDaoUtil;
+import com.flightstats.hub.dao.Request;
+import com.flightstats.hub.model.*;
+import com.flightstats.hub.test.Integration;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class ItemsWebhookStrategyTest {
+
+    private final List<ContentKey> keys = new ArrayList<>();
+    private final List<ContentKey> fetched = new ArrayList<>();
+    private ContentKey missing;
+    private ChannelService channelService;
+    private ScheduledExecutorService scheduler;
+    private ContentKey startingKey;
+    private ItemsWebhookStrategy strategy;
+
+    @Before
+    public void setUp() throws Exception {
+        HubProperties.loadProperties("useDefault");
+        DateTime start = TimeUtil.now().minusMinutes(2);
+        startingKey = new ContentKey(start, "start");
+        for (int i = 1; i <= 5; i++) {
+            keys.add(new ContentKey(start.plusSeconds(i * 10), "" + i));
+        }
+        missing = keys.get(1);
+        channelService = mock(ChannelService.class);
+        when(channelService.getChannelConfig(anyString(), anyBoolean()))
+                .thenReturn(ChannelConfig.builder().withName("testItems").build());
+        when(channelService.queryByTime(any(TimeQuery.class))).thenReturn(new TreeSet<>(keys));
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            SortedSet<ContentKey> requested = (SortedSet<ContentKey>) invocation.getArguments()[1];
+            @SuppressWarnings("unchecked")
+            Consumer<Content> callback = (Consumer<Content>) invocation.getArguments()[2];
+            for (ContentKey key : requested) {
+                fetched.add(key);
+                if (!key.equals(missing)) {
+                    callback.accept(ContentDaoUtil.createContent(key));
+                }
+            }
+            return null;
+        }).when(channelService).get(anyString(), any(SortedSet.class), any(Consumer.class));
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (strategy != null) {
+            strategy.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void start(int maxItems, int maxBytes) {
+        Webhook webhook = Webhook.builder()
+                .name("testItems")
+                .channelUrl("http://hub/channel/testItems")
+                .callbackUrl("http://client/end")
+                .batch(Webhook.ITEMS)
+                .inline(true)
+                .maxItems(maxItems)
+                .maxBytes(maxBytes)
+                .lingerMillis(100)
+                .build().withDefaults();
+        strategy = new ItemsWebhookStrategy(webhook, mock(LastContentPath.class), channelService, scheduler);
+        strategy.start(webhook, startingKey);
+    }
+
+    @Test
+    public void testNextReadsPayloadsInBulk() throws Exception {
+        start(3, 1024 * 1024);
+        ItemsPath first = next();
+        assertEquals(keys.subList(0, 3), first.getKeys());
+        ItemsPath second = next();
+        assertEquals(keys.subList(3, 5), second.getKeys());
+        assertEquals(keys, fetched);
+        verify(channelService, times(2)).get(anyString(), any(SortedSet.class), any(Consumer.class));
+        verify(channelService, never()).get(any(Request.class));
+
+        ObjectNode response = strategy.createResponse(first);
+        JsonNode items = response.get("items");
+        assertEquals(3, items.size());
+        assertEquals("stuff", items.get(0).get("contentType").asText());
+        assertFalse(items.get(0).has("missing"));
+        assertTrue(items.get(1).get("missing").asBoolean());
+        assertFalse(items.get(1).has("data"));
+    }
+
+    @Test
+    public void testMaxBytesCarriesKeys() throws Exception {
+        ContentKey key = keys.get(0);
+        int itemBytes = ("http://hub/channel/testItems/" + key.toUrl()).length() + key.toString().length();
+        start(3, itemBytes * 2);
+        List<ContentKey> sent = new ArrayList<>();
+        while (sent.size() < keys.size()) {
+            ItemsPath itemsPath = next();
+            assertTrue(itemsPath.getKeys().size() <= 2);
+            sent.addAll(itemsPath.getKeys());
+        }
+        assertEquals(keys, sent);
+        assertEquals("carried keys are not read again", keys, fetched);
+    }
+
+    @Test
+    public void testOutOfOrderAndFailed() throws Exception {
+        when(channelService.queryByTime(any(TimeQuery.class))).thenReturn(new TreeSet<>());
+        start(3, 1024 * 1024);
+        ItemsPath first = sent(0, 1);
+        ItemsPath second = sent(2, 3);
+        ItemsPath third = sent(4, 5);
+
+        assertEquals(startingKey, strategy.completed(third));
+        assertEquals("a gap holds lastCompleted", startingKey, strategy.completed(second));
+        assertEquals("a failed batch releases the gap", third, strategy.failed(first));
+        assertEquals(third, strategy.completed(second));
+    }
+
+    @Test
+    public void testFailedBatchIsResent() throws Exception {
+        when(channelService.queryByTime(any(TimeQuery.class))).thenReturn(new TreeSet<>());
+        start(3, 1024 * 1024);
+        when(channelService.get(any(Request.class))).thenReturn(Optional.absent());
+        String name = "testFailedBatchIsResent";
+        WebhookContentPathSet inFlight = new WebhookContentPathSet(Integration.startZooKeeper());
+        inFlight.delete(name);
+        inFlight.load(name, startingKey);
+        ItemsPath first = sent(0, 3);
+        ItemsPath second = sent(3, 5);
+        inFlight.add(name, first);
+        inFlight.add(name, second);
+
+        strategy.failed(first);
+        ContentPath lastCompleted = strategy.completed(second);
+        inFlight.remove(name, second);
+        assertEquals(second, lastCompleted);
+        inFlight.checkpoint(name);
+        inFlight.release(name);
+
+        Set<ContentPath> loaded = new WebhookContentPathSet(Integration.startZooKeeper()).load(name, startingKey);
+        List<ContentKey> resent = new ArrayList<>();
+        for (ContentPath path : new TreeSet<>(loaded)) {
+            assertTrue(path.compareTo(lastCompleted) < 0);
+            resent.addAll(((ItemsPath) strategy.inProcess(path)).getKeys());
+        }
+        assertEquals(keys.subList(0, 3), resent);
+    }
+
+    private ItemsPath sent(int from, int to) {
+        ItemsPath itemsPath = new ItemsPath(keys.subList(from, to), new HashMap<>());
+        strategy.sent(itemsPath);
+        return itemsPath;
+    }
+
+    private ItemsPath next() {
+        Optional<ContentPath> next = strategy.next();
+        assertTrue(next.isPresent());
+        return (ItemsPath) next.get();
+    }
+}
@@ -29,6 +29,7 @@ public class WebhookContentPathSetTest {
         ContentKey second = new ContentKey();
         ContentKey third = new ContentKey();
         groupName = "testLifecycle";
+        groupSet.load(groupName, first);
         addAndCompare(first, 1);
         addAndCompare(second, 2);
         addAndCompare(third, 3);
@@ -56,6 +57,7 @@ public class WebhookContentPathSetTest {
         groupSet = new WebhookContentPathSet(curator);
         groupName = "testDelete";
         ContentKey contentKey = new ContentKey();
+        groupSet.load(groupName, contentKey);
         addAndCompare(contentKey, 1);
         addAndCompare(new ContentKey(), 2);
         addAndCompare(new ContentKey(), 3);
@@ -64,4 +66,84 @@ public class WebhookContentPathSetTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCheckpoint() throws Exception {
+        groupSet = new WebhookContentPathSet(curator);
+        groupName = "testCheckpoint";
+        ContentKey first = new ContentKey();
+        ContentKey second = new ContentKey();
+        groupSet.load(groupName, first);
+        addAndCompare(first, 1);
+        addAndCompare(second, 2);
+        assertEquals(0, new WebhookContentPathSet(curator).getSet(groupName, first).size());
+        groupSet.checkpoint(groupName);
+        Set<ContentPath> recovered = new WebhookContentPathSet(curator).getSet(groupName, first);
+        assertEquals(2, recovered.size());
+        assertTrue(recovered.contains(first));
+        assertTrue(recovered.contains(second));
+        removeAndCompare(first, 1);
+        groupSet.checkpoint(groupName);
+        recovered = new WebhookContentPathSet(curator).getSet(groupName, first);
+        assertEquals(1, recovered.size());
+        assertTrue(recovered.contains(second));
+    }
+
+    @Test
+    public void testChildNodes() throws Exception {
+        groupName = "testChildNodes";
+        ContentKey first = new ContentKey();
+        ContentKey second = new ContentKey();
+        curator.create().creatingParentsIfNeeded().forPath("/GroupInFlight/" + groupName + "/" + first.toZk());
+        groupSet = new WebhookContentPathSet(curator);
+        groupSet.load(groupName, first);
+        addAndCompare(second, 2);
+        groupSet.checkpoint(groupName);
+        assertTrue(curator.getChildren().forPath("/GroupInFlight/" + groupName).isEmpty());
+        Set<ContentPath> recovered = new WebhookContentPathSet(curator).getSet(groupName, first);
+        assertEquals(2, recovered.size());
+        assertTrue(recovered.contains(first));
+    }
+
+    @Test
+    public void testLoadReplacesStaleSet() throws Exception {
+        groupName = "testLoadReplacesStaleSet";
+        ContentKey first = new ContentKey();
+        ContentKey second = new ContentKey();
+        WebhookContentPathSet leader = new WebhookContentPathSet(curator);
+        leader.load(groupName, first);
+        leader.add(groupName, first);
+        leader.checkpoint(groupName);
+        leader.release(groupName);
+
+        WebhookContentPathSet other = new WebhookContentPathSet(curator);
+        assertEquals(1, other.load(groupName, first).size());
+        other.add(groupName, second);
+        other.remove(groupName, first);
+        other.checkpoint(groupName);
+
+        Set<ContentPath> reloaded = leader.load(groupName, first);
+        assertEquals(1, reloaded.size());
+        assertTrue(reloaded.contains(second));
+    }
+
+    @Test
+    public void testStatusReadsAreNotKept() throws Exception {
+        groupName = "testStatusReadsAreNotKept";
+        ContentKey first = new ContentKey();
+        ContentKey second = new ContentKey();
+        WebhookContentPathSet status = new WebhookContentPathSet(curator);
+        assertEquals(0, status.getSet(groupName, first).size());
+
+        groupSet = new WebhookContentPathSet(curator);
+        groupSet.load(groupName, first);
+        groupSet.add(groupName, first);
+        groupSet.checkpoint(groupName);
+        assertEquals(1, status.getSet(groupName, first).size());
+
+        groupSet.add(groupName, second);
+        groupSet.checkpoint(groupName);
+        assertEquals(2, status.getSet(groupName, first).size());
+        status.checkpoint(groupName);
+        assertEquals(2, new WebhookContentPathSet(curator).getSet(groupName, first).size());
+    }
+}
@@ -0,0 +1,119 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class WebhookDispatcherTest {
+
+    private static Webhook webhook(String name, int parallelCalls) {
+        return Webhook.builder().name(name).parallelCalls(parallelCalls)
+                .channelUrl("http://hub/channel/test").callbackUrl("http://client/end").build();
+    }
+
+    @Test
+    public void testInternal() {
+        assertTrue(WebhookDispatcher.isInternal("S3Batch_hub_dev_channel"));
+        assertTrue(WebhookDispatcher.isInternal("Repl_hub_dev_channel"));
+        assertTrue(WebhookDispatcher.isInternal("Global_channel"));
+        assertTrue(WebhookDispatcher.isInternal("Events_hub_dev_channel_abc"));
+        assertFalse(WebhookDispatcher.isInternal("customer"));
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        WebhookDispatcher dispatcher = new WebhookDispatcher();
+        WebhookDispatcher.WebhookQueue queue = dispatcher.register(webhook("testLimit", 2));
+        CompletableFuture<Object> first = new CompletableFuture<>();
+        queue.submit(() -> first);
+        queue.submit(CompletableFuture::new);
+        AtomicBoolean submitted = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            try {
+                queue.submit(() -> CompletableFuture.completedFuture(null));
+                submitted.set(true);
+            } catch (InterruptedException e) {
+                fail();
+            }
+        });
+        thread.start();
+        thread.join(200);
+        assertFalse(submitted.get());
+        assertEquals(2, queue.getActive());
+        first.complete(null);
+        thread.join(5000);
+        assertTrue(submitted.get());
+        queue.close(1, TimeUnit.SECONDS);
+        assertEquals(1, queue.getActive());
+    }
+
+    @Test
+    public void testFairness() throws Exception {
+        HubProperties.setProperty("webhook.threads", "1");
+        WebhookDispatcher dispatcher;
+        try {
+            dispatcher = new WebhookDispatcher();
+        } finally {
+            HubProperties.setProperty("webhook.threads", "128");
+        }
+        WebhookDispatcher.WebhookQueue blocker = dispatcher.register(webhook("blocker", 1));
+        WebhookDispatcher.WebhookQueue busy = dispatcher.register(webhook("busy", 3));
+        WebhookDispatcher.WebhookQueue quiet = dispatcher.register(webhook("quiet", 1));
+        WebhookDispatcher.WebhookQueue internal = dispatcher.register(webhook("Repl_quiet", 1));
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        blocker.submit(() -> {
+            await(release);
+            return CompletableFuture.completedFuture(null);
+        });
+        for (int i = 1; i <= 3; i++) {
+            String name = "busy" + i;
+            busy.submit(() -> add(order, name));
+        }
+        quiet.submit(() -> add(order, "quiet"));
+        CountDownLatch internalDone = new CountDownLatch(1);
+        internal.submit(() -> {
+            internalDone.countDown();
+            return CompletableFuture.completedFuture(null);
+        });
+        assertTrue(internalDone.await(5, TimeUnit.SECONDS));
+        assertTrue(order.isEmpty());
+        release.countDown();
+        busy.close(5, TimeUnit.SECONDS);
+        quiet.close(5, TimeUnit.SECONDS);
+        assertEquals(4, order.size());
+        assertEquals("busy1", order.get(0));
+        assertEquals("quiet", order.get(1));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testClosed() throws Exception {
+        WebhookDispatcher dispatcher = new WebhookDispatcher();
+        WebhookDispatcher.WebhookQueue queue = dispatcher.register(webhook("testClosed", 1));
+        queue.close(1, TimeUnit.SECONDS);
+        queue.submit(() -> CompletableFuture.completedFuture(null));
+    }
+
+    private static CompletableFuture<?> add(List<String> order, String name) {
+        order.add(name);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
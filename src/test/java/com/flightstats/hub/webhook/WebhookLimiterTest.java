@@ -0,0 +1,101 @@
+package com.flightstats.hub.webhook;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WebhookLimiterTest {
+
+    @Test
+    public void testIncreaseAndDecrease() {
+        WebhookLimiter limiter = new WebhookLimiter("testLimiter", 8);
+        assertEquals(8, limiter.getLimit());
+        limiter.failure();
+        assertEquals(4, limiter.getLimit());
+        limiter.failure();
+        assertEquals(2, limiter.getLimit());
+        for (int i = 0; i < 3; i++) {
+            limiter.success(10);
+        }
+        assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limiter.success(10);
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(WebhookLimiter.Circuit.CLOSED, limiter.getCircuit());
+    }
+
+    @Test
+    public void testSlowResponses() {
+        WebhookLimiter limiter = new WebhookLimiter("testLimiter", 8);
+        limiter.success(10);
+        limiter.success(100);
+        assertEquals(7, limiter.getLimit());
+        limiter.success(100);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void testCircuit() throws Exception {
+        WebhookLimiter limiter = new WebhookLimiter("testLimiter", 4, 100);
+        for (int i = 0; i < 9; i++) {
+            limiter.failure();
+        }
+        assertEquals(WebhookLimiter.Circuit.CLOSED, limiter.getCircuit());
+        assertEquals(0, limiter.tryCall());
+        limiter.failure();
+        assertEquals(WebhookLimiter.Circuit.OPEN, limiter.getCircuit());
+        assertEquals(1, limiter.getLimit());
+        assertTrue(limiter.tryCall() > 0);
+
+        Thread.sleep(150);
+        assertEquals(0, limiter.tryCall());
+        assertEquals(WebhookLimiter.Circuit.HALF_OPEN, limiter.getCircuit());
+        assertTrue(limiter.tryCall() > 0);
+        limiter.failure();
+        assertEquals(WebhookLimiter.Circuit.OPEN, limiter.getCircuit());
+
+        Thread.sleep(150);
+        assertEquals(0, limiter.tryCall());
+        limiter.success(10);
+        assertEquals(WebhookLimiter.Circuit.CLOSED, limiter.getCircuit());
+        assertEquals(0, limiter.tryCall());
+        assertEquals(0, limiter.getStatus().getErrorRate(), 0.001);
+    }
+
+    @Test
+    public void testSuccessWhileOpen() throws Exception {
+        WebhookLimiter limiter = new WebhookLimiter("testLimiter", 4, 100);
+        for (int i = 0; i < 10; i++) {
+            limiter.failure();
+        }
+        assertEquals(WebhookLimiter.Circuit.OPEN, limiter.getCircuit());
+        limiter.success(10);
+        assertEquals("a call already in flight does not close the circuit", WebhookLimiter.Circuit.OPEN, limiter.getCircuit());
+        assertEquals(1, limiter.getLimit());
+        assertTrue(limiter.tryCall() > 0);
+
+        Thread.sleep(150);
+        assertEquals(0, limiter.tryCall());
+        assertEquals(WebhookLimiter.Circuit.HALF_OPEN, limiter.getCircuit());
+        limiter.success(10);
+        assertEquals(WebhookLimiter.Circuit.CLOSED, limiter.getCircuit());
+    }
+
+    @Test
+    public void testErrorRateWindow() {
+        WebhookLimiter limiter = new WebhookLimiter("testLimiter", 4);
+        for (int i = 0; i < 20; i++) {
+            limiter.success(10);
+            if (i % 3 == 0) {
+                limiter.failure();
+            }
+        }
+        assertEquals(WebhookLimiter.Circuit.CLOSED, limiter.getCircuit());
+        WebhookStatus.LimiterStatus status = limiter.getStatus();
+        assertEquals(4, status.getMaxLimit());
+        assertEquals("CLOSED", status.getCircuit());
+        assertTrue(status.getErrorRate() > 0.2);
+        assertTrue(status.getErrorRate() < 0.5);
+    }
+}
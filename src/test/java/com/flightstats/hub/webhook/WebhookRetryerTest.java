@@ -0,0 +1,143 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.RecurringTrace;
+import com.flightstats.hub.util.TimeUtil;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class WebhookRetryerTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Leadership leadership = new Leadership();
+    private volatile IntUnaryOperator statusByCall;
+    private Server server;
+    private WebhookClient client;
+    private String callbackUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server(0);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+                response.setStatus(statusByCall.applyAsInt(calls.incrementAndGet()));
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+        callbackUrl = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/callback";
+        client = new WebhookClient();
+        client.start();
+        leadership.setLeadership(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.stop();
+        server.stop();
+    }
+
+    private WebhookRetryer createRetryer(int ttlMinutes) {
+        return createRetryer(ttlMinutes, new WebhookLimiter("testRetryer", 1));
+    }
+
+    private WebhookRetryer createRetryer(int ttlMinutes, WebhookLimiter limiter) {
+        Webhook webhook = Webhook.builder().name("testRetryer").callbackUrl(callbackUrl).channelUrl("http://hub/channel/test")
+                .maxWaitMinutes(1).ttlMinutes(ttlMinutes).build();
+        return new WebhookRetryer(webhook, mock(WebhookError.class), leadership, client, limiter);
+    }
+
+    @Test
+    public void testWait() {
+        assertEquals(2000, WebhookRetryer.getWait(1, 60 * 1000));
+        assertEquals(8000, WebhookRetryer.getWait(3, 60 * 1000));
+        assertEquals(60 * 1000, WebhookRetryer.getWait(10, 60 * 1000));
+        assertEquals(60 * 1000, WebhookRetryer.getWait(5000, 60 * 1000));
+    }
+
+    @Test
+    public void testSuccess() throws Exception {
+        statusByCall = call -> 200;
+        assertTrue(call(createRetryer(0)));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        statusByCall = call -> call == 1 ? 500 : 200;
+        assertTrue(call(createRetryer(0)));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testLostLeadership() throws Exception {
+        statusByCall = call -> {
+            leadership.setLeadership(false);
+            return 500;
+        };
+        assertFalse(call(createRetryer(0)));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        statusByCall = call -> 500;
+        WebhookRetryer retryer = createRetryer(0);
+        CompletableFuture<Boolean> future = retryer.call(new ContentKey(), "{}", new RecurringTrace("test"));
+        while (calls.get() == 0) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        retryer.stop();
+        assertFalse(future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCircuitOpen() throws Exception {
+        statusByCall = call -> 200;
+        WebhookLimiter limiter = new WebhookLimiter("testRetryer", 1, 500);
+        for (int i = 0; i < 20; i++) {
+            limiter.failure();
+        }
+        long start = System.currentTimeMillis();
+        assertTrue(call(createRetryer(0, limiter)));
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertEquals(1, calls.get());
+        assertEquals(WebhookLimiter.Circuit.CLOSED, limiter.getCircuit());
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        statusByCall = call -> 200;
+        ContentKey old = new ContentKey(TimeUtil.now().minusMinutes(2), "A");
+        try {
+            createRetryer(1).call(old, "{}", new RecurringTrace("test")).get(1, TimeUnit.SECONDS);
+            fail("expected ItemExpiredException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ItemExpiredException);
+        }
+        assertEquals(0, calls.get());
+    }
+
+    private boolean call(WebhookRetryer retryer) throws Exception {
+        return retryer.call(new ContentKey(), "{}", new RecurringTrace("test")).get(10, TimeUnit.SECONDS);
+    }
+}
@@ -108,5 +108,18 @@ public class WebhookTest {
 
     }
 
-
-}
\ No newline at end of file
+    @Test
+    public void testItems() {
+        String json = "{\"callbackUrl\":\"end\",\"channelUrl\":\"url\",\"batch\":\"ITEMS\"," +
+                "\"maxItems\":10,\"inline\":true}";
+        Webhook items = Webhook.fromJson(json).withDefaults();
+        assertTrue(items.isItems());
+        assertTrue(items.isInline());
+        assertEquals(10, (int) items.getMaxItems());
+        assertEquals(1024 * 1024, (int) items.getMaxBytes());
+        assertEquals(1000, (int) items.getLingerMillis());
+        Webhook cycled = Webhook.fromJson(items.toJson());
+        assertFalse(items.isChanged(cycled));
+        assertTrue(items.isChanged(cycled.withMaxItems(20)));
+    }
+}